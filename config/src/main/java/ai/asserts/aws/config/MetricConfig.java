@@ -38,6 +38,11 @@ public class MetricConfig {
     private String name;
     private Integer scrapeInterval;
     private Set<MetricStat> stats;
+    /**
+     * Names of the dimensions of the metric. Only used when the namespace uses a <code>SEARCH</code> expression,
+     * to restrict the search to this dimension set and to map the results back to their dimension values.
+     */
+    private List<String> dimensions;
 
     @JsonIgnore
     public Integer getEffectiveScrapeInterval() {
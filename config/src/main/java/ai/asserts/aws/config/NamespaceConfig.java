@@ -48,6 +48,11 @@ public class NamespaceConfig {
     private Map<String, PatternMatcher> dimensionFilterPattern;
 
     private Map<String, Set<String>> tagFilters;
+    /**
+     * When set, the metrics are fetched with a <code>SEARCH</code> expression per metric and stat instead of
+     * discovering every metric through <code>ListMetrics</code> and querying each one individually.
+     */
+    private boolean useSearchExpression;
     private List<MetricConfig> metrics;
     private List<LogScrapeConfig> logs;
 
@@ -61,6 +66,9 @@ public class NamespaceConfig {
         } else if (period != null && (period < 60 || period % 60 != 0)) {
             errors.add(format("namespace[%d].period has to be a multiple of 60", index));
         }
+        if (useSearchExpression && hasTagFilters()) {
+            errors.add(format("namespace[%d].useSearchExpression can not be combined with tagFilters", index));
+        }
         if (errors.size() > 0) {
             throw new RuntimeException(String.join("\n", errors));
         }
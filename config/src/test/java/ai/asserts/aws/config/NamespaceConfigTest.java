@@ -67,6 +67,19 @@ public class NamespaceConfigTest extends EasyMockSupport {
         assertThrows(RuntimeException.class, () -> namespaceConfig.validate(0));
     }
 
+    @Test
+    void validate_searchExpressionWithTagFilters() {
+        NamespaceConfig namespaceConfig = NamespaceConfig.builder()
+                .name("AWS/Lambda")
+                .useSearchExpression(true)
+                .tagFilters(ImmutableMap.of("tag", ImmutableSet.of("value")))
+                .build();
+        assertThrows(RuntimeException.class, () -> namespaceConfig.validate(0));
+
+        namespaceConfig.setTagFilters(null);
+        namespaceConfig.validate(0);
+    }
+
     @Test
     void validate_cascadeValidationCalls() {
         MetricConfig mockMetricConfig = mock(MetricConfig.class);
@@ -7,36 +7,114 @@ package ai.asserts.aws;
 import ai.asserts.aws.account.AccountTenantMapper;
 import ai.asserts.aws.exporter.BasicMetricCollector;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
+import io.prometheus.client.Histogram;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
-import static ai.asserts.aws.MetricNameUtil.ASSERTS_ERROR_TYPE;
+import static ai.asserts.aws.MetricNameUtil.API_LATENCY_METRIC;
 import static ai.asserts.aws.MetricNameUtil.ASSERTS_CUSTOMER;
+import static ai.asserts.aws.MetricNameUtil.ASSERTS_ERROR_TYPE;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_ACCOUNT_ID_LABEL;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_ERROR_COUNT_METRIC;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_LATENCY_METRIC;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_OPERATION_LABEL;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_REGION_LABEL;
 import static ai.asserts.aws.MetricNameUtil.TENANT;
-import static java.lang.String.format;
-import static java.util.stream.Collectors.joining;
 
+/**
+ * Rate limits the AWS API calls per account, region and API. Each API starts at its default rate, which is lowered
+ * when AWS throttles calls and restored as calls succeed again, see {@link AdaptiveRateLimiter}. Calls to a service
+ * that keeps failing in an account and region are rejected by a {@link CircuitBreaker} until the service recovers, so
+ * that broken accounts do not hold up the threads scraping the healthy ones.
+ * <p>
+ * Calls made from a task submitted through {@link #call(TaskPriority, Callable)} acquire their permits with the
+ * priority of the task. Other calls are treated as {@link TaskPriority#METADATA} calls.
+ * <p>
+ * The latency of the calls is recorded in a histogram per account, region and API. The histogram children are bound
+ * once per API, so recording the latency of a call does not allocate. The latency is also still recorded in the
+ * deprecated <code>aws_exporter_milliseconds</code> sum and count with the labels of the caller, so that existing
+ * dashboards keep working while they move to the histogram. It will be removed in a later release.
+ */
 @Slf4j
 @SuppressWarnings("UnstableApiUsage")
 public class AWSApiCallRateLimiter {
+    /**
+     * Default rates of the APIs whose quota differs from <code>aws_exporter.aws_api_calls_rate_limit</code>. These
+     * are kept below the documented quotas as the quotas are shared with other clients in the account.
+     */
+    static final Map<String, Double> DEFAULT_RATE_LIMITS = ImmutableSortedMap
+            .<String, Double>orderedBy(String.CASE_INSENSITIVE_ORDER)
+            .put("CloudWatchClient/getMetricData", 40.0D)
+            .put("CloudWatchClient/listMetrics", 20.0D)
+            .put("CloudWatchClient/describeAlarms", 8.0D)
+            .put("CloudWatchLogsClient/filterLogEvents", 4.0D)
+            .put("EcsClient/describeClusters", 15.0D)
+            .put("EcsClient/describeServices", 15.0D)
+            .put("EcsClient/describeTaskDefinition", 15.0D)
+            .put("EcsClient/describeTasks", 15.0D)
+            .put("EcsClient/listClusters", 15.0D)
+            .put("EcsClient/listServices", 15.0D)
+            .put("EcsClient/listTasks", 15.0D)
+            .put("Ec2Client/describeInstances", 15.0D)
+            .put("Ec2Client/describeSubnets", 15.0D)
+            .put("Ec2Client/describeVolumes", 15.0D)
+            .put("ResourceGroupsTaggingApiClient/getResources", 2.0D)
+            .put("ElasticLoadBalancingClient/describeLoadBalancers", 2.0D)
+            .put("ElasticLoadBalancingClient/describeTags", 2.0D)
+            .put("ElasticLoadBalancingV2Client/describeListeners", 2.0D)
+            .put("ElasticLoadBalancingV2Client/describeLoadBalancers", 2.0D)
+            .put("ElasticLoadBalancingV2Client/describeRules", 2.0D)
+            .put("ElasticLoadBalancingClientV2/describeRules", 2.0D)
+            .put("ElasticLoadBalancingV2Client/describeTargetGroups", 2.0D)
+            .put("ElasticLoadBalancingV2Client/describeTargetHealth", 2.0D)
+            .build();
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0D;
     private final BasicMetricCollector metricCollector;
     private final AccountTenantMapper accountTenantMapper;
     private final double defaultRateLimit;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMillis;
+    private final long breakerMaxOpenMillis;
+
+    private final ThreadLocal<TaskPriority> taskPriority = ThreadLocal.withInitial(() -> TaskPriority.METADATA);
 
-    private final ThreadLocal<Map<String, Integer>> apiCallCounts = ThreadLocal.withInitial(TreeMap::new);
+    private final Map<String, AdaptiveRateLimiter> rateLimiters = new ConcurrentHashMap<>();
 
-    private final Map<String, RateLimiter> rateLimiters = new HashMap<>();
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    private final Histogram apiLatency = Histogram.build()
+            .name(API_LATENCY_METRIC)
+            .help("Latency of the AWS API calls")
+            .labelNames(SCRAPE_ACCOUNT_ID_LABEL, SCRAPE_REGION_LABEL, SCRAPE_OPERATION_LABEL, ASSERTS_CUSTOMER)
+            .buckets(0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .create();
+
+    private final Map<String, Histogram.Child> latencyChildren = new ConcurrentHashMap<>();
+
+    /**
+     * Used only by the async calls to retry acquiring a permit later instead of blocking a thread
+     */
+    private final Supplier<ScheduledExecutorService> scheduler = Suppliers.memoize(() ->
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("aws-api-rate-limit-scheduler")));
 
     @VisibleForTesting
     public AWSApiCallRateLimiter(BasicMetricCollector metricCollector, AccountTenantMapper accountTenantMapper) {
@@ -45,9 +123,18 @@ public class AWSApiCallRateLimiter {
 
     public AWSApiCallRateLimiter(BasicMetricCollector metricCollector, AccountTenantMapper accountTenantMapper,
                                  double defaultRateLimit) {
+        this(metricCollector, accountTenantMapper, defaultRateLimit, 5, 30, 600);
+    }
+
+    public AWSApiCallRateLimiter(BasicMetricCollector metricCollector, AccountTenantMapper accountTenantMapper,
+                                 double defaultRateLimit, int breakerFailureThreshold, long breakerOpenSeconds,
+                                 long breakerMaxOpenSeconds) {
         this.metricCollector = metricCollector;
         this.accountTenantMapper = accountTenantMapper;
         this.defaultRateLimit = defaultRateLimit;
+        this.breakerFailureThreshold = breakerFailureThreshold;
+        this.breakerOpenMillis = TimeUnit.SECONDS.toMillis(breakerOpenSeconds);
+        this.breakerMaxOpenMillis = TimeUnit.SECONDS.toMillis(breakerMaxOpenSeconds);
     }
 
     public <K extends AWSAPICall<V>, V> V doWithRateLimit(String api, SortedMap<String, String> labels, K k) {
@@ -55,64 +142,259 @@ public class AWSApiCallRateLimiter {
         String region = labels.get(SCRAPE_REGION_LABEL);
         String regionKey = accountId + "/" + region;
         String fullKey = regionKey + "/" + api;
-        RateLimiter rateLimiter = rateLimiters.computeIfAbsent(fullKey, s -> RateLimiter.create(defaultRateLimit));
-        long tick = System.currentTimeMillis();
         String tenantName = accountTenantMapper.getTenantName(labels.get(SCRAPE_ACCOUNT_ID_LABEL));
+        AdaptiveRateLimiter rateLimiter = getRateLimiter(fullKey, api, accountId, region, tenantName);
+        CircuitBreaker circuitBreaker = getCircuitBreaker(api, accountId, region, tenantName);
+        if (!circuitBreaker.tryAcquire()) {
+            throw circuitBreakerOpen(fullKey);
+        }
+        Histogram.Child latency = getLatencyChild(fullKey, api, accountId, region, tenantName);
+        long tick = System.nanoTime();
         try {
-            double waitTime = rateLimiter.acquire();
+            double waitTime = rateLimiter.acquire(taskPriority.get());
             if (waitTime > 0.5) {
                 log.warn("Operation {} throttled for {} seconds", fullKey, waitTime);
             }
-            Map<String, Integer> callCounts = apiCallCounts.get();
-            String operationName = labels.getOrDefault(SCRAPE_OPERATION_LABEL, "unknown");
-            String callCountKey = regionKey + "/" + operationName;
-            Integer count = callCounts.getOrDefault(callCountKey, 0);
-            count++;
-            callCounts.put(callCountKey, count);
-            tick = System.currentTimeMillis();
-            return k.makeCall();
+            tick = System.nanoTime();
+            V result = k.makeCall();
+            rateLimiter.onSuccess();
+            circuitBreaker.onSuccess();
+            return result;
         } catch (Throwable e) {
             log.error("Exception in: " + regionKey, e);
-            SortedMap<String, String> errorLabels = new TreeMap<>(labels);
-            errorLabels.put(ASSERTS_ERROR_TYPE, e.getClass().getSimpleName());
+            onError(rateLimiter, circuitBreaker, e);
+            recordError(labels, tenantName, e);
+            throw new RuntimeException(e);
+        } finally {
+            long elapsed = System.nanoTime() - tick;
+            latency.observe(elapsed / NANOS_PER_SECOND);
+            recordLegacyLatency(labels, tenantName, elapsed);
+        }
+    }
 
-            // In SaaS mode, we don't want the exporter internal metrics to end up in the tenant's TSDB
-            errorLabels.remove(TENANT);
+    /**
+     * Async variant of {@link #doWithRateLimit(String, SortedMap, AWSAPICall)}. Instead of blocking the calling
+     * thread in {@link RateLimiter#acquire()}, the call is started once a permit is available. If no permit is
+     * available, the attempt to acquire one is rescheduled instead of parking a thread.
+     * <p>
+     * The permit is acquired with the priority of the calling task. Calls chained from the callback of an earlier
+     * call run on the AWS SDK threads outside of any task, so they should pass the priority with
+     * {@link #doWithRateLimitAsync(TaskPriority, String, SortedMap, AWSAsyncAPICall)}.
+     * <p>
+     * Cancelling the returned future stops waiting for a permit, and cancels the request if it was already made.
+     */
+    public <V> CompletableFuture<V> doWithRateLimitAsync(String api, SortedMap<String, String> labels,
+                                                         AWSAsyncAPICall<V> call) {
+        return doWithRateLimitAsync(taskPriority.get(), api, labels, call);
+    }
+
+    public <V> CompletableFuture<V> doWithRateLimitAsync(TaskPriority priority, String api,
+                                                         SortedMap<String, String> labels,
+                                                         AWSAsyncAPICall<V> call) {
+        String accountId = labels.get(SCRAPE_ACCOUNT_ID_LABEL);
+        String region = labels.get(SCRAPE_REGION_LABEL);
+        String regionKey = accountId + "/" + region;
+        String fullKey = regionKey + "/" + api;
+        String tenantName = accountTenantMapper.getTenantName(labels.get(SCRAPE_ACCOUNT_ID_LABEL));
+        AdaptiveRateLimiter rateLimiter = getRateLimiter(fullKey, api, accountId, region, tenantName);
+        CircuitBreaker circuitBreaker = getCircuitBreaker(api, accountId, region, tenantName);
+        if (!circuitBreaker.tryAcquire()) {
+            CompletableFuture<V> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(circuitBreakerOpen(fullKey));
+            return rejected;
+        }
+
+        Histogram.Child latency = getLatencyChild(fullKey, api, accountId, region, tenantName);
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        rateLimiter.startWaiting(priority);
+        acquireAsync(fullKey, rateLimiter, priority, permit, System.currentTimeMillis(), 0);
+        long[] tick = new long[1];
+        AtomicBoolean abandoned = new AtomicBoolean();
+        AtomicReference<CompletableFuture<V>> inFlight = new AtomicReference<>();
+        CompletableFuture<V> result = permit
+                .thenCompose(ignore -> {
+                    tick[0] = System.nanoTime();
+                    CompletableFuture<V> response = call.makeCall();
+                    inFlight.set(response);
+                    if (abandoned.get()) {
+                        response.cancel(true);
+                    }
+                    return response;
+                })
+                .whenComplete((response, e) -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof CancellationException) {
+                        circuitBreaker.onCancelled();
+                        return;
+                    }
+                    if (cause != null) {
+                        log.error("Exception in: " + regionKey, cause);
+                        onError(rateLimiter, circuitBreaker, cause);
+                        recordError(labels, tenantName, cause);
+                    } else {
+                        rateLimiter.onSuccess();
+                        circuitBreaker.onSuccess();
+                    }
+                    if (tick[0] != 0) {
+                        long elapsed = System.nanoTime() - tick[0];
+                        latency.observe(elapsed / NANOS_PER_SECOND);
+                        recordLegacyLatency(labels, tenantName, elapsed);
+                    }
+                });
+        // A caller that cancels the call gives up its turn for a permit and aborts the request if it was made
+        result.whenComplete((response, e) -> {
+            if (result.isCancelled()) {
+                abandoned.set(true);
+                permit.cancel(false);
+                CompletableFuture<V> request = inFlight.get();
+                if (request != null) {
+                    request.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    private void acquireAsync(String fullKey, AdaptiveRateLimiter rateLimiter, TaskPriority priority,
+                              CompletableFuture<Void> permit, long startTime, int yields) {
+        if (permit.isCancelled()) {
+            rateLimiter.stopWaiting(priority);
+            return;
+        }
+        long retryAfter = Math.max(1, (long) (1000 / rateLimiter.getRate()));
+        if (priority == TaskPriority.METADATA && yields < AdaptiveRateLimiter.MAX_METADATA_YIELDS &&
+                rateLimiter.hasMetricsWaiting()) {
+            scheduler.get().schedule(() -> acquireAsync(fullKey, rateLimiter, priority, permit, startTime, yields + 1),
+                    retryAfter, TimeUnit.MILLISECONDS);
+        } else if (rateLimiter.tryAcquire()) {
+            rateLimiter.stopWaiting(priority);
+            long waitTime = System.currentTimeMillis() - startTime;
+            if (waitTime > 500) {
+                log.warn("Operation {} throttled for {} milliseconds", fullKey, waitTime);
+            }
+            rateLimiter.recordWait(waitTime / 1000.0D);
+            permit.complete(null);
+        } else {
+            scheduler.get().schedule(() -> acquireAsync(fullKey, rateLimiter, priority, permit, startTime, yields),
+                    retryAfter, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private AdaptiveRateLimiter getRateLimiter(String fullKey, String api, String accountId, String region,
+                                               String tenantName) {
+        return rateLimiters.computeIfAbsent(fullKey, s -> {
+            SortedMap<String, String> limiterLabels = new TreeMap<>();
+            limiterLabels.put(SCRAPE_ACCOUNT_ID_LABEL, String.valueOf(accountId));
+            limiterLabels.put(SCRAPE_REGION_LABEL, String.valueOf(region));
+            limiterLabels.put("api", api);
             if (tenantName != null) {
-                errorLabels.put(ASSERTS_CUSTOMER, tenantName);
+                limiterLabels.put(ASSERTS_CUSTOMER, tenantName);
             }
-            metricCollector.recordCounterValue(SCRAPE_ERROR_COUNT_METRIC, errorLabels, 1);
-            throw new RuntimeException(e);
-        } finally {
-            tick = System.currentTimeMillis() - tick;
+            return new AdaptiveRateLimiter(DEFAULT_RATE_LIMITS.getOrDefault(api, defaultRateLimit),
+                    ImmutableSortedMap.copyOfSorted(limiterLabels));
+        });
+    }
 
-            // In SaaS mode, we don't want the exporter internal metrics to end up in the tenant's TSDB
-            SortedMap<String, String> latencyLabels = new TreeMap<>(labels);
-            latencyLabels.remove(TENANT);
+    /**
+     * Circuit breakers are kept per service rather than per API, as an unreachable endpoint or a role that can not be
+     * assumed fails all the APIs of the service. The API names do not use a consistent case for the service name,
+     * e.g. <code>EC2Client</code> and <code>Ec2Client</code>.
+     */
+    private CircuitBreaker getCircuitBreaker(String api, String accountId, String region, String tenantName) {
+        int index = api.indexOf('/');
+        String service = index > 0 ? api.substring(0, index) : api;
+        String key = accountId + "/" + region + "/" + service.toLowerCase();
+        return circuitBreakers.computeIfAbsent(key, s -> {
+            SortedMap<String, String> breakerLabels = new TreeMap<>();
+            breakerLabels.put(SCRAPE_ACCOUNT_ID_LABEL, String.valueOf(accountId));
+            breakerLabels.put(SCRAPE_REGION_LABEL, String.valueOf(region));
+            breakerLabels.put("service", service);
             if (tenantName != null) {
-                latencyLabels.put(ASSERTS_CUSTOMER, tenantName);
+                breakerLabels.put(ASSERTS_CUSTOMER, tenantName);
             }
-            metricCollector.recordLatency(SCRAPE_LATENCY_METRIC, latencyLabels, tick);
+            return new CircuitBreaker(ImmutableSortedMap.copyOfSorted(breakerLabels), breakerFailureThreshold,
+                    breakerOpenMillis, breakerMaxOpenMillis);
+        });
+    }
+
+    private Histogram.Child getLatencyChild(String fullKey, String api, String accountId, String region,
+                                            String tenantName) {
+        return latencyChildren.computeIfAbsent(fullKey, k -> apiLatency.labels(String.valueOf(accountId),
+                String.valueOf(region), api, tenantName != null ? tenantName : ""));
+    }
+
+    private CircuitBreakerOpenException circuitBreakerOpen(String fullKey) {
+        log.debug("Circuit breaker open, skipping {}", fullKey);
+        return new CircuitBreakerOpenException("Circuit breaker open for " + fullKey);
+    }
+
+    private void onError(AdaptiveRateLimiter rateLimiter, CircuitBreaker circuitBreaker, Throwable e) {
+        if (AdaptiveRateLimiter.isThrottled(e)) {
+            rateLimiter.onThrottle();
+        }
+        if (CircuitBreaker.isEndpointFailure(e)) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    Collection<AdaptiveRateLimiter> getRateLimiters() {
+        return rateLimiters.values();
+    }
+
+    Collection<CircuitBreaker> getCircuitBreakers() {
+        return circuitBreakers.values();
+    }
+
+    Histogram getApiLatency() {
+        return apiLatency;
+    }
+
+    private void recordError(SortedMap<String, String> labels, String tenantName, Throwable e) {
+        SortedMap<String, String> errorLabels = new TreeMap<>(labels);
+        errorLabels.put(ASSERTS_ERROR_TYPE, e.getClass().getSimpleName());
+
+        // In SaaS mode, we don't want the exporter internal metrics to end up in the tenant's TSDB
+        errorLabels.remove(TENANT);
+        if (tenantName != null) {
+            errorLabels.put(ASSERTS_CUSTOMER, tenantName);
         }
+        metricCollector.recordCounterValue(SCRAPE_ERROR_COUNT_METRIC, errorLabels, 1);
+    }
+
+    /**
+     * Records the latency in milliseconds in the deprecated <code>aws_exporter_milliseconds</code> sum and count.
+     */
+    private void recordLegacyLatency(SortedMap<String, String> labels, String tenantName, long elapsedNanos) {
+        // In SaaS mode, we don't want the exporter internal metrics to end up in the tenant's TSDB
+        SortedMap<String, String> latencyLabels = new TreeMap<>(labels);
+        latencyLabels.remove(TENANT);
+        if (tenantName != null) {
+            latencyLabels.put(ASSERTS_CUSTOMER, tenantName);
+        }
+        metricCollector.recordLatency(SCRAPE_LATENCY_METRIC, latencyLabels,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
     }
 
     public <T> T call(Callable<T> callable) throws Exception {
+        return call(TaskPriority.METADATA, callable);
+    }
+
+    public <T> T call(TaskPriority priority, Callable<T> callable) throws Exception {
+        taskPriority.set(priority);
         try {
             return callable.call();
         } finally {
-            logAPICallCountsAndClear();
+            taskPriority.remove();
         }
     }
 
-    public void logAPICallCountsAndClear() {
-        log.info("AWS API Call Counts \n\n{}\n",
-                apiCallCounts.get().entrySet().stream()
-                        .map(entry -> format("%s=%s", entry.getKey(), entry.getValue()))
-                        .collect(joining("\n")));
-        apiCallCounts.get().clear();
-    }
-
     public interface AWSAPICall<V> {
         V makeCall();
     }
+
+    public interface AWSAsyncAPICall<V> {
+        CompletableFuture<V> makeCall();
+    }
 }
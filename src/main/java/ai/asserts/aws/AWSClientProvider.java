@@ -5,21 +5,33 @@ import ai.asserts.aws.exporter.AccountIDProvider;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
 import software.amazon.awssdk.core.SdkClient;
+import software.amazon.awssdk.core.client.builder.SdkClientBuilder;
+import software.amazon.awssdk.core.client.builder.SdkSyncClientBuilder;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.apigateway.ApiGatewayClient;
 import software.amazon.awssdk.services.apigateway.ApiGatewayClientBuilder;
 import software.amazon.awssdk.services.autoscaling.AutoScalingClient;
 import software.amazon.awssdk.services.autoscaling.AutoScalingClientBuilder;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClientBuilder;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClientBuilder;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
@@ -57,13 +69,12 @@ import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.SqsClientBuilder;
 import software.amazon.awssdk.services.sts.StsClient;
 import software.amazon.awssdk.services.sts.StsClientBuilder;
-import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
-import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
 
-import java.time.Instant;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.springframework.util.StringUtils.hasLength;
@@ -71,14 +82,43 @@ import static org.springframework.util.StringUtils.hasLength;
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 @Component
 @Slf4j
-public class AWSClientProvider {
+public class AWSClientProvider implements DisposableBean {
     private final AccountIDProvider accountIDProvider;
-    private final Map<AccountRegion, AWSSessionConfig> credentialCache = new ConcurrentHashMap<>();
+    private final StsCredentialCache stsCredentialCache;
     private final Cache<ClientCacheKey, SdkClient> clientCache;
+    private final int asyncEventLoopThreads;
+    private final int asyncMaxConcurrency;
+    private final int maxConnections;
+    private final long connectionMaxIdleSeconds;
+    private final boolean tcpKeepAlive;
+    private final SdkHttpMetricPublisher httpMetricPublisher = new SdkHttpMetricPublisher();
+    private final ClientOverrideConfiguration clientOverrideConfiguration = ClientOverrideConfiguration.builder()
+            .addMetricPublisher(httpMetricPublisher)
+            .build();
+    /**
+     * All the sync clients share one connection pool, so evicting a client from the cache does not close its
+     * connections and clients for the same service and region reuse the connections of other accounts.
+     */
+    private volatile SdkHttpClient httpClient;
+    /**
+     * All the async clients share one Netty event loop and connection pool. The SDK does not close an http client
+     * that is passed in to the client builder, so this outlives the eviction of individual clients from the cache.
+     * The event loop is owned by the http client and is shut down when it is closed.
+     */
+    private volatile SdkAsyncHttpClient asyncHttpClient;
 
     public AWSClientProvider(AccountIDProvider accountIDProvider) {
         this.accountIDProvider = accountIDProvider;
         Map<String, String> env = System.getenv();
+        this.asyncEventLoopThreads = Integer.parseInt(env.getOrDefault("AWS_SDK_ASYNC_EVENT_LOOP_THREADS", "4"));
+        this.asyncMaxConcurrency = Integer.parseInt(env.getOrDefault("AWS_SDK_ASYNC_MAX_CONCURRENCY", "200"));
+        this.maxConnections = Integer.parseInt(env.getOrDefault("AWS_SDK_MAX_CONNECTIONS", "200"));
+        this.connectionMaxIdleSeconds = Long.parseLong(env.getOrDefault("AWS_SDK_CONNECTION_MAX_IDLE_SECONDS", "60"));
+        this.tcpKeepAlive = Boolean.parseBoolean(env.getOrDefault("AWS_SDK_TCP_KEEP_ALIVE", "true"));
+        this.stsCredentialCache = new StsCredentialCache(this::buildStsClient,
+                env.getOrDefault("AWS_ASSUME_ROLE_SESSION_NAME", "aws-exporter"),
+                Duration.ofMinutes(Long.parseLong(env.getOrDefault("AWS_ASSUME_ROLE_REFRESH_MINUTES", "15"))),
+                Executors.newFixedThreadPool(2, new NamedThreadFactory("sts-credential-refresh")));
         this.clientCache = CacheBuilder.newBuilder()
                 .expireAfterAccess(Long.parseLong(env.getOrDefault("AWS_SDK_CLIENT_CACHE_TTL", "30")), MINUTES)
                 .removalListener(removalNotification -> {
@@ -101,8 +141,8 @@ public class AWSClientProvider {
                 .build();
         SecretsManagerClient client = (SecretsManagerClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            client = SecretsManagerClient.builder()
-                    .region(Region.of(region))
+            client = withSharedHttpClient(SecretsManagerClient.builder()
+                    .region(Region.of(region)))
                     .build();
             clientCache.put(clientCacheKey, client);
         }
@@ -117,7 +157,7 @@ public class AWSClientProvider {
                 .build();
         SqsClient client = (SqsClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            SqsClientBuilder clientBuilder = SqsClient.builder().region(Region.of(region));
+            SqsClientBuilder clientBuilder = withSharedHttpClient(SqsClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -139,7 +179,7 @@ public class AWSClientProvider {
                 .build();
         SnsClient client = (SnsClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            SnsClientBuilder clientBuilder = SnsClient.builder().region(Region.of(region));
+            SnsClientBuilder clientBuilder = withSharedHttpClient(SnsClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -161,7 +201,8 @@ public class AWSClientProvider {
                 .build();
         AutoScalingClient client = (AutoScalingClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            AutoScalingClientBuilder clientBuilder = AutoScalingClient.builder().region(Region.of(region));
+            AutoScalingClientBuilder clientBuilder =
+                    withSharedHttpClient(AutoScalingClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -183,7 +224,8 @@ public class AWSClientProvider {
                 .build();
         ApiGatewayClient client = (ApiGatewayClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            ApiGatewayClientBuilder clientBuilder = ApiGatewayClient.builder().region(Region.of(region));
+            ApiGatewayClientBuilder clientBuilder =
+                    withSharedHttpClient(ApiGatewayClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -206,7 +248,7 @@ public class AWSClientProvider {
         ElasticLoadBalancingV2Client client = (ElasticLoadBalancingV2Client) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
             ElasticLoadBalancingV2ClientBuilder clientBuilder =
-                    ElasticLoadBalancingV2Client.builder().region(Region.of(region));
+                    withSharedHttpClient(ElasticLoadBalancingV2Client.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -229,7 +271,7 @@ public class AWSClientProvider {
         ElasticLoadBalancingClient client = (ElasticLoadBalancingClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
             ElasticLoadBalancingClientBuilder clientBuilder =
-                    ElasticLoadBalancingClient.builder().region(Region.of(region));
+                    withSharedHttpClient(ElasticLoadBalancingClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -251,7 +293,33 @@ public class AWSClientProvider {
                 .build();
         CloudWatchClient client = (CloudWatchClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            CloudWatchClientBuilder clientBuilder = cloudWatchClientBuilder().region(Region.of(region));
+            CloudWatchClientBuilder clientBuilder =
+                    withSharedHttpClient(cloudWatchClientBuilder().region(Region.of(region)));
+            Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
+            if (account.getAssumeRole() != null) {
+                clientBuilder = clientBuilder.credentialsProvider(() ->
+                        getAwsSessionCredentials(region, account, credentialsOpt));
+            } else if (credentialsOpt.isPresent()) {
+                clientBuilder = clientBuilder.credentialsProvider(credentialsOpt.get());
+            }
+            client = clientBuilder.build();
+            clientCache.put(clientCacheKey, client);
+        }
+        return client;
+    }
+
+    public CloudWatchAsyncClient getCloudWatchAsyncClient(String region, AWSAccount account) {
+        ClientCacheKey clientCacheKey = ClientCacheKey.builder()
+                .region(region)
+                .accountId(account.getAccountId())
+                .clientType(CloudWatchAsyncClient.class)
+                .build();
+        CloudWatchAsyncClient client = (CloudWatchAsyncClient) clientCache.getIfPresent(clientCacheKey);
+        if (client == null) {
+            CloudWatchAsyncClientBuilder clientBuilder = cloudWatchAsyncClientBuilder()
+                    .region(Region.of(region))
+                    .httpClient(getAsyncHttpClient())
+                    .overrideConfiguration(clientOverrideConfiguration);
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -273,7 +341,7 @@ public class AWSClientProvider {
                 .build();
         LambdaClient client = (LambdaClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            LambdaClientBuilder clientBuilder = LambdaClient.builder().region(Region.of(region));
+            LambdaClientBuilder clientBuilder = withSharedHttpClient(LambdaClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -297,7 +365,7 @@ public class AWSClientProvider {
                 (ResourceGroupsTaggingApiClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
             ResourceGroupsTaggingApiClientBuilder clientBuilder =
-                    ResourceGroupsTaggingApiClient.builder().region(Region.of(region));
+                    withSharedHttpClient(ResourceGroupsTaggingApiClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -319,7 +387,7 @@ public class AWSClientProvider {
                 .build();
         EcsClient client = (EcsClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            EcsClientBuilder clientBuilder = EcsClient.builder().region(Region.of(region));
+            EcsClientBuilder clientBuilder = withSharedHttpClient(EcsClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -341,7 +409,7 @@ public class AWSClientProvider {
                 .build();
         Ec2Client client = (Ec2Client) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            Ec2ClientBuilder clientBuilder = Ec2Client.builder().region(Region.of(region));
+            Ec2ClientBuilder clientBuilder = withSharedHttpClient(Ec2Client.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -364,7 +432,7 @@ public class AWSClientProvider {
         KinesisAnalyticsV2Client client = (KinesisAnalyticsV2Client) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
             KinesisAnalyticsV2ClientBuilder clientBuilder =
-                    KinesisAnalyticsV2Client.builder().region(Region.of(region));
+                    withSharedHttpClient(KinesisAnalyticsV2Client.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -386,7 +454,8 @@ public class AWSClientProvider {
                 .build();
         FirehoseClient client = (FirehoseClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            FirehoseClientBuilder clientBuilder = FirehoseClient.builder().region(Region.of(region));
+            FirehoseClientBuilder clientBuilder =
+                    withSharedHttpClient(FirehoseClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -408,7 +477,7 @@ public class AWSClientProvider {
                 .build();
         S3Client client = (S3Client) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            S3ClientBuilder clientBuilder = S3Client.builder().region(Region.of(region));
+            S3ClientBuilder clientBuilder = withSharedHttpClient(S3Client.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -430,7 +499,8 @@ public class AWSClientProvider {
                 .build();
         DynamoDbClient client = (DynamoDbClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            DynamoDbClientBuilder clientBuilder = DynamoDbClient.builder().region(Region.of(region));
+            DynamoDbClientBuilder clientBuilder =
+                    withSharedHttpClient(DynamoDbClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -452,7 +522,8 @@ public class AWSClientProvider {
                 .build();
         RedshiftClient client = (RedshiftClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            RedshiftClientBuilder clientBuilder = RedshiftClient.builder().region(Region.of(region));
+            RedshiftClientBuilder clientBuilder =
+                    withSharedHttpClient(RedshiftClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -474,7 +545,7 @@ public class AWSClientProvider {
                 .build();
         EmrClient client = (EmrClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            EmrClientBuilder clientBuilder = EmrClient.builder().region(Region.of(region));
+            EmrClientBuilder clientBuilder = withSharedHttpClient(EmrClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -496,7 +567,8 @@ public class AWSClientProvider {
                 .build();
         KinesisClient client = (KinesisClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            KinesisClientBuilder clientBuilder = KinesisClient.builder().region(Region.of(region));
+            KinesisClientBuilder clientBuilder =
+                    withSharedHttpClient(KinesisClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -518,7 +590,7 @@ public class AWSClientProvider {
                 .build();
         RdsClient client = (RdsClient) clientCache.getIfPresent(clientCacheKey);
         if (client == null) {
-            RdsClientBuilder clientBuilder = RdsClient.builder().region(Region.of(region));
+            RdsClientBuilder clientBuilder = withSharedHttpClient(RdsClient.builder().region(Region.of(region)));
             Optional<AwsCredentialsProvider> credentialsOpt = getCredentialsProvider(account);
             if (account.getAssumeRole() != null) {
                 clientBuilder = clientBuilder.credentialsProvider(() ->
@@ -537,6 +609,107 @@ public class AWSClientProvider {
         return CloudWatchClient.builder();
     }
 
+    @VisibleForTesting
+    CloudWatchAsyncClientBuilder cloudWatchAsyncClientBuilder() {
+        return CloudWatchAsyncClient.builder();
+    }
+
+    @VisibleForTesting
+    SdkHttpClient getHttpClient() {
+        if (httpClient == null) {
+            synchronized (this) {
+                if (httpClient == null) {
+                    log.info("Creating shared http client with max connections {} and max idle time {}s",
+                            maxConnections, connectionMaxIdleSeconds);
+                    httpClient = buildHttpClient();
+                }
+            }
+        }
+        return httpClient;
+    }
+
+    /**
+     * @return The number of cached clients by client type.
+     */
+    Map<String, Long> getClientCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        clientCache.asMap().keySet().forEach(key ->
+                counts.merge(key.getClientType().getSimpleName(), 1L, Long::sum));
+        return counts;
+    }
+
+    SdkHttpMetricPublisher getHttpMetricPublisher() {
+        return httpMetricPublisher;
+    }
+
+    StsCredentialCache getStsCredentialCache() {
+        return stsCredentialCache;
+    }
+
+    @VisibleForTesting
+    ClientOverrideConfiguration getClientOverrideConfiguration() {
+        return clientOverrideConfiguration;
+    }
+
+    private <B extends SdkSyncClientBuilder<B, ?> & SdkClientBuilder<B, ?>> B withSharedHttpClient(B builder) {
+        return builder.httpClient(getHttpClient())
+                .overrideConfiguration(clientOverrideConfiguration);
+    }
+
+    @VisibleForTesting
+    SdkAsyncHttpClient getAsyncHttpClient() {
+        if (asyncHttpClient == null) {
+            synchronized (this) {
+                if (asyncHttpClient == null) {
+                    log.info("Creating shared async http client with {} event loop threads and max concurrency {}",
+                            asyncEventLoopThreads, asyncMaxConcurrency);
+                    asyncHttpClient = buildAsyncHttpClient();
+                }
+            }
+        }
+        return asyncHttpClient;
+    }
+
+    @VisibleForTesting
+    SdkHttpClient buildHttpClient() {
+        return ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionMaxIdleTime(Duration.ofSeconds(connectionMaxIdleSeconds))
+                .useIdleConnectionReaper(true)
+                .tcpKeepAlive(tcpKeepAlive)
+                .build();
+    }
+
+    @VisibleForTesting
+    SdkAsyncHttpClient buildAsyncHttpClient() {
+        return NettyNioAsyncHttpClient.builder()
+                .eventLoopGroupBuilder(SdkEventLoopGroup.builder()
+                        .numberOfThreads(asyncEventLoopThreads))
+                .maxConcurrency(asyncMaxConcurrency)
+                .build();
+    }
+
+    /**
+     * Closes the cached clients and then the shared http clients, which releases the pooled connections, the idle
+     * connection reaper and the Netty event loop threads.
+     */
+    @Override
+    public void destroy() {
+        clientCache.invalidateAll();
+        synchronized (this) {
+            if (httpClient != null) {
+                log.info("Shutting down shared http client");
+                httpClient.close();
+                httpClient = null;
+            }
+            if (asyncHttpClient != null) {
+                log.info("Shutting down shared async http client");
+                asyncHttpClient.close();
+                asyncHttpClient = null;
+            }
+        }
+    }
+
     @VisibleForTesting
     StsClientBuilder stsBuilder() {
         return StsClient.builder();
@@ -544,34 +717,15 @@ public class AWSClientProvider {
 
     private AwsSessionCredentials getAwsSessionCredentials(String region, AWSAccount account,
                                                            Optional<AwsCredentialsProvider> credentialsOpt) {
-        AccountRegion key = new AccountRegion(account, region);
-        AWSSessionConfig credentials = credentialCache.get(key);
-        if (credentials == null || credentials.getExpiring().compareTo(Instant.now()) <= 0) {
-            StsClientBuilder stsClientBuilder = stsBuilder().region(Region.of(region));
-            if (credentialsOpt.isPresent()) {
-                stsClientBuilder = stsClientBuilder.credentialsProvider(credentialsOpt.get());
-            }
-            try (StsClient build = stsClientBuilder.build()) {
-                AssumeRoleRequest.Builder reqBuilder = AssumeRoleRequest.builder()
-                        .roleSessionName("session1")
-                        .roleArn(account.getAssumeRole());
-                if (hasLength(account.getExternalId())) {
-                    reqBuilder = reqBuilder.externalId(account.getExternalId());
-                }
-                AssumeRoleResponse response = build.assumeRole(reqBuilder.build());
-                credentials = AWSSessionConfig.builder()
-                        .accessKeyId(response.credentials().accessKeyId())
-                        .secretAccessKey(response.credentials().secretAccessKey())
-                        .sessionToken(response.credentials().sessionToken())
-                        .expiring(response.credentials().expiration())
-                        .build();
-                credentialCache.put(key, credentials);
-            }
+        return stsCredentialCache.getCredentials(region, account, credentialsOpt);
+    }
+
+    private StsClient buildStsClient(String region, Optional<AwsCredentialsProvider> credentialsOpt) {
+        StsClientBuilder stsClientBuilder = withSharedHttpClient(stsBuilder().region(Region.of(region)));
+        if (credentialsOpt.isPresent()) {
+            stsClientBuilder = stsClientBuilder.credentialsProvider(credentialsOpt.get());
         }
-        return AwsSessionCredentials.create(
-                credentials.getAccessKeyId(),
-                credentials.getSecretAccessKey(),
-                credentials.getSessionToken());
+        return stsClientBuilder.build();
     }
 
     private Optional<AwsCredentialsProvider> getCredentialsProvider(AWSAccount authConfig) {
@@ -590,12 +744,4 @@ public class AWSClientProvider {
         private final String region;
         private final Class<?> clientType;
     }
-
-    @EqualsAndHashCode
-    @Getter
-    @AllArgsConstructor
-    public static class AccountRegion {
-        private final AWSAccount account;
-        private final String region;
-    }
 }
@@ -0,0 +1,197 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RateLimiter} for one AWS API in one account and region whose rate is adjusted with AIMD. The rate is
+ * halved when AWS throttles a call and grows back by a fixed step for every interval without throttling, up to the
+ * default rate of the API. The rate, the number of throttled calls and the time spent waiting for permits are
+ * exported by {@link RateLimiterExporter}.
+ * <p>
+ * A {@link TaskPriority#METADATA} caller that finds {@link TaskPriority#METRICS} callers waiting for a permit holds
+ * back for up to {@link #MAX_METADATA_YIELDS} permit intervals, so that metric scrapes get the permits first without
+ * starving the metadata calls.
+ */
+@SuppressWarnings("UnstableApiUsage")
+class AdaptiveRateLimiter {
+    static final double DECREASE_FACTOR = 0.5;
+    static final double MIN_RATE = 0.1;
+    static final long ADJUST_INTERVAL_MILLIS = 1000;
+    static final int MAX_METADATA_YIELDS = 4;
+    private static final int INCREASE_STEPS = 20;
+    private final RateLimiter rateLimiter;
+    private final SortedMap<String, String> labels;
+    private final double maxRate;
+    private final double increaseStep;
+    private final LongAdder permits = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final DoubleAdder waitSeconds = new DoubleAdder();
+    private final AtomicInteger metricsWaiting = new AtomicInteger();
+    private volatile double rate;
+    private long lastAdjusted;
+    private long lastDecreased;
+
+    AdaptiveRateLimiter(double maxRate, SortedMap<String, String> labels) {
+        this.rateLimiter = RateLimiter.create(maxRate);
+        this.labels = labels;
+        this.maxRate = maxRate;
+        this.increaseStep = maxRate / INCREASE_STEPS;
+        this.rate = maxRate;
+    }
+
+    /**
+     * @return The labels of the metrics recorded for this limiter.
+     */
+    SortedMap<String, String> getLabels() {
+        return labels;
+    }
+
+    double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return Seconds spent waiting for the permit.
+     */
+    double acquire() {
+        double waited = rateLimiter.acquire();
+        recordWait(waited);
+        return waited;
+    }
+
+    /**
+     * @return Seconds spent waiting for the permit, including the time a metadata caller held back.
+     */
+    double acquire(TaskPriority priority) {
+        if (priority == TaskPriority.METRICS) {
+            metricsWaiting.incrementAndGet();
+            try {
+                return acquire();
+            } finally {
+                metricsWaiting.decrementAndGet();
+            }
+        }
+        double yielded = 0;
+        for (int i = 0; i < MAX_METADATA_YIELDS && hasMetricsWaiting(); i++) {
+            double interval = 1.0D / rate;
+            sleep(interval);
+            yielded += interval;
+        }
+        double waited = rateLimiter.acquire() + yielded;
+        recordWait(waited);
+        return waited;
+    }
+
+    boolean tryAcquire() {
+        return rateLimiter.tryAcquire();
+    }
+
+    /**
+     * Marks a metrics caller as waiting for a permit, for callers that acquire the permit with {@link #tryAcquire()}.
+     */
+    void startWaiting(TaskPriority priority) {
+        if (priority == TaskPriority.METRICS) {
+            metricsWaiting.incrementAndGet();
+        }
+    }
+
+    void stopWaiting(TaskPriority priority) {
+        if (priority == TaskPriority.METRICS) {
+            metricsWaiting.decrementAndGet();
+        }
+    }
+
+    boolean hasMetricsWaiting() {
+        return metricsWaiting.get() > 0;
+    }
+
+    /**
+     * Records the wait for a permit acquired with {@link #tryAcquire()}.
+     */
+    void recordWait(double seconds) {
+        permits.increment();
+        waitSeconds.add(seconds);
+    }
+
+    long getPermits() {
+        return permits.sum();
+    }
+
+    long getThrottled() {
+        return throttled.sum();
+    }
+
+    double getWaitSeconds() {
+        return waitSeconds.sum();
+    }
+
+    void onSuccess() {
+        if (rate >= maxRate) {
+            return;
+        }
+        synchronized (this) {
+            long now = now();
+            if (rate < maxRate && now - lastAdjusted >= ADJUST_INTERVAL_MILLIS) {
+                setRate(Math.min(maxRate, rate + increaseStep), now);
+            }
+        }
+    }
+
+    /**
+     * Halves the rate. Calls that were already in flight when the rate was lowered are likely to be throttled too,
+     * so the rate is lowered at most once per interval.
+     */
+    synchronized void onThrottle() {
+        throttled.increment();
+        long now = now();
+        if (now - lastDecreased >= ADJUST_INTERVAL_MILLIS) {
+            lastDecreased = now;
+            setRate(Math.max(MIN_RATE, rate * DECREASE_FACTOR), now);
+        }
+    }
+
+    private void setRate(double newRate, long now) {
+        rate = newRate;
+        lastAdjusted = now;
+        rateLimiter.setRate(newRate);
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    void sleep(double seconds) {
+        Uninterruptibles.sleepUninterruptibly((long) (seconds * 1000), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Whether the call failed because AWS throttled it, e.g. with a <code>ThrottlingException</code> or a
+     * <code>TooManyRequestsException</code>.
+     */
+    static boolean isThrottled(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SdkServiceException && ((SdkServiceException) t).isThrottlingException()) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -12,6 +12,10 @@ import ai.asserts.aws.account.SingleInstanceAccountProvider;
 import ai.asserts.aws.cluster.HekateCluster;
 import ai.asserts.aws.exporter.AccountIDProvider;
 import ai.asserts.aws.exporter.BasicMetricCollector;
+import ai.asserts.aws.exporter.CachingCollectorRegistry;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -19,14 +23,28 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.Map;
+
 @Configuration
 @SuppressWarnings("unused")
 public class AwsExporterBeanConfiguration {
     @Bean
     public AWSApiCallRateLimiter getRateLimiter(BasicMetricCollector metricCollector,
                                                 AccountTenantMapper accountTenantMapper,
-                                                @Value("${aws_exporter.aws_api_calls_rate_limit:5}") double rateLimit) {
-        return new AWSApiCallRateLimiter(metricCollector, accountTenantMapper, rateLimit);
+                                                @Value("${aws_exporter.aws_api_calls_rate_limit:5}") double rateLimit,
+                                                @Value("${aws_exporter.circuit_breaker.failure_threshold:5}")
+                                                        int breakerFailureThreshold,
+                                                @Value("${aws_exporter.circuit_breaker.open_seconds:30}")
+                                                        long breakerOpenSeconds,
+                                                @Value("${aws_exporter.circuit_breaker.max_open_seconds:600}")
+                                                        long breakerMaxOpenSeconds) {
+        return new AWSApiCallRateLimiter(metricCollector, accountTenantMapper, rateLimit, breakerFailureThreshold,
+                breakerOpenSeconds, breakerMaxOpenSeconds);
+    }
+
+    @Bean
+    public CachingCollectorRegistry collectorRegistry() {
+        return new CachingCollectorRegistry();
     }
 
     @Bean
@@ -46,8 +64,17 @@ public class AwsExporterBeanConfiguration {
     }
 
     @Bean("aws-api-calls-thread-pool")
-    public TaskThreadPool awsAPICallsPool(MeterRegistry meterRegistry) {
-        return new TaskThreadPool("aws-api-calls-thread-pool", 5, meterRegistry);
+    public TaskThreadPool awsAPICallsPool(MeterRegistry meterRegistry,
+                                          @Value("${aws_exporter.metrics_priority_weight:4}") int metricsWeight,
+                                          @Value("${aws_exporter.tenant_weights:}") String tenantWeights) {
+        // Weights are given as tenant=weight pairs, e.g. acme=4,globex=2. Other tenants have a weight of 1
+        Map<String, Integer> weights = ImmutableMap.copyOf(Maps.transformValues(Splitter.on(',')
+                .omitEmptyStrings()
+                .trimResults()
+                .withKeyValueSeparator('=')
+                .split(tenantWeights), weight -> Integer.parseInt(weight.trim())));
+        return new TaskThreadPool("aws-api-calls-thread-pool", 5, metricsWeight,
+                tenant -> weights.getOrDefault(tenant, 1), meterRegistry);
     }
 
     @Bean
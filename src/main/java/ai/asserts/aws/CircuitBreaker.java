@@ -0,0 +1,139 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.annotations.VisibleForTesting;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.SortedMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A circuit breaker for the calls to one AWS service in one account and region. The breaker opens after
+ * <code>failureThreshold</code> consecutive failures and rejects calls until the open interval has passed. Then a
+ * single probe call is let through. If the probe succeeds the breaker closes, otherwise it opens again for twice the
+ * previous interval, up to <code>maxOpenMillis</code>. Only failures that suggest the endpoint or the credentials are
+ * broken are counted, see {@link #isEndpointFailure(Throwable)}.
+ */
+class CircuitBreaker {
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final SortedMap<String, String> labels;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+    private final LongAdder rejected = new LongAdder();
+    private volatile State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long currentOpenMillis;
+    private long openUntil;
+
+    CircuitBreaker(SortedMap<String, String> labels, int failureThreshold, long openMillis, long maxOpenMillis) {
+        this.labels = labels;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.currentOpenMillis = openMillis;
+    }
+
+    SortedMap<String, String> getLabels() {
+        return labels;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return Whether the call may be made. While half open, only the first caller after the open interval gets to
+     * probe the endpoint.
+     */
+    boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.OPEN && now() >= openUntil) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+        }
+        rejected.increment();
+        return false;
+    }
+
+    void onSuccess() {
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            currentOpenMillis = openMillis;
+            state = State.CLOSED;
+        }
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            currentOpenMillis = Math.min(maxOpenMillis, currentOpenMillis * 2);
+            open();
+        } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * A cancelled call says nothing about the endpoint. If it was the probe, the breaker opens again for the same
+     * interval so that a later call can probe, instead of waiting for a result that never comes.
+     */
+    synchronized void onCancelled() {
+        if (state == State.HALF_OPEN) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = now() + currentOpenMillis;
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return Whether the call failed because the endpoint could not be reached, failed on the server side or
+     * rejected the credentials. Throttling is handled by {@link AdaptiveRateLimiter} and errors in the request itself
+     * show that the endpoint is working.
+     */
+    static boolean isEndpointFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SdkServiceException) {
+                SdkServiceException serviceException = (SdkServiceException) t;
+                int statusCode = serviceException.statusCode();
+                return !serviceException.isThrottlingException() &&
+                        (statusCode >= 500 || statusCode == 401 || statusCode == 403);
+            }
+            if (t instanceof SdkClientException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+}
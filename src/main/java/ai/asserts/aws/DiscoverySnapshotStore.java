@@ -0,0 +1,546 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.cloudwatch.query.MetricQuery;
+import ai.asserts.aws.model.MetricStat;
+import ai.asserts.aws.resource.Resource;
+import ai.asserts.aws.resource.ResourceType;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Suppliers;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.ecs.model.ContainerDefinition;
+import software.amazon.awssdk.services.ecs.model.LogConfiguration;
+import software.amazon.awssdk.services.ecs.model.TaskDefinition;
+import software.amazon.awssdk.services.resourcegroupstaggingapi.model.Tag;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Persists the results of the expensive discovery calls to a local snapshot file so that a restarted exporter can
+ * serve from them right away instead of redoing all the discovery before it exports anything. The snapshot has
+ * <ul>
+ *     <li>The discovered metrics of each (account, region, namespace)</li>
+ *     <li>The tag filtered resources of each (account, region, namespace)</li>
+ *     <li>The ECS task definitions by ARN</li>
+ * </ul>
+ * The components update their section as they discover, and the snapshot is written periodically when something has
+ * changed, and once more on shutdown. The file is a versioned binary format, written to a temporary file and
+ * atomically moved in place. It is memory-mapped when loaded. A snapshot with an unknown version is ignored. The
+ * restored entries are only a starting point, the components still revalidate them in the background on their usual
+ * schedule.
+ * <p>
+ * The task definitions that have not been used for <code>aws_exporter.discovery_snapshot.task_definition_ttl_minutes
+ * </code> are dropped from the snapshot, so that the revisions of deregistered task definitions don't pile up.
+ * <p>
+ * Disabled unless <code>aws_exporter.discovery_snapshot_path</code> is set.
+ */
+@Component
+@Slf4j
+public class DiscoverySnapshotStore implements DisposableBean {
+    static final int MAGIC = 0x41574453;
+    static final int VERSION = 1;
+
+    private final Path snapshotPath;
+    private final Map<String, List<SnapshotQuery>> metricQueries = new ConcurrentHashMap<>();
+    private final Map<String, Set<Resource>> resources = new ConcurrentHashMap<>();
+    private final Map<String, TaskDefinition> taskDefinitions = new ConcurrentHashMap<>();
+    private final Map<String, Long> taskDefinitionsLastUsed = new ConcurrentHashMap<>();
+    private final long taskDefinitionTtlMillis;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final Supplier<Boolean> loaded = Suppliers.memoize(this::load);
+
+    @VisibleForTesting
+    public DiscoverySnapshotStore(String snapshotPath) {
+        this(snapshotPath, 1440);
+    }
+
+    @Autowired
+    public DiscoverySnapshotStore(@Value("${aws_exporter.discovery_snapshot_path:}") String snapshotPath,
+                                  @Value("${aws_exporter.discovery_snapshot.task_definition_ttl_minutes:1440}")
+                                          int taskDefinitionTtlMinutes) {
+        this.snapshotPath = StringUtils.hasLength(snapshotPath) ? Paths.get(snapshotPath) : null;
+        this.taskDefinitionTtlMillis = TimeUnit.MINUTES.toMillis(taskDefinitionTtlMinutes);
+    }
+
+    public boolean isEnabled() {
+        return snapshotPath != null;
+    }
+
+    public static String key(String account, String region, String namespace) {
+        return account + "|" + region + "|" + namespace;
+    }
+
+    public Optional<List<SnapshotQuery>> getMetricQueries(String key) {
+        return isEnabled() && loaded.get() ? Optional.ofNullable(metricQueries.get(key)) : Optional.empty();
+    }
+
+    public void putMetricQueries(String key, List<MetricQuery> queries) {
+        if (isEnabled()) {
+            loaded.get();
+            metricQueries.put(key, queries.stream()
+                    .filter(query -> !query.isSearchQuery())
+                    .map(query -> SnapshotQuery.builder()
+                            .metricName(query.getMetricConfig().getName())
+                            .stat(query.getMetricStat())
+                            .metric(query.getMetric())
+                            .resource(query.getResource())
+                            .build())
+                    .collect(Collectors.toList()));
+            dirty.set(true);
+        }
+    }
+
+    public void removeMetricQueries(String key) {
+        if (isEnabled() && loaded.get() && metricQueries.remove(key) != null) {
+            dirty.set(true);
+        }
+    }
+
+    public Optional<Set<Resource>> getResources(String key) {
+        return isEnabled() && loaded.get() ? Optional.ofNullable(resources.get(key)) : Optional.empty();
+    }
+
+    public void putResources(String key, Set<Resource> discovered) {
+        if (isEnabled()) {
+            loaded.get();
+            resources.put(key, discovered);
+            dirty.set(true);
+        }
+    }
+
+    public Optional<TaskDefinition> getTaskDefinition(String arn) {
+        if (!isEnabled() || !loaded.get()) {
+            return Optional.empty();
+        }
+        markTaskDefinitionUsed(arn);
+        return Optional.ofNullable(taskDefinitions.get(arn));
+    }
+
+    public void putTaskDefinition(String arn, TaskDefinition taskDefinition) {
+        if (isEnabled()) {
+            loaded.get();
+            taskDefinitions.put(arn, taskDefinition);
+            taskDefinitionsLastUsed.put(arn, now());
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Keeps the task definition in the snapshot. To be called when a task definition is served from a cache in front
+     * of the store.
+     */
+    public void markTaskDefinitionUsed(String arn) {
+        if (isEnabled()) {
+            taskDefinitionsLastUsed.computeIfPresent(arn, (k, lastUsed) -> now());
+        }
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    void pruneTaskDefinitions() {
+        long cutoff = now() - taskDefinitionTtlMillis;
+        taskDefinitionsLastUsed.forEach((arn, lastUsed) -> {
+            if (lastUsed < cutoff && taskDefinitionsLastUsed.remove(arn, lastUsed)) {
+                taskDefinitions.remove(arn);
+                dirty.set(true);
+            }
+        });
+    }
+
+    @SuppressWarnings("unused")
+    @Scheduled(fixedRateString = "${aws_exporter.discovery_snapshot.task.fixedDelay:300000}",
+            initialDelayString = "${aws_exporter.discovery_snapshot.task.initialDelay:300000}")
+    public void flush() {
+        if (!isEnabled()) {
+            return;
+        }
+        pruneTaskDefinitions();
+        if (!dirty.compareAndSet(true, false)) {
+            return;
+        }
+        Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            write(out);
+        } catch (Exception e) {
+            log.error("Failed to write discovery snapshot to {}", tempPath, e);
+            dirty.set(true);
+            return;
+        }
+        try {
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Wrote discovery snapshot to {}", snapshotPath);
+        } catch (Exception e) {
+            log.error("Failed to move discovery snapshot to {}", snapshotPath, e);
+            dirty.set(true);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // Don't lose what was discovered since the last periodic flush
+        flush();
+    }
+
+    private boolean load() {
+        if (!Files.exists(snapshotPath)) {
+            log.info("No discovery snapshot found at {}", snapshotPath);
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+            read(in);
+            log.info("Loaded discovery snapshot from {} with {} metric units, {} resource units and {} " +
+                    "task definitions", snapshotPath, metricQueries.size(), resources.size(), taskDefinitions.size());
+        } catch (Exception e) {
+            log.error("Failed to load discovery snapshot from {}. Will discover from scratch", snapshotPath, e);
+            metricQueries.clear();
+            resources.clear();
+            taskDefinitions.clear();
+            taskDefinitionsLastUsed.clear();
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        Map<String, List<SnapshotQuery>> queriesCopy = new LinkedHashMap<>(metricQueries);
+        out.writeInt(queriesCopy.size());
+        for (Map.Entry<String, List<SnapshotQuery>> entry : queriesCopy.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (SnapshotQuery query : entry.getValue()) {
+                out.writeUTF(query.getMetricName());
+                out.writeUTF(query.getStat().name());
+                writeMetric(out, query.getMetric());
+                writeResource(out, query.getResource());
+            }
+        }
+
+        Map<String, Set<Resource>> resourcesCopy = new LinkedHashMap<>(resources);
+        out.writeInt(resourcesCopy.size());
+        for (Map.Entry<String, Set<Resource>> entry : resourcesCopy.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Resource resource : entry.getValue()) {
+                writeResource(out, resource);
+            }
+        }
+
+        Map<String, TaskDefinition> taskDefinitionsCopy = new LinkedHashMap<>(taskDefinitions);
+        out.writeInt(taskDefinitionsCopy.size());
+        for (Map.Entry<String, TaskDefinition> entry : taskDefinitionsCopy.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeTaskDefinition(out, entry.getValue());
+        }
+    }
+
+    @VisibleForTesting
+    void read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a discovery snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported discovery snapshot version " + version);
+        }
+
+        int units = in.readInt();
+        for (int i = 0; i < units; i++) {
+            String key = in.readUTF();
+            int count = in.readInt();
+            List<SnapshotQuery> queries = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                queries.add(SnapshotQuery.builder()
+                        .metricName(in.readUTF())
+                        .stat(MetricStat.valueOf(in.readUTF()))
+                        .metric(readMetric(in))
+                        .resource(readResource(in))
+                        .build());
+            }
+            metricQueries.put(key, queries);
+        }
+
+        units = in.readInt();
+        for (int i = 0; i < units; i++) {
+            String key = in.readUTF();
+            int count = in.readInt();
+            Set<Resource> unitResources = new HashSet<>();
+            for (int j = 0; j < count; j++) {
+                unitResources.add(readResource(in));
+            }
+            resources.put(key, unitResources);
+        }
+
+        // The restored task definitions get a full TTL to be used again
+        long loadTime = now();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String arn = in.readUTF();
+            taskDefinitions.put(arn, readTaskDefinition(in));
+            taskDefinitionsLastUsed.put(arn, loadTime);
+        }
+    }
+
+    private void writeMetric(DataOutput out, Metric metric) throws IOException {
+        writeString(out, metric.namespace());
+        writeString(out, metric.metricName());
+        List<Dimension> dimensions = metric.hasDimensions() ? metric.dimensions() : new ArrayList<>();
+        out.writeInt(dimensions.size());
+        for (Dimension dimension : dimensions) {
+            out.writeUTF(dimension.name());
+            out.writeUTF(dimension.value());
+        }
+    }
+
+    private Metric readMetric(DataInput in) throws IOException {
+        Metric.Builder builder = Metric.builder()
+                .namespace(readString(in))
+                .metricName(readString(in));
+        int count = in.readInt();
+        if (count > 0) {
+            List<Dimension> dimensions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                dimensions.add(Dimension.builder()
+                        .name(in.readUTF())
+                        .value(in.readUTF())
+                        .build());
+            }
+            builder = builder.dimensions(dimensions);
+        }
+        return builder.build();
+    }
+
+    private void writeResource(DataOutput out, Resource resource) throws IOException {
+        out.writeBoolean(resource != null);
+        if (resource == null) {
+            return;
+        }
+        out.writeUTF(resource.getType().name());
+        writeString(out, resource.getId());
+        writeString(out, resource.getSubType());
+        writeString(out, resource.getName());
+        writeString(out, resource.getRegion());
+        writeString(out, resource.getAccount());
+        writeString(out, resource.getTenant());
+        writeString(out, resource.getVersion());
+        writeString(out, resource.getArn());
+        writeResource(out, resource.getChildOf());
+        List<Tag> tags = resource.getTags() != null ? resource.getTags() : new ArrayList<>();
+        out.writeInt(tags.size());
+        for (Tag tag : tags) {
+            writeTag(out, tag);
+        }
+        out.writeBoolean(resource.getEnvTag() != null);
+        if (resource.getEnvTag() != null) {
+            out.writeBoolean(resource.getEnvTag().isPresent());
+            if (resource.getEnvTag().isPresent()) {
+                writeTag(out, resource.getEnvTag().get());
+            }
+        }
+    }
+
+    private Resource readResource(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Resource.ResourceBuilder builder = Resource.builder()
+                .type(ResourceType.valueOf(in.readUTF()))
+                .id(readString(in))
+                .subType(readString(in))
+                .name(readString(in))
+                .region(readString(in))
+                .account(readString(in))
+                .tenant(readString(in))
+                .version(readString(in))
+                .arn(readString(in))
+                .childOf(readResource(in));
+        int count = in.readInt();
+        List<Tag> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(readTag(in));
+        }
+        builder = builder.tags(tags);
+        if (in.readBoolean()) {
+            builder = builder.envTag(in.readBoolean() ? Optional.of(readTag(in)) : Optional.empty());
+        }
+        return builder.build();
+    }
+
+    private void writeTag(DataOutput out, Tag tag) throws IOException {
+        writeString(out, tag.key());
+        writeString(out, tag.value());
+    }
+
+    private Tag readTag(DataInput in) throws IOException {
+        return Tag.builder()
+                .key(readString(in))
+                .value(readString(in))
+                .build();
+    }
+
+    /**
+     * Only the parts of the task definition that are used to build the scrape targets are kept
+     */
+    private void writeTaskDefinition(DataOutput out, TaskDefinition taskDefinition) throws IOException {
+        writeString(out, taskDefinition.taskDefinitionArn());
+        List<ContainerDefinition> containers = taskDefinition.hasContainerDefinitions() ?
+                taskDefinition.containerDefinitions() : new ArrayList<>();
+        out.writeInt(containers.size());
+        for (ContainerDefinition container : containers) {
+            writeString(out, container.name());
+            writeStringMap(out, container.hasDockerLabels() ? container.dockerLabels() : null);
+            LogConfiguration logConfiguration = container.logConfiguration();
+            out.writeBoolean(logConfiguration != null);
+            if (logConfiguration != null) {
+                writeString(out, logConfiguration.logDriverAsString());
+                writeStringMap(out, logConfiguration.hasOptions() ? logConfiguration.options() : null);
+            }
+        }
+    }
+
+    private TaskDefinition readTaskDefinition(DataInput in) throws IOException {
+        TaskDefinition.Builder builder = TaskDefinition.builder()
+                .taskDefinitionArn(readString(in));
+        int count = in.readInt();
+        List<ContainerDefinition> containers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ContainerDefinition.Builder container = ContainerDefinition.builder()
+                    .name(readString(in));
+            Map<String, String> dockerLabels = readStringMap(in);
+            if (dockerLabels != null) {
+                container = container.dockerLabels(dockerLabels);
+            }
+            if (in.readBoolean()) {
+                LogConfiguration.Builder logConfiguration = LogConfiguration.builder()
+                        .logDriver(readString(in));
+                Map<String, String> options = readStringMap(in);
+                if (options != null) {
+                    logConfiguration = logConfiguration.options(options);
+                }
+                container = container.logConfiguration(logConfiguration.build());
+            }
+            containers.add(container.build());
+        }
+        return builder.containerDefinitions(containers).build();
+    }
+
+    private void writeStringMap(DataOutput out, Map<String, String> map) throws IOException {
+        out.writeInt(map != null ? map.size() : -1);
+        if (map != null) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+    }
+
+    private Map<String, String> readStringMap(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+
+    private void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A discovered metric as persisted in the snapshot. The {@link MetricQuery} is rebuilt from it against the
+     * current metric configuration, with a new query id.
+     */
+    @Getter
+    @Builder
+    @EqualsAndHashCode
+    @ToString
+    public static class SnapshotQuery {
+        private final String metricName;
+        private final MetricStat stat;
+        private final Metric metric;
+        private final Resource resource;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
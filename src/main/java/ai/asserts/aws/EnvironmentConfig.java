@@ -4,6 +4,8 @@
  */
 package ai.asserts.aws;
 
+import com.google.common.annotations.VisibleForTesting;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -68,15 +70,22 @@ public class EnvironmentConfig {
     private final boolean enabled;
     private final String tenantMode;
     private final String deploymentMode;
+    private final boolean asyncApiCalls;
 
+    @VisibleForTesting
+    public EnvironmentConfig(String enabled, String tenantMode, String deploymentMode) {
+        this(enabled, tenantMode, deploymentMode, "false");
+    }
+
+    @Autowired
     public EnvironmentConfig(@Value("${aws_exporter.enabled:true}") String enabled,
                              @Value("${aws_exporter.tenant_mode:single}") String tenantMode,
-                             @Value("${aws_exporter.deployment_mode:single-tenant-single-instance}") String deploymentMode) {
-        this.enabled =
-                "true".equalsIgnoreCase(enabled) || "yes".equalsIgnoreCase(enabled) || "y".equalsIgnoreCase(
-                        enabled);
+                             @Value("${aws_exporter.deployment_mode:single-tenant-single-instance}") String deploymentMode,
+                             @Value("${aws_exporter.async_api_calls:false}") String asyncApiCalls) {
+        this.enabled = isTrue(enabled);
         this.tenantMode = tenantMode;
         this.deploymentMode = deploymentMode;
+        this.asyncApiCalls = isTrue(asyncApiCalls);
     }
 
     public boolean isDisabled() {
@@ -102,4 +111,17 @@ public class EnvironmentConfig {
     public boolean isSingleInstance() {
         return !isDistributed();
     }
+
+    /**
+     * When enabled, the CloudWatch calls for metric discovery, metric scrapes and alarms are made through the
+     * SDK async clients which share a single Netty event loop instead of blocking a thread of the
+     * <code>aws-api-calls-thread-pool</code> for each call.
+     */
+    public boolean isAsyncApiCalls() {
+        return asyncApiCalls;
+    }
+
+    private static boolean isTrue(String value) {
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value) || "y".equalsIgnoreCase(value);
+    }
 }
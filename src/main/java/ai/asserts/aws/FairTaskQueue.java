@@ -0,0 +1,142 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.function.ToIntFunction;
+
+/**
+ * A queue that hands out its elements in deficit round robin order across tenants and, within a tenant, in round robin
+ * order across accounts. Each turn a tenant gets to take as many elements as its weight before the next tenant's turn,
+ * so a tenant with many accounts does not push out the tenants with a few. Not thread safe.
+ * <p>
+ * The queue of a tenant or account is dropped as soon as it is drained. An empty queue has no deficit left to carry
+ * over, so this only bounds the state to the tenants and accounts that have work queued.
+ */
+class FairTaskQueue<T> {
+    private final ToIntFunction<String> tenantWeights;
+    private final Map<String, TenantQueue<T>> tenants = new HashMap<>();
+    private final Deque<TenantQueue<T>> activeTenants = new ArrayDeque<>();
+    private int size;
+
+    FairTaskQueue(ToIntFunction<String> tenantWeights) {
+        this.tenantWeights = tenantWeights;
+    }
+
+    void add(String tenant, String account, T element) {
+        String tenantKey = Objects.toString(tenant, "");
+        TenantQueue<T> tenantQueue = tenants.computeIfAbsent(tenantKey, TenantQueue::new);
+        if (tenantQueue.isEmpty()) {
+            activeTenants.addLast(tenantQueue);
+        }
+        tenantQueue.add(Objects.toString(account, ""), element);
+        size++;
+    }
+
+    T poll() {
+        TenantQueue<T> tenantQueue = activeTenants.peekFirst();
+        if (tenantQueue == null) {
+            return null;
+        }
+        if (tenantQueue.deficit == 0) {
+            tenantQueue.deficit = Math.max(1, tenantWeights.applyAsInt(tenantQueue.tenant));
+        }
+        T element = tenantQueue.poll();
+        tenantQueue.deficit--;
+        size--;
+        if (tenantQueue.isEmpty()) {
+            activeTenants.removeFirst();
+            tenants.remove(tenantQueue.tenant);
+        } else if (tenantQueue.deficit == 0) {
+            activeTenants.addLast(activeTenants.removeFirst());
+        }
+        return element;
+    }
+
+    boolean remove(String tenant, String account, T element) {
+        TenantQueue<T> tenantQueue = tenants.get(Objects.toString(tenant, ""));
+        if (tenantQueue == null || !tenantQueue.remove(Objects.toString(account, ""), element)) {
+            return false;
+        }
+        size--;
+        if (tenantQueue.isEmpty()) {
+            activeTenants.remove(tenantQueue);
+            tenants.remove(tenantQueue.tenant);
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @VisibleForTesting
+    int getTenantQueueCount() {
+        return tenants.size();
+    }
+
+    @VisibleForTesting
+    int getAccountQueueCount() {
+        return tenants.values().stream().mapToInt(tenantQueue -> tenantQueue.accounts.size()).sum();
+    }
+
+    private static class TenantQueue<T> {
+        private final String tenant;
+        private final Map<String, Queue<T>> accounts = new HashMap<>();
+        private final Deque<String> activeAccounts = new ArrayDeque<>();
+        private int deficit;
+
+        private TenantQueue(String tenant) {
+            this.tenant = tenant;
+        }
+
+        private void add(String account, T element) {
+            Queue<T> accountQueue = accounts.computeIfAbsent(account, k -> new ArrayDeque<>());
+            if (accountQueue.isEmpty()) {
+                activeAccounts.addLast(account);
+            }
+            accountQueue.add(element);
+        }
+
+        private T poll() {
+            String account = activeAccounts.removeFirst();
+            Queue<T> accountQueue = accounts.get(account);
+            T element = accountQueue.poll();
+            if (accountQueue.isEmpty()) {
+                accounts.remove(account);
+            } else {
+                activeAccounts.addLast(account);
+            }
+            return element;
+        }
+
+        private boolean remove(String account, T element) {
+            Queue<T> accountQueue = accounts.get(account);
+            if (accountQueue == null || !accountQueue.remove(element)) {
+                return false;
+            }
+            if (accountQueue.isEmpty()) {
+                activeAccounts.remove(account);
+                accounts.remove(account);
+            }
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return activeAccounts.isEmpty();
+        }
+    }
+}
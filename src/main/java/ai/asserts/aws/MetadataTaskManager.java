@@ -32,6 +32,11 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+/**
+ * Triggers the periodic metadata scrapes. Each task is submitted with
+ * {@link TaskThreadPool#submitSingleFlight(String, Runnable)}, so a trigger is skipped while the previous run of the
+ * same task is still queued or running.
+ */
 @Component
 @Slf4j
 public class MetadataTaskManager implements InitializingBean {
@@ -152,27 +157,27 @@ public class MetadataTaskManager implements InitializingBean {
             return;
         }
 
-        taskThreadPool.getExecutorService().submit(lambdaFunctionScraper::update);
-        taskThreadPool.getExecutorService().submit(lambdaCapacityExporter::update);
-        taskThreadPool.getExecutorService().submit(lambdaEventSourceExporter::update);
-        taskThreadPool.getExecutorService().submit(lambdaInvokeConfigExporter::update);
-        taskThreadPool.getExecutorService().submit(targetGroupLBMapProvider::update);
-        taskThreadPool.getExecutorService().submit(lbToASGRelationBuilder::updateRouting);
-        taskThreadPool.getExecutorService().submit(lbToECSRoutingBuilder);
-        taskThreadPool.getExecutorService().submit(relationExporter::update);
-        taskThreadPool.getExecutorService().submit(ec2ToEBSVolumeExporter::update);
-        taskThreadPool.getExecutorService().submit(apiGatewayToLambdaBuilder::update);
-        taskThreadPool.getExecutorService().submit(kinesisAnalyticsExporter::update);
-        taskThreadPool.getExecutorService().submit(kinesisFirehoseExporter::update);
-        taskThreadPool.getExecutorService().submit(s3BucketExporter::update);
-        taskThreadPool.getExecutorService().submit(redshiftExporter::update);
-        taskThreadPool.getExecutorService().submit(sqsQueueExporter::update);
-        taskThreadPool.getExecutorService().submit(kinesisStreamExporter::update);
-        taskThreadPool.getExecutorService().submit(loadBalancerExporter::update);
-        taskThreadPool.getExecutorService().submit(rdsExporter::update);
-        taskThreadPool.getExecutorService().submit(dynamoDBExporter::update);
-        taskThreadPool.getExecutorService().submit(snsTopicExporter::update);
-        taskThreadPool.getExecutorService().submit(emrExporter::update);
+        taskThreadPool.submitSingleFlight("LambdaFunctionScraper", lambdaFunctionScraper::update);
+        taskThreadPool.submitSingleFlight("LambdaCapacityExporter", lambdaCapacityExporter::update);
+        taskThreadPool.submitSingleFlight("LambdaEventSourceExporter", lambdaEventSourceExporter::update);
+        taskThreadPool.submitSingleFlight("LambdaInvokeConfigExporter", lambdaInvokeConfigExporter::update);
+        taskThreadPool.submitSingleFlight("TargetGroupLBMapProvider", targetGroupLBMapProvider::update);
+        taskThreadPool.submitSingleFlight("LBToASGRelationBuilder", lbToASGRelationBuilder::updateRouting);
+        taskThreadPool.submitSingleFlight("LBToECSRoutingBuilder", lbToECSRoutingBuilder);
+        taskThreadPool.submitSingleFlight("ResourceRelationExporter", relationExporter::update);
+        taskThreadPool.submitSingleFlight("EC2ToEBSVolumeExporter", ec2ToEBSVolumeExporter::update);
+        taskThreadPool.submitSingleFlight("ApiGatewayToLambdaBuilder", apiGatewayToLambdaBuilder::update);
+        taskThreadPool.submitSingleFlight("KinesisAnalyticsExporter", kinesisAnalyticsExporter::update);
+        taskThreadPool.submitSingleFlight("KinesisFirehoseExporter", kinesisFirehoseExporter::update);
+        taskThreadPool.submitSingleFlight("S3BucketExporter", s3BucketExporter::update);
+        taskThreadPool.submitSingleFlight("RedshiftExporter", redshiftExporter::update);
+        taskThreadPool.submitSingleFlight("SQSQueueExporter", sqsQueueExporter::update);
+        taskThreadPool.submitSingleFlight("KinesisStreamExporter", kinesisStreamExporter::update);
+        taskThreadPool.submitSingleFlight("LoadBalancerExporter", loadBalancerExporter::update);
+        taskThreadPool.submitSingleFlight("RDSExporter", rdsExporter::update);
+        taskThreadPool.submitSingleFlight("DynamoDBExporter", dynamoDBExporter::update);
+        taskThreadPool.submitSingleFlight("SNSTopicExporter", snsTopicExporter::update);
+        taskThreadPool.submitSingleFlight("EMRExporter", emrExporter::update);
     }
 
     @SuppressWarnings("unused")
@@ -181,10 +186,10 @@ public class MetadataTaskManager implements InitializingBean {
     @Timed(description = "Time spent scraping AWS Resource meta data from all regions", histogram = true)
     public void perMinute() {
         if (environmentConfig.isEnabled()) {
-            taskThreadPool.getExecutorService().submit(scrapeConfigProvider::update);
-            taskThreadPool.getExecutorService().submit(ecsTaskProvider);
+            taskThreadPool.submitSingleFlight("ScrapeConfigProvider", scrapeConfigProvider::update);
+            taskThreadPool.submitSingleFlight("ECSTaskProvider", ecsTaskProvider);
             if (environmentConfig.isSingleTenant()) {
-                taskThreadPool.getExecutorService().submit(ecsServiceDiscoveryExporter);
+                taskThreadPool.submitSingleFlight("ECSServiceDiscoveryExporter", ecsServiceDiscoveryExporter);
             }
         }
     }
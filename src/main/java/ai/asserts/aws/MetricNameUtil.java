@@ -16,6 +16,7 @@ import static java.lang.String.format;
 public class MetricNameUtil {
     private final ScrapeConfigProvider scrapeConfigProvider;
     private final SnakeCaseUtil snakeCaseUtil;
+    // Deprecated, replaced by API_LATENCY_METRIC. Still recorded for one release
     public static final String SCRAPE_LATENCY_METRIC = "aws_exporter_milliseconds";
     public static final String ASSERTS_ERROR_TYPE = "asserts_error_type";
     public static final String TENANT = "tenant";
@@ -29,6 +30,30 @@ public class MetricNameUtil {
     public static final String SCRAPE_NAMESPACE_LABEL = "cw_namespace";
     public static final String SCRAPE_INTERVAL_LABEL = "interval";
     public static final String EXPORTER_DELAY_SECONDS = "aws_exporter_delay_seconds";
+    public static final String GET_METRIC_DATA_BATCH_LATENCY_METRIC = "aws_exporter_get_metric_data_batch_seconds";
+    public static final String GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC = "aws_exporter_get_metric_data_batch_fill_ratio";
+    public static final String SCHEDULED_TASK_OFFSET_METRIC = "aws_exporter_scheduled_task_offset_seconds";
+    public static final String SCHEDULED_TASK_DRIFT_METRIC = "aws_exporter_scheduled_task_drift_seconds";
+    public static final String INGEST_QUEUE_DEPTH_METRIC = "aws_exporter_ingest_queue_depth";
+    public static final String INGEST_QUEUE_BYTES_METRIC = "aws_exporter_ingest_queue_bytes";
+    public static final String INGEST_DROPPED_METRIC = "aws_exporter_ingest_dropped_total";
+    public static final String INGEST_LATENCY_METRIC = "aws_exporter_ingest_queue_latency_seconds";
+    public static final String FIREHOSE_RECEIVED_BYTES_METRIC = "aws_exporter_firehose_received_bytes_total";
+    public static final String FIREHOSE_DECODED_BYTES_METRIC = "aws_exporter_firehose_decoded_bytes_total";
+    public static final String METRIC_STREAM_SERIES_DROPPED_METRIC = "aws_exporter_metric_stream_series_dropped_total";
+    public static final String RATE_LIMIT_METRIC = "aws_exporter_rate_limit";
+    public static final String RATE_LIMIT_THROTTLED_METRIC = "aws_exporter_rate_limit_throttled_total";
+    public static final String RATE_LIMIT_WAIT_METRIC = "aws_exporter_rate_limit_wait_seconds_total";
+    public static final String RATE_LIMIT_PERMITS_METRIC = "aws_exporter_rate_limit_permits_total";
+    public static final String API_LATENCY_METRIC = "aws_exporter_api_latency_seconds";
+    public static final String CIRCUIT_BREAKER_STATE_METRIC = "aws_exporter_circuit_breaker_state";
+    public static final String CIRCUIT_BREAKER_REJECTED_METRIC = "aws_exporter_circuit_breaker_rejected_total";
+    public static final String SDK_CLIENTS_METRIC = "aws_exporter_sdk_clients";
+    public static final String SDK_HTTP_CONNECTIONS_METRIC = "aws_exporter_sdk_http_connections";
+    public static final String SDK_HTTP_PENDING_ACQUIRES_METRIC = "aws_exporter_sdk_http_pending_acquires";
+    public static final String STS_REFRESHES_METRIC = "aws_exporter_sts_credential_refreshes_total";
+    public static final String STS_REFRESH_FAILURES_METRIC = "aws_exporter_sts_credential_refresh_failures_total";
+    public static final String STS_REFRESH_SECONDS_METRIC = "aws_exporter_sts_credential_refresh_seconds_total";
 
     public String exportedMetricName(Metric metric, MetricStat metricStat) {
         String namespace = metric.namespace();
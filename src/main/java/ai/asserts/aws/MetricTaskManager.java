@@ -8,10 +8,12 @@ import ai.asserts.aws.config.ScrapeConfig;
 import ai.asserts.aws.exporter.ECSServiceDiscoveryExporter;
 import ai.asserts.aws.exporter.MetricScrapeTask;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
 import io.prometheus.client.CollectorRegistry;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
@@ -19,10 +21,23 @@ import org.springframework.util.CollectionUtils;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_ACCOUNT_ID_LABEL;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_INTERVAL_LABEL;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_OPERATION_LABEL;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_REGION_LABEL;
+
+/**
+ * Triggers the {@link MetricScrapeTask}s and the {@link AlarmFetcher} once every cycle. When
+ * <code>aws_exporter.metric_scrape_stagger</code> is on, the tasks are not all started at the beginning of the cycle
+ * but each one at its own offset within the cycle using the {@link StaggeredTaskScheduler}. This spreads the
+ * <code>GetMetricData</code> calls evenly over the cycle instead of sending them in a burst. A task whose run
+ * from an earlier cycle is still in flight is skipped, see
+ * {@link TaskThreadPool#submitSingleFlight(String, String, Runnable)}.
+ */
 @Component
 @Slf4j
 public class MetricTaskManager {
@@ -34,6 +49,11 @@ public class MetricTaskManager {
     private final TaskThreadPool taskThreadPool;
     private final AlarmFetcher alarmFetcher;
     private final ECSServiceDiscoveryExporter ecsServiceDiscoveryExporter;
+    private final StaggeredTaskScheduler taskScheduler;
+    @Value("${aws.metric.scrape.manager.task.fixedDelay:60000}")
+    long cycleMillis = 60000;
+    @Value("${aws_exporter.metric_scrape_stagger:true}")
+    boolean staggerTasks = true;
     /**
      * Maintains the last scrape time for all the metrics of a given scrape interval. The scrapes are
      * not expected to happen concurrently so no need to worry about thread safety
@@ -46,7 +66,8 @@ public class MetricTaskManager {
                              ScrapeConfigProvider scrapeConfigProvider,
                              CollectorRegistry collectorRegistry, AutowireCapableBeanFactory beanFactory,
                              @Qualifier("metric-task-trigger-thread-pool") TaskThreadPool taskThreadPool,
-                             AlarmFetcher alarmFetcher, ECSServiceDiscoveryExporter ecsServiceDiscoveryExporter) {
+                             AlarmFetcher alarmFetcher, ECSServiceDiscoveryExporter ecsServiceDiscoveryExporter,
+                             StaggeredTaskScheduler taskScheduler) {
         this.environmentConfig = environmentConfig;
         this.accountProvider = accountProvider;
         this.scrapeConfigProvider = scrapeConfigProvider;
@@ -55,6 +76,7 @@ public class MetricTaskManager {
         this.taskThreadPool = taskThreadPool;
         this.alarmFetcher = alarmFetcher;
         this.ecsServiceDiscoveryExporter = ecsServiceDiscoveryExporter;
+        this.taskScheduler = taskScheduler;
     }
 
     @SuppressWarnings("unused")
@@ -67,13 +89,26 @@ public class MetricTaskManager {
         }
         if (environmentConfig.isMultiTenant() || environmentConfig.isDistributed() ||
                 ecsServiceDiscoveryExporter.isPrimaryExporter()) {
-            ExecutorService executorService = taskThreadPool.getExecutorService();
             updateScrapeTasks();
-            metricScrapeTasks.values().stream()
-                    .flatMap(map -> map.values().stream())
-                    .flatMap(map -> map.values().stream())
-                    .forEach(task -> executorService.submit(task::update));
-            executorService.submit(alarmFetcher::update);
+            long cycleStart = System.currentTimeMillis();
+            metricScrapeTasks.forEach((accountId, byRegion) -> byRegion.forEach((region, byInterval) ->
+                    byInterval.forEach((interval, task) -> submit(ImmutableSortedMap.of(
+                            SCRAPE_ACCOUNT_ID_LABEL, accountId,
+                            SCRAPE_REGION_LABEL, region,
+                            SCRAPE_INTERVAL_LABEL, String.valueOf(interval),
+                            SCRAPE_OPERATION_LABEL, "MetricScrapeTask/update"), cycleStart, task::update))));
+            submit(ImmutableSortedMap.of(SCRAPE_OPERATION_LABEL, "AlarmFetcher/update"), cycleStart,
+                    alarmFetcher::update);
+        }
+    }
+
+    private void submit(SortedMap<String, String> taskLabels, long cycleStart, Runnable task) {
+        // The operation has a fixed set of values, unlike the account, region and interval
+        String taskType = taskLabels.get(SCRAPE_OPERATION_LABEL);
+        if (staggerTasks) {
+            taskScheduler.schedule(taskThreadPool, taskLabels, taskType, cycleStart, cycleMillis, task);
+        } else {
+            taskThreadPool.submitSingleFlight(taskLabels.toString(), taskType, task);
         }
     }
 
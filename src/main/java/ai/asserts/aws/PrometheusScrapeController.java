@@ -0,0 +1,42 @@
+/*
+ *  Copyright © 2020.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.exporter.CachingCollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import lombok.AllArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the pre-rendered exposition of {@link CachingCollectorRegistry} on the path of the actuator prometheus
+ * endpoint, so that existing scrape configs keep working. The actuator endpoint has to be disabled for this mapping
+ * to take effect, see <code>management.endpoint.prometheus.enabled</code>.
+ */
+@RestController
+@AllArgsConstructor
+@SuppressWarnings("unused")
+public class PrometheusScrapeController {
+    private final CachingCollectorRegistry collectorRegistry;
+
+    @GetMapping(
+            path = "/actuator/prometheus",
+            produces = {TextFormat.CONTENT_TYPE_004}
+    )
+    public void scrape(@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                       HttpServletResponse response) throws IOException {
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        response.setContentType(TextFormat.CONTENT_TYPE_004);
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        collectorRegistry.write(response.getOutputStream(), gzip);
+    }
+}
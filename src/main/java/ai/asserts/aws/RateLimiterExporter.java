@@ -0,0 +1,96 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ai.asserts.aws.MetricNameUtil.CIRCUIT_BREAKER_REJECTED_METRIC;
+import static ai.asserts.aws.MetricNameUtil.CIRCUIT_BREAKER_STATE_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_PERMITS_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_THROTTLED_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_WAIT_METRIC;
+
+/**
+ * Exports the current rate, the permits acquired, the calls throttled by AWS and the time spent waiting for permits
+ * of every AWS API rate limiter. Also exports the state of every circuit breaker, 0 when closed, 1 when half open and
+ * 2 when open, the number of calls it rejected, and the latency histogram of the AWS API calls by account, region
+ * and operation.
+ */
+@Component
+@AllArgsConstructor
+public class RateLimiterExporter extends Collector implements InitializingBean {
+    private final AWSApiCallRateLimiter rateLimiter;
+    private final CollectorRegistry collectorRegistry;
+
+    @Override
+    public void afterPropertiesSet() {
+        register(collectorRegistry);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<Sample> rates = new ArrayList<>();
+        List<Sample> permits = new ArrayList<>();
+        List<Sample> throttled = new ArrayList<>();
+        List<Sample> waitSeconds = new ArrayList<>();
+        for (AdaptiveRateLimiter limiter : rateLimiter.getRateLimiters()) {
+            List<String> labelNames = new ArrayList<>(limiter.getLabels().keySet());
+            List<String> labelValues = new ArrayList<>(limiter.getLabels().values());
+            rates.add(new Sample(RATE_LIMIT_METRIC, labelNames, labelValues, limiter.getRate()));
+            permits.add(new Sample(RATE_LIMIT_PERMITS_METRIC, labelNames, labelValues, limiter.getPermits()));
+            throttled.add(new Sample(RATE_LIMIT_THROTTLED_METRIC, labelNames, labelValues,
+                    limiter.getThrottled()));
+            waitSeconds.add(new Sample(RATE_LIMIT_WAIT_METRIC, labelNames, labelValues, limiter.getWaitSeconds()));
+        }
+        List<MetricFamilySamples> familySamples = new ArrayList<>();
+        if (!rates.isEmpty()) {
+            familySamples.add(new MetricFamilySamples(RATE_LIMIT_METRIC, Type.GAUGE, "", rates));
+            familySamples.add(new MetricFamilySamples(RATE_LIMIT_PERMITS_METRIC, Type.COUNTER, "", permits));
+            familySamples.add(new MetricFamilySamples(RATE_LIMIT_THROTTLED_METRIC, Type.COUNTER, "", throttled));
+            familySamples.add(new MetricFamilySamples(RATE_LIMIT_WAIT_METRIC, Type.COUNTER, "", waitSeconds));
+        }
+
+        List<Sample> states = new ArrayList<>();
+        List<Sample> rejected = new ArrayList<>();
+        for (CircuitBreaker circuitBreaker : rateLimiter.getCircuitBreakers()) {
+            List<String> labelNames = new ArrayList<>(circuitBreaker.getLabels().keySet());
+            List<String> labelValues = new ArrayList<>(circuitBreaker.getLabels().values());
+            states.add(new Sample(CIRCUIT_BREAKER_STATE_METRIC, labelNames, labelValues,
+                    stateValue(circuitBreaker.getState())));
+            rejected.add(new Sample(CIRCUIT_BREAKER_REJECTED_METRIC, labelNames, labelValues,
+                    circuitBreaker.getRejected()));
+        }
+        if (!states.isEmpty()) {
+            familySamples.add(new MetricFamilySamples(CIRCUIT_BREAKER_STATE_METRIC, Type.GAUGE, "", states));
+            familySamples.add(new MetricFamilySamples(CIRCUIT_BREAKER_REJECTED_METRIC, Type.COUNTER, "", rejected));
+        }
+        for (MetricFamilySamples latency : rateLimiter.getApiLatency().collect()) {
+            if (!latency.samples.isEmpty()) {
+                familySamples.add(latency);
+            }
+        }
+        return familySamples;
+    }
+
+    private double stateValue(CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN:
+                return 2;
+            case HALF_OPEN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.collect.ImmutableList;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ai.asserts.aws.MetricNameUtil.SDK_CLIENTS_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SDK_HTTP_CONNECTIONS_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SDK_HTTP_PENDING_ACQUIRES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.STS_REFRESHES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.STS_REFRESH_FAILURES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.STS_REFRESH_SECONDS_METRIC;
+
+/**
+ * Exports the number of cached AWS SDK clients, the usage of the connection pools they share and the refreshes of
+ * assumed role credentials.
+ */
+@Component
+@AllArgsConstructor
+public class SdkClientExporter extends Collector implements InitializingBean {
+    private final AWSClientProvider awsClientProvider;
+    private final CollectorRegistry collectorRegistry;
+
+    @Override
+    public void afterPropertiesSet() {
+        register(collectorRegistry);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples> familySamples = new ArrayList<>();
+        List<Sample> clients = new ArrayList<>();
+        awsClientProvider.getClientCounts().forEach((clientType, count) ->
+                clients.add(new Sample(SDK_CLIENTS_METRIC, ImmutableList.of("client_type"),
+                        ImmutableList.of(clientType), count)));
+        if (!clients.isEmpty()) {
+            familySamples.add(new MetricFamilySamples(SDK_CLIENTS_METRIC, Type.GAUGE, "", clients));
+        }
+
+        List<Sample> connections = new ArrayList<>();
+        List<Sample> pending = new ArrayList<>();
+        List<String> connectionLabels = ImmutableList.of("http_client", "state");
+        awsClientProvider.getHttpMetricPublisher().getPoolStats().forEach((httpClient, stats) -> {
+            connections.add(new Sample(SDK_HTTP_CONNECTIONS_METRIC, connectionLabels,
+                    ImmutableList.of(httpClient, "idle"), stats.getAvailable()));
+            connections.add(new Sample(SDK_HTTP_CONNECTIONS_METRIC, connectionLabels,
+                    ImmutableList.of(httpClient, "leased"), stats.getLeased()));
+            pending.add(new Sample(SDK_HTTP_PENDING_ACQUIRES_METRIC, ImmutableList.of("http_client"),
+                    ImmutableList.of(httpClient), stats.getPending()));
+        });
+        if (!connections.isEmpty()) {
+            familySamples.add(new MetricFamilySamples(SDK_HTTP_CONNECTIONS_METRIC, Type.GAUGE, "", connections));
+            familySamples.add(new MetricFamilySamples(SDK_HTTP_PENDING_ACQUIRES_METRIC, Type.GAUGE, "", pending));
+        }
+
+        StsCredentialCache stsCredentialCache = awsClientProvider.getStsCredentialCache();
+        familySamples.add(new MetricFamilySamples(STS_REFRESHES_METRIC, Type.COUNTER, "",
+                ImmutableList.of(new Sample(STS_REFRESHES_METRIC, ImmutableList.of(), ImmutableList.of(),
+                        stsCredentialCache.getRefreshCount()))));
+        familySamples.add(new MetricFamilySamples(STS_REFRESH_FAILURES_METRIC, Type.COUNTER, "",
+                ImmutableList.of(new Sample(STS_REFRESH_FAILURES_METRIC, ImmutableList.of(), ImmutableList.of(),
+                        stsCredentialCache.getFailureCount()))));
+        familySamples.add(new MetricFamilySamples(STS_REFRESH_SECONDS_METRIC, Type.COUNTER, "",
+                ImmutableList.of(new Sample(STS_REFRESH_SECONDS_METRIC, ImmutableList.of(), ImmutableList.of(),
+                        stsCredentialCache.getRefreshSeconds()))));
+        return familySamples;
+    }
+}
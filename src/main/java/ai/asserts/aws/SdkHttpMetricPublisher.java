@@ -0,0 +1,62 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the connection pool usage last reported by each shared http client. The SDK reports it with every API call
+ * attempt, so the values are as recent as the last call made through the client.
+ */
+class SdkHttpMetricPublisher implements MetricPublisher {
+    private final Map<String, PoolStats> poolStats = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(MetricCollection metricCollection) {
+        List<Integer> available = metricCollection.metricValues(HttpMetric.AVAILABLE_CONCURRENCY);
+        List<Integer> leased = metricCollection.metricValues(HttpMetric.LEASED_CONCURRENCY);
+        if (!available.isEmpty() && !leased.isEmpty()) {
+            List<String> clientNames = metricCollection.metricValues(HttpMetric.HTTP_CLIENT_NAME);
+            List<Integer> pending = metricCollection.metricValues(HttpMetric.PENDING_CONCURRENCY_ACQUIRES);
+            poolStats.put(clientNames.isEmpty() ? "unknown" : clientNames.get(0), new PoolStats(
+                    available.get(0), leased.get(0), pending.isEmpty() ? 0 : pending.get(0)));
+        }
+        metricCollection.children().forEach(this::publish);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return The last reported pool usage by http client name, e.g. <code>Apache</code> or <code>NettyNio</code>.
+     */
+    Map<String, PoolStats> getPoolStats() {
+        return poolStats;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
+    static class PoolStats {
+        /**
+         * For the Apache client, the idle connections in the pool.
+         */
+        private final int available;
+        private final int leased;
+        private final int pending;
+    }
+}
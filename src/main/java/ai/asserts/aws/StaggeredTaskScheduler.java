@@ -0,0 +1,94 @@
+/*
+ *  Copyright © 2020.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static ai.asserts.aws.MetricNameUtil.SCHEDULED_TASK_DRIFT_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SCHEDULED_TASK_OFFSET_METRIC;
+
+/**
+ * Spreads the start of periodic tasks over their period instead of starting all of them at the same instant. Each
+ * task starts at a fixed offset from the start of the cycle. The offset is derived from the labels that identify the
+ * task, so a task keeps the same slot across cycles and restarts.
+ * <p>
+ * The offset of each task is exported as <code>aws_exporter_scheduled_task_offset_seconds</code> and the delay
+ * between the planned and the actual start as <code>aws_exporter_scheduled_task_drift_seconds</code>. Both carry the
+ * labels of the task. There is one scheduled task per account, region and interval, so these series grow with the
+ * scrape tasks themselves and not with the namespaces or metrics scraped.
+ */
+@Component
+public class StaggeredTaskScheduler {
+    private final BasicMetricCollector metricCollector;
+    private final ScheduledExecutorService scheduler;
+
+    public StaggeredTaskScheduler(BasicMetricCollector metricCollector) {
+        this.metricCollector = metricCollector;
+        this.scheduler = buildScheduler();
+    }
+
+    @VisibleForTesting
+    ScheduledExecutorService buildScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("staggered-task-scheduler"));
+    }
+
+    /**
+     * Submits the task to the pool at its offset from the start of the cycle. The task is submitted with
+     * {@link TaskThreadPool#submitSingleFlight(String, String, Runnable)}, so it is skipped if the run from an earlier
+     * cycle is still in flight.
+     *
+     * @param taskThreadPool The pool that runs the task.
+     * @param taskLabels     Labels that identify the task. Also used to derive the offset.
+     * @param taskType       The kind of task. Tags the metrics of the pool, see
+     *                       {@link TaskThreadPool#submitSingleFlight(String, String, Runnable)}.
+     * @param cycleStart     Start time of the cycle in epoch millis.
+     * @param periodMillis   Length of the cycle. The offset is always less than this.
+     * @param task           The task.
+     */
+    public void schedule(TaskThreadPool taskThreadPool, SortedMap<String, String> taskLabels, String taskType,
+                         long cycleStart, long periodMillis, Runnable task) {
+        long offset = offsetMillis(taskLabels, periodMillis);
+        long plannedStart = cycleStart + offset;
+        metricCollector.recordGaugeValue(SCHEDULED_TASK_OFFSET_METRIC, taskLabels, offset / 1000.0D);
+        Runnable timedTask = () -> {
+            metricCollector.recordHistogram(SCHEDULED_TASK_DRIFT_METRIC, taskLabels,
+                    Math.max(0, now() - plannedStart) / 1000.0D);
+            task.run();
+        };
+        String taskName = taskLabels.toString();
+        long delay = plannedStart - now();
+        if (delay <= 0) {
+            taskThreadPool.submitSingleFlight(taskName, taskType, timedTask);
+        } else {
+            Runnable submitTask = () -> taskThreadPool.submitSingleFlight(taskName, taskType, timedTask);
+            scheduler.schedule(submitTask, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @VisibleForTesting
+    long offsetMillis(SortedMap<String, String> taskLabels, long periodMillis) {
+        if (periodMillis <= 0) {
+            return 0;
+        }
+        // A hash that does not change across JVMs, so that every task keeps its slot after a restart
+        int hash = Hashing.murmur3_32().hashString(taskLabels.toString(), StandardCharsets.UTF_8).asInt();
+        return Math.floorMod(hash, periodMillis);
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.account.AWSAccount;
+import com.google.common.annotations.VisibleForTesting;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import static org.springframework.util.StringUtils.hasLength;
+
+/**
+ * Caches the credentials of assumed roles by role ARN and external ID, so a role is assumed once for all the regions
+ * it is used in. The credentials are refreshed in the background once they are within
+ * <code>refreshBeforeExpiry</code> of expiring, while the current credentials are still being served. Only one
+ * refresh of a role runs at a time, callers that need the credentials of a role being refreshed wait for the same
+ * refresh. One STS client is kept per region and source credentials.
+ */
+@Slf4j
+class StsCredentialCache {
+    private final BiFunction<String, Optional<AwsCredentialsProvider>, StsClient> stsClientFactory;
+    private final String roleSessionName;
+    private final Duration refreshBeforeExpiry;
+    private final Executor refreshExecutor;
+    private final Map<RoleKey, AWSSessionConfig> credentials = new ConcurrentHashMap<>();
+    private final Map<RoleKey, CompletableFuture<AWSSessionConfig>> refreshes = new ConcurrentHashMap<>();
+    private final Map<String, StsClient> stsClients = new ConcurrentHashMap<>();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final DoubleAdder refreshSeconds = new DoubleAdder();
+
+    StsCredentialCache(BiFunction<String, Optional<AwsCredentialsProvider>, StsClient> stsClientFactory,
+                       String roleSessionName, Duration refreshBeforeExpiry, Executor refreshExecutor) {
+        this.stsClientFactory = stsClientFactory;
+        this.roleSessionName = roleSessionName;
+        this.refreshBeforeExpiry = refreshBeforeExpiry;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    AwsSessionCredentials getCredentials(String region, AWSAccount account,
+                                         Optional<AwsCredentialsProvider> sourceCredentials) {
+        RoleKey key = new RoleKey(account.getAssumeRole(), account.getExternalId());
+        AWSSessionConfig current = credentials.get(key);
+        Instant now = now();
+        if (current == null || !current.getExpiring().isAfter(now)) {
+            try {
+                current = refresh(key, region, account, sourceCredentials).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ?
+                        (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+            }
+        } else if (!current.getExpiring().minus(refreshBeforeExpiry).isAfter(now)) {
+            refresh(key, region, account, sourceCredentials);
+        }
+        return AwsSessionCredentials.create(
+                current.getAccessKeyId(),
+                current.getSecretAccessKey(),
+                current.getSessionToken());
+    }
+
+    long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    double getRefreshSeconds() {
+        return refreshSeconds.sum();
+    }
+
+    @VisibleForTesting
+    Instant now() {
+        return Instant.now();
+    }
+
+    private CompletableFuture<AWSSessionConfig> refresh(RoleKey key, String region, AWSAccount account,
+                                                        Optional<AwsCredentialsProvider> sourceCredentials) {
+        CompletableFuture<AWSSessionConfig> refresh = new CompletableFuture<>();
+        CompletableFuture<AWSSessionConfig> inFlight = refreshes.putIfAbsent(key, refresh);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        refreshExecutor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                AWSSessionConfig assumed = assumeRole(region, account, sourceCredentials);
+                credentials.put(key, assumed);
+                refresh.complete(assumed);
+            } catch (Throwable e) {
+                log.error("Failed to assume role " + account.getAssumeRole(), e);
+                failureCount.increment();
+                refresh.completeExceptionally(e);
+            } finally {
+                refreshCount.increment();
+                refreshSeconds.add((System.nanoTime() - start) / 1_000_000_000.0D);
+                refreshes.remove(key, refresh);
+            }
+        });
+        return refresh;
+    }
+
+    private AWSSessionConfig assumeRole(String region, AWSAccount account,
+                                        Optional<AwsCredentialsProvider> sourceCredentials) {
+        StsClient stsClient = stsClients.computeIfAbsent(region + "/" + account.getAccessId(),
+                k -> stsClientFactory.apply(region, sourceCredentials));
+        AssumeRoleRequest.Builder reqBuilder = AssumeRoleRequest.builder()
+                .roleSessionName(roleSessionName)
+                .roleArn(account.getAssumeRole());
+        if (hasLength(account.getExternalId())) {
+            reqBuilder = reqBuilder.externalId(account.getExternalId());
+        }
+        AssumeRoleResponse response = stsClient.assumeRole(reqBuilder.build());
+        return AWSSessionConfig.builder()
+                .accessKeyId(response.credentials().accessKeyId())
+                .secretAccessKey(response.credentials().secretAccessKey())
+                .sessionToken(response.credentials().sessionToken())
+                .expiring(response.credentials().expiration())
+                .build();
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class RoleKey {
+        private final String roleArn;
+        private final String externalId;
+    }
+}
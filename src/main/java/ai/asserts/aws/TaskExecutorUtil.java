@@ -10,6 +10,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -31,10 +32,21 @@ public class TaskExecutorUtil {
     }
 
     public <T> Future<T> executeAccountTask(AWSAccount accountDetails, TenantTask<T> task) {
-        return taskThreadPool.getExecutorService().submit(() -> {
+        return executeAccountTask(accountDetails, TaskPriority.METADATA, task);
+    }
+
+    /**
+     * Runs the task on the <code>aws-api-calls</code> pool. Tasks of a higher priority are picked first by the pool
+     * and get their AWS API permits first, see {@link TaskThreadPool} and {@link AdaptiveRateLimiter}. Tasks of the
+     * same priority are shared fairly between the tenants and their accounts.
+     */
+    public <T> Future<T> executeAccountTask(AWSAccount accountDetails, TaskPriority priority, TenantTask<T> task) {
+        String tenant = accountDetails != null ? accountDetails.getTenant() : null;
+        String accountId = accountDetails != null ? accountDetails.getAccountId() : null;
+        return taskThreadPool.submit(priority, tenant, accountId, () -> {
             TaskExecutorUtil.accountDetails.set(accountDetails);
             try {
-                return rateLimiter.call(task);
+                return rateLimiter.call(priority, task);
             } catch (Exception e) {
                 log.error("Failed to execute tenant task for tenant:" + accountDetails, e);
                 return task.getReturnValueWhenError();
@@ -44,6 +56,31 @@ public class TaskExecutorUtil {
         });
     }
 
+    /**
+     * Same as {@link #executeAccountTask(AWSAccount, TaskPriority, TenantTask)}, but returns a
+     * {@link CompletableFuture} so that async API calls can be chained after a task that needs the account of the
+     * task, e.g. a lookup through the synchronous clients. A task that fails completes the future exceptionally.
+     */
+    public <T> CompletableFuture<T> supplyAccountTask(AWSAccount accountDetails, TaskPriority priority,
+                                                      TenantTask<T> task) {
+        String tenant = accountDetails != null ? accountDetails.getTenant() : null;
+        String accountId = accountDetails != null ? accountDetails.getAccountId() : null;
+        CompletableFuture<T> result = new CompletableFuture<>();
+        taskThreadPool.submit(priority, tenant, accountId, () -> {
+            TaskExecutorUtil.accountDetails.set(accountDetails);
+            try {
+                result.complete(rateLimiter.call(priority, task));
+            } catch (Exception e) {
+                log.error("Failed to execute tenant task for tenant:" + accountDetails, e);
+                result.completeExceptionally(e);
+            } finally {
+                TaskExecutorUtil.accountDetails.remove();
+            }
+            return null;
+        });
+        return result;
+    }
+
     public <K> void awaitAll(List<Future<K>> futures, Consumer<K> consumer) {
         futures.forEach(f -> {
             try {
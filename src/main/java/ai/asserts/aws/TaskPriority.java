@@ -0,0 +1,14 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+/**
+ * Priority class of the work done on the <code>aws-api-calls</code> pool. Metric scrapes have to complete within
+ * their scrape interval, while the discovery of resources and their relations can wait.
+ */
+public enum TaskPriority {
+    METRICS,
+    METADATA
+}
@@ -5,40 +5,251 @@
 package ai.asserts.aws;
 
 import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import io.micrometer.core.instrument.util.NamedThreadFactory;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
+/**
+ * A named, fixed size thread pool. Periodic tasks should be submitted with
+ * {@link #submitSingleFlight(String, Runnable)} so that a task that is still queued or running is not submitted
+ * again when the next trigger fires. The trigger is coalesced into the run that is in flight instead.
+ * <p>
+ * Tasks submitted with {@link #submit(TaskPriority, Callable)} wait in one lane per {@link TaskPriority}. When a
+ * thread frees up, it takes the next {@link TaskPriority#METRICS} task, except that after
+ * <code>metricsWeight</code> metric tasks in a row a waiting {@link TaskPriority#METADATA} task is run. So metadata
+ * tasks get at least a <code>1 / (metricsWeight + 1)</code> share of the pool while metric tasks are queued. Within
+ * a lane, tasks are taken in weighted round robin order across tenants and then across accounts, see
+ * {@link FairTaskQueue}, so that the latency of a tenant does not depend on the number of accounts of the others.
+ * <p>
+ * Besides the executor metrics, each pool exports
+ * <ul>
+ *     <li><code>task.pool.queue.depth</code> - Number of tasks waiting for a thread</li>
+ *     <li><code>task.pool.lane.depth</code> - Number of tasks waiting for a thread, per priority</li>
+ *     <li><code>task.pool.lane.delay</code> - Time tasks waited for a thread, per priority</li>
+ *     <li><code>task.pool.tenant.delay</code> - Time tasks waited for a thread, per tenant</li>
+ *     <li><code>task.pool.coalesced.triggers</code> - Triggers that were skipped as the task was in flight, per
+ *     task type</li>
+ *     <li><code>task.pool.task.age</code> - Time from submitting a task until it completes, per task type</li>
+ *     <li><code>task.pool.oldest.task.age</code> - Age of the oldest task in flight, in seconds</li>
+ * </ul>
+ */
 @Getter
 @Slf4j
 public class TaskThreadPool {
     private final String name;
     private final int numThreads;
     private final ExecutorService executorService;
+    @Getter(AccessLevel.NONE)
+    private final BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final MeterRegistry meterRegistry;
+    @Getter(AccessLevel.NONE)
+    private final Map<TaskPriority, FairTaskQueue<QueuedTask>> lanes = new EnumMap<>(TaskPriority.class);
+    @Getter(AccessLevel.NONE)
+    private final Map<TaskPriority, Timer> laneDelays = new EnumMap<>(TaskPriority.class);
+    @Getter(AccessLevel.NONE)
+    private final int metricsWeight;
+    @Getter(AccessLevel.NONE)
+    private int metricsInARow;
 
     public TaskThreadPool(String name, int numThreads, MeterRegistry meterRegistry) {
+        this(name, numThreads, 4, tenant -> 1, meterRegistry);
+    }
+
+    public TaskThreadPool(String name, int numThreads, int metricsWeight, ToIntFunction<String> tenantWeights,
+                          MeterRegistry meterRegistry) {
         this.name = name;
         this.numThreads = numThreads;
+        this.metricsWeight = metricsWeight;
+        this.meterRegistry = meterRegistry;
         executorService = buildExecutorService(name, numThreads, meterRegistry);
+        for (TaskPriority priority : TaskPriority.values()) {
+            lanes.put(priority, new FairTaskQueue<>(tenantWeights));
+            Gauge.builder("task.pool.lane.depth", this, pool -> pool.laneDepth(priority))
+                    .tag("pool", name)
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(meterRegistry);
+            laneDelays.put(priority, Timer.builder("task.pool.lane.delay")
+                    .tag("pool", name)
+                    .tag("priority", priority.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        Gauge.builder("task.pool.queue.depth", workQueue, Collection::size)
+                .tag("pool", name)
+                .register(meterRegistry);
+        Gauge.builder("task.pool.oldest.task.age", this, TaskThreadPool::oldestTaskAgeSeconds)
+                .tag("pool", name)
+                .baseUnit("seconds")
+                .register(meterRegistry);
     }
 
     @VisibleForTesting
     ExecutorService buildExecutorService(String name, int nThreads, MeterRegistry meterRegistry) {
         ExecutorService executorService = new ThreadPoolExecutor(nThreads, nThreads,
                 0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<>(),
+                workQueue,
                 new NamedThreadFactory(name));
         return ExecutorServiceMetrics.monitor(meterRegistry,
                 executorService, name, "",
                 Collections.emptyList());
     }
-}
 
+    /**
+     * Same as {@link #submitSingleFlight(String, String, Runnable)} with the task name as the task type. Only meant
+     * for tasks with a fixed name, as the name is used as a tag on the pool metrics.
+     */
+    public boolean submitSingleFlight(String taskName, Runnable task) {
+        return submitSingleFlight(taskName, taskName, task);
+    }
+
+    /**
+     * Submits the task unless a previous submission with the same name is still queued or running.
+     *
+     * @param taskName Identifies the task. Only one run per name is in flight at any time.
+     * @param taskType The kind of task. Tags the pool metrics, so it should take a small, fixed set of values.
+     * @param task     The task.
+     * @return <code>true</code> if the task was submitted, <code>false</code> if the trigger was coalesced into the
+     * run that is in flight.
+     */
+    public boolean submitSingleFlight(String taskName, String taskType, Runnable task) {
+        long submittedAt = System.currentTimeMillis();
+        Long previous = inFlight.putIfAbsent(taskName, submittedAt);
+        if (previous != null) {
+            log.warn("Task {} in pool {} is still in flight after {} ms. Skipping trigger", taskName, name,
+                    submittedAt - previous);
+            Counter.builder("task.pool.coalesced.triggers")
+                    .tag("pool", name)
+                    .tag("type", taskType)
+                    .register(meterRegistry)
+                    .increment();
+            return false;
+        }
+        try {
+            getExecutorService().submit(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.remove(taskName);
+                    Timer.builder("task.pool.task.age")
+                            .tag("pool", name)
+                            .tag("type", taskType)
+                            .register(meterRegistry)
+                            .record(System.currentTimeMillis() - submittedAt, TimeUnit.MILLISECONDS);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(taskName);
+            throw e;
+        }
+        return true;
+    }
+
+    public <T> Future<T> submit(TaskPriority priority, Callable<T> task) {
+        return submit(priority, null, null, task);
+    }
+
+    /**
+     * Submits the task to the lane of its priority. A thread picks the task from the lanes instead of running the
+     * tasks in the order they were submitted.
+     */
+    public <T> Future<T> submit(TaskPriority priority, String tenant, String accountId, Callable<T> task) {
+        QueuedTask queuedTask = new QueuedTask(priority, tenant, accountId, new FutureTask<>(task), System.nanoTime());
+        addToLane(queuedTask);
+        try {
+            // Each submission hands one turn on a thread to the lanes
+            getExecutorService().submit(this::runNext);
+        } catch (RuntimeException e) {
+            removeFromLane(queuedTask);
+            throw e;
+        }
+        @SuppressWarnings("unchecked")
+        Future<T> future = (Future<T>) queuedTask.task;
+        return future;
+    }
+
+    private void runNext() {
+        QueuedTask next = pollNext();
+        if (next != null) {
+            long delay = System.nanoTime() - next.queuedAt;
+            laneDelays.get(next.priority).record(delay, TimeUnit.NANOSECONDS);
+            if (next.tenant != null) {
+                Timer.builder("task.pool.tenant.delay")
+                        .tag("pool", name)
+                        .tag("tenant", next.tenant)
+                        .register(meterRegistry)
+                        .record(delay, TimeUnit.NANOSECONDS);
+            }
+            next.task.run();
+        }
+    }
+
+    private synchronized void addToLane(QueuedTask queuedTask) {
+        lanes.get(queuedTask.priority).add(queuedTask.tenant, queuedTask.accountId, queuedTask);
+    }
+
+    private synchronized void removeFromLane(QueuedTask queuedTask) {
+        lanes.get(queuedTask.priority).remove(queuedTask.tenant, queuedTask.accountId, queuedTask);
+    }
+
+    /**
+     * Tasks are added to a lane before their turn is submitted, so every turn finds a task.
+     */
+    private synchronized QueuedTask pollNext() {
+        FairTaskQueue<QueuedTask> metrics = lanes.get(TaskPriority.METRICS);
+        FairTaskQueue<QueuedTask> metadata = lanes.get(TaskPriority.METADATA);
+        if (!metrics.isEmpty() && (metadata.isEmpty() || metricsInARow < metricsWeight)) {
+            metricsInARow++;
+            return metrics.poll();
+        } else if (!metadata.isEmpty()) {
+            metricsInARow = 0;
+            return metadata.poll();
+        }
+        return null;
+    }
+
+    private synchronized double laneDepth(TaskPriority priority) {
+        return lanes.get(priority).size();
+    }
+
+    @VisibleForTesting
+    double oldestTaskAgeSeconds() {
+        long now = System.currentTimeMillis();
+        return inFlight.values().stream()
+                .mapToLong(submittedAt -> now - submittedAt)
+                .max()
+                .orElse(0L) / 1000.0D;
+    }
+
+    @AllArgsConstructor
+    private static class QueuedTask {
+        private final TaskPriority priority;
+        private final String tenant;
+        private final String accountId;
+        private final FutureTask<?> task;
+        private final long queuedAt;
+    }
+}
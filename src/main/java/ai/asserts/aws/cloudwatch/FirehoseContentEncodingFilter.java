@@ -0,0 +1,226 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.CountingInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SortedMap;
+import java.util.zip.GZIPInputStream;
+
+import static ai.asserts.aws.MetricNameUtil.FIREHOSE_DECODED_BYTES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.FIREHOSE_RECEIVED_BYTES_METRIC;
+
+/**
+ * Decompresses the body of Firehose deliveries sent with <code>Content-Encoding: gzip</code>. The body is inflated
+ * as it is read by the message converter, so the compressed and the decompressed body are never held in memory as a
+ * whole. The bytes received and the bytes after decoding are counted per endpoint, to show what compression saves.
+ * <p>
+ * A small gzip body can inflate to a very large one, and the body is decoded before the controller authenticates the
+ * request. So the decoded body is capped at <code>aws_exporter.firehose.max_decoded_bytes</code>, which defaults to
+ * twice the largest buffer size of a Firehose HTTP endpoint delivery, leaving room for the base64 encoding of the
+ * records. A larger body fails the request with a 413.
+ */
+@Component
+@Slf4j
+public class FirehoseContentEncodingFilter extends OncePerRequestFilter {
+    static final String RECEIVE_PATH_PREFIX = "/receive-cloudwatch-";
+    private static final String GZIP = "gzip";
+    private static final String IDENTITY = "identity";
+    private final BasicMetricCollector metricCollector;
+    private final long maxDecodedBytes;
+
+    public FirehoseContentEncodingFilter(BasicMetricCollector metricCollector,
+                                         @Value("${aws_exporter.firehose.max_decoded_bytes:134217728}")
+                                         long maxDecodedBytes) {
+        this.metricCollector = metricCollector;
+        this.maxDecodedBytes = maxDecodedBytes;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !pathWithinContext(request).startsWith(RECEIVE_PATH_PREFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        String encoding = contentEncoding == null ? IDENTITY : contentEncoding.trim().toLowerCase();
+        if (!encoding.equals(GZIP) && !encoding.equals(IDENTITY)) {
+            log.warn("Unsupported Content-Encoding {}", contentEncoding);
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+        if (request.getContentLengthLong() > maxDecodedBytes) {
+            log.warn("Rejecting body of {} bytes, which is larger than {} bytes", request.getContentLengthLong(),
+                    maxDecodedBytes);
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+
+        DecodingRequest decodingRequest = new DecodingRequest(request, encoding.equals(GZIP), maxDecodedBytes);
+        try {
+            chain.doFilter(decodingRequest, response);
+        } finally {
+            SortedMap<String, String> labels = ImmutableSortedMap.of(
+                    "endpoint", pathWithinContext(request).startsWith(RECEIVE_PATH_PREFIX + "alarms") ?
+                            "alarms" : "metrics",
+                    "content_encoding", encoding);
+            metricCollector.recordCounterValue(FIREHOSE_RECEIVED_BYTES_METRIC, labels, decodingRequest.receivedBytes());
+            metricCollector.recordCounterValue(FIREHOSE_DECODED_BYTES_METRIC, labels, decodingRequest.decodedBytes());
+        }
+    }
+
+    private String pathWithinContext(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    static class DecodingRequest extends HttpServletRequestWrapper {
+        private final boolean gzip;
+        private final long maxDecodedBytes;
+        private CountingInputStream received;
+        private CountingInputStream decoded;
+        private ServletInputStream inputStream;
+
+        DecodingRequest(HttpServletRequest request, boolean gzip, long maxDecodedBytes) {
+            super(request);
+            this.gzip = gzip;
+            this.maxDecodedBytes = maxDecodedBytes;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                ServletInputStream original = super.getInputStream();
+                received = new CountingInputStream(original);
+                decoded = gzip ? new CountingInputStream(new GZIPInputStream(received)) : received;
+                inputStream = new DecodedInputStream(original, decoded, gzip, maxDecodedBytes);
+            }
+            return inputStream;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (gzip && HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                return null;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public int getContentLength() {
+            return gzip ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return gzip ? -1L : super.getContentLengthLong();
+        }
+
+        long receivedBytes() {
+            return received == null ? 0 : received.getCount();
+        }
+
+        long decodedBytes() {
+            return decoded == null ? 0 : decoded.getCount();
+        }
+    }
+
+    private static class DecodedInputStream extends ServletInputStream {
+        private final ServletInputStream original;
+        private final InputStream decoded;
+        private final boolean gzip;
+        private final long maxBytes;
+        private long readBytes;
+        private boolean finished;
+
+        private DecodedInputStream(ServletInputStream original, InputStream decoded, boolean gzip, long maxBytes) {
+            this.original = original;
+            this.decoded = decoded;
+            this.gzip = gzip;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = decoded.read();
+            finished = b == -1;
+            count(finished ? 0 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = decoded.read(b, off, len);
+            finished = n == -1;
+            count(Math.max(0, n));
+            return n;
+        }
+
+        /**
+         * Thrown as a {@link ResponseStatusException} rather than an {@link IOException}, as the message converter
+         * turns an {@link IOException} into a 400.
+         */
+        private void count(int n) {
+            readBytes += n;
+            if (readBytes > maxBytes) {
+                log.warn("Rejecting body that decodes to more than {} bytes", maxBytes);
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "Decoded body is larger than " + maxBytes + " bytes");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            decoded.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return original.isReady();
+        }
+
+        /**
+         * A plain body is read straight from the original stream, so the listener is set on the original stream. The
+         * inflater may need more compressed bytes than the original stream has ready, and reading a stream that is
+         * not ready fails, so non-blocking reads of gzip bodies are not supported.
+         * <p>
+         * Only a servlet container running a reactive stack sets a listener. Spring MVC reads a
+         * <code>@RequestBody</code> with blocking reads through the message converters, also for controllers that
+         * return a <code>DeferredResult</code> or a <code>CompletableFuture</code>, and this filter only applies to the
+         * Firehose endpoints of the MVC controllers.
+         */
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            if (gzip) {
+                throw new UnsupportedOperationException("Non-blocking reads of gzip bodies are not supported");
+            }
+            original.setReadListener(readListener);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ai.asserts.aws.MetricNameUtil.INGEST_DROPPED_METRIC;
+import static ai.asserts.aws.MetricNameUtil.INGEST_LATENCY_METRIC;
+import static ai.asserts.aws.MetricNameUtil.INGEST_QUEUE_BYTES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.INGEST_QUEUE_DEPTH_METRIC;
+
+/**
+ * A bounded queue with a dedicated pool of workers for the requests that Firehose delivers to the HTTP endpoints. The
+ * controllers enqueue a request and reply right away, so a burst of deliveries does not hold on to the servlet
+ * threads. When the queue is full the request is rejected and the controller replies with a 503, which makes
+ * Firehose retry the delivery later.
+ * <p>
+ * The queue is bounded by the payload bytes of the requests that are queued or being processed, as the size of a
+ * delivery depends on the buffer size configured on the delivery stream. A request larger than
+ * <code>aws_exporter.ingest_queue.capacity_bytes</code> is still accepted when nothing else is queued.
+ * <p>
+ * Firehose has already been sent a 200 for every queued request and does not deliver it again. So on shutdown the
+ * queue stops accepting requests, which makes Firehose retry them elsewhere, and the queued requests are processed
+ * for up to <code>aws_exporter.ingest_queue.drain_timeout_seconds</code>. Requests still queued after that are
+ * abandoned and counted as dropped.
+ */
+@Component
+@Slf4j
+public class FirehoseIngestQueue implements DisposableBean {
+    private static final String STREAM_LABEL = "stream";
+    private final BasicMetricCollector metricCollector;
+    private final long capacityBytes;
+    private final long drainTimeoutSeconds;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final BlockingQueue<Runnable> queue;
+    private final ExecutorService executorService;
+
+    public FirehoseIngestQueue(BasicMetricCollector metricCollector,
+                               @Value("${aws_exporter.ingest_queue.capacity_bytes:268435456}") long capacityBytes,
+                               @Value("${aws_exporter.ingest_queue.threads:2}") int threads,
+                               @Value("${aws_exporter.ingest_queue.drain_timeout_seconds:20}")
+                               long drainTimeoutSeconds) {
+        this.metricCollector = metricCollector;
+        this.capacityBytes = capacityBytes;
+        this.drainTimeoutSeconds = drainTimeoutSeconds;
+        this.queue = new LinkedBlockingQueue<>();
+        this.executorService = buildExecutorService(threads, queue);
+    }
+
+    @VisibleForTesting
+    ExecutorService buildExecutorService(int threads, BlockingQueue<Runnable> queue) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                new NamedThreadFactory("firehose-ingest"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @param stream       Name of the endpoint the request was delivered to. Used as a label on the metrics.
+     * @param payloadBytes Size of the request, counted against the capacity until the request is processed.
+     * @param task         Processes the request.
+     * @return <code>true</code> if the task was queued, <code>false</code> if the queue is full.
+     */
+    public boolean submit(String stream, long payloadBytes, Runnable task) {
+        SortedMap<String, String> labels = ImmutableSortedMap.of(STREAM_LABEL, stream);
+        long queued = queuedBytes.addAndGet(payloadBytes);
+        if (queued > capacityBytes && queued > payloadBytes) {
+            queuedBytes.addAndGet(-payloadBytes);
+            return reject(stream, labels);
+        }
+        long enqueuedAt = now();
+        try {
+            executorService.execute(new IngestTask(labels, payloadBytes, () -> {
+                metricCollector.recordHistogram(INGEST_LATENCY_METRIC, labels, (now() - enqueuedAt) / 1000.0D);
+                recordQueueSize(labels);
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Failed to process request from " + stream, e);
+                } finally {
+                    queuedBytes.addAndGet(-payloadBytes);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            queuedBytes.addAndGet(-payloadBytes);
+            return reject(stream, labels);
+        }
+        recordQueueSize(labels);
+        return true;
+    }
+
+    /**
+     * Stops accepting requests and processes the queued ones until the drain timeout.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        executorService.shutdown();
+        if (!executorService.awaitTermination(drainTimeoutSeconds, TimeUnit.SECONDS)) {
+            List<Runnable> abandoned = executorService.shutdownNow();
+            long abandonedBytes = 0;
+            for (Runnable runnable : abandoned) {
+                IngestTask ingestTask = (IngestTask) runnable;
+                abandonedBytes += ingestTask.payloadBytes;
+                metricCollector.recordCounterValue(INGEST_DROPPED_METRIC, ingestTask.labels, 1);
+            }
+            log.warn("Abandoned {} queued requests of {} bytes after draining for {} seconds", abandoned.size(),
+                    abandonedBytes, drainTimeoutSeconds);
+        }
+    }
+
+    private boolean reject(String stream, SortedMap<String, String> labels) {
+        log.warn("Ingest queue is full. Rejecting request from {}", stream);
+        metricCollector.recordCounterValue(INGEST_DROPPED_METRIC, labels, 1);
+        return false;
+    }
+
+    private void recordQueueSize(SortedMap<String, String> labels) {
+        metricCollector.recordGaugeValue(INGEST_QUEUE_DEPTH_METRIC, labels, (double) queue.size());
+        metricCollector.recordGaugeValue(INGEST_QUEUE_BYTES_METRIC, labels, (double) queuedBytes.get());
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    @AllArgsConstructor
+    private static class IngestTask implements Runnable {
+        private final SortedMap<String, String> labels;
+        private final long payloadBytes;
+        private final Runnable task;
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
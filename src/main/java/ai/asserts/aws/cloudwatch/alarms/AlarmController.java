@@ -6,6 +6,7 @@ package ai.asserts.aws.cloudwatch.alarms;
 
 import ai.asserts.aws.ApiAuthenticator;
 import ai.asserts.aws.ObjectMapperFactory;
+import ai.asserts.aws.cloudwatch.FirehoseIngestQueue;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -22,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
 @Slf4j
@@ -37,6 +39,7 @@ public class AlarmController {
     private final ObjectMapperFactory objectMapperFactory;
     private final AlertsProcessor alertsProcessor;
     private final ApiAuthenticator apiAuthenticator;
+    private final FirehoseIngestQueue ingestQueue;
 
     @PostMapping(
             path = ALARMS,
@@ -127,6 +130,15 @@ public class AlarmController {
     }
 
     private ResponseEntity<AlarmResponse> processRequest(FirehoseEventRequest firehoseEventRequest) {
+        if (!ingestQueue.submit(ALARMS, firehoseEventRequest.getPayloadBytes(),
+                () -> processRecords(firehoseEventRequest))) {
+            return ResponseEntity.status(SERVICE_UNAVAILABLE)
+                    .body(AlarmResponse.builder().status("Ingest queue is full").build());
+        }
+        return ResponseEntity.ok(AlarmResponse.builder().status("Success").build());
+    }
+
+    private void processRecords(FirehoseEventRequest firehoseEventRequest) {
         try {
             if (!CollectionUtils.isEmpty(firehoseEventRequest.getRecords())) {
                 for (RecordData recordData : firehoseEventRequest.getRecords()) {
@@ -138,7 +150,6 @@ public class AlarmController {
         } catch (Exception ex) {
             log.error("Error in processing {}-{}", ex, ex.getStackTrace());
         }
-        return ResponseEntity.ok(AlarmResponse.builder().status("Success").build());
     }
 
     private void accept(RecordData data) {
@@ -9,6 +9,7 @@ import ai.asserts.aws.CollectionBuilderTask;
 import ai.asserts.aws.AWSApiCallRateLimiter;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.TaskExecutorUtil;
+import ai.asserts.aws.TaskPriority;
 import ai.asserts.aws.EnvironmentConfig;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.account.AccountProvider;
@@ -22,6 +23,7 @@ import io.prometheus.client.CollectorRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.ComparisonOperator;
 import software.amazon.awssdk.services.cloudwatch.model.DescribeAlarmsRequest;
@@ -34,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
@@ -102,26 +105,26 @@ public class AlarmFetcher extends Collector implements InitializingBean {
             if (!scrapeConfig.isPullCWAlarms()) {
                 continue;
             }
-            accountRegion.getRegions().forEach(region ->
-                    futures.add(taskExecutorUtil.executeAccountTask(accountRegion,
-                            new CollectionBuilderTask<Sample>() {
-                                @Override
-                                public List<Sample> call() {
-                                    log.info("Fetching alarms from account {} and region {}",
-                                            accountRegion.getAccountId(),
-                                            region);
-                                    List<Map<String, String>> labelsList = getAlarms(accountRegion, region);
-                                    labelsList.forEach(alarmMetricConverter::simplifyAlarmName);
-                                    return labelsList.stream()
-                                            .map(labels -> {
-                                                labels.remove("timestamp");
-                                                return sampleBuilder.buildSingleSample(
-                                                        "aws_cloudwatch_alarm", labels, 1.0);
-                                            })
-                                            .filter(Optional::isPresent)
-                                            .map(Optional::get).collect(Collectors.toList());
-                                }
-                            })));
+            if (environmentConfig.isAsyncApiCalls()) {
+                accountRegion.getRegions().forEach(region -> {
+                    log.info("Fetching alarms from account {} and region {}", accountRegion.getAccountId(), region);
+                    // The samples are built on the AWS SDK threads, so the account is passed along
+                    futures.add(getAlarmsAsync(accountRegion, region)
+                            .thenApply(labelsList -> buildSamples(accountRegion, labelsList)));
+                });
+            } else {
+                accountRegion.getRegions().forEach(region ->
+                        futures.add(taskExecutorUtil.executeAccountTask(accountRegion,
+                                new CollectionBuilderTask<Sample>() {
+                                    @Override
+                                    public List<Sample> call() {
+                                        log.info("Fetching alarms from account {} and region {}",
+                                                accountRegion.getAccountId(),
+                                                region);
+                                        return buildSamples(accountRegion, getAlarms(accountRegion, region));
+                                    }
+                                })));
+            }
         }
         taskExecutorUtil.awaitAll(futures, allSamples::addAll);
         if (allSamples.size() > 0) {
@@ -131,6 +134,65 @@ public class AlarmFetcher extends Collector implements InitializingBean {
         log.info("Exported {} alarms as metrics", allSamples.size());
     }
 
+    private List<Sample> buildSamples(AWSAccount account, List<Map<String, String>> labelsList) {
+        labelsList.forEach(alarmMetricConverter::simplifyAlarmName);
+        return labelsList.stream()
+                .map(labels -> {
+                    labels.remove("timestamp");
+                    return sampleBuilder.buildSingleSample(account,
+                            "aws_cloudwatch_alarm", labels, 1.0);
+                })
+                .filter(Optional::isPresent)
+                .map(Optional::get).collect(Collectors.toList());
+    }
+
+    private CompletableFuture<List<Map<String, String>>> getAlarmsAsync(AWSAccount account, String region) {
+        List<Map<String, String>> labelsList = new ArrayList<>();
+        try {
+            CloudWatchAsyncClient cloudWatchClient = awsClientProvider.getCloudWatchAsyncClient(region, account);
+            return getAlarmsAsync(cloudWatchClient, account, region, null, labelsList)
+                    .handle((ignore, e) -> {
+                        if (e != null) {
+                            log.error("Failed to fetch CloudWatch alarms", e);
+                        }
+                        log.info("Fetched {} alarms from CloudWatch", labelsList.size());
+                        return labelsList;
+                    });
+        } catch (Exception e) {
+            log.error("Failed to fetch CloudWatch alarms", e);
+            return CompletableFuture.completedFuture(labelsList);
+        }
+    }
+
+    private CompletableFuture<Void> getAlarmsAsync(CloudWatchAsyncClient cloudWatchClient, AWSAccount account,
+                                                   String region, String nextToken,
+                                                   List<Map<String, String>> labelsList) {
+        return rateLimiter.doWithRateLimitAsync(TaskPriority.METADATA,
+                        "CloudWatchClient/describeAlarms",
+                        ImmutableSortedMap.of(
+                                SCRAPE_ACCOUNT_ID_LABEL, account.getAccountId(),
+                                SCRAPE_REGION_LABEL, region,
+                                SCRAPE_OPERATION_LABEL, "CloudWatchClient/describeAlarms"
+                        ),
+                        () -> cloudWatchClient.describeAlarms(DescribeAlarmsRequest.builder()
+                                .stateValue(StateValue.ALARM)
+                                .nextToken(nextToken)
+                                .build()))
+                .thenCompose(response -> {
+                    if (response.hasMetricAlarms()) {
+                        labelsList.addAll(response.metricAlarms()
+                                .stream()
+                                .map(metricAlarm -> this.processMetricAlarm(metricAlarm, account.getAccountId(),
+                                        region))
+                                .collect(Collectors.toList()));
+                    }
+                    if (response.nextToken() != null) {
+                        return getAlarmsAsync(cloudWatchClient, account, region, response.nextToken(), labelsList);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
     private List<Map<String, String>> getAlarms(AWSAccount account, String region) {
         List<Map<String, String>> labelsList = new ArrayList<>();
         String[] nextToken = new String[]{null};
@@ -4,6 +4,7 @@
  */
 package ai.asserts.aws.cloudwatch.alarms;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -25,4 +26,18 @@ public class FirehoseEventRequest {
     private String requestId;
     private String timestamp;
     private List<RecordData> records;
+
+    /**
+     * The size of the encoded records, which make up nearly all of the request
+     */
+    @JsonIgnore
+    public long getPayloadBytes() {
+        if (records == null) {
+            return 0;
+        }
+        return records.stream()
+                .filter(record -> record.getData() != null)
+                .mapToLong(record -> record.getData().length())
+                .sum();
+    }
 }
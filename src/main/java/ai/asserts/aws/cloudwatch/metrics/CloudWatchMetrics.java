@@ -1,26 +0,0 @@
-/*
- *  Copyright © 2022.
- *  Asserts, Inc. - All Rights Reserved
- */
-package ai.asserts.aws.cloudwatch.metrics;
-
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.EqualsAndHashCode;
-import lombok.Getter;
-import lombok.NoArgsConstructor;
-import lombok.ToString;
-
-import java.util.List;
-
-@AllArgsConstructor
-@NoArgsConstructor
-@Getter
-@Builder
-@EqualsAndHashCode
-@ToString
-@JsonIgnoreProperties(ignoreUnknown = true)
-public class CloudWatchMetrics {
-    private List<CloudWatchMetric> metrics;
-}
@@ -6,15 +6,12 @@ package ai.asserts.aws.cloudwatch.metrics;
 
 import ai.asserts.aws.ApiAuthenticator;
 import ai.asserts.aws.MetricNameUtil;
-import ai.asserts.aws.ObjectMapperFactory;
-import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.account.AccountTenantMapper;
+import ai.asserts.aws.cloudwatch.FirehoseIngestQueue;
 import ai.asserts.aws.cloudwatch.alarms.FirehoseEventRequest;
 import ai.asserts.aws.cloudwatch.alarms.RecordData;
-import ai.asserts.aws.config.ScrapeConfig;
+import ai.asserts.aws.cloudwatch.metrics.MetricStreamRoutingTable.MetricRoute;
 import ai.asserts.aws.exporter.BasicMetricCollector;
-import ai.asserts.aws.model.CWNamespace;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.annotations.VisibleForTesting;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -27,9 +24,8 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
 import java.time.Instant;
-import java.util.Arrays;
-import java.util.Base64;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
@@ -37,6 +33,7 @@ import java.util.TreeMap;
 
 import static ai.asserts.aws.MetricNameUtil.TENANT;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.HttpStatus.UNAUTHORIZED;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
@@ -48,12 +45,13 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 public class MetricStreamController {
     public static final String METRICS = "/receive-cloudwatch-metrics";
     public static final String METRICS_SECURE = "/receive-cloudwatch-metrics-secure";
-    private final ObjectMapperFactory objectMapperFactory;
     private final BasicMetricCollector metricCollector;
-    private final MetricNameUtil metricNameUtil;
     private final ApiAuthenticator apiAuthenticator;
-    private final ScrapeConfigProvider scrapeConfigProvider;
     private final AccountTenantMapper accountTenantMapper;
+    private final MetricStreamRecordDecoder recordDecoder;
+    private final MetricStreamRoutingTable routingTable;
+    private final FirehoseIngestQueue ingestQueue;
+    private final StreamedMetricStore streamedMetricStore;
 
     @PostMapping(
             path = METRICS,
@@ -62,7 +60,9 @@ public class MetricStreamController {
     public ResponseEntity<MetricResponse> receiveMetricsPost(
             @RequestBody FirehoseEventRequest metricRequest) {
         try {
-            processRequest(metricRequest);
+            if (!ingestQueue.submit(METRICS, metricRequest.getPayloadBytes(), () -> processRequest(metricRequest))) {
+                return queueFull(metricRequest);
+            }
             return ResponseEntity.ok(MetricResponse.builder()
                     .requestId(metricRequest.getRequestId())
                     .timestamp(System.currentTimeMillis())
@@ -84,7 +84,9 @@ public class MetricStreamController {
     public ResponseEntity<MetricResponse> receiveMetricsPut(
             @RequestBody FirehoseEventRequest metricRequest) {
         try {
-            processRequest(metricRequest);
+            if (!ingestQueue.submit(METRICS, metricRequest.getPayloadBytes(), () -> processRequest(metricRequest))) {
+                return queueFull(metricRequest);
+            }
             return ResponseEntity.ok(MetricResponse.builder()
                     .requestId(metricRequest.getRequestId())
                     .timestamp(System.currentTimeMillis())
@@ -117,7 +119,9 @@ public class MetricStreamController {
                             .build());
         }
         try {
-            processRequest(metricRequest);
+            if (!ingestQueue.submit(METRICS, metricRequest.getPayloadBytes(), () -> processRequest(metricRequest))) {
+                return queueFull(metricRequest);
+            }
             return ResponseEntity.ok(MetricResponse.builder()
                     .requestId(metricRequest.getRequestId())
                     .timestamp(System.currentTimeMillis())
@@ -150,7 +154,9 @@ public class MetricStreamController {
                             .build());
         }
         try {
-            processRequest(metricRequest);
+            if (!ingestQueue.submit(METRICS, metricRequest.getPayloadBytes(), () -> processRequest(metricRequest))) {
+                return queueFull(metricRequest);
+            }
             return ResponseEntity.ok(MetricResponse.builder()
                     .requestId(metricRequest.getRequestId())
                     .timestamp(System.currentTimeMillis())
@@ -165,6 +171,15 @@ public class MetricStreamController {
         }
     }
 
+    private ResponseEntity<MetricResponse> queueFull(FirehoseEventRequest metricRequest) {
+        return ResponseEntity.status(SERVICE_UNAVAILABLE)
+                .body(MetricResponse.builder()
+                        .requestId(metricRequest.getRequestId())
+                        .timestamp(System.currentTimeMillis())
+                        .errorMessage("Ingest queue is full")
+                        .build());
+    }
+
     @VisibleForTesting
     void processRequest(FirehoseEventRequest firehoseEventRequest) {
         try {
@@ -181,66 +196,39 @@ public class MetricStreamController {
     }
 
     private void accept(RecordData data) {
-        String decodedData = new String(Base64.getDecoder().decode(data.getData()));
-        decodedData = decodedData.replace("}\n{", "},{");
-        decodedData = "{\"metrics\":[" + decodedData + "]}";
         try {
-            CloudWatchMetrics metrics =
-                    objectMapperFactory.getObjectMapper().readValue(decodedData, CloudWatchMetrics.class);
-            metrics.getMetrics().stream()
-                    .filter(this::shouldCaptureMetric)
-                    .forEach(m -> {
-                        publishMetric(m);
-                        log.debug("Metric Name{} - Namespace {}", m.getMetric_name(), m.getNamespace());
-                    });
-        } catch (JsonProcessingException jsp) {
-            log.error("Error processing JSON {}-{}", decodedData, jsp.getMessage());
-        }
-    }
-
-    boolean shouldCaptureMetric(CloudWatchMetric metric) {
-        Optional<CWNamespace> ns = scrapeConfigProvider.getStandardNamespace(metric.getNamespace());
-        if (ns.isPresent()) {
-            String tenant = accountTenantMapper.getTenantName(metric.getAccount_id());
-            ScrapeConfig scrapeConfig = scrapeConfigProvider.getScrapeConfig(tenant);
-            String nsPrefix = ns.get().getMetricPrefix();
-            return metric.getValue().keySet().stream()
-                    .map(stat -> metricNameUtil.toSnakeCase(nsPrefix + "_" + metric.getMetric_name() + "_" + stat))
-                    .anyMatch(metricName -> scrapeConfig.getMetricsToCapture().containsKey(metricName));
+            recordDecoder.decode(data, m -> {
+                String tenant = accountTenantMapper.getTenantName(m.getAccount_id());
+                routingTable.route(tenant, m.getNamespace(), m.getMetric_name()).ifPresent(route -> {
+                    publishMetric(tenant, route, m);
+                    log.debug("Metric Name{} - Namespace {}", m.getMetric_name(), m.getNamespace());
+                });
+            });
+        } catch (IOException e) {
+            log.error("Error processing metric stream record - {}", e.getMessage());
         }
-        return false;
     }
 
-
-    private void publishMetric(CloudWatchMetric metric) {
-        String tenant = accountTenantMapper.getTenantName(metric.getAccount_id());
-        ScrapeConfig scrapeConfig = scrapeConfigProvider.getScrapeConfig(tenant);
+    private void publishMetric(String tenant, MetricRoute route, CloudWatchMetric metric) {
         SortedMap<String, String> metricMap = new TreeMap<>();
-        String metricNamespace = metric.getNamespace();
-
         if (tenant != null) {
             metricMap.put(TENANT, tenant);
         }
         metricMap.put("account_id", metric.getAccount_id());
         metricMap.put("region", metric.getRegion());
-        metricMap.put("namespace", metricNamespace);
+        metricMap.put("namespace", route.getNamespace());
 
         if (!CollectionUtils.isEmpty(metric.getDimensions())) {
-            metric.getDimensions().forEach((k, v) -> metricMap.put("d_" + metricNameUtil.toSnakeCase(k), v));
+            metric.getDimensions().forEach((k, v) -> metricMap.put(routingTable.dimensionLabel(k), v));
         }
-        Optional<CWNamespace> namespaceOpt =
-                Arrays.stream(CWNamespace.values()).filter(f -> f.getNamespace().equals(metricNamespace))
-                        .findFirst();
-        namespaceOpt.ifPresent(namespace -> {
-            String prefix = namespace.getMetricPrefix();
-            String metricName = prefix + "_" + metric.getMetric_name();
+        if (metric.getValue() != null) {
             metric.getValue().forEach((key, value) -> {
-                String gaugeMetricName = metricNameUtil.toSnakeCase(metricName + "_" + key);
-                if (scrapeConfig.getMetricsToCapture().containsKey(gaugeMetricName)) {
-                    metricCollector.recordGaugeValue(gaugeMetricName, metricMap, Double.valueOf(value));
+                String gaugeMetricName = route.getExportedNames().get(key);
+                if (gaugeMetricName != null) {
+                    streamedMetricStore.record(gaugeMetricName, metricMap, value, metric.getTimestamp());
                 }
             });
-        });
+        }
     }
 
     private void recordHistogram(String tenant, Map<String, String> labels, Long timestamp, String metric_name) {
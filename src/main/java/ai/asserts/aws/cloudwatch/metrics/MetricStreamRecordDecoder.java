@@ -0,0 +1,54 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import ai.asserts.aws.cloudwatch.alarms.RecordData;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharSource;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+/**
+ * Decodes a Firehose record of a CloudWatch Metric Stream into {@link CloudWatchMetric}s, one metric at a time. The
+ * Base64 data is decoded as a stream, so the memory used does not grow with the size of the record. Records in the
+ * JSON format hold newline delimited objects which are read with an incremental parser. Records in the
+ * <code>opentelemetry0.7</code> format are handed to {@link OpenTelemetryMetricsDecoder}.
+ */
+@Component
+@AllArgsConstructor
+public class MetricStreamRecordDecoder {
+    private static final int HEAD_LENGTH = 6;
+    private final ObjectReader metricReader = new ObjectMapper().readerFor(CloudWatchMetric.class);
+    private final OpenTelemetryMetricsDecoder openTelemetryMetricsDecoder;
+
+    public void decode(RecordData data, Consumer<CloudWatchMetric> consumer) throws IOException {
+        try (InputStream in = new BufferedInputStream(Base64.getDecoder().wrap(
+                CharSource.wrap(data.getData()).asByteSource(StandardCharsets.ISO_8859_1).openStream()))) {
+            byte[] head = new byte[HEAD_LENGTH];
+            in.mark(HEAD_LENGTH);
+            int length = ByteStreams.read(in, head, 0, HEAD_LENGTH);
+            in.reset();
+            if (openTelemetryMetricsDecoder.isOpenTelemetry(head, length)) {
+                openTelemetryMetricsDecoder.decode(in, consumer);
+            } else {
+                try (MappingIterator<CloudWatchMetric> metrics = metricReader.readValues(in)) {
+                    while (metrics.hasNextValue()) {
+                        consumer.accept(metrics.nextValue());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import ai.asserts.aws.MetricNameUtil;
+import ai.asserts.aws.ScrapeConfigProvider;
+import ai.asserts.aws.config.ScrapeConfig;
+import ai.asserts.aws.model.CWNamespace;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tells which metrics received from CloudWatch Metric Streams are captured and under which names. The routes are
+ * built once from the {@link ScrapeConfig} of a tenant and built again only when the provider returns a different
+ * {@link ScrapeConfig}, so the namespace lookup and the snake casing are not repeated for every metric received.
+ */
+@Component
+public class MetricStreamRoutingTable {
+    private static final String NO_TENANT = "";
+    private final ScrapeConfigProvider scrapeConfigProvider;
+    private final MetricNameUtil metricNameUtil;
+    private final Map<String, Routes> routesByTenant = new ConcurrentHashMap<>();
+    private final Map<String, String> dimensionLabels = new ConcurrentHashMap<>();
+
+    public MetricStreamRoutingTable(ScrapeConfigProvider scrapeConfigProvider, MetricNameUtil metricNameUtil) {
+        this.scrapeConfigProvider = scrapeConfigProvider;
+        this.metricNameUtil = metricNameUtil;
+    }
+
+    /**
+     * @param tenant     The tenant of the account the metric was received from.
+     * @param namespace  The CloudWatch namespace, e.g. <code>AWS/Lambda</code>.
+     * @param metricName The CloudWatch metric name.
+     * @return The route, if any statistic of the metric is captured.
+     */
+    public Optional<MetricRoute> route(String tenant, String namespace, String metricName) {
+        ScrapeConfig scrapeConfig = scrapeConfigProvider.getScrapeConfig(tenant);
+        String tenantKey = tenant != null ? tenant : NO_TENANT;
+        Routes routes = routesByTenant.get(tenantKey);
+        if (routes == null || routes.scrapeConfig != scrapeConfig) {
+            routes = buildRoutes(scrapeConfig);
+            routesByTenant.put(tenantKey, routes);
+        }
+        Map<String, MetricRoute> byMetricName = routes.routes.get(namespace);
+        return byMetricName != null ? Optional.ofNullable(byMetricName.get(metricName)) : Optional.empty();
+    }
+
+    /**
+     * @return The label name for a metric dimension, e.g. <code>d_function_name</code> for
+     * <code>FunctionName</code>.
+     */
+    public String dimensionLabel(String dimension) {
+        return dimensionLabels.computeIfAbsent(dimension, k -> "d_" + metricNameUtil.toSnakeCase(k));
+    }
+
+    private Routes buildRoutes(ScrapeConfig scrapeConfig) {
+        Map<String, Map<String, MetricRoute>> routes = new HashMap<>();
+        scrapeConfig.getNamespaces().forEach(nsConfig -> {
+            Optional<CWNamespace> cwNamespace = scrapeConfigProvider.getStandardNamespace(nsConfig.getName());
+            if (!cwNamespace.isPresent() || nsConfig.getMetrics() == null) {
+                return;
+            }
+            String namespace = cwNamespace.get().getNamespace();
+            String prefix = cwNamespace.get().getMetricPrefix();
+            nsConfig.getMetrics().forEach(metricConfig -> {
+                Map<String, MetricRoute> byMetricName = routes.computeIfAbsent(namespace, k -> new HashMap<>());
+                MetricRoute route = byMetricName.computeIfAbsent(metricConfig.getName(), k -> MetricRoute.builder()
+                        .namespace(namespace)
+                        .exportedNames(new HashMap<>())
+                        .build());
+                metricConfig.getStats().forEach(stat -> route.exportedNames.put(stat.getShortForm(),
+                        metricNameUtil.toSnakeCase(prefix + "_" + metricConfig.getName() + "_" +
+                                stat.getShortForm())));
+            });
+        });
+        return new Routes(scrapeConfig, routes);
+    }
+
+    @AllArgsConstructor
+    private static class Routes {
+        private final ScrapeConfig scrapeConfig;
+        private final Map<String, Map<String, MetricRoute>> routes;
+    }
+
+    @Getter
+    @Builder
+    @EqualsAndHashCode
+    @ToString
+    public static class MetricRoute {
+        private final String namespace;
+        /**
+         * Exported metric name by the statistic key used in the stream, e.g. <code>sum</code> or <code>count</code>.
+         * Statistics that are not captured are not present.
+         */
+        private final Map<String, String> exportedNames;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Decodes records of CloudWatch Metric Streams in the <code>opentelemetry0.7</code> output format. A record is a
+ * sequence of length delimited OTLP 0.7 <code>ExportMetricsServiceRequest</code> messages. Each data point of a
+ * <code>DoubleSummary</code> is turned into a {@link CloudWatchMetric} as it is read, without building the protobuf
+ * object model first.
+ * <p>
+ * The <code>Namespace</code> and <code>MetricName</code> labels of a data point give the namespace and the metric name.
+ * All other labels are dimensions. The account and region come from the <code>cloud.account.id</code> and
+ * <code>cloud.region</code> resource attributes.
+ */
+@Component
+public class OpenTelemetryMetricsDecoder {
+    static final String NAMESPACE_LABEL = "Namespace";
+    static final String METRIC_NAME_LABEL = "MetricName";
+    static final String ACCOUNT_ATTRIBUTE = "cloud.account.id";
+    static final String REGION_ATTRIBUTE = "cloud.region";
+
+    // ExportMetricsServiceRequest
+    private static final int REQUEST_RESOURCE_METRICS = 1;
+    // ResourceMetrics
+    private static final int RESOURCE_METRICS_RESOURCE = 1;
+    private static final int RESOURCE_METRICS_INSTRUMENTATION_LIBRARY_METRICS = 2;
+    // Resource
+    private static final int RESOURCE_ATTRIBUTES = 1;
+    // InstrumentationLibraryMetrics
+    private static final int LIBRARY_METRICS_METRICS = 2;
+    // Metric
+    private static final int METRIC_UNIT = 3;
+    private static final int METRIC_DOUBLE_SUMMARY = 11;
+    // DoubleSummary
+    private static final int SUMMARY_DATA_POINTS = 1;
+    // DoubleSummaryDataPoint
+    private static final int DATA_POINT_LABELS = 1;
+    private static final int DATA_POINT_TIME = 3;
+    private static final int DATA_POINT_COUNT = 4;
+    private static final int DATA_POINT_SUM = 5;
+    private static final int DATA_POINT_QUANTILE_VALUES = 6;
+    private static final int DATA_POINT_ATTRIBUTES = 7;
+    // ValueAtQuantile
+    private static final int QUANTILE_QUANTILE = 1;
+    private static final int QUANTILE_VALUE = 2;
+    // KeyValue, StringKeyValue and AnyValue
+    private static final int KEY_VALUE_KEY = 1;
+    private static final int KEY_VALUE_VALUE = 2;
+    private static final int ANY_VALUE_STRING = 1;
+
+    private static final int REQUEST_TAG = WireFormat.makeTag(REQUEST_RESOURCE_METRICS,
+            WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    /**
+     * Checks the first bytes of a record. A record in the JSON format starts with <code>{"</code>. A record in the protobuf format starts with the varint
+     * length of the first request followed by the tag of <code>resource_metrics</code>.
+     */
+    public boolean isOpenTelemetry(byte[] head, int length) {
+        int i = 0;
+        while (i < length && i < 5 && (head[i] & 0x80) != 0) {
+            i++;
+        }
+        return i + 1 < length && head[i + 1] == REQUEST_TAG;
+    }
+
+    public void decode(InputStream data, Consumer<CloudWatchMetric> consumer) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(data);
+        in.setSizeLimit(Integer.MAX_VALUE);
+        while (!in.isAtEnd()) {
+            int limit = in.pushLimit(in.readRawVarint32());
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) == REQUEST_RESOURCE_METRICS) {
+                    int resourceLimit = in.pushLimit(in.readRawVarint32());
+                    readResourceMetrics(in, consumer);
+                    in.popLimit(resourceLimit);
+                } else {
+                    in.skipField(tag);
+                }
+            }
+            in.popLimit(limit);
+        }
+    }
+
+    private void readResourceMetrics(CodedInputStream in, Consumer<CloudWatchMetric> consumer) throws IOException {
+        Map<String, String> attributes = new HashMap<>();
+        List<ByteString> pending = new ArrayList<>();
+        boolean resourceRead = false;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == RESOURCE_METRICS_RESOURCE) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readResource(in, attributes);
+                in.popLimit(limit);
+                resourceRead = true;
+            } else if (field == RESOURCE_METRICS_INSTRUMENTATION_LIBRARY_METRICS && resourceRead) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readLibraryMetrics(in, attributes, consumer);
+                in.popLimit(limit);
+            } else if (field == RESOURCE_METRICS_INSTRUMENTATION_LIBRARY_METRICS) {
+                // The resource is normally written first. Keep the metrics until it is read
+                pending.add(in.readBytes());
+            } else {
+                in.skipField(tag);
+            }
+        }
+        for (ByteString bytes : pending) {
+            readLibraryMetrics(bytes.newCodedInput(), attributes, consumer);
+        }
+    }
+
+    private void readResource(CodedInputStream in, Map<String, String> attributes) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == RESOURCE_ATTRIBUTES) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readKeyValue(in, attributes, true);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+    }
+
+    private void readLibraryMetrics(CodedInputStream in, Map<String, String> attributes,
+                                    Consumer<CloudWatchMetric> consumer) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == LIBRARY_METRICS_METRICS) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readMetric(in, attributes, consumer);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+    }
+
+    private void readMetric(CodedInputStream in, Map<String, String> attributes,
+                            Consumer<CloudWatchMetric> consumer) throws IOException {
+        // The unit is written before the data, so it is known when the data points are read
+        String unit = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == METRIC_UNIT) {
+                unit = in.readString();
+            } else if (field == METRIC_DOUBLE_SUMMARY) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readSummary(in, attributes, unit, consumer);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+    }
+
+    private void readSummary(CodedInputStream in, Map<String, String> attributes, String unit,
+                             Consumer<CloudWatchMetric> consumer) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == SUMMARY_DATA_POINTS) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                consumer.accept(readDataPoint(in, attributes, unit));
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+    }
+
+    private CloudWatchMetric readDataPoint(CodedInputStream in, Map<String, String> attributes, String unit)
+            throws IOException {
+        Map<String, String> labels = new HashMap<>();
+        Map<String, Float> value = new HashMap<>();
+        long timeNanos = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == DATA_POINT_LABELS || field == DATA_POINT_ATTRIBUTES) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readKeyValue(in, labels, field == DATA_POINT_ATTRIBUTES);
+                in.popLimit(limit);
+            } else if (field == DATA_POINT_TIME) {
+                timeNanos = in.readFixed64();
+            } else if (field == DATA_POINT_COUNT) {
+                value.put("count", (float) in.readFixed64());
+            } else if (field == DATA_POINT_SUM) {
+                value.put("sum", (float) in.readDouble());
+            } else if (field == DATA_POINT_QUANTILE_VALUES) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readQuantile(in, value);
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        String namespace = labels.remove(NAMESPACE_LABEL);
+        String metricName = labels.remove(METRIC_NAME_LABEL);
+        return CloudWatchMetric.builder()
+                .account_id(attributes.get(ACCOUNT_ATTRIBUTE))
+                .region(attributes.get(REGION_ATTRIBUTE))
+                .namespace(namespace)
+                .metric_name(metricName)
+                .dimensions(labels)
+                .timestamp(timeNanos / 1_000_000L)
+                .value(value)
+                .unit(unit)
+                .build();
+    }
+
+    private void readQuantile(CodedInputStream in, Map<String, Float> value) throws IOException {
+        double quantile = -1;
+        double quantileValue = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == QUANTILE_QUANTILE) {
+                quantile = in.readDouble();
+            } else if (field == QUANTILE_VALUE) {
+                quantileValue = in.readDouble();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        // CloudWatch sends the minimum as quantile 0 and the maximum as quantile 1
+        if (quantile == 0.0D) {
+            value.put("min", (float) quantileValue);
+        } else if (quantile == 1.0D) {
+            value.put("max", (float) quantileValue);
+        }
+    }
+
+    /**
+     * Reads a <code>StringKeyValue</code>, or a <code>KeyValue</code> with a string <code>AnyValue</code> when
+     * <code>anyValue</code> is set.
+     */
+    private void readKeyValue(CodedInputStream in, Map<String, String> target, boolean anyValue) throws IOException {
+        String key = null;
+        String value = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == KEY_VALUE_KEY) {
+                key = in.readString();
+            } else if (field == KEY_VALUE_VALUE && !anyValue) {
+                value = in.readString();
+            } else if (field == KEY_VALUE_VALUE) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                int valueTag;
+                while ((valueTag = in.readTag()) != 0) {
+                    if (WireFormat.getTagFieldNumber(valueTag) == ANY_VALUE_STRING) {
+                        value = in.readString();
+                    } else {
+                        in.skipField(valueTag);
+                    }
+                }
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        if (key != null && value != null) {
+            target.put(key, value);
+        }
+    }
+}
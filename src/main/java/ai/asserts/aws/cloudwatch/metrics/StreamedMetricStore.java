@@ -0,0 +1,185 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ai.asserts.aws.MetricNameUtil.METRIC_STREAM_SERIES_DROPPED_METRIC;
+
+/**
+ * Holds the last value of every series received through CloudWatch Metric Streams. Unlike the gauges in
+ * {@link BasicMetricCollector}, reading the values does not remove them, so every scraper sees each series until it
+ * goes stale. A series is removed once no value has been received for it within
+ * <code>aws_exporter.metric_stream.series_ttl</code>. The number of series is capped by
+ * <code>aws_exporter.metric_stream.max_series</code>. Values for new series are dropped once the cap is reached.
+ * <p>
+ * The series are spread over a fixed number of stripes, each guarded by its own lock, so that concurrent ingest
+ * workers do not contend on a single map.
+ */
+@Component
+@Slf4j
+public class StreamedMetricStore extends Collector implements InitializingBean {
+    private static final int STRIPES = 16;
+    private final CollectorRegistry collectorRegistry;
+    private final BasicMetricCollector metricCollector;
+    private final long seriesTTLMillis;
+    private final int maxSeries;
+    private final Interner<List<String>> labelNamesInterner = Interners.newWeakInterner();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final List<Map<SeriesKey, SeriesValue>> stripes = new ArrayList<>(STRIPES);
+
+    public StreamedMetricStore(CollectorRegistry collectorRegistry, BasicMetricCollector metricCollector,
+                               @Value("${aws_exporter.metric_stream.series_ttl:600000}") long seriesTTLMillis,
+                               @Value("${aws_exporter.metric_stream.max_series:500000}") int maxSeries) {
+        this.collectorRegistry = collectorRegistry;
+        this.metricCollector = metricCollector;
+        this.seriesTTLMillis = seriesTTLMillis;
+        this.maxSeries = maxSeries;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new HashMap<>());
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        register(collectorRegistry);
+    }
+
+    /**
+     * Records the value of a series. A value older than the one already held for the series is ignored.
+     *
+     * @param timestamp Epoch millis of the data point, or <code>null</code> to use the time it was received.
+     */
+    public void record(String metricName, SortedMap<String, String> labels, double value, Long timestamp) {
+        long now = now();
+        SeriesKey key = new SeriesKey(metricName,
+                labelNamesInterner.intern(ImmutableList.copyOf(labels.keySet())),
+                ImmutableList.copyOf(labels.values()));
+        long sampleTimestamp = timestamp != null ? timestamp : now;
+        Map<SeriesKey, SeriesValue> stripe = stripeFor(key);
+        synchronized (stripe) {
+            SeriesValue current = stripe.get(key);
+            if (current == null) {
+                if (seriesCount.incrementAndGet() > maxSeries) {
+                    seriesCount.decrementAndGet();
+                    metricCollector.recordCounterValue(METRIC_STREAM_SERIES_DROPPED_METRIC,
+                            ImmutableSortedMap.of("metric_name", metricName), 1);
+                    return;
+                }
+                stripe.put(key, new SeriesValue(value, sampleTimestamp, now));
+            } else if (sampleTimestamp >= current.timestamp) {
+                current.value = value;
+                current.timestamp = sampleTimestamp;
+                current.receivedAt = now;
+            }
+        }
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        long expireBefore = now() - seriesTTLMillis;
+        Map<String, List<MetricFamilySamples.Sample>> samplesByName = new TreeMap<>();
+        for (Map<SeriesKey, SeriesValue> stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Map.Entry<SeriesKey, SeriesValue>> iterator = stripe.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<SeriesKey, SeriesValue> entry = iterator.next();
+                    SeriesKey key = entry.getKey();
+                    SeriesValue value = entry.getValue();
+                    if (value.receivedAt < expireBefore) {
+                        iterator.remove();
+                        seriesCount.decrementAndGet();
+                        continue;
+                    }
+                    samplesByName.computeIfAbsent(key.metricName, k -> new ArrayList<>())
+                            .add(new MetricFamilySamples.Sample(key.metricName, key.labelNames, key.labelValues,
+                                    value.value, value.timestamp));
+                }
+            }
+        }
+        List<MetricFamilySamples> familySamples = new ArrayList<>(samplesByName.size());
+        samplesByName.forEach((name, samples) ->
+                familySamples.add(new MetricFamilySamples(name, Type.GAUGE, "", samples)));
+        return familySamples;
+    }
+
+    @VisibleForTesting
+    int getSeriesCount() {
+        return seriesCount.get();
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private Map<SeriesKey, SeriesValue> stripeFor(SeriesKey key) {
+        return stripes.get(Math.floorMod(key.hashCode(), STRIPES));
+    }
+
+    private static final class SeriesKey {
+        private final String metricName;
+        private final List<String> labelNames;
+        private final List<String> labelValues;
+        private final int hash;
+
+        private SeriesKey(String metricName, List<String> labelNames, List<String> labelValues) {
+            this.metricName = metricName;
+            this.labelNames = labelNames;
+            this.labelValues = labelValues;
+            this.hash = 31 * (31 * metricName.hashCode() + labelNames.hashCode()) + labelValues.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey other = (SeriesKey) o;
+            return hash == other.hash && metricName.equals(other.metricName) &&
+                    labelNames.equals(other.labelNames) && labelValues.equals(other.labelValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class SeriesValue {
+        private double value;
+        private long timestamp;
+        private long receivedAt;
+
+        private SeriesValue(double value, long timestamp, long receivedAt) {
+            this.value = value;
+            this.timestamp = timestamp;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
@@ -22,6 +22,36 @@ public class MetricQuery {
     private final Metric metric;
     private final MetricStat metricStat;
     private final MetricDataQuery metricDataQuery;
-    @Setter
     private Resource resource;
+
+    /**
+     * Built on the first scrape of the query. See {@link SampleTemplate}
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile SampleTemplate sampleTemplate;
+
+    /**
+     * The most series a single response to this <code>SEARCH</code> query has returned since the query was built.
+     * Used by {@link QueryBatcher} to size the batches.
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile int expectedSeries;
+
+    public void setResource(Resource resource) {
+        this.resource = resource;
+        // The labels depend on the resource
+        this.sampleTemplate = null;
+    }
+
+    public void recordSeries(int series) {
+        if (series > expectedSeries) {
+            expectedSeries = series;
+        }
+    }
+
+    public boolean isSearchQuery() {
+        return metricDataQuery.expression() != null;
+    }
 }
@@ -6,25 +6,35 @@ package ai.asserts.aws.cloudwatch.query;
 
 import ai.asserts.aws.config.MetricConfig;
 import ai.asserts.aws.resource.Resource;
+import ai.asserts.aws.resource.ResourceIndex;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
 import software.amazon.awssdk.services.cloudwatch.model.Metric;
 import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
 import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
 
 @Component
+@Slf4j
 public class MetricQueryBuilder {
+    static final String SEARCH_LABEL_SEPARATOR = "|";
+    private static final Pattern PLAIN_SEARCH_TERM = Pattern.compile("[A-Za-z0-9_./:-]+");
+
     public List<MetricQuery> buildQueries(QueryIdGenerator queryIdGenerator,
-                                          Set<Resource> tagFilteredResources,
+                                          ResourceIndex tagFilteredResources,
                                           MetricConfig metricConfig, Metric metric) {
         List<MetricQuery> metricQueries = new ArrayList<>();
-        Optional<Resource> ofResource = tagFilteredResources.stream()
-                .filter(resource -> resource.matches(metric))
-                .findFirst();
+        Optional<Resource> ofResource = tagFilteredResources.findMatch(metric);
         metricConfig.getStats().forEach(stat -> {
             MetricQuery metricQuery = buildQuery(queryIdGenerator, metricConfig, stat, metric);
             ofResource.ifPresent(metricQuery::setResource);
@@ -51,4 +61,97 @@ public class MetricQueryBuilder {
                         .build())
                 .build();
     }
+
+    /**
+     * Builds one <code>SEARCH</code> expression query per stat of the metric, e.g.
+     * <code>SEARCH('{AWS/Lambda,FunctionName} MetricName="Invocations"', 'Sum', 60)</code>. A single query returns
+     * a time series for every metric that matches, so no <code>ListMetrics</code> discovery is needed. The label of
+     * each returned series carries the values of the configured dimensions so that it can be mapped back to a
+     * {@link Metric} with {@link #resolveSearchResult(MetricQuery, String)}. The namespace, dimension names and
+     * metric name come from the configuration, so they are quoted and escaped as needed.
+     */
+    public List<MetricQuery> buildSearchQueries(QueryIdGenerator queryIdGenerator, String namespace,
+                                                MetricConfig metricConfig) {
+        List<String> dimensions = metricConfig.getDimensions() != null ?
+                metricConfig.getDimensions() : Collections.emptyList();
+        String schema = Stream.concat(Stream.of(namespace), dimensions.stream())
+                .map(this::searchTerm)
+                .collect(Collectors.joining(","));
+        String label = dimensions.stream()
+                .map(dimension -> format("${PROP('Dim.%s')}", dimension))
+                .collect(Collectors.joining(SEARCH_LABEL_SEPARATOR));
+        Metric metric = Metric.builder()
+                .namespace(namespace)
+                .metricName(metricConfig.getName())
+                .build();
+        List<MetricQuery> metricQueries = new ArrayList<>();
+        metricConfig.getStats().forEach(stat -> metricQueries.add(MetricQuery.builder()
+                .metricConfig(metricConfig)
+                .metric(metric)
+                .metricStat(stat)
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id(queryIdGenerator.next())
+                        .expression(format("SEARCH('{%s} MetricName=%s', '%s', %d)",
+                                schema, quotedSearchTerm(metricConfig.getName()), stat.toString(),
+                                metricConfig.getEffectiveScrapeInterval()))
+                        .label(label.isEmpty() ? null : label)
+                        .build())
+                .build()));
+        return metricQueries;
+    }
+
+    /**
+     * A term of a <code>SEARCH</code> expression is double-quoted when it has anything other than letters, digits and
+     * <code>_./:-</code>.
+     */
+    private String searchTerm(String term) {
+        return PLAIN_SEARCH_TERM.matcher(term).matches() ? term : quotedSearchTerm(term);
+    }
+
+    /**
+     * Double-quotes a term of a <code>SEARCH</code> expression. The expression itself is single-quoted, so both
+     * quotes are escaped along with the backslash.
+     */
+    private String quotedSearchTerm(String term) {
+        return "\"" + term.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("'", "\\'") + "\"";
+    }
+
+    /**
+     * Maps a time series returned by a <code>SEARCH</code> expression back to a query for the specific metric,
+     * using the dimension values in the label of the series. CloudWatch can't escape the values in a label, so the
+     * value of a single dimension is the whole label, and with several dimensions the last value takes the rest of
+     * the label after the separators of the other values. A separator in the value of any other dimension can't be
+     * told apart from the real separators.
+     */
+    public Optional<MetricQuery> resolveSearchResult(MetricQuery searchQuery, String label) {
+        MetricConfig metricConfig = searchQuery.getMetricConfig();
+        List<String> dimensions = metricConfig.getDimensions() != null ?
+                metricConfig.getDimensions() : Collections.emptyList();
+        List<Dimension> dimensionValues = new ArrayList<>();
+        if (!dimensions.isEmpty()) {
+            String[] values = label != null ?
+                    label.split(Pattern.quote(SEARCH_LABEL_SEPARATOR), dimensions.size()) : new String[0];
+            if (values.length != dimensions.size()) {
+                log.warn("Unexpected label '{}' for SEARCH result of {}", label,
+                        searchQuery.getMetricDataQuery().expression());
+                return Optional.empty();
+            }
+            for (int i = 0; i < values.length; i++) {
+                dimensionValues.add(Dimension.builder()
+                        .name(dimensions.get(i))
+                        .value(values[i])
+                        .build());
+            }
+        }
+        return Optional.of(MetricQuery.builder()
+                .metricConfig(metricConfig)
+                .metric(searchQuery.getMetric().toBuilder()
+                        .dimensions(dimensionValues)
+                        .build())
+                .metricStat(searchQuery.getMetricStat())
+                .metricDataQuery(searchQuery.getMetricDataQuery())
+                .build());
+    }
 }
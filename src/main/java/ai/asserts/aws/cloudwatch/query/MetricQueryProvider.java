@@ -1,25 +1,33 @@
-
 package ai.asserts.aws.cloudwatch.query;
 
 import ai.asserts.aws.AWSClientProvider;
+import ai.asserts.aws.DiscoverySnapshotStore;
 import ai.asserts.aws.EnvironmentConfig;
 import ai.asserts.aws.MetricNameUtil;
 import ai.asserts.aws.AWSApiCallRateLimiter;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.SimpleTenantTask;
 import ai.asserts.aws.TaskExecutorUtil;
+import ai.asserts.aws.TaskPriority;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.account.AccountProvider;
 import ai.asserts.aws.config.MetricConfig;
 import ai.asserts.aws.config.NamespaceConfig;
 import ai.asserts.aws.config.ScrapeConfig;
+import ai.asserts.aws.exporter.ECSServiceDiscoveryExporter;
 import ai.asserts.aws.model.CWNamespace;
-import ai.asserts.aws.resource.Resource;
+import ai.asserts.aws.resource.ResourceIndex;
 import ai.asserts.aws.resource.ResourceTagHelper;
-import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSortedMap;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
 import software.amazon.awssdk.services.cloudwatch.model.ListMetricsResponse;
@@ -33,15 +41,39 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.Future;
-import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_ACCOUNT_ID_LABEL;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_NAMESPACE_LABEL;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_OPERATION_LABEL;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_REGION_LABEL;
-import static java.util.concurrent.TimeUnit.MINUTES;
 
+/**
+ * Discovers the metrics to scrape and builds the {@link MetricQuery}s for them. Discovery is split into independent
+ * units, one for each (account, region, namespace). A unit is discovered as soon as it shows up in the configuration
+ * and then refreshed in the background every <code>aws_exporter.metric_discovery_interval_minutes</code>. Each unit
+ * gets a fixed offset within the interval, so the refresh cost is spread over the interval instead of all units
+ * being re-listed at once.
+ * <p>
+ * After a unit is refreshed, the queries of all the units are published as an immutable index that is swapped in
+ * atomically. {@link #getMetricQueries()} only reads the current index, so scrapes never wait on discovery. If a
+ * refresh fails, the unit keeps serving the queries from its last successful discovery.
+ * <p>
+ * When a {@link DiscoverySnapshotStore} is configured, a new unit is first seeded with the queries from the
+ * snapshot, so that a restart can scrape right away. The unit is still rediscovered at its offset in the interval.
+ * <p>
+ * Units of namespaces that use <code>SEARCH</code> expressions have nothing to discover. Their queries are built
+ * once and only rebuilt when the namespace configuration changes, so that they keep what the scrapes learned about
+ * them, e.g. {@link MetricQuery#getExpectedSeries()}.
+ * <p>
+ * Like the scrapes, discovery only runs on the primary exporter unless the exporter is multi-tenant or distributed,
+ * see {@link ECSServiceDiscoveryExporter#isPrimaryExporter()}.
+ */
 @Component
 @Slf4j
 public class MetricQueryProvider {
@@ -53,9 +85,15 @@ public class MetricQueryProvider {
     private final AWSClientProvider awsClientProvider;
     private final ResourceTagHelper resourceTagHelper;
     private final MetricQueryBuilder metricQueryBuilder;
-    private final Supplier<Map<String, Map<String, Map<Integer, List<MetricQuery>>>>> metricQueryCache;
     private final AWSApiCallRateLimiter rateLimiter;
     private final TaskExecutorUtil taskExecutorUtil;
+    private final DiscoverySnapshotStore snapshotStore;
+    private final ECSServiceDiscoveryExporter ecsServiceDiscoveryExporter;
+    private final Map<DiscoveryKey, DiscoveryUnit> discoveryUnits = new ConcurrentHashMap<>();
+    private final AtomicReference<Map<String, Map<String, Map<Integer, List<MetricQuery>>>>> queryIndex =
+            new AtomicReference<>(Collections.emptyMap());
+    @Value("${aws_exporter.metric_discovery_interval_minutes:10}")
+    int discoveryIntervalMinutes = 10;
 
     public MetricQueryProvider(EnvironmentConfig environmentConfig,
                                AccountProvider accountProvider,
@@ -66,7 +104,9 @@ public class MetricQueryProvider {
                                ResourceTagHelper resourceTagHelper,
                                MetricQueryBuilder metricQueryBuilder,
                                AWSApiCallRateLimiter rateLimiter,
-                               TaskExecutorUtil taskExecutorUtil) {
+                               TaskExecutorUtil taskExecutorUtil,
+                               DiscoverySnapshotStore snapshotStore,
+                               ECSServiceDiscoveryExporter ecsServiceDiscoveryExporter) {
         this.environmentConfig = environmentConfig;
         this.accountProvider = accountProvider;
         this.scrapeConfigProvider = scrapeConfigProvider;
@@ -77,134 +117,339 @@ public class MetricQueryProvider {
         this.metricQueryBuilder = metricQueryBuilder;
         this.rateLimiter = rateLimiter;
         this.taskExecutorUtil = taskExecutorUtil;
-        metricQueryCache = Suppliers.memoizeWithExpiration(this::getQueriesInternal, 10, MINUTES);
+        this.snapshotStore = snapshotStore;
+        this.ecsServiceDiscoveryExporter = ecsServiceDiscoveryExporter;
         log.info("Initialized..");
     }
 
     public Map<String, Map<String, Map<Integer, List<MetricQuery>>>> getMetricQueries() {
-        return metricQueryCache.get();
+        return queryIndex.get();
     }
 
-    Map<String, Map<String, Map<Integer, List<MetricQuery>>>> getQueriesInternal() {
+    /**
+     * Reconciles the discovery units with the current configuration and starts a background refresh of the units
+     * that are due. Units that are no longer configured are dropped from the index.
+     */
+    @SuppressWarnings("unused")
+    @Scheduled(fixedRateString = "${aws_exporter.metric_discovery.task.fixedDelay:15000}",
+            initialDelayString = "${aws_exporter.metric_discovery.task.initialDelay:0}")
+    public void refreshDiscovery() {
         if (environmentConfig.isDisabled()) {
-            log.info("All processing off");
-            return Collections.emptyMap();
+            // Runs every few seconds, so only the switch is logged
+            if (discoveryUnits.size() > 0) {
+                log.info("All processing off");
+                discoveryUnits.clear();
+                publish();
+            }
+            return;
+        }
+        if (!environmentConfig.isMultiTenant() && !environmentConfig.isDistributed() &&
+                !ecsServiceDiscoveryExporter.isPrimaryExporter()) {
+            log.debug("Not the primary exporter. Not discovering metric queries");
+            return;
         }
-        Map<String, Map<String, Map<Integer, List<MetricQuery>>>> queriesByAccount = new TreeMap<>();
-        List<Future<Void>> futures = new ArrayList<>();
+
+        Set<DiscoveryKey> configured = new HashSet<>();
+        AtomicBoolean restored = new AtomicBoolean(false);
         for (AWSAccount accountRegion : accountProvider.getAccounts()) {
             ScrapeConfig scrapeConfig = scrapeConfigProvider.getScrapeConfig(accountRegion.getTenant());
-            String account = accountRegion.getAccountId();
             if (!scrapeConfig.isFetchCWMetrics()) {
-                log.info("CW Metric pull is disabled. Not discovering metric queries");
-                return Collections.emptyMap();
+                log.debug("CW Metric pull is disabled. Not discovering metric queries for account {}",
+                        accountRegion.getAccountId());
+                continue;
             }
-            log.info("Will discover metrics and build metric queries for tenant {}, account {}",
-                    accountRegion.getTenant(), accountRegion.getAccountId());
-            accountRegion.getRegions().forEach(region -> futures.add(
-                    taskExecutorUtil.executeAccountTask(accountRegion, new SimpleTenantTask<Void>() {
-                        @Override
-                        public Void call() {
-                            buildQueries(scrapeConfig, region, accountRegion, account, queriesByAccount);
-                            return null;
+            long now = System.currentTimeMillis();
+            accountRegion.getRegions().forEach(region -> scrapeConfig.getNamespaces().stream()
+                    .filter(NamespaceConfig::isEnabled)
+                    .forEach(ns -> {
+                        DiscoveryKey key = DiscoveryKey.builder()
+                                .account(accountRegion.getAccountId())
+                                .region(region)
+                                .namespace(ns.getName())
+                                .build();
+                        configured.add(key);
+                        DiscoveryUnit unit = discoveryUnits.computeIfAbsent(key, k -> {
+                            DiscoveryUnit newUnit = restore(k, ns);
+                            restored.compareAndSet(false, newUnit.queries.size() > 0);
+                            return newUnit;
+                        });
+                        if (ns.isUseSearchExpression()) {
+                            if (!ns.equals(unit.searchConfig)) {
+                                unit.searchConfig = ns;
+                                completeRefresh(key, unit, buildSearchQueries(region, ns));
+                            }
+                        } else if (unit.nextRefreshAt <= now && unit.refreshing.compareAndSet(false, true)) {
+                            unit.nextRefreshAt = nextRefreshTime(key, unit, now);
+                            refresh(accountRegion, region, ns, unit);
                         }
-                    })));
+                    }));
+        }
+
+        Set<DiscoveryKey> removed = new HashSet<>(discoveryUnits.keySet());
+        removed.removeAll(configured);
+        removed.forEach(key -> {
+            discoveryUnits.remove(key);
+            snapshotStore.removeMetricQueries(key.snapshotKey());
+        });
+        if (restored.get() || removed.size() > 0) {
+            publish();
         }
+    }
 
-        taskExecutorUtil.awaitAll(futures, (object) -> {
+    /**
+     * Creates a new unit, seeded with the queries from the snapshot if there are any. The queries are rebuilt
+     * against the current configuration, so metrics or stats that are no longer configured are left out. A restored
+     * unit is revalidated at its offset in the interval instead of right away.
+     */
+    private DiscoveryUnit restore(DiscoveryKey key, NamespaceConfig ns) {
+        DiscoveryUnit unit = new DiscoveryUnit();
+        if (ns.isUseSearchExpression()) {
+            return unit;
+        }
+        snapshotStore.getMetricQueries(key.snapshotKey()).ifPresent(snapshotQueries -> {
+            Map<String, MetricConfig> configuredMetrics = configuredMetrics(ns);
+            List<MetricQuery> queries = new ArrayList<>();
+            snapshotQueries.forEach(snapshotQuery -> {
+                MetricConfig metricConfig = configuredMetrics.get(snapshotQuery.getMetricName());
+                if (metricConfig != null && metricConfig.getStats().contains(snapshotQuery.getStat()) &&
+                        metricConfig.matchesMetric(snapshotQuery.getMetric())) {
+                    MetricQuery metricQuery = metricQueryBuilder.buildQuery(queryIdGenerator, metricConfig,
+                            snapshotQuery.getStat(), snapshotQuery.getMetric());
+                    metricQuery.setResource(snapshotQuery.getResource());
+                    queries.add(metricQuery);
+                }
+            });
+            log.info("Restored {} metric queries for {} from the discovery snapshot", queries.size(), key);
+            unit.queries = Collections.unmodifiableList(queries);
+            unit.nextRefreshAt = nextRefreshTime(key, unit, System.currentTimeMillis());
         });
+        return unit;
+    }
 
-        Set<String> metricNames = new HashSet<>();
-        queriesByAccount.forEach((account, queriesByRegion) ->
-                queriesByRegion.forEach((region, byInterval) ->
-                        byInterval.forEach((interval, queries) ->
-                                queries.forEach(metricQuery -> {
-                                    String exportedMetricName = metricNameUtil.exportedMetricName(
-                                            metricQuery.getMetric(),
-                                            metricQuery.getMetricStat());
-                                    if (metricNames.add(exportedMetricName)) {
-                                        log.debug("Will scrape {} agg over {} seconds every {} seconds",
-                                                exportedMetricName,
-                                                metricQuery.getMetricConfig().getEffectiveScrapeInterval(),
-                                                interval);
-                                    }
-                                }))));
-
-
-        return queriesByAccount;
-    }
-
-    private void buildQueries(ScrapeConfig scrapeConfig, String region, AWSAccount accountRegion, String account,
-                              Map<String, Map<String, Map<Integer, List<MetricQuery>>>> queriesByAccount) {
-        scrapeConfig.getNamespaces().stream()
-                .filter(NamespaceConfig::isEnabled)
-                .forEach(ns -> {
-                    try {
-                        CloudWatchClient cloudWatchClient =
-                                awsClientProvider.getCloudWatchClient(region, accountRegion);
-                        Set<Resource> tagFilteredResources =
-                                resourceTagHelper.getFilteredResources(accountRegion, region, ns);
-                        if (!ns.hasTagFilters() || tagFilteredResources.size() > 0) {
-
-                            Map<String, MetricConfig> configuredMetrics = new TreeMap<>();
-                            ns.getMetrics()
-                                    .forEach(metricConfig -> configuredMetrics.put(
-                                            metricConfig.getName(),
-                                            metricConfig));
-
-                            String nextToken = null;
-                            do {
-                                ListMetricsRequest.Builder builder = ListMetricsRequest.builder()
-                                        .nextToken(nextToken);
-                                Optional<CWNamespace> nsOpt =
-                                        scrapeConfigProvider.getStandardNamespace(ns.getName());
-                                if (nsOpt.isPresent()) {
-                                    String namespace = nsOpt.get().getNamespace();
-                                    builder = builder.namespace(namespace);
-                                    log.info("Discovering all metrics for region={}, namespace={} ",
-                                            region,
-                                            namespace);
-                                } else {
-                                    builder = builder.namespace(ns.getName());
-                                    log.info("Discovering all metrics for region={}, namespace={} ",
-                                            region,
-                                            ns.getName());
-                                }
+    /**
+     * The first refresh of a unit is scheduled at a fixed offset within the interval, derived from the unit, and
+     * every refresh after that is one interval apart. This spreads the units evenly over the interval.
+     */
+    private long nextRefreshTime(DiscoveryKey key, DiscoveryUnit unit, long now) {
+        long intervalMillis = TimeUnit.MINUTES.toMillis(Math.max(1, discoveryIntervalMinutes));
+        if (unit.nextRefreshAt == 0) {
+            return now + Math.floorMod(key.hashCode(), intervalMillis);
+        }
+        return now + intervalMillis;
+    }
 
-                                ListMetricsRequest request = builder.build();
-                                ListMetricsResponse response = rateLimiter.doWithRateLimit(
-                                        "CloudWatchClient/ListMetrics",
-                                        operationLabels(account, region, ns),
-                                        () -> cloudWatchClient.listMetrics(request));
-
-                                if (response.hasMetrics()) {
-                                    // Check if the metric is on a tag filtered resource
-                                    // Also check if the metric matches any dimension filters that
-                                    // might be
-                                    // specified
-                                    response.metrics()
-                                            .stream()
-                                            .filter(metric -> isAConfiguredMetric(configuredMetrics,
-                                                    metric) &&
-                                                    belongsToFilteredResource(ns,
-                                                            tagFilteredResources,
-                                                            metric))
-                                            .forEach(metric -> buildQueries(queriesByAccount,
-                                                    account,
-                                                    region,
-                                                    tagFilteredResources,
-                                                    configuredMetrics.get(metric.metricName()),
-                                                    metric));
+    private void refresh(AWSAccount accountRegion, String region, NamespaceConfig ns, DiscoveryUnit unit) {
+        DiscoveryKey key = DiscoveryKey.builder()
+                .account(accountRegion.getAccountId())
+                .region(region)
+                .namespace(ns.getName())
+                .build();
+        log.info("Will discover metrics and build metric queries for tenant {}, account {}, region {}, namespace {}",
+                accountRegion.getTenant(), accountRegion.getAccountId(), region, ns.getName());
+        if (environmentConfig.isAsyncApiCalls()) {
+            // The tag lookup uses the synchronous clients and needs the account of the task, so it runs as a task
+            // on the pool instead of on the scheduler thread. Only the ListMetrics pages are fetched async
+            taskExecutorUtil.supplyAccountTask(accountRegion, TaskPriority.METADATA,
+                            new SimpleTenantTask<ResourceIndex>() {
+                                @Override
+                                public ResourceIndex call() {
+                                    return resourceTagHelper.getFilteredResourceIndex(accountRegion, region, ns);
                                 }
-                                nextToken = response.nextToken();
-                            } while (nextToken != null);
+                            })
+                    .thenCompose(tagFilteredResources ->
+                            buildQueriesAsync(region, accountRegion, ns, tagFilteredResources))
+                    .whenComplete((queries, e) -> {
+                        if (e != null) {
+                            log.info("Failed to scrape metrics", e);
                         }
+                        completeRefresh(key, unit, queries);
+                    });
+        } else {
+            taskExecutorUtil.executeAccountTask(accountRegion, new SimpleTenantTask<Void>() {
+                @Override
+                public Void call() {
+                    List<MetricQuery> queries = null;
+                    try {
+                        queries = buildQueries(region, accountRegion, ns);
                     } catch (Exception e) {
                         log.info("Failed to scrape metrics", e);
+                    } finally {
+                        completeRefresh(key, unit, queries);
                     }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private void completeRefresh(DiscoveryKey key, DiscoveryUnit unit, List<MetricQuery> queries) {
+        if (queries != null) {
+            unit.queries = Collections.unmodifiableList(queries);
+            snapshotStore.putMetricQueries(key.snapshotKey(), queries);
+            Set<String> metricNames = new HashSet<>();
+            queries.forEach(metricQuery -> {
+                String exportedMetricName = metricNameUtil.exportedMetricName(
+                        metricQuery.getMetric(),
+                        metricQuery.getMetricStat());
+                if (metricNames.add(exportedMetricName)) {
+                    log.debug("Will scrape {} every {} seconds",
+                            exportedMetricName,
+                            metricQuery.getMetricConfig().getEffectiveScrapeInterval());
+                }
+            });
+            publish();
+        }
+        unit.refreshing.set(false);
+    }
+
+    /**
+     * Builds a new index from the latest queries of every unit and swaps it in. Synchronized so that an index
+     * built from an older state never replaces one built from a newer state.
+     */
+    private synchronized void publish() {
+        Map<String, Map<String, Map<Integer, List<MetricQuery>>>> index = new TreeMap<>();
+        discoveryUnits.forEach((key, unit) -> unit.queries.forEach(metricQuery -> index
+                .computeIfAbsent(key.getAccount(), k -> new TreeMap<>())
+                .computeIfAbsent(key.getRegion(), k -> new TreeMap<>())
+                .computeIfAbsent(metricQuery.getMetricConfig().getEffectiveScrapeInterval(), k -> new ArrayList<>())
+                .add(metricQuery)));
+        index.replaceAll((account, byRegion) -> {
+            byRegion.replaceAll((region, byInterval) -> {
+                byInterval.replaceAll((interval, queries) -> Collections.unmodifiableList(queries));
+                return Collections.unmodifiableMap(byInterval);
+            });
+            return Collections.unmodifiableMap(byRegion);
+        });
+        queryIndex.set(Collections.unmodifiableMap(index));
+    }
+
+    private List<MetricQuery> buildQueries(String region, AWSAccount accountRegion, NamespaceConfig ns) {
+        List<MetricQuery> queries = new ArrayList<>();
+        CloudWatchClient cloudWatchClient =
+                awsClientProvider.getCloudWatchClient(region, accountRegion);
+        ResourceIndex tagFilteredResources =
+                resourceTagHelper.getFilteredResourceIndex(accountRegion, region, ns);
+        if (!ns.hasTagFilters() || !tagFilteredResources.isEmpty()) {
+            Map<String, MetricConfig> configuredMetrics = configuredMetrics(ns);
+            String nextToken = null;
+            do {
+                ListMetricsRequest request = listMetricsRequest(region, ns, nextToken);
+                ListMetricsResponse response = rateLimiter.doWithRateLimit(
+                        "CloudWatchClient/ListMetrics",
+                        operationLabels(accountRegion.getAccountId(), region, ns),
+                        () -> cloudWatchClient.listMetrics(request));
+                processMetrics(queries, ns, tagFilteredResources, configuredMetrics, response);
+                nextToken = response.nextToken();
+            } while (nextToken != null);
+        }
+        return queries;
+    }
+
+    /**
+     * Same as {@link #buildQueries(String, AWSAccount, NamespaceConfig)} but the <code>ListMetrics</code> pages are
+     * fetched with the {@link CloudWatchAsyncClient}, without holding a thread while the requests are in flight.
+     */
+    private CompletableFuture<List<MetricQuery>> buildQueriesAsync(String region, AWSAccount accountRegion,
+                                                                   NamespaceConfig ns,
+                                                                   ResourceIndex tagFilteredResources) {
+        try {
+            List<MetricQuery> queries = new ArrayList<>();
+            if (ns.hasTagFilters() && tagFilteredResources.isEmpty()) {
+                return CompletableFuture.completedFuture(queries);
+            }
+            CloudWatchAsyncClient cloudWatchClient =
+                    awsClientProvider.getCloudWatchAsyncClient(region, accountRegion);
+            Map<String, MetricConfig> configuredMetrics = configuredMetrics(ns);
+            // The pages are fetched one after the other, so the list is never updated concurrently
+            return listMetricsAsync(cloudWatchClient, accountRegion.getAccountId(), region, ns, null,
+                    response -> processMetrics(queries, ns, tagFilteredResources, configuredMetrics, response))
+                    .thenApply(ignore -> queries);
+        } catch (Exception e) {
+            CompletableFuture<List<MetricQuery>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private CompletableFuture<Void> listMetricsAsync(CloudWatchAsyncClient cloudWatchClient, String account,
+                                                     String region, NamespaceConfig ns, String nextToken,
+                                                     Consumer<ListMetricsResponse> consumer) {
+        ListMetricsRequest request = listMetricsRequest(region, ns, nextToken);
+        return rateLimiter.doWithRateLimitAsync(TaskPriority.METADATA,
+                        "CloudWatchClient/ListMetrics",
+                        operationLabels(account, region, ns),
+                        () -> cloudWatchClient.listMetrics(request))
+                .thenCompose(response -> {
+                    consumer.accept(response);
+                    if (response.nextToken() != null) {
+                        return listMetricsAsync(cloudWatchClient, account, region, ns, response.nextToken(),
+                                consumer);
+                    }
+                    return CompletableFuture.completedFuture(null);
                 });
     }
 
+    private Map<String, MetricConfig> configuredMetrics(NamespaceConfig ns) {
+        Map<String, MetricConfig> configuredMetrics = new TreeMap<>();
+        ns.getMetrics()
+                .forEach(metricConfig -> configuredMetrics.put(
+                        metricConfig.getName(),
+                        metricConfig));
+        return configuredMetrics;
+    }
+
+    private ListMetricsRequest listMetricsRequest(String region, NamespaceConfig ns, String nextToken) {
+        String namespace = cwNamespace(ns);
+        log.info("Discovering all metrics for region={}, namespace={} ",
+                region,
+                namespace);
+        return ListMetricsRequest.builder()
+                .nextToken(nextToken)
+                .namespace(namespace)
+                .build();
+    }
+
+    private String cwNamespace(NamespaceConfig ns) {
+        Optional<CWNamespace> nsOpt =
+                scrapeConfigProvider.getStandardNamespace(ns.getName());
+        return nsOpt.map(CWNamespace::getNamespace).orElse(ns.getName());
+    }
+
+    /**
+     * Builds <code>SEARCH</code> expression queries for all the configured metrics of the namespace. This needs
+     * no <code>ListMetrics</code> discovery, as each query returns every matching metric when it is scraped.
+     */
+    private List<MetricQuery> buildSearchQueries(String region, NamespaceConfig ns) {
+        String namespace = cwNamespace(ns);
+        log.info("Will use SEARCH expressions for region={}, namespace={}", region, namespace);
+        List<MetricQuery> queries = new ArrayList<>();
+        ns.getMetrics().forEach(metricConfig ->
+                queries.addAll(metricQueryBuilder.buildSearchQueries(queryIdGenerator, namespace, metricConfig)));
+        return queries;
+    }
+
+    private void processMetrics(List<MetricQuery> queries, NamespaceConfig ns,
+                                ResourceIndex tagFilteredResources, Map<String, MetricConfig> configuredMetrics,
+                                ListMetricsResponse response) {
+        if (response.hasMetrics()) {
+            // Check if the metric is on a tag filtered resource
+            // Also check if the metric matches any dimension filters that
+            // might be
+            // specified
+            response.metrics()
+                    .stream()
+                    .filter(metric -> isAConfiguredMetric(configuredMetrics,
+                            metric) &&
+                            belongsToFilteredResource(ns,
+                                    tagFilteredResources,
+                                    metric))
+                    .forEach(metric -> queries.addAll(metricQueryBuilder.buildQueries(queryIdGenerator,
+                            tagFilteredResources,
+                            configuredMetrics.get(metric.metricName()),
+                            metric)));
+        }
+    }
+
     private ImmutableSortedMap<String, String> operationLabels(String account, String region, NamespaceConfig ns) {
         return ImmutableSortedMap.of(
                 SCRAPE_ACCOUNT_ID_LABEL, account,
@@ -214,24 +459,36 @@ public class MetricQueryProvider {
         );
     }
 
-    private boolean belongsToFilteredResource(NamespaceConfig namespaceConfig, Set<Resource> tagFilteredResources,
+    private boolean belongsToFilteredResource(NamespaceConfig namespaceConfig, ResourceIndex tagFilteredResources,
                                               Metric metric) {
-        return !namespaceConfig.hasTagFilters() ||
-                tagFilteredResources.stream().anyMatch(resource -> resource.matches(metric));
+        return !namespaceConfig.hasTagFilters() || tagFilteredResources.findMatch(metric).isPresent();
     }
 
     private boolean isAConfiguredMetric(Map<String, MetricConfig> byName, Metric metric) {
         return byName.containsKey(metric.metricName()) && byName.get(metric.metricName()).matchesMetric(metric);
     }
 
-    private void buildQueries(Map<String, Map<String, Map<Integer, List<MetricQuery>>>> byIntervalWithDimensions,
-                              String account, String region,
-                              Set<Resource> resources, MetricConfig metricConfig, Metric metric) {
-        List<MetricQuery> metricQueries = byIntervalWithDimensions
-                .computeIfAbsent(account, k -> new TreeMap<>())
-                .computeIfAbsent(region, k -> new TreeMap<>())
-                .computeIfAbsent(metricConfig.getEffectiveScrapeInterval(), k -> new ArrayList<>());
-        metricQueries.addAll(metricQueryBuilder.buildQueries(queryIdGenerator, resources, metricConfig,
-                metric));
+    @EqualsAndHashCode
+    @Builder
+    @Getter
+    @ToString
+    private static class DiscoveryKey {
+        private final String account;
+        private final String region;
+        private final String namespace;
+
+        private String snapshotKey() {
+            return DiscoverySnapshotStore.key(account, region, namespace);
+        }
+    }
+
+    private static class DiscoveryUnit {
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+        private volatile long nextRefreshAt;
+        private volatile List<MetricQuery> queries = Collections.emptyList();
+        /**
+         * The namespace configuration the <code>SEARCH</code> queries were built from
+         */
+        private volatile NamespaceConfig searchConfig;
     }
 }
@@ -0,0 +1,31 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.query;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The queries of a single <code>GetMetricData</code> call. All the queries in a batch share the same time window.
+ */
+@Getter
+@Builder
+@EqualsAndHashCode
+@ToString
+public class QueryBatch {
+    private final Instant startTime;
+    private final Instant endTime;
+    private final List<MetricQuery> queries;
+    private final long estimatedDatapoints;
+    /**
+     * How close the batch is to the query count or the datapoint limit of a call, whichever is closer
+     */
+    private final double fillRatio;
+}
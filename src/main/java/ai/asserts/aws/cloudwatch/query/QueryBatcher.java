@@ -1,23 +1,111 @@
-
 package ai.asserts.aws.cloudwatch.query;
 
-import com.google.common.collect.Lists;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
+/**
+ * Packs the metric queries into as few <code>GetMetricData</code> calls as possible while meeting the following
+ * limits of each call
+ * <ol>
+ *     <li>A maximum of 500 metrics per API call</li>
+ *     <li>A maximum of 100800 data points returned in each call</li>
+ * </ol>
+ * A call has a single time window, so the queries are first grouped by their time window. Within a group, the
+ * queries are sorted by their estimated datapoints (time window / period) and filled into a batch until either
+ * limit would be exceeded. Staying within the datapoint limit also avoids the extra <code>nextToken</code> pages.
+ * <p>
+ * A <code>SEARCH</code> query returns a time series for every matching metric, so its datapoints are multiplied by
+ * the most series it has returned so far. Until it has been scraped once, it is budgeted
+ * <code>aws_exporter.search_query_series_estimate</code> series.
+ */
 @Component
 public class QueryBatcher {
     private final int queryCountLimit;
+    private final long datapointLimit;
+    private final int searchSeriesEstimate;
 
-    public QueryBatcher(@Value("${aws_exporter.metric_data_query_limit:500}") int queryCountLimit) {
+    public QueryBatcher(@Value("${aws_exporter.metric_data_query_limit:500}") int queryCountLimit,
+                        @Value("${aws_exporter.metric_data_datapoint_limit:100800}") long datapointLimit,
+                        @Value("${aws_exporter.search_query_series_estimate:100}") int searchSeriesEstimate) {
         this.queryCountLimit = queryCountLimit;
+        this.datapointLimit = datapointLimit;
+        this.searchSeriesEstimate = searchSeriesEstimate;
+    }
+
+    public List<QueryBatch> splitIntoBatches(List<MetricQuery> queries, Function<MetricQuery, Instant[]> timeWindow) {
+        Map<List<Instant>, List<MetricQuery>> byTimeWindow = new LinkedHashMap<>();
+        queries.forEach(query -> byTimeWindow.computeIfAbsent(Arrays.asList(timeWindow.apply(query)),
+                k -> new ArrayList<>()).add(query));
+
+        List<QueryBatch> batches = new ArrayList<>();
+        byTimeWindow.forEach((window, windowQueries) -> {
+            Instant start = window.get(0);
+            Instant end = window.get(1);
+            long windowSeconds = Duration.between(start, end).getSeconds();
+            List<MetricQuery> sorted = new ArrayList<>(windowQueries);
+            sorted.sort(Comparator.comparingLong(
+                    (MetricQuery query) -> estimateDatapoints(query, windowSeconds)).reversed());
+
+            List<MetricQuery> current = new ArrayList<>();
+            long currentDatapoints = 0;
+            for (MetricQuery query : sorted) {
+                long datapoints = estimateDatapoints(query, windowSeconds);
+                if (current.size() > 0 && (current.size() + 1 > queryCountLimit ||
+                        currentDatapoints + datapoints > datapointLimit)) {
+                    batches.add(buildBatch(start, end, current, currentDatapoints));
+                    current = new ArrayList<>();
+                    currentDatapoints = 0;
+                }
+                current.add(query);
+                currentDatapoints += datapoints;
+            }
+            if (current.size() > 0) {
+                batches.add(buildBatch(start, end, current, currentDatapoints));
+            }
+        });
+        return batches;
+    }
+
+    long estimateDatapoints(MetricQuery query, long windowSeconds) {
+        MetricDataQuery metricDataQuery = query.getMetricDataQuery();
+        Integer period = null;
+        if (metricDataQuery.metricStat() != null) {
+            period = metricDataQuery.metricStat().period();
+        } else if (metricDataQuery.period() != null) {
+            period = metricDataQuery.period();
+        } else if (query.isSearchQuery() && query.getMetricConfig() != null) {
+            // The period of a SEARCH query is part of its expression
+            period = query.getMetricConfig().getEffectiveScrapeInterval();
+        }
+        long series = 1;
+        if (query.isSearchQuery()) {
+            series = query.getExpectedSeries() > 0 ? query.getExpectedSeries() : searchSeriesEstimate;
+        }
+        if (period == null || period <= 0) {
+            return series;
+        }
+        return series * Math.max(1, (windowSeconds + period - 1) / period);
     }
 
-    public List<List<MetricQuery>> splitIntoBatches(List<MetricQuery> queries) {
-        // Split queries into batches to meet the following limits
-        // Max of 500 metrics per API call
-        return Lists.partition(queries, queryCountLimit);
+    private QueryBatch buildBatch(Instant start, Instant end, List<MetricQuery> queries, long datapoints) {
+        double fillRatio = Math.max((double) queries.size() / queryCountLimit, (double) datapoints / datapointLimit);
+        return QueryBatch.builder()
+                .startTime(start)
+                .endTime(end)
+                .queries(queries)
+                .estimatedDatapoints(datapoints)
+                .fillRatio(fillRatio)
+                .build();
     }
 }
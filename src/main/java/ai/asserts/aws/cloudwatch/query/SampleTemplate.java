@@ -0,0 +1,51 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.query;
+
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The exported metric name and labels of a {@link MetricQuery}. These only change when the metrics are discovered
+ * again, which creates new {@link MetricQuery}s, so the template is built once for a query and every scrape only
+ * creates the {@link Sample}s with the values. All the samples share the same immutable label lists.
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class SampleTemplate {
+    private final String account;
+    private final String region;
+    private final String metricName;
+    private final List<String> labelNames;
+    private final List<String> labelValues;
+
+    public SampleTemplate(String account, String region, String metricName, Map<String, String> labels) {
+        this.account = account;
+        this.region = region;
+        this.metricName = metricName;
+        this.labelNames = Collections.unmodifiableList(new ArrayList<>(labels.keySet()));
+        this.labelValues = Collections.unmodifiableList(new ArrayList<>(labels.values()));
+    }
+
+    public boolean isFor(String account, String region) {
+        return this.account.equals(account) && this.region.equals(region);
+    }
+
+    public Sample sample(double value) {
+        return new Sample(metricName, labelNames, labelValues, value);
+    }
+
+    public Sample sample(double value, long timestampMs) {
+        return new Sample(metricName, labelNames, labelValues, value, timestampMs);
+    }
+}
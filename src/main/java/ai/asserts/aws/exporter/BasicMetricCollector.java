@@ -100,6 +100,10 @@ public class BasicMetricCollector extends Collector {
     }
 
     public void recordCounterValue(String metricName, SortedMap<String, String> inputLabels, int value) {
+        recordCounterValue(metricName, inputLabels, (long) value);
+    }
+
+    public void recordCounterValue(String metricName, SortedMap<String, String> inputLabels, long value) {
         Key key = Key.builder()
                 .metricName(metricName)
                 .labelNames(new ArrayList<>(inputLabels.keySet()))
@@ -134,6 +138,20 @@ public class BasicMetricCollector extends Collector {
     }
 
     public void recordHistogram(String metricName, SortedMap<String, String> inputLabels, double value) {
+        recordHistogram(metricName, inputLabels, value, Histogram.build());
+    }
+
+    /**
+     * Records a ratio between 0 and 1 in a histogram with buckets of 0.1, as the default buckets are meant for
+     * latencies in seconds.
+     */
+    public void recordRatio(String metricName, SortedMap<String, String> inputLabels, double value) {
+        recordHistogram(metricName, inputLabels, value, Histogram.build()
+                .buckets(0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9, 1.0));
+    }
+
+    private void recordHistogram(String metricName, SortedMap<String, String> inputLabels, double value,
+                                 Histogram.Builder builder) {
         Key key = Key.builder()
                 .metricName(metricName)
                 .labelNames(new ArrayList<>(inputLabels.keySet()))
@@ -142,7 +160,7 @@ public class BasicMetricCollector extends Collector {
         try {
             histograms.get(key, () -> {
                 log.debug("Creating histogram {}{}", key.metricName + "_count", inputLabels);
-                return Histogram.build()
+                return builder
                         .name(key.metricName)
                         .labelNames(key.labelNames.toArray(new String[0]))
                         .help("Histogram metric for " + key.metricName)
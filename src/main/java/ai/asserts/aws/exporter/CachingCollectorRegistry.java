@@ -0,0 +1,120 @@
+/*
+ *  Copyright © 2020.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.exporter;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link CollectorRegistry} that keeps the text exposition of every registered collector as a pre-rendered byte
+ * buffer. Exporters publish their samples by swapping the list returned from {@link Collector#collect()} once their
+ * <code>update()</code> completes, so a buffer is rendered again only when the collector returns a different list
+ * instance. Collectors that build a new list on every call are rendered on every scrape, as before.
+ * <p>
+ * A gzip copy of each buffer is built the first time it is asked for. The gzip members of all collectors are
+ * concatenated into one multi-member gzip stream.
+ */
+@Slf4j
+public class CachingCollectorRegistry extends CollectorRegistry {
+    private final List<CachedExposition> expositions = new CopyOnWriteArrayList<>();
+
+    public CachingCollectorRegistry() {
+        super(true);
+    }
+
+    @Override
+    public void register(Collector collector) {
+        super.register(collector);
+        expositions.add(new CachedExposition(collector));
+    }
+
+    @Override
+    public void unregister(Collector collector) {
+        super.unregister(collector);
+        expositions.removeIf(exposition -> exposition.collector == collector);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        expositions.clear();
+    }
+
+    /**
+     * Writes the exposition of all registered collectors in the Prometheus text format 0.0.4.
+     *
+     * @param out  The stream to write to.
+     * @param gzip Whether to write the gzip encoded buffers.
+     */
+    public void write(OutputStream out, boolean gzip) throws IOException {
+        for (CachedExposition exposition : expositions) {
+            out.write(exposition.get(gzip));
+        }
+    }
+
+    @VisibleForTesting
+    static class CachedExposition {
+        private final Collector collector;
+        private List<MetricFamilySamples> renderedSamples;
+        private byte[] text = new byte[0];
+        private byte[] gzipped;
+
+        CachedExposition(Collector collector) {
+            this.collector = collector;
+        }
+
+        synchronized byte[] get(boolean gzip) throws IOException {
+            try {
+                List<MetricFamilySamples> samples = collector.collect();
+                if (samples != renderedSamples) {
+                    text = render(samples);
+                    gzipped = null;
+                    renderedSamples = samples;
+                }
+            } catch (RuntimeException e) {
+                // Keep serving the last good buffer
+                log.error("Failed to collect metrics from " + collector.getClass().getName(), e);
+            }
+            if (!gzip) {
+                return text;
+            }
+            if (gzipped == null) {
+                gzipped = gzip(text);
+            }
+            return gzipped;
+        }
+
+        private byte[] render(List<MetricFamilySamples> samples) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                TextFormat.write004(writer, Collections.enumeration(samples));
+            }
+            return out.toByteArray();
+        }
+
+        private byte[] gzip(byte[] bytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, bytes.length / 4));
+            try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                gzipOut.write(bytes);
+            }
+            return out.toByteArray();
+        }
+    }
+}
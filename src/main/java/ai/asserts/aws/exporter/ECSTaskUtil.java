@@ -6,6 +6,7 @@ package ai.asserts.aws.exporter;
 
 import ai.asserts.aws.AWSApiCallRateLimiter;
 import ai.asserts.aws.AWSClientProvider;
+import ai.asserts.aws.DiscoverySnapshotStore;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.TagUtil;
 import ai.asserts.aws.TaskExecutorUtil;
@@ -63,6 +64,7 @@ public class ECSTaskUtil {
     private final TaskExecutorUtil taskExecutorUtil;
 
     private final ScrapeConfigProvider scrapeConfigProvider;
+    private final DiscoverySnapshotStore snapshotStore;
     private final String envName;
 
     public final Cache<String, TaskDefinition> taskDefsByARN = CacheBuilder.newBuilder()
@@ -81,13 +83,15 @@ public class ECSTaskUtil {
     public ECSTaskUtil(AWSClientProvider awsClientProvider, ResourceMapper resourceMapper,
                        AWSApiCallRateLimiter rateLimiter,
                        TagUtil tagUtil, TaskExecutorUtil taskExecutorUtil,
-                       ScrapeConfigProvider scrapeConfigProvider) {
+                       ScrapeConfigProvider scrapeConfigProvider,
+                       DiscoverySnapshotStore snapshotStore) {
         this.awsClientProvider = awsClientProvider;
         this.resourceMapper = resourceMapper;
         this.rateLimiter = rateLimiter;
         this.tagUtil = tagUtil;
         this.taskExecutorUtil = taskExecutorUtil;
         this.scrapeConfigProvider = scrapeConfigProvider;
+        this.snapshotStore = snapshotStore;
         // If the exporter's environment name is marked, use this for ECS metrics
         envName = getInstallEnvName();
     }
@@ -118,17 +122,24 @@ public class ECSTaskUtil {
         Map<Labels, StaticConfig> targetsByLabel = new LinkedHashMap<>();
         try {
             String operationName = "EcsClient/describeTaskDefinition";
+            // A task definition revision never changes, so the one from the snapshot can be used as is
             TaskDefinition taskDefinition = taskDefsByARN.get(task.taskDefinitionArn(), () ->
-                    rateLimiter.doWithRateLimit(operationName,
-                            ImmutableSortedMap.of(
-                                    SCRAPE_ACCOUNT_ID_LABEL, cluster.getAccount(),
-                                    SCRAPE_REGION_LABEL, cluster.getRegion(),
-                                    SCRAPE_OPERATION_LABEL, operationName,
-                                    SCRAPE_NAMESPACE_LABEL, "AWS/ECS"
-                            ),
-                            () -> ecsClient.describeTaskDefinition(DescribeTaskDefinitionRequest.builder()
-                                    .taskDefinition(task.taskDefinitionArn())
-                                    .build()).taskDefinition()));
+                    snapshotStore.getTaskDefinition(task.taskDefinitionArn()).orElseGet(() -> {
+                        TaskDefinition described = rateLimiter.doWithRateLimit(operationName,
+                                ImmutableSortedMap.of(
+                                        SCRAPE_ACCOUNT_ID_LABEL, cluster.getAccount(),
+                                        SCRAPE_REGION_LABEL, cluster.getRegion(),
+                                        SCRAPE_OPERATION_LABEL, operationName,
+                                        SCRAPE_NAMESPACE_LABEL, "AWS/ECS"
+                                ),
+                                () -> ecsClient.describeTaskDefinition(DescribeTaskDefinitionRequest.builder()
+                                        .taskDefinition(task.taskDefinitionArn())
+                                        .build()).taskDefinition());
+                        snapshotStore.putTaskDefinition(task.taskDefinitionArn(), described);
+                        return described;
+                    }));
+            // The cache hides the lookups from the snapshot, which drops the task definitions not used for a while
+            snapshotStore.markTaskDefinitionUsed(task.taskDefinitionArn());
 
             if (taskDefinition.hasContainerDefinitions()) {
                 // In all cases, if a container config is specified, we use the specified port and path
@@ -8,14 +8,19 @@ import ai.asserts.aws.MetricNameUtil;
 import ai.asserts.aws.TaskExecutorUtil;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.cloudwatch.query.MetricQuery;
+import ai.asserts.aws.cloudwatch.query.SampleTemplate;
 import io.prometheus.client.Collector.MetricFamilySamples;
 import io.prometheus.client.Collector.MetricFamilySamples.Sample;
-import lombok.AllArgsConstructor;
+import com.google.common.annotations.VisibleForTesting;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.services.cloudwatch.model.MetricDataResult;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -30,43 +35,100 @@ import static org.springframework.util.StringUtils.hasLength;
 
 @Component
 @Slf4j
-@AllArgsConstructor
 public class MetricSampleBuilder {
     private final MetricNameUtil metricNameUtil;
     private final LabelBuilder labelBuilder;
 
     private final TaskExecutorUtil taskExecutorUtil;
+    private final SampleEmissionMode emissionMode;
 
-    public List<Sample> buildSamples(String account, String region, MetricQuery metricQuery,
+    @VisibleForTesting
+    public MetricSampleBuilder(MetricNameUtil metricNameUtil, LabelBuilder labelBuilder,
+                               TaskExecutorUtil taskExecutorUtil) {
+        this(metricNameUtil, labelBuilder, taskExecutorUtil, SampleEmissionMode.latest.name());
+    }
+
+    @Autowired
+    public MetricSampleBuilder(MetricNameUtil metricNameUtil, LabelBuilder labelBuilder,
+                               TaskExecutorUtil taskExecutorUtil,
+                               @Value("${aws_exporter.metric_sample_emission_mode:latest}") String emissionMode) {
+        this.metricNameUtil = metricNameUtil;
+        this.labelBuilder = labelBuilder;
+        this.taskExecutorUtil = taskExecutorUtil;
+        this.emissionMode = SampleEmissionMode.valueOf(emissionMode);
+    }
+
+    /**
+     * Builds the samples for a <code>GetMetricData</code> result. Depending on the {@link SampleEmissionMode}
+     * either only the most recent datapoint is exported, or every datapoint is exported with its CloudWatch
+     * timestamp. The metric name and labels are built once per {@link MetricQuery} and reused for every scrape
+     * through its {@link SampleTemplate}.
+     * <p>
+     * The account is passed in instead of being read from the task, as with async API calls the samples are built
+     * on the AWS SDK threads.
+     */
+    public List<Sample> buildSamples(AWSAccount account, String region, MetricQuery metricQuery,
                                      MetricDataResult metricDataResult) {
-        List<Sample> samples = new ArrayList<>();
-        String metricName = metricNameUtil.exportedMetricName(metricQuery.getMetric(), metricQuery.getMetricStat());
-        if (metricDataResult.timestamps().size() > 0) {
-            Map<String, String> labels = labelBuilder.buildLabels(account, region, metricQuery);
-            labels.putIfAbsent(TENANT, taskExecutorUtil.getAccountDetails().getTenant());
-            if (hasLength(taskExecutorUtil.getAccountDetails().getName())) {
-                labels.putIfAbsent(ENV, taskExecutorUtil.getAccountDetails().getName());
-            } else {
-                labels.putIfAbsent(ENV, account);
-            }
-            labels.putIfAbsent(SITE, region);
-            labels.entrySet().removeIf(entry -> entry.getValue() == null);
-            for (int i = 0; i < metricDataResult.timestamps().size(); i++) {
-                Sample sample = new Sample(
-                        metricName,
-                        new ArrayList<>(labels.keySet()),
-                        new ArrayList<>(labels.values()),
-                        metricDataResult.values().get(i));
-                samples.add(sample);
+        List<Instant> timestamps = metricDataResult.timestamps();
+        if (timestamps.isEmpty()) {
+            return Collections.emptyList();
+        }
+        SampleTemplate template = getSampleTemplate(account, region, metricQuery);
+        List<Double> values = metricDataResult.values();
+        if (emissionMode == SampleEmissionMode.latest) {
+            // The datapoints are usually returned latest first, but that depends on the ScanBy option
+            int latest = 0;
+            for (int i = 1; i < timestamps.size(); i++) {
+                if (timestamps.get(i).isAfter(timestamps.get(latest))) {
+                    latest = i;
+                }
             }
+            return Collections.singletonList(template.sample(values.get(latest)));
+        }
+        List<Sample> samples = new ArrayList<>(timestamps.size());
+        for (int i = 0; i < timestamps.size(); i++) {
+            samples.add(template.sample(values.get(i), timestamps.get(i).toEpochMilli()));
         }
         return samples;
     }
 
+    @VisibleForTesting
+    SampleTemplate getSampleTemplate(AWSAccount account, String region, MetricQuery metricQuery) {
+        SampleTemplate template = metricQuery.getSampleTemplate();
+        if (template == null || !template.isFor(account.getAccountId(), region)) {
+            template = buildSampleTemplate(account, region, metricQuery);
+            metricQuery.setSampleTemplate(template);
+        }
+        return template;
+    }
+
+    private SampleTemplate buildSampleTemplate(AWSAccount account, String region, MetricQuery metricQuery) {
+        String accountId = account.getAccountId();
+        String metricName = metricNameUtil.exportedMetricName(metricQuery.getMetric(), metricQuery.getMetricStat());
+        Map<String, String> labels = labelBuilder.buildLabels(accountId, region, metricQuery);
+        labels.putIfAbsent(TENANT, account.getTenant());
+        if (hasLength(account.getName())) {
+            labels.putIfAbsent(ENV, account.getName());
+        } else {
+            labels.putIfAbsent(ENV, accountId);
+        }
+        labels.putIfAbsent(SITE, region);
+        labels.entrySet().removeIf(entry -> entry.getValue() == null);
+        return new SampleTemplate(accountId, region, metricName, labels);
+    }
+
     public Optional<Sample> buildSingleSample(String metricName, Map<String, String> labels,
                                               Double metric) {
+        return buildSingleSample(taskExecutorUtil.getAccountDetails(), metricName, labels, metric);
+    }
+
+    /**
+     * Same as {@link #buildSingleSample(String, Map, Double)} for samples built outside of an account task, e.g.
+     * on the AWS SDK threads with async API calls.
+     */
+    public Optional<Sample> buildSingleSample(AWSAccount accountDetails, String metricName,
+                                              Map<String, String> labels, Double metric) {
         labels = new TreeMap<>(labels);
-        AWSAccount accountDetails = taskExecutorUtil.getAccountDetails();
         if (accountDetails != null) {
             labels.putIfAbsent(TENANT, accountDetails.getTenant());
             if (hasLength(accountDetails.getName())) {
@@ -92,4 +154,15 @@ public class MetricSampleBuilder {
         }
         return Optional.empty();
     }
+
+    public enum SampleEmissionMode {
+        /**
+         * Export only the most recent datapoint in the time window, without a timestamp
+         */
+        latest,
+        /**
+         * Export every datapoint in the time window with its CloudWatch timestamp
+         */
+        all_timestamped
+    }
 }
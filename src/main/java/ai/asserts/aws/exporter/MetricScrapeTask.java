@@ -3,12 +3,16 @@ package ai.asserts.aws.exporter;
 
 import ai.asserts.aws.AWSClientProvider;
 import ai.asserts.aws.AWSApiCallRateLimiter;
+import ai.asserts.aws.EnvironmentConfig;
 import ai.asserts.aws.SimpleTenantTask;
 import ai.asserts.aws.TaskExecutorUtil;
+import ai.asserts.aws.TaskPriority;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.cloudwatch.TimeWindowBuilder;
 import ai.asserts.aws.cloudwatch.query.MetricQuery;
+import ai.asserts.aws.cloudwatch.query.MetricQueryBuilder;
 import ai.asserts.aws.cloudwatch.query.MetricQueryProvider;
+import ai.asserts.aws.cloudwatch.query.QueryBatch;
 import ai.asserts.aws.cloudwatch.query.QueryBatcher;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
@@ -21,6 +25,8 @@ import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
 import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
@@ -29,14 +35,27 @@ import software.amazon.awssdk.services.cloudwatch.model.Metric;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
+import static ai.asserts.aws.MetricNameUtil.ASSERTS_CUSTOMER;
+import static ai.asserts.aws.MetricNameUtil.GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC;
+import static ai.asserts.aws.MetricNameUtil.GET_METRIC_DATA_BATCH_LATENCY_METRIC;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_ACCOUNT_ID_LABEL;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_INTERVAL_LABEL;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_OPERATION_LABEL;
@@ -45,12 +64,14 @@ import static software.amazon.awssdk.services.cloudwatch.model.StatusCode.COMPLE
 
 /**
  * Scrapes metrics using the <code>GetMetricData</code> AWS API. Depends on {@link MetricQueryProvider} to provide
- * the queries for the region that it scrapes. The metrics are split into batches to meet the following constraints
- * <ol>
- *     <li>A maximum of 500 metrics per API call</li>
- *     <li>A maximum of 100800 data points returned in each call</li>
- * </ol>
+ * the queries for the region that it scrapes. The metrics are split into batches by {@link QueryBatcher} to meet
+ * the query count and datapoint limits of each call.
  * <p>
+ * The batches are fetched in parallel on the <code>aws-api-calls</code> pool with at most
+ * <code>aws_exporter.metric_scrape_batch_concurrency</code> batches in flight for an account and region. Batches
+ * that don't complete within <code>aws_exporter.metric_scrape_timeout_seconds</code> are dropped from the cycle
+ * while the samples from the other batches are still exported. The batches run with {@link TaskPriority#METRICS}
+ * priority, ahead of the metadata tasks sharing the pool.
  */
 @Slf4j
 @Setter
@@ -59,6 +80,7 @@ import static software.amazon.awssdk.services.cloudwatch.model.StatusCode.COMPLE
         of = {"account", "region", "intervalSeconds", "delaySeconds"})
 @ToString(of = {"account", "region", "intervalSeconds", "delaySeconds"})
 public class MetricScrapeTask extends Collector implements MetricProvider {
+    private static final String GET_METRIC_DATA_OPERATION = "CloudWatchClient/getMetricData";
     @Autowired
     private AWSClientProvider awsClientProvider;
     @Autowired
@@ -66,6 +88,8 @@ public class MetricScrapeTask extends Collector implements MetricProvider {
     @Autowired
     private QueryBatcher queryBatcher;
     @Autowired
+    private MetricQueryBuilder metricQueryBuilder;
+    @Autowired
     private MetricSampleBuilder sampleBuilder;
     @Autowired
     private CollectorRegistry collectorRegistry;
@@ -75,6 +99,14 @@ public class MetricScrapeTask extends Collector implements MetricProvider {
     private AWSApiCallRateLimiter rateLimiter;
     @Autowired
     private TaskExecutorUtil taskExecutorUtil;
+    @Autowired
+    private BasicMetricCollector metricCollector;
+    @Autowired
+    private EnvironmentConfig environmentConfig;
+    @Value("${aws_exporter.metric_scrape_batch_concurrency:4}")
+    private int batchConcurrency = 4;
+    @Value("${aws_exporter.metric_scrape_timeout_seconds:15}")
+    private int scrapeTimeoutSeconds = 15;
 
     private final AWSAccount account;
     private final String region;
@@ -101,19 +133,8 @@ public class MetricScrapeTask extends Collector implements MetricProvider {
         if (intervalSeconds <= 60 || System.currentTimeMillis() - lastRunTime > intervalSeconds * 1000L) {
             lastRunTime = System.currentTimeMillis();
             try {
-                cache = taskExecutorUtil.executeAccountTask(account,
-                        new SimpleTenantTask<List<MetricFamilySamples>>() {
-                            @Override
-                            public List<MetricFamilySamples> call() {
-                                try {
-                                    return fetchMetricsFromCW();
-                                } catch (Exception e) {
-                                    log.error("Failed to update", e);
-                                }
-                                return Collections.emptyList();
-                            }
-                        }).get(15, TimeUnit.SECONDS);
-            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                cache = fetchMetricsFromCW();
+            } catch (Exception e) {
                 log.error("Failed to fetch metrics", e);
             }
         }
@@ -135,72 +156,31 @@ public class MetricScrapeTask extends Collector implements MetricProvider {
             log.error("No queries found for region {} and interval {}", region, intervalSeconds);
             return Collections.emptyList();
         }
-        boolean s3DailyMetric = queries.stream().anyMatch(this::isS3DailyMetric);
-
         // The result only has the query id. We will need the metric while processing the result
-        // so build a map for lookup
+        // so build a map for lookup. The map is only read once built, so it is safe to share across batches
         Map<String, MetricQuery> queriesById = mapQueriesById(queries);
 
-        List<List<MetricQuery>> batches = queryBatcher.splitIntoBatches(queries);
+        // For now, S3 is the only one which has some metrics with a period of 1 day.
+        // These metrics should be configured with a different interval
+        Instant[] timePeriod = timeWindowBuilder.getTimePeriod(region, intervalSeconds);
+        Instant[] dailyTimePeriod = queries.stream().anyMatch(this::isS3DailyMetric) ?
+                timeWindowBuilder.getDailyMetricTimeWindow(region) : timePeriod;
+        log.debug("Scraping metrics for time period {} - {}", timePeriod[0], timePeriod[1]);
+
+        List<QueryBatch> batches = queryBatcher.splitIntoBatches(queries,
+                query -> isS3DailyMetric(query) ? dailyTimePeriod : timePeriod);
         log.debug("Split metric queries into {} batches", batches.size());
+        batches.forEach(batch -> metricCollector.recordRatio(GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC,
+                internalMetricLabels(), batch.getFillRatio()));
 
         Map<String, List<MetricFamilySamples.Sample>> samplesByMetric = new TreeMap<>();
-
+        long deadline = System.currentTimeMillis() + scrapeTimeoutSeconds * 1000L;
         try {
-            CloudWatchClient cloudWatchClient = awsClientProvider.getCloudWatchClient(region, account);
-            batches.forEach(batch -> {
-                String nextToken = null;
-                // For now, S3 is the only one which has some metrics with a period of 1 day.
-                // These metrics should be configured with a different interval
-                Instant[] timePeriod = s3DailyMetric ? timeWindowBuilder.getDailyMetricTimeWindow(region) :
-                        timeWindowBuilder.getTimePeriod(region, intervalSeconds);
-                log.debug("Scraping metrics for time period {} - {}", timePeriod[0], timePeriod[1]);
-                do {
-                    GetMetricDataRequest.Builder requestBuilder = GetMetricDataRequest.builder()
-                            .startTime(timePeriod[0].minusSeconds(delaySeconds))
-                            .endTime(timePeriod[1].minusSeconds(delaySeconds))
-                            .nextToken(nextToken)
-                            .metricDataQueries(batch.stream()
-                                    .map(MetricQuery::getMetricDataQuery)
-                                    .collect(Collectors.toList()));
-
-                    GetMetricDataRequest req = requestBuilder.build();
-                    String operationName = "CloudWatchClient/getMetricData";
-                    GetMetricDataResponse metricData = rateLimiter.doWithRateLimit(
-                            operationName,
-                            ImmutableSortedMap.of(
-                                    SCRAPE_ACCOUNT_ID_LABEL, account.getAccountId(),
-                                    SCRAPE_REGION_LABEL, region,
-                                    SCRAPE_OPERATION_LABEL, operationName,
-                                    SCRAPE_INTERVAL_LABEL, intervalSeconds + ""
-                            ),
-                            () -> cloudWatchClient.getMetricData(req));
-
-                    if (metricData.hasMetricDataResults()) {
-                        metricData.metricDataResults()
-                                .stream().filter(metricDataResult -> !metricDataResult.statusCode().equals(COMPLETE))
-                                .forEach(metricDataResult -> {
-                                    Metric metric = queriesById.get(metricDataResult.id()).getMetric();
-                                    log.error("Metric not available for {}::{}::{}",
-                                            metric.namespace(), metric.metricName(), metric.dimensions().stream()
-                                                    .map(d -> String.format("%s=\"%s\"", d.name(), d.value()))
-                                                    .collect(Collectors.joining(", ")));
-                                });
-                        metricData.metricDataResults()
-                                .stream().filter(metricDataResult -> metricDataResult.statusCode().equals(COMPLETE))
-                                .forEach(metricDataResult -> {
-                                    MetricQuery metricQuery = queriesById.remove(metricDataResult.id());
-                                    List<MetricFamilySamples.Sample> samples = sampleBuilder.buildSamples(
-                                            account.getAccountId(), region, metricQuery, metricDataResult);
-
-                                    samples.forEach(sample ->
-                                            samplesByMetric.computeIfAbsent(sample.name, k -> new ArrayList<>())
-                                                    .add(sample));
-                                });
-                    }
-                    nextToken = metricData.nextToken();
-                } while (nextToken != null);
-            });
+            if (environmentConfig.isAsyncApiCalls()) {
+                fetchBatchesAsync(batches, queriesById, deadline, samplesByMetric);
+            } else {
+                fetchBatches(batches, queriesById, deadline, samplesByMetric);
+            }
         } catch (Exception e) {
             log.error("Failed to scrape metrics", e);
         }
@@ -217,6 +197,237 @@ public class MetricScrapeTask extends Collector implements MetricProvider {
         return familySamples;
     }
 
+    private void fetchBatches(List<QueryBatch> batches, Map<String, MetricQuery> queriesById, long deadline,
+                              Map<String, List<MetricFamilySamples.Sample>> samplesByMetric)
+            throws InterruptedException {
+        CloudWatchClient cloudWatchClient = awsClientProvider.getCloudWatchClient(region, account);
+
+        // Keep at most `batchConcurrency` batches of this account/region in flight. A permit is released
+        // as soon as a batch completes, so the scrape time tracks the slowest batch and not the sum of batches
+        Semaphore inFlight = new Semaphore(batchConcurrency);
+        List<Future<Map<String, List<MetricFamilySamples.Sample>>>> futures = new ArrayList<>();
+        for (QueryBatch batch : batches) {
+            if (!inFlight.tryAcquire(remainingMillis(deadline), TimeUnit.MILLISECONDS)) {
+                log.error("Timed out scheduling {} of {} batches for account={} region={} interval={}",
+                        batches.size() - futures.size(), batches.size(), account.getAccountId(), region,
+                        intervalSeconds);
+                break;
+            }
+            futures.add(taskExecutorUtil.executeAccountTask(account, TaskPriority.METRICS,
+                    new SimpleTenantTask<Map<String, List<MetricFamilySamples.Sample>>>() {
+                        @Override
+                        public Map<String, List<MetricFamilySamples.Sample>> call() {
+                            try {
+                                return fetchBatch(cloudWatchClient, batch, queriesById);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    }));
+        }
+
+        // Merge whatever completed within the deadline. A slow batch only loses its own samples
+        for (Future<Map<String, List<MetricFamilySamples.Sample>>> future : futures) {
+            try {
+                Map<String, List<MetricFamilySamples.Sample>> batchSamples =
+                        future.get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+                if (batchSamples != null) {
+                    mergeSamples(batchSamples, samplesByMetric);
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                log.error("Failed to fetch metrics batch for account={} region={} interval={}",
+                        account.getAccountId(), region, intervalSeconds, e);
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Map<String, List<MetricFamilySamples.Sample>> fetchBatch(CloudWatchClient cloudWatchClient,
+                                                                    QueryBatch batch,
+                                                                    Map<String, MetricQuery> queriesById) {
+        Map<String, List<MetricFamilySamples.Sample>> samplesByMetric = new TreeMap<>();
+        long tick = System.currentTimeMillis();
+        String nextToken = null;
+        do {
+            GetMetricDataRequest req = buildRequest(batch, nextToken);
+            GetMetricDataResponse metricData = rateLimiter.doWithRateLimit(
+                    GET_METRIC_DATA_OPERATION, operationLabels(), () -> cloudWatchClient.getMetricData(req));
+            processResponse(metricData, queriesById, samplesByMetric);
+            nextToken = metricData.nextToken();
+        } while (nextToken != null);
+        recordBatchLatency(System.currentTimeMillis() - tick);
+        return samplesByMetric;
+    }
+
+    /**
+     * Same as {@link #fetchBatches} but with the {@link CloudWatchAsyncClient}. Each of the `batchConcurrency`
+     * lanes fetches one batch at a time and picks up the next pending batch when it is done, so no thread
+     * is held while the requests are in flight. The responses are processed on the AWS SDK threads, outside of an
+     * account task, so the account and the priority are passed explicitly. On timeout the lanes are cancelled
+     * along with their calls in flight, so they don't hold permits or SDK threads after the scrape has given up.
+     */
+    private void fetchBatchesAsync(List<QueryBatch> batches, Map<String, MetricQuery> queriesById, long deadline,
+                                   Map<String, List<MetricFamilySamples.Sample>> samplesByMetric)
+            throws InterruptedException {
+        CloudWatchAsyncClient cloudWatchClient = awsClientProvider.getCloudWatchAsyncClient(region, account);
+        AsyncScrape scrape = new AsyncScrape(batches);
+        int numLanes = Math.min(batchConcurrency, batches.size());
+        List<Map<String, List<MetricFamilySamples.Sample>>> laneSamples = new ArrayList<>();
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int i = 0; i < numLanes; i++) {
+            Map<String, List<MetricFamilySamples.Sample>> samples = new TreeMap<>();
+            laneSamples.add(samples);
+            lanes.add(runLane(cloudWatchClient, scrape, queriesById, samples));
+        }
+
+        try {
+            CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0]))
+                    .get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("Failed to fetch metrics batch for account={} region={} interval={}",
+                    account.getAccountId(), region, intervalSeconds, e);
+            scrape.cancel();
+        }
+
+        // A lane that is still running may be writing to its samples, so only the completed lanes are merged
+        for (int i = 0; i < numLanes; i++) {
+            if (lanes.get(i).isDone()) {
+                mergeSamples(laneSamples.get(i), samplesByMetric);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> runLane(CloudWatchAsyncClient cloudWatchClient, AsyncScrape scrape,
+                                            Map<String, MetricQuery> queriesById,
+                                            Map<String, List<MetricFamilySamples.Sample>> samplesByMetric) {
+        QueryBatch batch = scrape.nextBatch();
+        if (batch == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long tick = System.currentTimeMillis();
+        return fetchBatchAsync(cloudWatchClient, scrape, batch, queriesById, null, samplesByMetric)
+                .thenCompose(ignore -> {
+                    recordBatchLatency(System.currentTimeMillis() - tick);
+                    return runLane(cloudWatchClient, scrape, queriesById, samplesByMetric);
+                });
+    }
+
+    private CompletableFuture<Void> fetchBatchAsync(CloudWatchAsyncClient cloudWatchClient, AsyncScrape scrape,
+                                                    QueryBatch batch,
+                                                    Map<String, MetricQuery> queriesById,
+                                                    String nextToken,
+                                                    Map<String, List<MetricFamilySamples.Sample>> samplesByMetric) {
+        GetMetricDataRequest req = buildRequest(batch, nextToken);
+        return scrape.track(rateLimiter.doWithRateLimitAsync(TaskPriority.METRICS, GET_METRIC_DATA_OPERATION,
+                        operationLabels(), () -> cloudWatchClient.getMetricData(req)))
+                .thenCompose(metricData -> {
+                    processResponse(metricData, queriesById, samplesByMetric);
+                    if (metricData.nextToken() != null && !scrape.isCancelled()) {
+                        return fetchBatchAsync(cloudWatchClient, scrape, batch, queriesById,
+                                metricData.nextToken(), samplesByMetric);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    private GetMetricDataRequest buildRequest(QueryBatch batch, String nextToken) {
+        return GetMetricDataRequest.builder()
+                .startTime(batch.getStartTime().minusSeconds(delaySeconds))
+                .endTime(batch.getEndTime().minusSeconds(delaySeconds))
+                .nextToken(nextToken)
+                .metricDataQueries(batch.getQueries().stream()
+                        .map(MetricQuery::getMetricDataQuery)
+                        .collect(Collectors.toList()))
+                .build();
+    }
+
+    private SortedMap<String, String> operationLabels() {
+        return ImmutableSortedMap.of(
+                SCRAPE_ACCOUNT_ID_LABEL, account.getAccountId(),
+                SCRAPE_REGION_LABEL, region,
+                SCRAPE_OPERATION_LABEL, GET_METRIC_DATA_OPERATION,
+                SCRAPE_INTERVAL_LABEL, intervalSeconds + ""
+        );
+    }
+
+    private void processResponse(GetMetricDataResponse metricData, Map<String, MetricQuery> queriesById,
+                                 Map<String, List<MetricFamilySamples.Sample>> samplesByMetric) {
+        if (metricData.hasMetricDataResults()) {
+            recordSearchSeries(metricData, queriesById);
+            metricData.metricDataResults()
+                    .stream().filter(metricDataResult -> !metricDataResult.statusCode().equals(COMPLETE))
+                    .forEach(metricDataResult -> {
+                        Metric metric = queriesById.get(metricDataResult.id()).getMetric();
+                        log.error("Metric not available for {}::{}::{}",
+                                metric.namespace(), metric.metricName(), metric.dimensions().stream()
+                                        .map(d -> String.format("%s=\"%s\"", d.name(), d.value()))
+                                        .collect(Collectors.joining(", ")));
+                    });
+            metricData.metricDataResults()
+                    .stream().filter(metricDataResult -> metricDataResult.statusCode().equals(COMPLETE))
+                    .forEach(metricDataResult -> {
+                        MetricQuery metricQuery = queriesById.get(metricDataResult.id());
+                        if (metricQuery.isSearchQuery()) {
+                            // A SEARCH expression returns a series per matching metric, all with the query id
+                            Optional<MetricQuery> resolved =
+                                    metricQueryBuilder.resolveSearchResult(metricQuery, metricDataResult.label());
+                            if (!resolved.isPresent() ||
+                                    !metricQuery.getMetricConfig().matchesMetric(resolved.get().getMetric())) {
+                                return;
+                            }
+                            metricQuery = resolved.get();
+                        }
+                        List<MetricFamilySamples.Sample> samples = sampleBuilder.buildSamples(
+                                account, region, metricQuery, metricDataResult);
+
+                        samples.forEach(sample ->
+                                samplesByMetric.computeIfAbsent(sample.name, k -> new ArrayList<>())
+                                        .add(sample));
+                    });
+        }
+    }
+
+    /**
+     * Records the series returned by each <code>SEARCH</code> query, so that {@link QueryBatcher} can size the
+     * batches of the next scrape.
+     */
+    private void recordSearchSeries(GetMetricDataResponse metricData, Map<String, MetricQuery> queriesById) {
+        Map<String, Integer> seriesById = new HashMap<>();
+        metricData.metricDataResults().forEach(metricDataResult -> {
+            MetricQuery metricQuery = queriesById.get(metricDataResult.id());
+            if (metricQuery != null && metricQuery.isSearchQuery()) {
+                seriesById.merge(metricDataResult.id(), 1, Integer::sum);
+            }
+        });
+        seriesById.forEach((id, series) -> queriesById.get(id).recordSeries(series));
+    }
+
+    private void mergeSamples(Map<String, List<MetricFamilySamples.Sample>> from,
+                              Map<String, List<MetricFamilySamples.Sample>> to) {
+        from.forEach((metricName, samples) ->
+                to.computeIfAbsent(metricName, k -> new ArrayList<>()).addAll(samples));
+    }
+
+    private void recordBatchLatency(long latencyMillis) {
+        metricCollector.recordHistogram(GET_METRIC_DATA_BATCH_LATENCY_METRIC, internalMetricLabels(),
+                latencyMillis / 1000.0D);
+    }
+
+    private SortedMap<String, String> internalMetricLabels() {
+        SortedMap<String, String> labels = new TreeMap<>();
+        labels.put(SCRAPE_ACCOUNT_ID_LABEL, account.getAccountId());
+        labels.put(SCRAPE_REGION_LABEL, region);
+        labels.put(SCRAPE_INTERVAL_LABEL, intervalSeconds + "");
+        if (account.getTenant() != null) {
+            labels.put(ASSERTS_CUSTOMER, account.getTenant());
+        }
+        return labels;
+    }
+
+    private long remainingMillis(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
     @VisibleForTesting
     boolean isS3DailyMetric(MetricQuery metricQuery) {
         String metricName = metricQuery.getMetric().metricName();
@@ -225,9 +436,47 @@ public class MetricScrapeTask extends Collector implements MetricProvider {
     }
 
     private Map<String, MetricQuery> mapQueriesById(List<MetricQuery> queries) {
-        Map<String, MetricQuery> queriesById = new TreeMap<>();
+        Map<String, MetricQuery> queriesById = new HashMap<>();
         queries.forEach(metricQuery ->
                 queriesById.put(metricQuery.getMetricDataQuery().id(), metricQuery));
         return queriesById;
     }
+
+    /**
+     * The batches still to be fetched and the calls in flight of an async scrape, so that the lanes of a scrape that
+     * timed out can be stopped.
+     */
+    private static class AsyncScrape {
+        private final Queue<QueryBatch> pending;
+        private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+
+        private AsyncScrape(List<QueryBatch> batches) {
+            this.pending = new ConcurrentLinkedQueue<>(batches);
+        }
+
+        private boolean isCancelled() {
+            return cancelled;
+        }
+
+        private QueryBatch nextBatch() {
+            return cancelled ? null : pending.poll();
+        }
+
+        private <T> CompletableFuture<T> track(CompletableFuture<T> call) {
+            inFlight.add(call);
+            // The scrape may have been cancelled after the call was made but before it was added
+            if (cancelled) {
+                call.cancel(true);
+            }
+            call.whenComplete((response, e) -> inFlight.remove(call));
+            return call;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            pending.clear();
+            inFlight.forEach(call -> call.cancel(true));
+        }
+    }
 }
@@ -106,7 +106,7 @@ public class Resource {
         }
     }
 
-    private List<List<Dimension>> metricDimensions() {
+    List<List<Dimension>> metricDimensions() {
         switch (type) {
             case LambdaFunction:
                 return ImmutableList.of(
@@ -0,0 +1,78 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.resource;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Index of a set of resources by the metric dimensions that identify them, so that the resource of a
+ * {@link Metric} can be looked up in O(number of dimensions of the metric) instead of calling
+ * {@link Resource#matches(Metric)} on every resource. Each resource is indexed under the first dimension of each of
+ * its dimension sets. A lookup only checks the remaining dimensions of the few candidates found for the metric's
+ * dimensions. The index is immutable and is built once for every refresh of the resources.
+ */
+@Getter
+@EqualsAndHashCode(of = "resources")
+@ToString(of = "resources")
+public class ResourceIndex {
+    public static final ResourceIndex EMPTY = new ResourceIndex(Collections.emptySet());
+
+    private final Set<Resource> resources;
+    @Getter(AccessLevel.NONE)
+    private final Map<Dimension, List<Candidate>> byDimension = new HashMap<>();
+
+    public ResourceIndex(Set<Resource> resources) {
+        this.resources = Collections.unmodifiableSet(resources);
+        resources.forEach(resource -> resource.metricDimensions().stream()
+                .filter(dimensions -> !dimensions.isEmpty())
+                .forEach(dimensions -> byDimension.computeIfAbsent(dimensions.get(0), k -> new ArrayList<>())
+                        .add(new Candidate(resource, dimensions))));
+    }
+
+    public Optional<Resource> findMatch(Metric metric) {
+        if (!metric.hasDimensions()) {
+            return Optional.empty();
+        }
+        List<Dimension> metricDimensions = metric.dimensions();
+        for (Dimension dimension : metricDimensions) {
+            List<Candidate> candidates = byDimension.get(dimension);
+            if (candidates != null) {
+                for (Candidate candidate : candidates) {
+                    if (candidate.dimensions.size() == 1 || metricDimensions.containsAll(candidate.dimensions)) {
+                        return Optional.of(candidate.resource);
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    public boolean isEmpty() {
+        return resources.isEmpty();
+    }
+
+    private static class Candidate {
+        private final Resource resource;
+        private final List<Dimension> dimensions;
+
+        private Candidate(Resource resource, List<Dimension> dimensions) {
+            this.resource = resource;
+            this.dimensions = dimensions;
+        }
+    }
+}
@@ -5,6 +5,7 @@
 package ai.asserts.aws.resource;
 
 import ai.asserts.aws.AWSClientProvider;
+import ai.asserts.aws.DiscoverySnapshotStore;
 import ai.asserts.aws.AWSApiCallRateLimiter;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.account.AWSAccount;
@@ -37,9 +38,11 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_ACCOUNT_ID_LABEL;
@@ -58,33 +61,46 @@ import static java.util.stream.Collectors.joining;
 public class ResourceTagHelper {
     private final AWSClientProvider awsClientProvider;
     private final ResourceMapper resourceMapper;
-    private final LoadingCache<Key, Set<Resource>> resourceCache;
+    private final LoadingCache<Key, ResourceIndex> resourceCache;
     private final ScrapeConfigProvider scrapeConfigProvider;
     private final AWSApiCallRateLimiter rateLimiter;
     private final AccountTenantMapper accountTenantMapper;
+    private final DiscoverySnapshotStore snapshotStore;
+    private final Set<Key> restoredKeys = ConcurrentHashMap.newKeySet();
 
     public ResourceTagHelper(ScrapeConfigProvider scrapeConfigProvider,
                              AWSClientProvider awsClientProvider, ResourceMapper resourceMapper,
                              AWSApiCallRateLimiter rateLimiter,
-                             AccountTenantMapper accountTenantMapper) {
+                             AccountTenantMapper accountTenantMapper,
+                             DiscoverySnapshotStore snapshotStore) {
         this.scrapeConfigProvider = scrapeConfigProvider;
         this.awsClientProvider = awsClientProvider;
         this.resourceMapper = resourceMapper;
         this.rateLimiter = rateLimiter;
         this.accountTenantMapper = accountTenantMapper;
+        this.snapshotStore = snapshotStore;
 
         resourceCache = CacheBuilder.newBuilder()
                 .expireAfterWrite(5, MINUTES)
-                .build(new CacheLoader<Key, Set<Resource>>() {
+                .build(new CacheLoader<Key, ResourceIndex>() {
                     @Override
-                    public Set<Resource> load(@NonNull Key key) {
-                        return getResourcesInternal(key);
+                    public ResourceIndex load(@NonNull Key key) {
+                        return new ResourceIndex(loadResources(key));
                     }
                 });
     }
 
     public Set<Resource> getFilteredResources(AWSAccount accountRegion, String region,
                                               NamespaceConfig namespaceConfig) {
+        return getFilteredResourceIndex(accountRegion, region, namespaceConfig).getResources();
+    }
+
+    /**
+     * Same as {@link #getFilteredResources(AWSAccount, String, NamespaceConfig)} but returns the resources indexed
+     * by their metric dimensions. The index is built once each time the resources are refreshed.
+     */
+    public ResourceIndex getFilteredResourceIndex(AWSAccount accountRegion, String region,
+                                                  NamespaceConfig namespaceConfig) {
         return resourceCache.getUnchecked(Key.builder()
                 .accountRegion(accountRegion)
                 .region(region)
@@ -92,6 +108,28 @@ public class ResourceTagHelper {
                 .build());
     }
 
+    /**
+     * After a restart, the first load of a key is served from the {@link DiscoverySnapshotStore}. The resources are
+     * fetched again when that cache entry expires.
+     */
+    private Set<Resource> loadResources(Key key) {
+        if (!snapshotStore.isEnabled()) {
+            return getResourcesInternal(key);
+        }
+        String snapshotKey = key.snapshotKey();
+        if (restoredKeys.add(key)) {
+            Optional<Set<Resource>> fromSnapshot = snapshotStore.getResources(snapshotKey);
+            if (fromSnapshot.isPresent()) {
+                return fromSnapshot.get();
+            }
+        }
+        Set<Resource> resources = getResourcesInternal(key);
+        if (resources.size() > 0) {
+            snapshotStore.putResources(snapshotKey, resources);
+        }
+        return resources;
+    }
+
     private Set<Resource> getResourcesInternal(Key key) {
         Set<Resource> resources = new HashSet<>();
         scrapeConfigProvider.getStandardNamespace(key.namespace.getName()).ifPresent(cwNamespace -> {
@@ -256,5 +294,11 @@ public class ResourceTagHelper {
         private final AWSAccount accountRegion;
         private final String region;
         private final NamespaceConfig namespace;
+
+        private String snapshotKey() {
+            String tagFilters = namespace.hasTagFilters() ? new TreeMap<>(namespace.getTagFilters()).toString() : "";
+            return DiscoverySnapshotStore.key(accountRegion.getAccountId(), region, namespace.getName()) + "|" +
+                    tagFilters;
+        }
     }
 }
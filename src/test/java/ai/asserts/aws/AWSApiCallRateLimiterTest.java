@@ -5,22 +5,36 @@
 package ai.asserts.aws;
 
 import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.collect.ImmutableSortedMap;
+import io.prometheus.client.CollectorRegistry;
 import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
 
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static ai.asserts.aws.MetricNameUtil.API_LATENCY_METRIC;
 import static ai.asserts.aws.MetricNameUtil.ASSERTS_ERROR_TYPE;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_ERROR_COUNT_METRIC;
 import static ai.asserts.aws.MetricNameUtil.SCRAPE_LATENCY_METRIC;
 import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("unused")
@@ -49,7 +63,6 @@ public class AWSApiCallRateLimiterTest extends EasyMockSupport {
 
         metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
         expectLastCall().times(2);
-
         replayAll();
 
         String api = "Client/API";
@@ -68,6 +81,187 @@ public class AWSApiCallRateLimiterTest extends EasyMockSupport {
         verifyAll();
     }
 
+    @Test
+    public void doWithRateLimitAsync() throws Exception {
+        AtomicLong t1 = new AtomicLong(0);
+        AtomicLong t2 = new AtomicLong(0);
+
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+        expectLastCall().times(2);
+        replayAll();
+
+        String api = "Client/API";
+        CompletableFuture<String> f1 = rateLimiter.doWithRateLimitAsync(api, labels, () -> {
+            t1.set(System.currentTimeMillis());
+            return CompletableFuture.completedFuture("first");
+        });
+        CompletableFuture<String> f2 = rateLimiter.doWithRateLimitAsync(api, labels, () -> {
+            t2.set(System.currentTimeMillis());
+            return CompletableFuture.completedFuture("second");
+        });
+        // The second call does not block the caller while it waits for a permit
+        assertFalse(f2.isDone());
+
+        assertEquals("first", f1.get(5, TimeUnit.SECONDS));
+        assertEquals("second", f2.get(5, TimeUnit.SECONDS));
+        assertTrue(t2.get() - t1.get() >= 900);
+        verifyAll();
+    }
+
+    @Test
+    public void doWithRateLimitAsync_CancelledWhileWaiting() throws Exception {
+        AtomicBoolean called = new AtomicBoolean();
+
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+        replayAll();
+
+        String api = "Client/API";
+        assertEquals("first", rateLimiter.doWithRateLimitAsync(api, labels,
+                () -> CompletableFuture.completedFuture("first")).get(5, TimeUnit.SECONDS));
+        CompletableFuture<String> f2 = rateLimiter.doWithRateLimitAsync(api, labels, () -> {
+            called.set(true);
+            return CompletableFuture.completedFuture("second");
+        });
+        f2.cancel(true);
+
+        // The permit the call was waiting for would have been available by now
+        Thread.sleep(1500);
+        assertFalse(called.get());
+        verifyAll();
+    }
+
+    @Test
+    public void doWithRateLimitAsync_CancelledInFlight() throws Exception {
+        replayAll();
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> future = rateLimiter.doWithRateLimitAsync("Client/API", labels, () -> request);
+        while (request.getNumberOfDependents() == 0) {
+            Thread.sleep(10);
+        }
+        future.cancel(true);
+
+        // The request is aborted and the cancellation is not counted as an error
+        assertTrue(request.isCancelled());
+        verifyAll();
+    }
+
+    @Test
+    public void doWithRateLimitAsync_Error() {
+        metricCollector.recordCounterValue(eq(SCRAPE_ERROR_COUNT_METRIC), anyObject(), eq(1));
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+
+        replayAll();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        future.completeExceptionally(new RuntimeException());
+        assertThrows(ExecutionException.class, () ->
+                rateLimiter.doWithRateLimitAsync("Client/API", labels, () -> future).get(5, TimeUnit.SECONDS));
+        verifyAll();
+    }
+
+    @Test
+    public void doWithRateLimit_Throttled() {
+        metricCollector.recordCounterValue(eq(SCRAPE_ERROR_COUNT_METRIC), anyObject(), eq(1));
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+        replayAll();
+
+        assertThrows(RuntimeException.class, () -> rateLimiter.doWithRateLimit("Client/API", labels, () -> {
+            throw AwsServiceException.builder()
+                    .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                    .build();
+        }));
+        AdaptiveRateLimiter limiter = rateLimiter.getRateLimiters().iterator().next();
+        assertEquals(0.5D, limiter.getRate());
+        assertEquals(1, limiter.getThrottled());
+        assertEquals(ImmutableSortedMap.of("account_id", "account", "api", "Client/API", "asserts_customer", "acme",
+                "region", "region"), limiter.getLabels());
+        verifyAll();
+    }
+
+    @Test
+    public void doWithRateLimit_CircuitBreakerOpen() {
+        metricCollector.recordCounterValue(eq(SCRAPE_ERROR_COUNT_METRIC), anyObject(), eq(1));
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+        replayAll();
+
+        rateLimiter = new AWSApiCallRateLimiter(metricCollector, (accountId) -> "acme", 1.0D, 1, 60, 600);
+        assertThrows(RuntimeException.class, () -> rateLimiter.doWithRateLimit("EcsClient/listClusters", labels,
+                () -> {
+                    throw SdkClientException.create("Unable to execute HTTP request");
+                }));
+        // Other APIs of the same service are rejected without calling AWS
+        assertThrows(CircuitBreakerOpenException.class, () ->
+                rateLimiter.doWithRateLimit("ECSClient/listServices", labels, () -> null));
+        assertThrows(ExecutionException.class, () -> rateLimiter.doWithRateLimitAsync("EcsClient/listTasks", labels,
+                () -> CompletableFuture.completedFuture(null)).get(5, TimeUnit.SECONDS));
+
+        CircuitBreaker circuitBreaker = rateLimiter.getCircuitBreakers().iterator().next();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getRejected());
+        assertEquals(ImmutableSortedMap.of("account_id", "account", "asserts_customer", "acme", "region", "region",
+                "service", "EcsClient"), circuitBreaker.getLabels());
+        verifyAll();
+    }
+
+    @Test
+    public void doWithRateLimitAsync_HalfOpenProbeCancelled() throws Exception {
+        metricCollector.recordCounterValue(eq(SCRAPE_ERROR_COUNT_METRIC), anyObject(), eq(1));
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+        expectLastCall().times(2);
+        replayAll();
+
+        rateLimiter = new AWSApiCallRateLimiter(metricCollector, (accountId) -> "acme", 100.0D, 1, 0, 0);
+        assertThrows(RuntimeException.class, () -> rateLimiter.doWithRateLimit("EcsClient/listClusters", labels,
+                () -> {
+                    throw SdkClientException.create("Unable to execute HTTP request");
+                }));
+        CircuitBreaker circuitBreaker = rateLimiter.getCircuitBreakers().iterator().next();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        CompletableFuture<String> request = new CompletableFuture<>();
+        CompletableFuture<String> probe = rateLimiter.doWithRateLimitAsync("EcsClient/listTasks", labels,
+                () -> request);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        while (request.getNumberOfDependents() == 0) {
+            Thread.sleep(10);
+        }
+        probe.cancel(true);
+
+        // The probe is released, so the next call probes the service and closes the breaker
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals("ok", rateLimiter.doWithRateLimit("EcsClient/listServices", labels, () -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        verifyAll();
+    }
+
+    @Test
+    public void defaultRateLimits() {
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+        replayAll();
+        rateLimiter.doWithRateLimit("CloudWatchClient/GetMetricData", labels, () -> null);
+        assertEquals(AWSApiCallRateLimiter.DEFAULT_RATE_LIMITS.get("CloudWatchClient/getMetricData").doubleValue(),
+                rateLimiter.getRateLimiters().iterator().next().getRate());
+        verifyAll();
+    }
+
+    @Test
+    public void doWithRateLimit_RecordsLatency() {
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), eq(labels), anyLong());
+        expectLastCall().times(2);
+        replayAll();
+        rateLimiter.doWithRateLimit("Client/API", labels, () -> null);
+        rateLimiter.doWithRateLimit("Client/API", labels, () -> null);
+
+        CollectorRegistry registry = new CollectorRegistry();
+        registry.register(rateLimiter.getApiLatency());
+        String[] labelNames = {"account_id", "region", "operation", "asserts_customer"};
+        String[] labelValues = {"account", "region", "Client/API", "acme"};
+        assertEquals(2.0D, registry.getSampleValue(API_LATENCY_METRIC + "_count", labelNames, labelValues));
+        assertEquals(2.0D, registry.getSampleValue(API_LATENCY_METRIC + "_bucket",
+                new String[]{"account_id", "region", "operation", "asserts_customer", "le"},
+                new String[]{"account", "region", "Client/API", "acme", "+Inf"}));
+        verifyAll();
+    }
+
     private void sleep() {
         try {
             Thread.sleep(2000);
@@ -6,6 +6,7 @@ package ai.asserts.aws;
 
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.exporter.AccountIDProvider;
+import com.google.common.collect.ImmutableMap;
 import org.easymock.Capture;
 import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,6 +14,8 @@ import org.junit.jupiter.api.Test;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClientBuilder;
@@ -28,6 +31,7 @@ import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.expect;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static software.amazon.awssdk.auth.credentials.AwsBasicCredentials.create;
 import static software.amazon.awssdk.auth.credentials.AwsSessionCredentials.create;
 
@@ -66,18 +70,25 @@ public class AWSClientProviderTest extends EasyMockSupport {
         Capture<AwsCredentialsProvider> staticCredentialsProviderCapture = Capture.newInstance();
         Region us_west_2 = Region.of("us-west-2");
         expect(cloudWatchClientBuilder.region(us_west_2)).andReturn(cloudWatchClientBuilder);
+        expect(cloudWatchClientBuilder.httpClient(awsClientProvider.getHttpClient()))
+                .andReturn(cloudWatchClientBuilder);
+        expect(cloudWatchClientBuilder.overrideConfiguration(awsClientProvider.getClientOverrideConfiguration()))
+                .andReturn(cloudWatchClientBuilder);
         expect(cloudWatchClientBuilder.credentialsProvider(capture(assumeRoleCredentialsProviderCapture)))
                 .andReturn(cloudWatchClientBuilder);
         expect(cloudWatchClientBuilder.build()).andReturn(cloudWatchClient);
 
         // Get Temp Credentials for Assume Role
         expect(stsClientBuilder.region(us_west_2)).andReturn(stsClientBuilder);
+        expect(stsClientBuilder.httpClient(awsClientProvider.getHttpClient())).andReturn(stsClientBuilder);
+        expect(stsClientBuilder.overrideConfiguration(awsClientProvider.getClientOverrideConfiguration()))
+                .andReturn(stsClientBuilder);
         expect(stsClientBuilder.credentialsProvider(capture(staticCredentialsProviderCapture)))
                 .andReturn(stsClientBuilder);
         expect(stsClientBuilder.build()).andReturn(stsClient);
         expect(stsClient.assumeRole(AssumeRoleRequest.builder()
                 .roleArn("role")
-                .roleSessionName("session1")
+                .roleSessionName("aws-exporter")
                 .build())).andReturn(AssumeRoleResponse.builder()
                 .credentials(Credentials.builder()
                         .accessKeyId("tempAccessKeyId")
@@ -86,7 +97,6 @@ public class AWSClientProviderTest extends EasyMockSupport {
                         .expiration(Instant.now().plusSeconds(3600))
                         .build())
                 .build());
-        stsClient.close();
         replayAll();
 
         // First time not cached
@@ -112,5 +122,36 @@ public class AWSClientProviderTest extends EasyMockSupport {
 
         // Next request is served from cache
         assertEquals(cloudWatchClient, awsClientProvider.getCloudWatchClient("us-west-2", account1));
+        assertEquals(ImmutableMap.of("CloudWatchClient", 1L), awsClientProvider.getClientCounts());
+    }
+
+    @Test
+    void getHttpClient_Shared() {
+        assertSame(awsClientProvider.getHttpClient(), awsClientProvider.getHttpClient());
+    }
+
+    @Test
+    void destroy() {
+        SdkHttpClient httpClient = mock(SdkHttpClient.class);
+        SdkAsyncHttpClient asyncHttpClient = mock(SdkAsyncHttpClient.class);
+        awsClientProvider = new AWSClientProvider(accountIDProvider) {
+            @Override
+            SdkHttpClient buildHttpClient() {
+                return httpClient;
+            }
+
+            @Override
+            SdkAsyncHttpClient buildAsyncHttpClient() {
+                return asyncHttpClient;
+            }
+        };
+        httpClient.close();
+        asyncHttpClient.close();
+        replayAll();
+
+        assertSame(httpClient, awsClientProvider.getHttpClient());
+        assertSame(asyncHttpClient, awsClientProvider.getAsyncHttpClient());
+        awsClientProvider.destroy();
+        verifyAll();
     }
 }
@@ -0,0 +1,134 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveRateLimiterTest {
+    private long now;
+    private AdaptiveRateLimiter testClass;
+
+    @BeforeEach
+    public void setup() {
+        now = 1_000_000L;
+        testClass = new AdaptiveRateLimiter(20.0D, ImmutableSortedMap.of("api", "CloudWatchClient/getMetricData")) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void onThrottle() {
+        testClass.onThrottle();
+        assertEquals(10.0D, testClass.getRate());
+
+        // Throttled calls that were in flight do not lower the rate again within the interval
+        now += 500;
+        testClass.onThrottle();
+        assertEquals(10.0D, testClass.getRate());
+
+        now += 500;
+        testClass.onThrottle();
+        assertEquals(5.0D, testClass.getRate());
+        assertEquals(3, testClass.getThrottled());
+    }
+
+    @Test
+    public void onThrottle_MinRate() {
+        for (int i = 0; i < 10; i++) {
+            testClass.onThrottle();
+            now += AdaptiveRateLimiter.ADJUST_INTERVAL_MILLIS;
+        }
+        assertEquals(AdaptiveRateLimiter.MIN_RATE, testClass.getRate());
+    }
+
+    @Test
+    public void acquire_MetadataYieldsToMetrics() {
+        List<Double> sleeps = new ArrayList<>();
+        testClass = new AdaptiveRateLimiter(20.0D, ImmutableSortedMap.of("api", "CloudWatchClient/getMetricData")) {
+            @Override
+            void sleep(double seconds) {
+                sleeps.add(seconds);
+            }
+        };
+        testClass.acquire(TaskPriority.METADATA);
+        assertTrue(sleeps.isEmpty());
+
+        // Holds back for a bounded number of permit intervals while metric calls wait
+        testClass.startWaiting(TaskPriority.METRICS);
+        testClass.acquire(TaskPriority.METADATA);
+        assertEquals(AdaptiveRateLimiter.MAX_METADATA_YIELDS, sleeps.size());
+        assertEquals(0.05D, sleeps.get(0));
+        assertTrue(testClass.getWaitSeconds() >= 0.19D);
+
+        testClass.stopWaiting(TaskPriority.METRICS);
+        assertFalse(testClass.hasMetricsWaiting());
+        testClass.acquire(TaskPriority.METRICS);
+        assertEquals(AdaptiveRateLimiter.MAX_METADATA_YIELDS, sleeps.size());
+        assertEquals(3, testClass.getPermits());
+    }
+
+    @Test
+    public void onSuccess() {
+        testClass.onThrottle();
+        assertEquals(10.0D, testClass.getRate());
+
+        // No increase within the interval of the last adjustment
+        now += 500;
+        testClass.onSuccess();
+        assertEquals(10.0D, testClass.getRate());
+
+        now += 500;
+        testClass.onSuccess();
+        testClass.onSuccess();
+        assertEquals(11.0D, testClass.getRate());
+
+        for (int i = 0; i < 20; i++) {
+            now += AdaptiveRateLimiter.ADJUST_INTERVAL_MILLIS;
+            testClass.onSuccess();
+        }
+        assertEquals(20.0D, testClass.getRate());
+    }
+
+    @Test
+    public void recordWait() {
+        testClass.recordWait(0.25D);
+        testClass.recordWait(0.5D);
+        assertEquals(2, testClass.getPermits());
+        assertEquals(0.75D, testClass.getWaitSeconds());
+    }
+
+    @Test
+    public void isThrottled() {
+        assertTrue(AdaptiveRateLimiter.isThrottled(throttlingException("ThrottlingException")));
+        assertTrue(AdaptiveRateLimiter.isThrottled(throttlingException("TooManyRequestsException")));
+        assertTrue(AdaptiveRateLimiter.isThrottled(
+                new CompletionException(throttlingException("ThrottlingException"))));
+        assertFalse(AdaptiveRateLimiter.isThrottled(throttlingException("AccessDeniedException")));
+        assertFalse(AdaptiveRateLimiter.isThrottled(new RuntimeException()));
+    }
+
+    private AwsServiceException throttlingException(String errorCode) {
+        return AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode(errorCode)
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.util.concurrent.CompletionException;
+
+import static ai.asserts.aws.CircuitBreaker.State.CLOSED;
+import static ai.asserts.aws.CircuitBreaker.State.HALF_OPEN;
+import static ai.asserts.aws.CircuitBreaker.State.OPEN;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CircuitBreakerTest {
+    private long now;
+    private CircuitBreaker testClass;
+
+    @BeforeEach
+    public void setup() {
+        now = 1_000_000L;
+        testClass = new CircuitBreaker(ImmutableSortedMap.of("service", "EcsClient"), 3, 1000, 3000) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        testClass.onFailure();
+        testClass.onFailure();
+        testClass.onSuccess();
+        testClass.onFailure();
+        testClass.onFailure();
+        assertEquals(CLOSED, testClass.getState());
+        assertTrue(testClass.tryAcquire());
+
+        testClass.onFailure();
+        assertEquals(OPEN, testClass.getState());
+        assertFalse(testClass.tryAcquire());
+        assertEquals(1, testClass.getRejected());
+    }
+
+    @Test
+    public void halfOpenProbe() {
+        open();
+
+        now += 1000;
+        assertTrue(testClass.tryAcquire());
+        assertEquals(HALF_OPEN, testClass.getState());
+        // Only one probe at a time
+        assertFalse(testClass.tryAcquire());
+
+        testClass.onSuccess();
+        assertEquals(CLOSED, testClass.getState());
+        assertTrue(testClass.tryAcquire());
+    }
+
+    @Test
+    public void halfOpenProbeCancelled() {
+        open();
+
+        now += 1000;
+        assertTrue(testClass.tryAcquire());
+        testClass.onCancelled();
+        assertEquals(OPEN, testClass.getState());
+        assertFalse(testClass.tryAcquire());
+
+        // The interval is not doubled as the probe did not fail
+        now += 1000;
+        assertTrue(testClass.tryAcquire());
+        assertEquals(HALF_OPEN, testClass.getState());
+    }
+
+    @Test
+    public void backsOffExponentially() {
+        open();
+
+        now += 1000;
+        assertTrue(testClass.tryAcquire());
+        testClass.onFailure();
+        assertEquals(OPEN, testClass.getState());
+        now += 1999;
+        assertFalse(testClass.tryAcquire());
+        now += 1;
+        assertTrue(testClass.tryAcquire());
+
+        // Capped at the max open interval
+        testClass.onFailure();
+        now += 2999;
+        assertFalse(testClass.tryAcquire());
+        now += 1;
+        assertTrue(testClass.tryAcquire());
+
+        // Back to the initial interval once closed
+        testClass.onSuccess();
+        open();
+        now += 1000;
+        assertTrue(testClass.tryAcquire());
+    }
+
+    @Test
+    public void isEndpointFailure() {
+        assertTrue(CircuitBreaker.isEndpointFailure(new CompletionException(
+                SdkClientException.create("Unable to execute HTTP request"))));
+        assertTrue(CircuitBreaker.isEndpointFailure(new RuntimeException(serviceException(403, "AccessDenied"))));
+        assertTrue(CircuitBreaker.isEndpointFailure(serviceException(503, "ServiceUnavailable")));
+        assertFalse(CircuitBreaker.isEndpointFailure(serviceException(400, "ThrottlingException")));
+        assertFalse(CircuitBreaker.isEndpointFailure(serviceException(400, "ValidationException")));
+        assertFalse(CircuitBreaker.isEndpointFailure(new RuntimeException()));
+    }
+
+    private void open() {
+        testClass.onFailure();
+        testClass.onFailure();
+        testClass.onFailure();
+        assertEquals(OPEN, testClass.getState());
+    }
+
+    private AwsServiceException serviceException(int statusCode, String errorCode) {
+        return AwsServiceException.builder()
+                .statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+                .build();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.DiscoverySnapshotStore.SnapshotQuery;
+import ai.asserts.aws.cloudwatch.query.MetricQuery;
+import ai.asserts.aws.config.MetricConfig;
+import ai.asserts.aws.model.MetricStat;
+import ai.asserts.aws.resource.Resource;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.ecs.model.ContainerDefinition;
+import software.amazon.awssdk.services.ecs.model.LogConfiguration;
+import software.amazon.awssdk.services.ecs.model.TaskDefinition;
+import software.amazon.awssdk.services.resourcegroupstaggingapi.model.Tag;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ai.asserts.aws.resource.ResourceType.ECSCluster;
+import static ai.asserts.aws.resource.ResourceType.ECSService;
+import static ai.asserts.aws.resource.ResourceType.LambdaFunction;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DiscoverySnapshotStoreTest {
+    private Path directory;
+    private Path snapshotPath;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("discovery-snapshot");
+        snapshotPath = directory.resolve("snapshot.bin");
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(snapshotPath);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void roundTrip() {
+        String key = DiscoverySnapshotStore.key("account", "region", "AWS/Lambda");
+        Metric metric = Metric.builder()
+                .namespace("AWS/Lambda")
+                .metricName("Invocations")
+                .dimensions(Dimension.builder().name("FunctionName").value("fn1").build())
+                .build();
+        Resource resource = Resource.builder()
+                .type(LambdaFunction)
+                .name("fn1")
+                .account("account")
+                .region("region")
+                .arn("arn:aws:lambda:region:account:function:fn1")
+                .tags(ImmutableList.of(Tag.builder().key("env").value("dev").build()))
+                .envTag(Optional.of(Tag.builder().key("env").value("dev").build()))
+                .build();
+        Resource service = Resource.builder()
+                .type(ECSService)
+                .name("service")
+                .account("account")
+                .region("region")
+                .childOf(Resource.builder()
+                        .type(ECSCluster)
+                        .name("cluster")
+                        .account("account")
+                        .region("region")
+                        .build())
+                .build();
+        TaskDefinition taskDefinition = TaskDefinition.builder()
+                .taskDefinitionArn("task-def-arn")
+                .containerDefinitions(ContainerDefinition.builder()
+                        .name("container")
+                        .dockerLabels(ImmutableMap.of("PROMETHEUS_EXPORTER_PORT", "8080"))
+                        .logConfiguration(LogConfiguration.builder()
+                                .logDriver("awslogs")
+                                .options(ImmutableMap.of("awslogs-group", "group"))
+                                .build())
+                        .build())
+                .build();
+
+        DiscoverySnapshotStore store = new DiscoverySnapshotStore(snapshotPath.toString());
+        assertTrue(store.isEnabled());
+        store.putMetricQueries(key, ImmutableList.of(
+                query(metric, resource, null),
+                query(metric, null, "SEARCH('{AWS/Lambda,FunctionName}', 'Sum', 60)")));
+        store.putResources(key, ImmutableSet.of(resource, service));
+        store.putTaskDefinition("task-def-arn", taskDefinition);
+        store.flush();
+        assertTrue(Files.exists(snapshotPath));
+
+        DiscoverySnapshotStore restored = new DiscoverySnapshotStore(snapshotPath.toString());
+        assertEquals(Optional.of(ImmutableList.of(SnapshotQuery.builder()
+                .metricName("Invocations")
+                .stat(MetricStat.Sum)
+                .metric(metric)
+                .resource(resource)
+                .build())), restored.getMetricQueries(key));
+        Set<Resource> resources = restored.getResources(key).get();
+        assertEquals(ImmutableSet.of(resource, service), resources);
+        Resource restoredResource = resources.stream().filter(r -> r.getType() == LambdaFunction).findFirst().get();
+        assertEquals(resource.getArn(), restoredResource.getArn());
+        assertEquals(resource.getTags(), restoredResource.getTags());
+        assertEquals(taskDefinition, restored.getTaskDefinition("task-def-arn").get());
+        assertFalse(restored.getTaskDefinition("other-arn").isPresent());
+    }
+
+    @Test
+    public void unknownVersion_Ignored() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(snapshotPath))) {
+            out.writeInt(DiscoverySnapshotStore.MAGIC);
+            out.writeInt(DiscoverySnapshotStore.VERSION + 1);
+            out.writeInt(1);
+        }
+        DiscoverySnapshotStore store = new DiscoverySnapshotStore(snapshotPath.toString());
+        assertFalse(store.getMetricQueries(DiscoverySnapshotStore.key("account", "region", "AWS/Lambda"))
+                .isPresent());
+    }
+
+    @Test
+    public void destroy_Flushes() {
+        DiscoverySnapshotStore store = new DiscoverySnapshotStore(snapshotPath.toString());
+        store.putTaskDefinition("task-def-arn", TaskDefinition.builder().taskDefinitionArn("task-def-arn").build());
+        store.destroy();
+        assertTrue(Files.exists(snapshotPath));
+
+        DiscoverySnapshotStore restored = new DiscoverySnapshotStore(snapshotPath.toString());
+        assertTrue(restored.getTaskDefinition("task-def-arn").isPresent());
+    }
+
+    @Test
+    public void unusedTaskDefinitions_Pruned() {
+        AtomicLong now = new AtomicLong(0);
+        DiscoverySnapshotStore store = new DiscoverySnapshotStore(snapshotPath.toString(), 60) {
+            @Override
+            long now() {
+                return now.get();
+            }
+        };
+        store.putTaskDefinition("used-arn", TaskDefinition.builder().taskDefinitionArn("used-arn").build());
+        store.putTaskDefinition("unused-arn", TaskDefinition.builder().taskDefinitionArn("unused-arn").build());
+        now.set(TimeUnit.MINUTES.toMillis(30));
+        store.markTaskDefinitionUsed("used-arn");
+        now.set(TimeUnit.MINUTES.toMillis(61));
+        store.flush();
+
+        DiscoverySnapshotStore restored = new DiscoverySnapshotStore(snapshotPath.toString());
+        assertTrue(restored.getTaskDefinition("used-arn").isPresent());
+        assertFalse(restored.getTaskDefinition("unused-arn").isPresent());
+    }
+
+    @Test
+    public void disabled() {
+        DiscoverySnapshotStore store = new DiscoverySnapshotStore("");
+        assertFalse(store.isEnabled());
+        store.putTaskDefinition("task-def-arn", TaskDefinition.builder().build());
+        store.flush();
+        assertFalse(store.getTaskDefinition("task-def-arn").isPresent());
+    }
+
+    private MetricQuery query(Metric metric, Resource resource, String expression) {
+        MetricQuery metricQuery = MetricQuery.builder()
+                .metricConfig(MetricConfig.builder()
+                        .name("Invocations")
+                        .build())
+                .metric(metric)
+                .metricStat(MetricStat.Sum)
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("q1")
+                        .expression(expression)
+                        .build())
+                .build();
+        metricQuery.setResource(resource);
+        return metricQuery;
+    }
+}
@@ -49,4 +49,10 @@ public class EnvironmentConfigTest {
         assertTrue(util.isEnabled());
         assertFalse(util.isDisabled());
     }
+
+    @Test
+    public void asyncApiCallsFlag() {
+        assertFalse(new EnvironmentConfig("true", "single", "single").isAsyncApiCalls());
+        assertTrue(new EnvironmentConfig("true", "single", "single", "true").isAsyncApiCalls());
+    }
 }
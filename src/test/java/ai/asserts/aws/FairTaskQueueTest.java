@@ -0,0 +1,94 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FairTaskQueueTest {
+    @Test
+    public void poll_RoundRobinAcrossTenantsAndAccounts() {
+        FairTaskQueue<String> testClass = new FairTaskQueue<>(tenant -> 1);
+        // A large tenant queues its work before the small tenant
+        testClass.add("large", "account-1", "large-1a");
+        testClass.add("large", "account-1", "large-1b");
+        testClass.add("large", "account-2", "large-2a");
+        testClass.add("large", "account-2", "large-2b");
+        testClass.add("small", "account-3", "small-3a");
+        testClass.add("small", "account-3", "small-3b");
+        assertEquals(6, testClass.size());
+
+        assertEquals(ImmutableList.of("large-1a", "small-3a", "large-2a", "small-3b", "large-1b", "large-2b"),
+                drain(testClass));
+        assertTrue(testClass.isEmpty());
+        assertNull(testClass.poll());
+    }
+
+    @Test
+    public void poll_Weighted() {
+        Map<String, Integer> weights = ImmutableMap.of("gold", 3);
+        FairTaskQueue<String> testClass = new FairTaskQueue<>(tenant -> weights.getOrDefault(tenant, 1));
+        for (int i = 1; i <= 4; i++) {
+            testClass.add("gold", "account-1", "gold-" + i);
+            testClass.add(null, null, "default-" + i);
+        }
+
+        assertEquals(ImmutableList.of("gold-1", "gold-2", "gold-3", "default-1", "gold-4", "default-2",
+                "default-3", "default-4"), drain(testClass));
+    }
+
+    @Test
+    public void remove() {
+        FairTaskQueue<String> testClass = new FairTaskQueue<>(tenant -> 1);
+        testClass.add("tenant-1", "account-1", "task-1");
+        testClass.add("tenant-2", "account-2", "task-2");
+
+        assertTrue(testClass.remove("tenant-1", "account-1", "task-1"));
+        assertFalse(testClass.remove("tenant-1", "account-1", "task-1"));
+        assertEquals(ImmutableList.of("task-2"), drain(testClass));
+    }
+
+    @Test
+    public void drainedQueuesArePruned() {
+        FairTaskQueue<String> testClass = new FairTaskQueue<>(tenant -> 2);
+        testClass.add("tenant-1", "account-1", "task-1");
+        testClass.add("tenant-1", "account-2", "task-2");
+        testClass.add("tenant-2", "account-3", "task-3");
+        assertEquals(2, testClass.getTenantQueueCount());
+        assertEquals(3, testClass.getAccountQueueCount());
+
+        assertTrue(testClass.remove("tenant-2", "account-3", "task-3"));
+        assertEquals(1, testClass.getTenantQueueCount());
+        assertEquals(2, testClass.getAccountQueueCount());
+
+        assertEquals("task-1", testClass.poll());
+        assertEquals(1, testClass.getAccountQueueCount());
+        assertEquals("task-2", testClass.poll());
+        assertEquals(0, testClass.getTenantQueueCount());
+        assertEquals(0, testClass.getAccountQueueCount());
+
+        // A tenant that comes back starts with a fresh queue
+        testClass.add("tenant-2", "account-3", "task-4");
+        assertEquals(ImmutableList.of("task-4"), drain(testClass));
+    }
+
+    private List<String> drain(FairTaskQueue<String> queue) {
+        List<String> elements = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            elements.add(queue.poll());
+        }
+        return elements;
+    }
+}
@@ -35,8 +35,7 @@ import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import java.util.concurrent.ExecutorService;
-
+import static org.easymock.EasyMock.anyString;
 import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.newCapture;
@@ -49,7 +48,6 @@ public class MetadataTaskManagerTest extends EasyMockSupport {
     private LambdaInvokeConfigExporter lambdaInvokeConfigExporter;
     private BasicMetricCollector metricCollector;
     private TaskThreadPool taskThreadPool;
-    private ExecutorService executorService;
     private ScrapeConfigProvider scrapeConfigProvider;
     private ScrapeConfig scrapeConfig;
     private ResourceRelationExporter relationExporter;
@@ -83,7 +81,6 @@ public class MetadataTaskManagerTest extends EasyMockSupport {
         lambdaInvokeConfigExporter = mock(LambdaInvokeConfigExporter.class);
         metricCollector = mock(BasicMetricCollector.class);
         taskThreadPool = mock(TaskThreadPool.class);
-        executorService = mock(ExecutorService.class);
         scrapeConfigProvider = mock(ScrapeConfigProvider.class);
         scrapeConfig = mock(ScrapeConfig.class);
         relationExporter = mock(ResourceRelationExporter.class);
@@ -152,7 +149,6 @@ public class MetadataTaskManagerTest extends EasyMockSupport {
         expect(environmentConfig.isSingleInstance()).andReturn(true);
         expect(ecsServiceDiscoveryExporter.isPrimaryExporter()).andReturn(true);
         expect(scrapeConfigProvider.getScrapeConfig("")).andReturn(scrapeConfig).anyTimes();
-        expect(taskThreadPool.getExecutorService()).andReturn(executorService).anyTimes();
         Capture<Runnable> capture0 = newCapture();
         Capture<Runnable> capture1 = newCapture();
         Capture<Runnable> capture2 = newCapture();
@@ -175,27 +171,27 @@ public class MetadataTaskManagerTest extends EasyMockSupport {
         Capture<Runnable> capture19 = newCapture();
         Capture<Runnable> capture20 = newCapture();
 
-        expect(executorService.submit(capture(capture0))).andReturn(null);
-        expect(executorService.submit(capture(capture1))).andReturn(null);
-        expect(executorService.submit(capture(capture2))).andReturn(null);
-        expect(executorService.submit(capture(capture3))).andReturn(null);
-        expect(executorService.submit(capture(capture4))).andReturn(null);
-        expect(executorService.submit(capture(capture5))).andReturn(null);
-        expect(executorService.submit(capture(capture6))).andReturn(null);
-        expect(executorService.submit(capture(capture7))).andReturn(null);
-        expect(executorService.submit(capture(capture8))).andReturn(null);
-        expect(executorService.submit(capture(capture9))).andReturn(null);
-        expect(executorService.submit(capture(capture10))).andReturn(null);
-        expect(executorService.submit(capture(capture11))).andReturn(null);
-        expect(executorService.submit(capture(capture12))).andReturn(null);
-        expect(executorService.submit(capture(capture13))).andReturn(null);
-        expect(executorService.submit(capture(capture14))).andReturn(null);
-        expect(executorService.submit(capture(capture15))).andReturn(null);
-        expect(executorService.submit(capture(capture16))).andReturn(null);
-        expect(executorService.submit(capture(capture17))).andReturn(null);
-        expect(executorService.submit(capture(capture18))).andReturn(null);
-        expect(executorService.submit(capture(capture19))).andReturn(null);
-        expect(executorService.submit(capture(capture20))).andReturn(null);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture0))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture1))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture2))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture3))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture4))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture5))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture6))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture7))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture8))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture9))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture10))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture11))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture12))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture13))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture14))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture15))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture16))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture17))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture18))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture19))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture20))).andReturn(true);
 
         lambdaFunctionScraper.update();
         lambdaCapacityExporter.update();
@@ -267,11 +263,10 @@ public class MetadataTaskManagerTest extends EasyMockSupport {
         Capture<Runnable> capture1 = newCapture();
         Capture<Runnable> capture2 = newCapture();
         expect(environmentConfig.isSingleTenant()).andReturn(true);
-        expect(taskThreadPool.getExecutorService()).andReturn(executorService).anyTimes();
-        expect(executorService.submit(capture(capture0))).andReturn(null);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture0))).andReturn(true);
         expect(scrapeConfigProvider.getScrapeConfig("")).andReturn(scrapeConfig).anyTimes();
-        expect(executorService.submit(capture(capture1))).andReturn(null);
-        expect(executorService.submit(capture(capture2))).andReturn(null);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture1))).andReturn(true);
+        expect(taskThreadPool.submitSingleFlight(anyString(), capture(capture2))).andReturn(true);
         scrapeConfigProvider.update();
         ecsServiceDiscoveryExporter.run();
         ecsTaskProvider.run();
@@ -6,6 +6,7 @@ import ai.asserts.aws.config.ScrapeConfig;
 import ai.asserts.aws.exporter.ECSServiceDiscoveryExporter;
 import ai.asserts.aws.exporter.MetricScrapeTask;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import io.prometheus.client.CollectorRegistry;
 import org.easymock.Capture;
 import org.easymock.EasyMockSupport;
@@ -13,9 +14,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 
-import java.util.concurrent.ExecutorService;
-
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_ACCOUNT_ID_LABEL;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_INTERVAL_LABEL;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_OPERATION_LABEL;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_REGION_LABEL;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyString;
 import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.newCapture;
@@ -30,9 +36,9 @@ public class MetricTaskManagerTest extends EasyMockSupport {
     private ScrapeConfig scrapeConfig;
     private MetricScrapeTask metricScrapeTask;
     private TaskThreadPool taskThreadPool;
-    private ExecutorService executorService;
     private AlarmFetcher alarmFetcher;
     private ECSServiceDiscoveryExporter ecsServiceDiscoveryExporter;
+    private StaggeredTaskScheduler taskScheduler;
 
     @BeforeEach
     public void setup() {
@@ -44,14 +50,14 @@ public class MetricTaskManagerTest extends EasyMockSupport {
         metricScrapeTask = mock(MetricScrapeTask.class);
         collectorRegistry = mock(CollectorRegistry.class);
         taskThreadPool = mock(TaskThreadPool.class);
-        executorService = mock(ExecutorService.class);
         alarmFetcher = mock(AlarmFetcher.class);
         ecsServiceDiscoveryExporter = mock(ECSServiceDiscoveryExporter.class);
+        taskScheduler = mock(StaggeredTaskScheduler.class);
         environmentConfig = mock(EnvironmentConfig.class);
         replayAll();
         testClass = new MetricTaskManager(environmentConfig, accountProvider, scrapeConfigProvider, collectorRegistry,
                 beanFactory,
-                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter);
+                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter, taskScheduler);
         verifyAll();
         resetAll();
     }
@@ -60,7 +66,7 @@ public class MetricTaskManagerTest extends EasyMockSupport {
     void triggerScrapes_fetchMetricsTrue() {
         testClass = new MetricTaskManager(environmentConfig, accountProvider, scrapeConfigProvider, collectorRegistry,
                 beanFactory,
-                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter) {
+                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter, taskScheduler) {
             @Override
             void updateScrapeTasks() {
             }
@@ -78,11 +84,14 @@ public class MetricTaskManagerTest extends EasyMockSupport {
         expect(ecsServiceDiscoveryExporter.isPrimaryExporter()).andReturn(true);
         expect(scrapeConfigProvider.getScrapeConfig("")).andReturn(scrapeConfig).anyTimes();
         expect(scrapeConfig.isFetchCWMetrics()).andReturn(true).anyTimes();
-        expect(taskThreadPool.getExecutorService()).andReturn(executorService).anyTimes();
 
-        expect(executorService.submit(capture(capture1))).andReturn(null);
-        expect(executorService.submit(capture(capture2))).andReturn(null);
-        expect(executorService.submit(capture(capture3))).andReturn(null);
+        taskScheduler.schedule(eq(taskThreadPool), eq(taskLabels("region1")), eq("MetricScrapeTask/update"),
+                anyLong(), eq(60000L), capture(capture1));
+        taskScheduler.schedule(eq(taskThreadPool), eq(taskLabels("region2")), eq("MetricScrapeTask/update"),
+                anyLong(), eq(60000L), capture(capture2));
+        taskScheduler.schedule(eq(taskThreadPool),
+                eq(ImmutableSortedMap.of(SCRAPE_OPERATION_LABEL, "AlarmFetcher/update")), eq("AlarmFetcher/update"),
+                anyLong(), eq(60000L), capture(capture3));
 
         metricScrapeTask.update();
         expectLastCall().times(2);
@@ -103,7 +112,7 @@ public class MetricTaskManagerTest extends EasyMockSupport {
     void triggerScrapes_fetchMetricsFalse() {
         testClass = new MetricTaskManager(environmentConfig, accountProvider, scrapeConfigProvider, collectorRegistry,
                 beanFactory,
-                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter) {
+                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter, taskScheduler) {
             @Override
             void updateScrapeTasks() {
             }
@@ -113,14 +122,18 @@ public class MetricTaskManagerTest extends EasyMockSupport {
                 "region2", ImmutableMap.of(300, metricScrapeTask)
         ));
 
+        testClass.staggerTasks = false;
+
         Capture<Runnable> capture1 = newCapture();
         expect(environmentConfig.isMultiTenant()).andReturn(false);
         expect(environmentConfig.isDistributed()).andReturn(false);
         expect(ecsServiceDiscoveryExporter.isPrimaryExporter()).andReturn(true);
         expect(scrapeConfigProvider.getScrapeConfig("")).andReturn(scrapeConfig).anyTimes();
-        expect(taskThreadPool.getExecutorService()).andReturn(executorService).anyTimes();
 
-        expect(executorService.submit(capture(capture1))).andReturn(null).times(3);
+        expect(taskThreadPool.submitSingleFlight(anyString(), eq("MetricScrapeTask/update"), capture(capture1)))
+                .andReturn(true).times(2);
+        expect(taskThreadPool.submitSingleFlight(anyString(), eq("AlarmFetcher/update"), capture(capture1)))
+                .andReturn(true);
         expect(environmentConfig.isDisabled()).andReturn(false);
         alarmFetcher.update();
         replayAll();
@@ -136,7 +149,7 @@ public class MetricTaskManagerTest extends EasyMockSupport {
     void triggerScrapes_notPrimaryExporter() {
         testClass = new MetricTaskManager(environmentConfig, accountProvider, scrapeConfigProvider, collectorRegistry,
                 beanFactory,
-                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter) {
+                taskThreadPool, alarmFetcher, ecsServiceDiscoveryExporter, taskScheduler) {
             @Override
             void updateScrapeTasks() {
             }
@@ -154,4 +167,12 @@ public class MetricTaskManagerTest extends EasyMockSupport {
         testClass.triggerCWPullOperations();
         verifyAll();
     }
+
+    private ImmutableSortedMap<String, String> taskLabels(String region) {
+        return ImmutableSortedMap.of(
+                SCRAPE_ACCOUNT_ID_LABEL, "account",
+                SCRAPE_REGION_LABEL, region,
+                SCRAPE_INTERVAL_LABEL, "300",
+                SCRAPE_OPERATION_LABEL, "MetricScrapeTask/update");
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Histogram;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static ai.asserts.aws.MetricNameUtil.API_LATENCY_METRIC;
+import static ai.asserts.aws.MetricNameUtil.CIRCUIT_BREAKER_REJECTED_METRIC;
+import static ai.asserts.aws.MetricNameUtil.CIRCUIT_BREAKER_STATE_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_PERMITS_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_THROTTLED_METRIC;
+import static ai.asserts.aws.MetricNameUtil.RATE_LIMIT_WAIT_METRIC;
+import static io.prometheus.client.Collector.Type.COUNTER;
+import static io.prometheus.client.Collector.Type.GAUGE;
+import static org.easymock.EasyMock.expect;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateLimiterExporterTest extends EasyMockSupport {
+    private AWSApiCallRateLimiter rateLimiter;
+    private CollectorRegistry collectorRegistry;
+    private Histogram apiLatency;
+    private RateLimiterExporter testClass;
+
+    @BeforeEach
+    public void setup() {
+        rateLimiter = mock(AWSApiCallRateLimiter.class);
+        collectorRegistry = mock(CollectorRegistry.class);
+        apiLatency = Histogram.build()
+                .name(API_LATENCY_METRIC)
+                .help("Latency of the AWS API calls")
+                .labelNames("account_id", "region", "operation")
+                .buckets(1)
+                .create();
+        testClass = new RateLimiterExporter(rateLimiter, collectorRegistry);
+    }
+
+    @Test
+    public void afterPropertiesSet() {
+        collectorRegistry.register(testClass);
+        replayAll();
+        testClass.afterPropertiesSet();
+        verifyAll();
+    }
+
+    @Test
+    public void collect() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(4.0D, ImmutableSortedMap.of(
+                "account_id", "123", "api", "CloudWatchClient/getMetricData", "region", "us-west-2"));
+        limiter.recordWait(0.5D);
+        limiter.onThrottle();
+        expect(rateLimiter.getRateLimiters()).andReturn(ImmutableList.of(limiter));
+        expect(rateLimiter.getCircuitBreakers()).andReturn(ImmutableList.of());
+        expect(rateLimiter.getApiLatency()).andReturn(apiLatency);
+        replayAll();
+
+        List<String> labelNames = ImmutableList.of("account_id", "api", "region");
+        List<String> labelValues = ImmutableList.of("123", "CloudWatchClient/getMetricData", "us-west-2");
+        assertEquals(ImmutableList.of(
+                new MetricFamilySamples(RATE_LIMIT_METRIC, GAUGE, "", ImmutableList.of(
+                        new Sample(RATE_LIMIT_METRIC, labelNames, labelValues, 2.0D))),
+                new MetricFamilySamples(RATE_LIMIT_PERMITS_METRIC, COUNTER, "", ImmutableList.of(
+                        new Sample(RATE_LIMIT_PERMITS_METRIC, labelNames, labelValues, 1.0D))),
+                new MetricFamilySamples(RATE_LIMIT_THROTTLED_METRIC, COUNTER, "", ImmutableList.of(
+                        new Sample(RATE_LIMIT_THROTTLED_METRIC, labelNames, labelValues, 1.0D))),
+                new MetricFamilySamples(RATE_LIMIT_WAIT_METRIC, COUNTER, "", ImmutableList.of(
+                        new Sample(RATE_LIMIT_WAIT_METRIC, labelNames, labelValues, 0.5D)))
+        ), testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void collect_CircuitBreakers() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(ImmutableSortedMap.of(
+                "account_id", "123", "region", "us-west-2", "service", "EcsClient"), 1, 1000, 1000);
+        circuitBreaker.onFailure();
+        circuitBreaker.tryAcquire();
+        expect(rateLimiter.getRateLimiters()).andReturn(ImmutableList.of());
+        expect(rateLimiter.getCircuitBreakers()).andReturn(ImmutableList.of(circuitBreaker));
+        expect(rateLimiter.getApiLatency()).andReturn(apiLatency);
+        replayAll();
+
+        List<String> labelNames = ImmutableList.of("account_id", "region", "service");
+        List<String> labelValues = ImmutableList.of("123", "us-west-2", "EcsClient");
+        assertEquals(ImmutableList.of(
+                new MetricFamilySamples(CIRCUIT_BREAKER_STATE_METRIC, GAUGE, "", ImmutableList.of(
+                        new Sample(CIRCUIT_BREAKER_STATE_METRIC, labelNames, labelValues, 2.0D))),
+                new MetricFamilySamples(CIRCUIT_BREAKER_REJECTED_METRIC, COUNTER, "", ImmutableList.of(
+                        new Sample(CIRCUIT_BREAKER_REJECTED_METRIC, labelNames, labelValues, 1.0D)))
+        ), testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void collect_ApiLatency() {
+        apiLatency.labels("123", "us-west-2", "CloudWatchClient/getMetricData").observe(0.5D);
+        expect(rateLimiter.getRateLimiters()).andReturn(ImmutableList.of());
+        expect(rateLimiter.getCircuitBreakers()).andReturn(ImmutableList.of());
+        expect(rateLimiter.getApiLatency()).andReturn(apiLatency);
+        replayAll();
+
+        assertEquals(apiLatency.collect(), testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void collect_NoLimiters() {
+        expect(rateLimiter.getRateLimiters()).andReturn(ImmutableList.of());
+        expect(rateLimiter.getCircuitBreakers()).andReturn(ImmutableList.of());
+        expect(rateLimiter.getApiLatency()).andReturn(apiLatency);
+        replayAll();
+        assertTrue(testClass.collect().isEmpty());
+        verifyAll();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.SdkHttpMetricPublisher.PoolStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static ai.asserts.aws.MetricNameUtil.SDK_CLIENTS_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SDK_HTTP_CONNECTIONS_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SDK_HTTP_PENDING_ACQUIRES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.STS_REFRESHES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.STS_REFRESH_FAILURES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.STS_REFRESH_SECONDS_METRIC;
+import static io.prometheus.client.Collector.Type.COUNTER;
+import static io.prometheus.client.Collector.Type.GAUGE;
+import static org.easymock.EasyMock.expect;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SdkClientExporterTest extends EasyMockSupport {
+    private AWSClientProvider awsClientProvider;
+    private SdkHttpMetricPublisher httpMetricPublisher;
+    private StsCredentialCache stsCredentialCache;
+    private CollectorRegistry collectorRegistry;
+    private SdkClientExporter testClass;
+
+    @BeforeEach
+    public void setup() {
+        awsClientProvider = mock(AWSClientProvider.class);
+        httpMetricPublisher = mock(SdkHttpMetricPublisher.class);
+        stsCredentialCache = mock(StsCredentialCache.class);
+        collectorRegistry = mock(CollectorRegistry.class);
+        testClass = new SdkClientExporter(awsClientProvider, collectorRegistry);
+    }
+
+    @Test
+    public void afterPropertiesSet() {
+        collectorRegistry.register(testClass);
+        replayAll();
+        testClass.afterPropertiesSet();
+        verifyAll();
+    }
+
+    @Test
+    public void collect() {
+        expect(awsClientProvider.getClientCounts()).andReturn(ImmutableMap.of("CloudWatchClient", 2L));
+        expect(awsClientProvider.getHttpMetricPublisher()).andReturn(httpMetricPublisher);
+        expect(httpMetricPublisher.getPoolStats()).andReturn(ImmutableMap.of("Apache", new PoolStats(3, 1, 0)));
+        expect(awsClientProvider.getStsCredentialCache()).andReturn(stsCredentialCache);
+        expect(stsCredentialCache.getRefreshCount()).andReturn(4L);
+        expect(stsCredentialCache.getFailureCount()).andReturn(1L);
+        expect(stsCredentialCache.getRefreshSeconds()).andReturn(0.5D);
+        replayAll();
+
+        assertEquals(ImmutableList.of(
+                new MetricFamilySamples(SDK_CLIENTS_METRIC, GAUGE, "", ImmutableList.of(
+                        new Sample(SDK_CLIENTS_METRIC, ImmutableList.of("client_type"),
+                                ImmutableList.of("CloudWatchClient"), 2.0D))),
+                new MetricFamilySamples(SDK_HTTP_CONNECTIONS_METRIC, GAUGE, "", ImmutableList.of(
+                        new Sample(SDK_HTTP_CONNECTIONS_METRIC, ImmutableList.of("http_client", "state"),
+                                ImmutableList.of("Apache", "idle"), 3.0D),
+                        new Sample(SDK_HTTP_CONNECTIONS_METRIC, ImmutableList.of("http_client", "state"),
+                                ImmutableList.of("Apache", "leased"), 1.0D))),
+                new MetricFamilySamples(SDK_HTTP_PENDING_ACQUIRES_METRIC, GAUGE, "", ImmutableList.of(
+                        new Sample(SDK_HTTP_PENDING_ACQUIRES_METRIC, ImmutableList.of("http_client"),
+                                ImmutableList.of("Apache"), 0.0D))),
+                new MetricFamilySamples(STS_REFRESHES_METRIC, COUNTER, "", ImmutableList.of(
+                        new Sample(STS_REFRESHES_METRIC, ImmutableList.of(), ImmutableList.of(), 4.0D))),
+                new MetricFamilySamples(STS_REFRESH_FAILURES_METRIC, COUNTER, "", ImmutableList.of(
+                        new Sample(STS_REFRESH_FAILURES_METRIC, ImmutableList.of(), ImmutableList.of(), 1.0D))),
+                new MetricFamilySamples(STS_REFRESH_SECONDS_METRIC, COUNTER, "", ImmutableList.of(
+                        new Sample(STS_REFRESH_SECONDS_METRIC, ImmutableList.of(), ImmutableList.of(), 0.5D)))
+        ), testClass.collect());
+        verifyAll();
+    }
+}
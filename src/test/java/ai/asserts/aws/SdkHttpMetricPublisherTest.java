@@ -0,0 +1,34 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.SdkHttpMetricPublisher.PoolStats;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SdkHttpMetricPublisherTest {
+    @Test
+    public void publish() {
+        SdkHttpMetricPublisher testClass = new SdkHttpMetricPublisher();
+        testClass.publish(apiCall(5, 2));
+        testClass.publish(apiCall(4, 3));
+        assertEquals(ImmutableMap.of("Apache", new PoolStats(4, 3, 0)), testClass.getPoolStats());
+    }
+
+    private MetricCollection apiCall(int available, int leased) {
+        MetricCollector apiCall = MetricCollector.create("ApiCall");
+        MetricCollector httpClient = apiCall.createChild("ApiCallAttempt").createChild("HttpClient");
+        httpClient.reportMetric(HttpMetric.HTTP_CLIENT_NAME, "Apache");
+        httpClient.reportMetric(HttpMetric.AVAILABLE_CONCURRENCY, available);
+        httpClient.reportMetric(HttpMetric.LEASED_CONCURRENCY, leased);
+        httpClient.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, 0);
+        return apiCall.collect();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright © 2020.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.collect.ImmutableSortedMap;
+import org.easymock.Capture;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.SortedMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static ai.asserts.aws.MetricNameUtil.SCHEDULED_TASK_DRIFT_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SCHEDULED_TASK_OFFSET_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_OPERATION_LABEL;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_REGION_LABEL;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.newCapture;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StaggeredTaskSchedulerTest extends EasyMockSupport {
+    private BasicMetricCollector metricCollector;
+    private ScheduledExecutorService scheduler;
+    private TaskThreadPool taskThreadPool;
+    private Runnable task;
+    private SortedMap<String, String> labels;
+    private long now;
+    private StaggeredTaskScheduler testClass;
+
+    @BeforeEach
+    public void setup() {
+        metricCollector = mock(BasicMetricCollector.class);
+        scheduler = mock(ScheduledExecutorService.class);
+        taskThreadPool = mock(TaskThreadPool.class);
+        task = mock(Runnable.class);
+        labels = ImmutableSortedMap.of(SCRAPE_REGION_LABEL, "region", SCRAPE_OPERATION_LABEL, "op");
+        now = 1_000_000L;
+        testClass = new StaggeredTaskScheduler(metricCollector) {
+            @Override
+            ScheduledExecutorService buildScheduler() {
+                return scheduler;
+            }
+
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    void offsetMillis() {
+        long offset = testClass.offsetMillis(labels, 60000L);
+        assertTrue(offset >= 0 && offset < 60000L);
+        assertEquals(offset, testClass.offsetMillis(ImmutableSortedMap.copyOf(labels), 60000L));
+        assertNotEquals(offset, testClass.offsetMillis(ImmutableSortedMap.of(SCRAPE_REGION_LABEL, "region2",
+                SCRAPE_OPERATION_LABEL, "op"), 60000L));
+        assertEquals(0L, testClass.offsetMillis(labels, 0L));
+    }
+
+    @Test
+    void schedule_Later() {
+        long offset = testClass.offsetMillis(labels, 60000L);
+        Capture<Runnable> scheduled = newCapture();
+        Capture<Runnable> submitted = newCapture();
+        metricCollector.recordGaugeValue(SCHEDULED_TASK_OFFSET_METRIC, labels, offset / 1000.0D);
+        expect(scheduler.schedule(capture(scheduled), eq(offset), eq(TimeUnit.MILLISECONDS))).andReturn(null);
+        expect(taskThreadPool.submitSingleFlight(eq(labels.toString()), eq("op"), capture(submitted))).andReturn(true);
+        metricCollector.recordHistogram(SCHEDULED_TASK_DRIFT_METRIC, labels, 0.25D);
+        task.run();
+        expectLastCall();
+        replayAll();
+
+        testClass.schedule(taskThreadPool, labels, "op", now, 60000L, task);
+        scheduled.getValue().run();
+        now = now + offset + 250;
+        submitted.getValue().run();
+        verifyAll();
+    }
+
+    @Test
+    void schedule_AlreadyDue() {
+        long offset = testClass.offsetMillis(labels, 60000L);
+        Capture<Runnable> submitted = newCapture();
+        metricCollector.recordGaugeValue(SCHEDULED_TASK_OFFSET_METRIC, labels, offset / 1000.0D);
+        expect(taskThreadPool.submitSingleFlight(eq(labels.toString()), eq("op"), capture(submitted))).andReturn(true);
+        metricCollector.recordHistogram(SCHEDULED_TASK_DRIFT_METRIC, labels, 1.0D);
+        task.run();
+        expectLastCall();
+        replayAll();
+
+        long cycleStart = now - offset - 1000;
+        testClass.schedule(taskThreadPool, labels, "op", cycleStart, 60000L, task);
+        submitted.getValue().run();
+        verifyAll();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws;
+
+import ai.asserts.aws.account.AWSAccount;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
+import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
+import software.amazon.awssdk.services.sts.model.Credentials;
+import software.amazon.awssdk.services.sts.model.StsException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiFunction;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SuppressWarnings("unchecked")
+public class StsCredentialCacheTest extends EasyMockSupport {
+    private final Instant now = Instant.now();
+    private BiFunction<String, Optional<AwsCredentialsProvider>, StsClient> stsClientFactory;
+    private StsClient stsClient;
+    private List<Runnable> refreshTasks;
+    private boolean deferRefresh;
+    private AWSAccount account;
+    private StsCredentialCache testClass;
+
+    @BeforeEach
+    public void setup() {
+        stsClientFactory = mock(BiFunction.class);
+        stsClient = mock(StsClient.class);
+        refreshTasks = new ArrayList<>();
+        account = AWSAccount.builder()
+                .accountId("account")
+                .assumeRole("role")
+                .externalId("external-id")
+                .build();
+        testClass = new StsCredentialCache(stsClientFactory, "session", Duration.ofMinutes(15),
+                task -> {
+                    if (deferRefresh) {
+                        refreshTasks.add(task);
+                    } else {
+                        task.run();
+                    }
+                }) {
+            @Override
+            Instant now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void getCredentials_SharedAcrossRegions() {
+        expect(stsClientFactory.apply("us-west-2", Optional.empty())).andReturn(stsClient);
+        expect(stsClient.assumeRole(request())).andReturn(response("key-1", now.plusSeconds(3600)));
+        replayAll();
+
+        assertEquals(AwsSessionCredentials.create("key-1", "secret", "token"),
+                testClass.getCredentials("us-west-2", account, Optional.empty()));
+        assertEquals(AwsSessionCredentials.create("key-1", "secret", "token"),
+                testClass.getCredentials("us-east-1", account, Optional.empty()));
+        assertEquals(1L, testClass.getRefreshCount());
+        assertEquals(0L, testClass.getFailureCount());
+        verifyAll();
+    }
+
+    @Test
+    public void getCredentials_RefreshedBeforeExpiry() {
+        expect(stsClientFactory.apply("us-west-2", Optional.empty())).andReturn(stsClient);
+        expect(stsClient.assumeRole(request())).andReturn(response("key-1", now.plusSeconds(600)));
+        expect(stsClient.assumeRole(request())).andReturn(response("key-2", now.plusSeconds(3600)));
+        replayAll();
+
+        assertEquals(AwsSessionCredentials.create("key-1", "secret", "token"),
+                testClass.getCredentials("us-west-2", account, Optional.empty()));
+
+        // Close to expiry, the current credentials are served while a single refresh is scheduled
+        deferRefresh = true;
+        assertEquals(AwsSessionCredentials.create("key-1", "secret", "token"),
+                testClass.getCredentials("us-west-2", account, Optional.empty()));
+        assertEquals(AwsSessionCredentials.create("key-1", "secret", "token"),
+                testClass.getCredentials("us-west-2", account, Optional.empty()));
+        assertEquals(1, refreshTasks.size());
+        refreshTasks.remove(0).run();
+
+        assertEquals(AwsSessionCredentials.create("key-2", "secret", "token"),
+                testClass.getCredentials("us-west-2", account, Optional.empty()));
+        assertEquals(0, refreshTasks.size());
+        assertEquals(2L, testClass.getRefreshCount());
+        verifyAll();
+    }
+
+    @Test
+    public void getCredentials_Failure() {
+        expect(stsClientFactory.apply("us-west-2", Optional.empty())).andReturn(stsClient);
+        expect(stsClient.assumeRole(request())).andThrow(StsException.builder().message("denied").build());
+        replayAll();
+
+        assertThrows(StsException.class, () -> testClass.getCredentials("us-west-2", account, Optional.empty()));
+        assertEquals(1L, testClass.getRefreshCount());
+        assertEquals(1L, testClass.getFailureCount());
+        verifyAll();
+    }
+
+    private AssumeRoleRequest request() {
+        return AssumeRoleRequest.builder()
+                .roleSessionName("session")
+                .roleArn("role")
+                .externalId("external-id")
+                .build();
+    }
+
+    private AssumeRoleResponse response(String accessKeyId, Instant expiration) {
+        return AssumeRoleResponse.builder()
+                .credentials(Credentials.builder()
+                        .accessKeyId(accessKeyId)
+                        .secretAccessKey("secret")
+                        .sessionToken("token")
+                        .expiration(expiration)
+                        .build())
+                .build();
+    }
+}
@@ -4,28 +4,117 @@
  */
 package ai.asserts.aws;
 
+import com.google.common.collect.ImmutableList;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.easymock.Capture;
 import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import static ai.asserts.aws.TaskPriority.METADATA;
+import static ai.asserts.aws.TaskPriority.METRICS;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.newCapture;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TaskThreadPoolTest extends EasyMockSupport {
+    private MeterRegistry meterRegistry;
+    private ExecutorService mockService;
+    private TaskThreadPool testClass;
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        mockService = mock(ExecutorService.class);
+        testClass = new TaskThreadPool("test pool", 1, meterRegistry) {
+            @Override
+            ExecutorService buildExecutorService(String name, int nThreads, MeterRegistry meterRegistry) {
+                assertEquals("test pool", name);
+                assertEquals(1, nThreads);
+                return mockService;
+            }
+        };
+    }
+
     @Test
     public void constructor() {
-        MeterRegistry mockMeterRegistry = mock(MeterRegistry.class);
-        ExecutorService mockService = mock(ExecutorService.class);
+        assertEquals(mockService, testClass.getExecutorService());
+        assertNotNull(meterRegistry.find("task.pool.queue.depth").tag("pool", "test pool").gauge());
+        assertNotNull(meterRegistry.find("task.pool.oldest.task.age").tag("pool", "test pool").gauge());
+    }
+
+    @Test
+    public void submitSingleFlight() {
+        Runnable task = mock(Runnable.class);
+        Capture<Runnable> capture1 = newCapture();
+        Capture<Runnable> capture2 = newCapture();
+        expect(mockService.submit(capture(capture1))).andReturn(null);
+        task.run();
+        expect(mockService.submit(capture(capture2))).andReturn(null);
         replayAll();
-        new TaskThreadPool("test pool", 1, mockMeterRegistry) {
+
+        assertTrue(testClass.submitSingleFlight("task", "type", task));
+        // Still in flight
+        assertFalse(testClass.submitSingleFlight("task", "type", task));
+        assertTrue(testClass.oldestTaskAgeSeconds() >= 0.0D);
+        assertEquals(1.0D, meterRegistry.find("task.pool.coalesced.triggers")
+                .tag("pool", "test pool")
+                .tag("type", "type")
+                .counter().count());
+
+        capture1.getValue().run();
+        assertEquals(1L, meterRegistry.find("task.pool.task.age").tag("type", "type").timer().count());
+        assertEquals(0.0D, testClass.oldestTaskAgeSeconds());
+
+        // Can be submitted again once the previous run is complete
+        assertTrue(testClass.submitSingleFlight("task", "type", task));
+        verifyAll();
+    }
+
+    @Test
+    public void submit_MetricsBeforeMetadata() throws Exception {
+        testClass = new TaskThreadPool("test pool", 1, 2, tenant -> 1, meterRegistry) {
             @Override
             ExecutorService buildExecutorService(String name, int nThreads, MeterRegistry meterRegistry) {
-                assertEquals("test pool", name);
-                assertEquals(1, nThreads);
                 return mockService;
             }
         };
+        List<Runnable> turns = new ArrayList<>();
+        expect(mockService.submit(anyObject(Runnable.class))).andAnswer(() -> {
+            turns.add((Runnable) getCurrentArguments()[0]);
+            return null;
+        }).times(5);
+        replayAll();
+
+        List<String> ran = new ArrayList<>();
+        Future<String> metadata1 = testClass.submit(METADATA, () -> {
+            ran.add("metadata-1");
+            return "metadata-1";
+        });
+        testClass.submit(METADATA, () -> ran.add("metadata-2"));
+        testClass.submit(METRICS, () -> ran.add("metrics-1"));
+        testClass.submit(METRICS, () -> ran.add("metrics-2"));
+        testClass.submit(METRICS, () -> ran.add("metrics-3"));
+        assertEquals(3.0D, meterRegistry.find("task.pool.lane.depth").tag("priority", "metrics").gauge().value());
+
+        turns.forEach(Runnable::run);
+        // Metadata gets a turn after every two metric tasks
+        assertEquals(ImmutableList.of("metrics-1", "metrics-2", "metadata-1", "metrics-3", "metadata-2"), ran);
+        assertEquals("metadata-1", metadata1.get());
+        assertEquals(3L, meterRegistry.find("task.pool.lane.delay").tag("priority", "metrics").timer().count());
+        assertEquals(2L, meterRegistry.find("task.pool.lane.delay").tag("priority", "metadata").timer().count());
         verifyAll();
     }
 }
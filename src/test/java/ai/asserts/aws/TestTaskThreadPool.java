@@ -5,6 +5,7 @@
 package ai.asserts.aws;
 
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import java.util.Collection;
 import java.util.List;
@@ -19,7 +20,7 @@ public class TestTaskThreadPool extends TaskThreadPool {
     private final ExecutorService executorService = new SimpleExecutorService();
 
     public TestTaskThreadPool() {
-        super("test pool", 1, null);
+        super("test pool", 1, new SimpleMeterRegistry());
     }
 
     @Override
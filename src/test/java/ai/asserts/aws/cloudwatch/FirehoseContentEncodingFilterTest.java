@@ -0,0 +1,202 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.ByteStreams;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static ai.asserts.aws.MetricNameUtil.FIREHOSE_DECODED_BYTES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.FIREHOSE_RECEIVED_BYTES_METRIC;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FirehoseContentEncodingFilterTest extends EasyMockSupport {
+    private static final String BODY = "{\"requestId\":\"request-id\",\"records\":[{\"data\":\"dGVzdA==\"}]}";
+    private BasicMetricCollector metricCollector;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private FilterChain chain;
+    private ReadListener readListener;
+    private ReadListener originalReadListener;
+    private FirehoseContentEncodingFilter testClass;
+
+    @BeforeEach
+    public void setup() {
+        metricCollector = mock(BasicMetricCollector.class);
+        request = niceMock(HttpServletRequest.class);
+        response = mock(HttpServletResponse.class);
+        chain = mock(FilterChain.class);
+        readListener = mock(ReadListener.class);
+        testClass = new FirehoseContentEncodingFilter(metricCollector, 1000L);
+        expect(request.getContextPath()).andReturn("/aws-exporter").anyTimes();
+    }
+
+    @Test
+    public void shouldNotFilter() {
+        expect(request.getRequestURI()).andReturn("/aws-exporter/receive-cloudwatch-metrics");
+        expect(request.getRequestURI()).andReturn("/aws-exporter/actuator/prometheus");
+        replayAll();
+        assertFalse(testClass.shouldNotFilter(request));
+        assertTrue(testClass.shouldNotFilter(request));
+        verifyAll();
+    }
+
+    @Test
+    public void doFilterInternal_Gzip() throws Exception {
+        byte[] compressed = gzip(BODY.getBytes(StandardCharsets.UTF_8));
+        expect(request.getRequestURI()).andReturn("/aws-exporter/receive-cloudwatch-metrics").anyTimes();
+        expect(request.getHeader("Content-Encoding")).andReturn("gzip").anyTimes();
+        expect(request.getInputStream()).andReturn(servletInputStream(compressed));
+        chain.doFilter(anyObject(), eq(response));
+        expectLastCall().andAnswer(() -> {
+            HttpServletRequest decoding = (HttpServletRequest) getCurrentArguments()[0];
+            assertNull(decoding.getHeader("Content-Encoding"));
+            assertEquals(-1, decoding.getContentLength());
+            assertEquals(BODY, read(decoding));
+            assertThrows(UnsupportedOperationException.class,
+                    () -> decoding.getInputStream().setReadListener(readListener));
+            return null;
+        });
+        ImmutableSortedMap<String, String> labels = ImmutableSortedMap.of(
+                "endpoint", "metrics", "content_encoding", "gzip");
+        metricCollector.recordCounterValue(FIREHOSE_RECEIVED_BYTES_METRIC, labels, (long) compressed.length);
+        metricCollector.recordCounterValue(FIREHOSE_DECODED_BYTES_METRIC, labels, (long) BODY.length());
+        replayAll();
+
+        testClass.doFilterInternal(request, response, chain);
+        verifyAll();
+    }
+
+    @Test
+    public void doFilterInternal_Identity() throws Exception {
+        expect(request.getRequestURI()).andReturn("/aws-exporter/receive-cloudwatch-alarms/token").anyTimes();
+        expect(request.getInputStream()).andReturn(servletInputStream(BODY.getBytes(StandardCharsets.UTF_8)));
+        chain.doFilter(anyObject(), eq(response));
+        expectLastCall().andAnswer(() -> {
+            ServletRequest decoding = (ServletRequest) getCurrentArguments()[0];
+            assertEquals(BODY, read(decoding));
+            decoding.getInputStream().setReadListener(readListener);
+            return null;
+        });
+        ImmutableSortedMap<String, String> labels = ImmutableSortedMap.of(
+                "endpoint", "alarms", "content_encoding", "identity");
+        metricCollector.recordCounterValue(FIREHOSE_RECEIVED_BYTES_METRIC, labels, (long) BODY.length());
+        metricCollector.recordCounterValue(FIREHOSE_DECODED_BYTES_METRIC, labels, (long) BODY.length());
+        replayAll();
+
+        testClass.doFilterInternal(request, response, chain);
+        assertSame(readListener, originalReadListener);
+        verifyAll();
+    }
+
+    @Test
+    public void doFilterInternal_DecodedTooLarge() throws Exception {
+        byte[] compressed = gzip(new byte[1001]);
+        expect(request.getRequestURI()).andReturn("/aws-exporter/receive-cloudwatch-metrics").anyTimes();
+        expect(request.getHeader("Content-Encoding")).andReturn("gzip").anyTimes();
+        expect(request.getContentLengthLong()).andReturn((long) compressed.length).anyTimes();
+        expect(request.getInputStream()).andReturn(servletInputStream(compressed));
+        chain.doFilter(anyObject(), eq(response));
+        expectLastCall().andAnswer(() -> {
+            ServletRequest decoding = (ServletRequest) getCurrentArguments()[0];
+            ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> read(decoding));
+            assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, e.getStatus());
+            return null;
+        });
+        metricCollector.recordCounterValue(eq(FIREHOSE_RECEIVED_BYTES_METRIC), anyObject(),
+                eq((long) compressed.length));
+        metricCollector.recordCounterValue(eq(FIREHOSE_DECODED_BYTES_METRIC), anyObject(), anyLong());
+        replayAll();
+
+        testClass.doFilterInternal(request, response, chain);
+        verifyAll();
+    }
+
+    @Test
+    public void doFilterInternal_ContentLengthTooLarge() throws Exception {
+        expect(request.getRequestURI()).andReturn("/aws-exporter/receive-cloudwatch-metrics").anyTimes();
+        expect(request.getContentLengthLong()).andReturn(1001L).anyTimes();
+        response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        replayAll();
+
+        testClass.doFilterInternal(request, response, chain);
+        verifyAll();
+    }
+
+    @Test
+    public void doFilterInternal_Unsupported() throws Exception {
+        expect(request.getHeader("Content-Encoding")).andReturn("br").anyTimes();
+        response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+        replayAll();
+
+        testClass.doFilterInternal(request, response, chain);
+        verifyAll();
+    }
+
+    private String read(ServletRequest servletRequest) throws IOException {
+        return new String(ByteStreams.toByteArray(servletRequest.getInputStream()), StandardCharsets.UTF_8);
+    }
+
+    private byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private ServletInputStream servletInputStream(byte[] bytes) {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                originalReadListener = readListener;
+            }
+        };
+    }
+}
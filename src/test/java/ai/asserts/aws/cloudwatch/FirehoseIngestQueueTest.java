@@ -0,0 +1,163 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.collect.ImmutableSortedMap;
+import org.easymock.Capture;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static ai.asserts.aws.MetricNameUtil.INGEST_DROPPED_METRIC;
+import static ai.asserts.aws.MetricNameUtil.INGEST_LATENCY_METRIC;
+import static ai.asserts.aws.MetricNameUtil.INGEST_QUEUE_BYTES_METRIC;
+import static ai.asserts.aws.MetricNameUtil.INGEST_QUEUE_DEPTH_METRIC;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.newCapture;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FirehoseIngestQueueTest extends EasyMockSupport {
+    private BasicMetricCollector metricCollector;
+    private ExecutorService executorService;
+    private Runnable task;
+    private SortedMap<String, String> labels;
+    private long now;
+    private FirehoseIngestQueue testClass;
+
+    @BeforeEach
+    public void setup() {
+        metricCollector = mock(BasicMetricCollector.class);
+        executorService = mock(ExecutorService.class);
+        task = mock(Runnable.class);
+        labels = ImmutableSortedMap.of("stream", "/receive-cloudwatch-metrics");
+        now = 1_000_000L;
+        testClass = new FirehoseIngestQueue(metricCollector, 1000L, 1, 5L) {
+            @Override
+            ExecutorService buildExecutorService(int threads, BlockingQueue<Runnable> queue) {
+                return executorService;
+            }
+
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void submit() {
+        Capture<Runnable> queued = newCapture();
+        executorService.execute(capture(queued));
+        expectQueueSize(0, 100, 2);
+        metricCollector.recordHistogram(INGEST_LATENCY_METRIC, labels, 0.5D);
+        task.run();
+        replayAll();
+
+        assertTrue(testClass.submit("/receive-cloudwatch-metrics", 100, task));
+        now += 500;
+        queued.getValue().run();
+        verifyAll();
+    }
+
+    @Test
+    public void submit_TaskFails() {
+        Capture<Runnable> queued = newCapture();
+        executorService.execute(capture(queued));
+        expectQueueSize(0, 100, 2);
+        metricCollector.recordHistogram(INGEST_LATENCY_METRIC, labels, 0.0D);
+        task.run();
+        expectLastCall().andThrow(new RuntimeException());
+        replayAll();
+
+        assertTrue(testClass.submit("/receive-cloudwatch-metrics", 100, task));
+        queued.getValue().run();
+        verifyAll();
+    }
+
+    @Test
+    public void submit_QueueFull() {
+        executorService.execute(anyObject());
+        expectLastCall().andThrow(new RejectedExecutionException());
+        metricCollector.recordCounterValue(INGEST_DROPPED_METRIC, labels, 1);
+        replayAll();
+
+        assertFalse(testClass.submit("/receive-cloudwatch-metrics", 100, task));
+        verifyAll();
+    }
+
+    @Test
+    public void submit_OverCapacityBytes() {
+        Capture<Runnable> queued = newCapture();
+        executorService.execute(capture(queued));
+        metricCollector.recordCounterValue(INGEST_DROPPED_METRIC, labels, 1);
+        metricCollector.recordHistogram(INGEST_LATENCY_METRIC, labels, 0.0D);
+        task.run();
+        executorService.execute(anyObject());
+        expectQueueSize(0, 600, 3);
+        replayAll();
+
+        assertTrue(testClass.submit("/receive-cloudwatch-metrics", 600, task));
+        assertFalse(testClass.submit("/receive-cloudwatch-metrics", 600, task));
+        // The bytes are released once the first request is processed
+        queued.getValue().run();
+        assertTrue(testClass.submit("/receive-cloudwatch-metrics", 600, task));
+        verifyAll();
+    }
+
+    @Test
+    public void submit_LargerThanCapacityWhenEmpty() {
+        executorService.execute(anyObject());
+        expectQueueSize(0, 2000, 1);
+        replayAll();
+
+        assertTrue(testClass.submit("/receive-cloudwatch-metrics", 2000, task));
+        verifyAll();
+    }
+
+    @Test
+    public void destroy_Drained() throws Exception {
+        executorService.shutdown();
+        expect(executorService.awaitTermination(5L, TimeUnit.SECONDS)).andReturn(true);
+        replayAll();
+
+        testClass.destroy();
+        verifyAll();
+    }
+
+    @Test
+    public void destroy_Abandoned() throws Exception {
+        Capture<Runnable> queued = newCapture();
+        executorService.execute(capture(queued));
+        expectQueueSize(0, 100, 1);
+        executorService.shutdown();
+        expect(executorService.awaitTermination(5L, TimeUnit.SECONDS)).andReturn(false);
+        expect(executorService.shutdownNow()).andAnswer(() -> Collections.singletonList(queued.getValue()));
+        metricCollector.recordCounterValue(INGEST_DROPPED_METRIC, labels, 1);
+        replayAll();
+
+        assertTrue(testClass.submit("/receive-cloudwatch-metrics", 100, task));
+        testClass.destroy();
+        verifyAll();
+    }
+
+    private void expectQueueSize(int depth, long bytes, int times) {
+        metricCollector.recordGaugeValue(INGEST_QUEUE_DEPTH_METRIC, labels, (double) depth);
+        expectLastCall().times(times);
+        metricCollector.recordGaugeValue(INGEST_QUEUE_BYTES_METRIC, labels, (double) bytes);
+        expectLastCall().times(times);
+    }
+}
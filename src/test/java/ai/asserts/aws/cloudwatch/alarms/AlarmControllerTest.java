@@ -6,6 +6,7 @@ package ai.asserts.aws.cloudwatch.alarms;
 
 import ai.asserts.aws.ApiAuthenticator;
 import ai.asserts.aws.ObjectMapperFactory;
+import ai.asserts.aws.cloudwatch.FirehoseIngestQueue;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
@@ -18,7 +19,10 @@ import org.springframework.http.HttpStatus;
 import java.util.Base64;
 import java.util.Optional;
 
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class AlarmControllerTest extends EasyMockSupport {
@@ -27,23 +31,26 @@ public class AlarmControllerTest extends EasyMockSupport {
     private FirehoseEventRequest firehoseEventRequest;
     private RecordData recordData;
     private AlarmStateChange alarmStateChange;
+    private ObjectMapperFactory objectMapperFactory;
     private ObjectMapper objectMapper;
     private AlertsProcessor alertsProcessor;
     private ApiAuthenticator apiAuthenticator;
+    private FirehoseIngestQueue ingestQueue;
     private AlarmController testClass;
 
     @BeforeEach
     public void setup() {
         alarmMetricConverter = mock(AlarmMetricConverter.class);
         alarmStateChange = mock(AlarmStateChange.class);
-        ObjectMapperFactory objectMapperFactory = mock(ObjectMapperFactory.class);
+        objectMapperFactory = mock(ObjectMapperFactory.class);
         objectMapper = mock(ObjectMapper.class);
         firehoseEventRequest = mock(FirehoseEventRequest.class);
         recordData = mock(RecordData.class);
         alertsProcessor = mock(AlertsProcessor.class);
         apiAuthenticator = mock(ApiAuthenticator.class);
-        testClass = new AlarmController(alarmMetricConverter, objectMapperFactory, alertsProcessor, apiAuthenticator);
-        expect(objectMapperFactory.getObjectMapper()).andReturn(objectMapper);
+        ingestQueue = mock(FirehoseIngestQueue.class);
+        testClass = new AlarmController(alarmMetricConverter, objectMapperFactory, alertsProcessor, apiAuthenticator,
+                ingestQueue);
     }
 
     @Test
@@ -55,6 +62,7 @@ public class AlarmControllerTest extends EasyMockSupport {
                 ImmutableMap.of("state", "ALARM")));
         alertsProcessor.sendAlerts(ImmutableList.of(ImmutableMap.of("state", "ALARM")));
         apiAuthenticator.authenticate(Optional.empty());
+        expectSubmit();
         replayAll();
 
         assertEquals(HttpStatus.OK, testClass.receiveAlarmsPost(firehoseEventRequest).getStatusCode());
@@ -71,6 +79,7 @@ public class AlarmControllerTest extends EasyMockSupport {
                 ImmutableMap.of("state", "ALARM")));
         alertsProcessor.sendAlerts(ImmutableList.of(ImmutableMap.of("state", "ALARM")));
         apiAuthenticator.authenticate(Optional.of("token"));
+        expectSubmit();
         replayAll();
 
         assertEquals(HttpStatus.OK, testClass.receiveAlarmsPostSecure("token",
@@ -87,6 +96,7 @@ public class AlarmControllerTest extends EasyMockSupport {
         expect(alarmMetricConverter.convertAlarm(alarmStateChange)).andReturn(ImmutableList.of());
         expect(alarmStateChange.getResources()).andReturn(ImmutableList.of("resource1"));
         apiAuthenticator.authenticate(Optional.empty());
+        expectSubmit();
         replayAll();
 
         assertEquals(HttpStatus.OK, testClass.receiveAlarmsPost(firehoseEventRequest).getStatusCode());
@@ -103,6 +113,7 @@ public class AlarmControllerTest extends EasyMockSupport {
                 ImmutableMap.of("state", "ALARM")));
         alertsProcessor.sendAlerts(ImmutableList.of(ImmutableMap.of("state", "ALARM")));
         apiAuthenticator.authenticate(Optional.empty());
+        expectSubmit();
         replayAll();
 
         assertEquals(HttpStatus.OK, testClass.receiveAlarmsPut(firehoseEventRequest).getStatusCode());
@@ -119,6 +130,7 @@ public class AlarmControllerTest extends EasyMockSupport {
                 ImmutableMap.of("state", "ALARM")));
         alertsProcessor.sendAlerts(ImmutableList.of(ImmutableMap.of("state", "ALARM")));
         apiAuthenticator.authenticate(Optional.of("token"));
+        expectSubmit();
         replayAll();
 
         assertEquals(HttpStatus.OK, testClass.receiveAlarmsPutSecure(
@@ -136,10 +148,33 @@ public class AlarmControllerTest extends EasyMockSupport {
         expect(alarmMetricConverter.convertAlarm(alarmStateChange)).andReturn(ImmutableList.of());
         expect(alarmStateChange.getResources()).andReturn(ImmutableList.of("resource1"));
         apiAuthenticator.authenticate(Optional.empty());
+        expectSubmit();
         replayAll();
 
         assertEquals(HttpStatus.OK, testClass.receiveAlarmsPut(firehoseEventRequest).getStatusCode());
 
         verifyAll();
     }
+
+    @Test
+    public void receiveAlarmsPost_QueueFull() {
+        expect(firehoseEventRequest.getPayloadBytes()).andReturn(100L);
+        expect(ingestQueue.submit(eq("/receive-cloudwatch-alarms"), eq(100L), anyObject())).andReturn(false);
+        apiAuthenticator.authenticate(Optional.empty());
+        replayAll();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE,
+                testClass.receiveAlarmsPost(firehoseEventRequest).getStatusCode());
+
+        verifyAll();
+    }
+
+    private void expectSubmit() {
+        expect(objectMapperFactory.getObjectMapper()).andReturn(objectMapper);
+        expect(firehoseEventRequest.getPayloadBytes()).andReturn(100L);
+        expect(ingestQueue.submit(eq("/receive-cloudwatch-alarms"), eq(100L), anyObject())).andAnswer(() -> {
+            ((Runnable) getCurrentArguments()[2]).run();
+            return true;
+        });
+    }
 }
@@ -9,6 +9,7 @@ import ai.asserts.aws.EnvironmentConfig;
 import ai.asserts.aws.AWSApiCallRateLimiter;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.TaskExecutorUtil;
+import ai.asserts.aws.TaskPriority;
 import ai.asserts.aws.TestTaskThreadPool;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.account.AccountProvider;
@@ -25,6 +26,7 @@ import org.easymock.Capture;
 import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.ComparisonOperator;
 import software.amazon.awssdk.services.cloudwatch.model.DescribeAlarmsResponse;
@@ -35,6 +37,7 @@ import java.time.Instant;
 import java.util.Optional;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.capture;
@@ -91,6 +94,7 @@ public class AlarmFetcherTest extends EasyMockSupport {
         expect(environmentConfig.isSingleTenant()).andReturn(true);
         expect(environmentConfig.isSingleInstance()).andReturn(true);
         expect(ecsServiceDiscoveryExporter.isPrimaryExporter()).andReturn(true);
+        expect(environmentConfig.isAsyncApiCalls()).andReturn(false).anyTimes();
         expect(scrapeConfigProvider.getScrapeConfig("tenant")).andReturn(scrapeConfig).anyTimes();
         expect(scrapeConfig.isPullCWAlarms()).andReturn(true);
         expect(scrapeConfig.isCwAlarmAsMetric()).andReturn(true).anyTimes();
@@ -138,7 +142,61 @@ public class AlarmFetcherTest extends EasyMockSupport {
         SortedMap<String, String> withoutTimestamp = new TreeMap<>(labels);
         withoutTimestamp.remove("timestamp");
         alarmMetricConverter.simplifyAlarmName(labels);
-        expect(sampleBuilder.buildSingleSample("aws_cloudwatch_alarm", withoutTimestamp, 1.0D))
+        expect(sampleBuilder.buildSingleSample(awsAccount, "aws_cloudwatch_alarm", withoutTimestamp, 1.0D))
+                .andReturn(Optional.of(sample));
+        expect(sampleBuilder.buildFamily(ImmutableList.of(sample))).andReturn(Optional.of(familySamples));
+        replayAll();
+        testClass.update();
+        assertEquals(ImmutableList.of(familySamples), testClass.collect());
+
+        verifyAll();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sendAlarmsForRegions_Async() {
+        CloudWatchAsyncClient cloudWatchAsyncClient = mock(CloudWatchAsyncClient.class);
+        expect(environmentConfig.isSingleTenant()).andReturn(true);
+        expect(environmentConfig.isSingleInstance()).andReturn(true);
+        expect(ecsServiceDiscoveryExporter.isPrimaryExporter()).andReturn(true);
+        expect(environmentConfig.isAsyncApiCalls()).andReturn(true).anyTimes();
+        expect(scrapeConfigProvider.getScrapeConfig("tenant")).andReturn(scrapeConfig).anyTimes();
+        expect(scrapeConfig.isPullCWAlarms()).andReturn(true);
+        expect(accountProvider.getAccounts()).andReturn(ImmutableSet.of(awsAccount));
+        expect(awsClientProvider.getCloudWatchAsyncClient("region", awsAccount)).andReturn(cloudWatchAsyncClient);
+
+        MetricAlarm alarm = MetricAlarm.builder()
+                .alarmName("alarm1")
+                .stateValue("ALARM")
+                .stateUpdatedTimestamp(now)
+                .threshold(10.0)
+                .comparisonOperator(ComparisonOperator.GREATER_THAN_THRESHOLD)
+                .namespace("AWS/EC2")
+                .build();
+        DescribeAlarmsResponse response = DescribeAlarmsResponse.builder()
+                .metricAlarms(ImmutableList.of(alarm))
+                .build();
+        expect(alarmMetricConverter.extractMetricAndEntityLabels(alarm)).andReturn(ImmutableMap.of());
+
+        // The response is delivered on another thread, like the AWS SDK does, outside of any account task
+        expect(rateLimiter.<DescribeAlarmsResponse>doWithRateLimitAsync(eq(TaskPriority.METADATA),
+                eq("CloudWatchClient/describeAlarms"), anyObject(SortedMap.class), anyObject()))
+                .andReturn(CompletableFuture.supplyAsync(() -> response));
+        SortedMap<String, String> labels = new TreeMap<>(new ImmutableMap.Builder<String, String>()
+                .put("account_id", "123456789")
+                .put("namespace", "AWS/EC2")
+                .put("metric_namespace", "AWS/EC2")
+                .put("metric_operator", ">")
+                .put("region", "region")
+                .put("state", "ALARM")
+                .put("threshold", "10.0")
+                .put("timestamp", now.toString())
+                .put("workload", "none")
+                .build());
+        SortedMap<String, String> withoutTimestamp = new TreeMap<>(labels);
+        withoutTimestamp.remove("timestamp");
+        alarmMetricConverter.simplifyAlarmName(labels);
+        expect(sampleBuilder.buildSingleSample(awsAccount, "aws_cloudwatch_alarm", withoutTimestamp, 1.0D))
                 .andReturn(Optional.of(sample));
         expect(sampleBuilder.buildFamily(ImmutableList.of(sample))).andReturn(Optional.of(familySamples));
         replayAll();
@@ -5,93 +5,80 @@
 package ai.asserts.aws.cloudwatch.metrics;
 
 import ai.asserts.aws.ApiAuthenticator;
-import ai.asserts.aws.MetricNameUtil;
-import ai.asserts.aws.ObjectMapperFactory;
-import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.account.AccountTenantMapper;
+import ai.asserts.aws.cloudwatch.FirehoseIngestQueue;
 import ai.asserts.aws.cloudwatch.alarms.FirehoseEventRequest;
 import ai.asserts.aws.cloudwatch.alarms.RecordData;
-import ai.asserts.aws.config.MetricConfig;
-import ai.asserts.aws.config.NamespaceConfig;
-import ai.asserts.aws.config.ScrapeConfig;
+import ai.asserts.aws.cloudwatch.metrics.MetricStreamRoutingTable.MetricRoute;
 import ai.asserts.aws.exporter.BasicMetricCollector;
-import ai.asserts.aws.model.CWNamespace;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.io.IOException;
 import java.time.Instant;
-import java.util.Base64;
 import java.util.Optional;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
-import static ai.asserts.aws.model.MetricStat.SampleCount;
-import static ai.asserts.aws.model.MetricStat.Sum;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.springframework.http.HttpStatus.UNAUTHORIZED;
 
 public class MetricStreamControllerTest extends EasyMockSupport {
-    private CloudWatchMetrics metrics;
     private CloudWatchMetric metric1;
     private CloudWatchMetric metric2;
     private FirehoseEventRequest firehoseEventRequest;
     private RecordData recordData;
     private MetricStreamController testClass;
-    private ObjectMapper objectMapper;
     private BasicMetricCollector metricCollector;
-    private MetricNameUtil metricNameUtil;
     private ApiAuthenticator apiAuthenticator;
     private Instant now;
-    private ScrapeConfigProvider scrapeConfigProvider;
-    private ScrapeConfig scrapeConfig;
-
-    private ObjectMapperFactory objectMapperFactory;
     private AccountTenantMapper accountTenantMapper;
+    private MetricStreamRecordDecoder recordDecoder;
+    private MetricStreamRoutingTable routingTable;
+    private FirehoseIngestQueue ingestQueue;
+    private StreamedMetricStore streamedMetricStore;
 
     @BeforeEach
     public void setup() {
         firehoseEventRequest = mock(FirehoseEventRequest.class);
         metricCollector = mock(BasicMetricCollector.class);
-        metricNameUtil = mock(MetricNameUtil.class);
-        metrics = mock(CloudWatchMetrics.class);
         recordData = mock(RecordData.class);
-        objectMapper = mock(ObjectMapper.class);
         apiAuthenticator = mock(ApiAuthenticator.class);
-        scrapeConfigProvider = mock(ScrapeConfigProvider.class);
-        scrapeConfig = mock(ScrapeConfig.class);
-        objectMapperFactory = mock(ObjectMapperFactory.class);
         accountTenantMapper = mock(AccountTenantMapper.class);
+        recordDecoder = mock(MetricStreamRecordDecoder.class);
+        routingTable = mock(MetricStreamRoutingTable.class);
+        ingestQueue = mock(FirehoseIngestQueue.class);
+        streamedMetricStore = mock(StreamedMetricStore.class);
         now = Instant.now();
-        testClass = new MetricStreamController(objectMapperFactory, metricCollector, metricNameUtil, apiAuthenticator
-                , scrapeConfigProvider, accountTenantMapper) {
+        testClass = new MetricStreamController(metricCollector, apiAuthenticator, accountTenantMapper,
+                recordDecoder, routingTable, ingestQueue, streamedMetricStore) {
             @Override
             Instant now() {
                 return now;
             }
         };
         expect(accountTenantMapper.getTenantName("123")).andReturn("acme").anyTimes();
-        expect(scrapeConfigProvider.getScrapeConfig("acme")).andReturn(scrapeConfig).anyTimes();
     }
 
     @Test
-    public void receiveMetricsPost() throws JsonProcessingException {
+    public void receiveMetricsPost() throws IOException {
         expectedCallsWhileProcessingData();
         expect(firehoseEventRequest.getRecords()).andReturn(ImmutableList.of(recordData)).times(2);
-        expect(recordData.getData()).andReturn(Base64.getEncoder().encodeToString("test".getBytes()));
         expect(firehoseEventRequest.getRequestId()).andReturn("request-id");
-        expect(objectMapper.readValue("{\"metrics\":[test]}", CloudWatchMetrics.class)).andReturn(metrics);
-        expect(metrics.getMetrics()).andReturn(ImmutableList.of(metric1, metric2));
+        expectDecode();
+        expectSubmit();
         replayAll();
 
         ResponseEntity<MetricResponse> metricResponseResponseEntity =
@@ -105,14 +92,13 @@ public class MetricStreamControllerTest extends EasyMockSupport {
     }
 
     @Test
-    public void receiveMetricsPut() throws JsonProcessingException {
+    public void receiveMetricsPut() throws IOException {
         expectedCallsWhileProcessingData();
 
         expect(firehoseEventRequest.getRecords()).andReturn(ImmutableList.of(recordData)).times(2);
-        expect(recordData.getData()).andReturn(Base64.getEncoder().encodeToString("test".getBytes()));
         expect(firehoseEventRequest.getRequestId()).andReturn("request-id");
-        expect(objectMapper.readValue("{\"metrics\":[test]}", CloudWatchMetrics.class)).andReturn(metrics);
-        expect(metrics.getMetrics()).andReturn(ImmutableList.of(metric1, metric2));
+        expectDecode();
+        expectSubmit();
         replayAll();
 
         ResponseEntity<MetricResponse> metricResponseResponseEntity =
@@ -128,8 +114,8 @@ public class MetricStreamControllerTest extends EasyMockSupport {
 
     @Test
     public void receiveMetricsPost_InternalServerError() {
-        testClass = new MetricStreamController(objectMapperFactory, metricCollector, metricNameUtil, apiAuthenticator
-                , scrapeConfigProvider, accountTenantMapper) {
+        testClass = new MetricStreamController(metricCollector, apiAuthenticator, accountTenantMapper,
+                recordDecoder, routingTable, ingestQueue, streamedMetricStore) {
             @Override
             Instant now() {
                 return now;
@@ -141,6 +127,7 @@ public class MetricStreamControllerTest extends EasyMockSupport {
             }
         };
         expect(firehoseEventRequest.getRequestId()).andReturn("request-id");
+        expectSubmit();
         replayAll();
 
         ResponseEntity<MetricResponse> metricResponseResponseEntity =
@@ -156,8 +143,8 @@ public class MetricStreamControllerTest extends EasyMockSupport {
 
     @Test
     public void receiveMetricsPut_InternalServerError() {
-        testClass = new MetricStreamController(objectMapperFactory, metricCollector, metricNameUtil, apiAuthenticator
-                , scrapeConfigProvider, accountTenantMapper) {
+        testClass = new MetricStreamController(metricCollector, apiAuthenticator, accountTenantMapper,
+                recordDecoder, routingTable, ingestQueue, streamedMetricStore) {
             @Override
             Instant now() {
                 return now;
@@ -169,6 +156,7 @@ public class MetricStreamControllerTest extends EasyMockSupport {
             }
         };
         expect(firehoseEventRequest.getRequestId()).andReturn("request-id");
+        expectSubmit();
         replayAll();
 
         ResponseEntity<MetricResponse> metricResponseResponseEntity =
@@ -184,15 +172,14 @@ public class MetricStreamControllerTest extends EasyMockSupport {
     }
 
     @Test
-    public void receiveMetricsPostSecure() throws JsonProcessingException {
+    public void receiveMetricsPostSecure() throws IOException {
         expectedCallsWhileProcessingData();
 
         expect(firehoseEventRequest.getRecords()).andReturn(ImmutableList.of(recordData)).times(2);
-        expect(recordData.getData()).andReturn(Base64.getEncoder().encodeToString("test".getBytes()));
         expect(firehoseEventRequest.getRequestId()).andReturn("request-id");
-        expect(objectMapper.readValue("{\"metrics\":[test]}", CloudWatchMetrics.class)).andReturn(metrics);
-        expect(metrics.getMetrics()).andReturn(ImmutableList.of(metric1, metric2));
+        expectDecode();
         apiAuthenticator.authenticate(Optional.of("token"));
+        expectSubmit();
         replayAll();
 
         ResponseEntity<MetricResponse> metricResponseResponseEntity = testClass.receiveMetricsPostSecure("token",
@@ -207,15 +194,14 @@ public class MetricStreamControllerTest extends EasyMockSupport {
     }
 
     @Test
-    public void receiveMetricsPutSecure() throws JsonProcessingException {
+    public void receiveMetricsPutSecure() throws IOException {
         expectedCallsWhileProcessingData();
 
         expect(firehoseEventRequest.getRecords()).andReturn(ImmutableList.of(recordData)).times(2);
-        expect(recordData.getData()).andReturn(Base64.getEncoder().encodeToString("test".getBytes()));
         expect(firehoseEventRequest.getRequestId()).andReturn("request-id");
-        expect(objectMapper.readValue("{\"metrics\":[test]}", CloudWatchMetrics.class)).andReturn(metrics);
-        expect(metrics.getMetrics()).andReturn(ImmutableList.of(metric1, metric2));
+        expectDecode();
         apiAuthenticator.authenticate(Optional.of("token"));
+        expectSubmit();
         replayAll();
 
         ResponseEntity<MetricResponse> metricResponseResponseEntity = testClass.receiveMetricsPutSecure("token",
@@ -265,21 +251,43 @@ public class MetricStreamControllerTest extends EasyMockSupport {
         verifyAll();
     }
 
+    @Test
+    public void receiveMetricsPost_QueueFull() {
+        expect(firehoseEventRequest.getPayloadBytes()).andReturn(100L);
+        expect(ingestQueue.submit(eq(MetricStreamController.METRICS), eq(100L), anyObject())).andReturn(false);
+        expect(firehoseEventRequest.getRequestId()).andReturn("request-id");
+        replayAll();
+
+        ResponseEntity<MetricResponse> metricResponseResponseEntity =
+                testClass.receiveMetricsPost(firehoseEventRequest);
+        MetricResponse body = metricResponseResponseEntity.getBody();
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, metricResponseResponseEntity.getStatusCode());
+        assertNotNull(body);
+        assertEquals("request-id", body.getRequestId());
+        assertEquals("Ingest queue is full", body.getErrorMessage());
+        verifyAll();
+    }
+
+    private void expectSubmit() {
+        expect(firehoseEventRequest.getPayloadBytes()).andReturn(100L);
+        expect(ingestQueue.submit(eq(MetricStreamController.METRICS), eq(100L), anyObject())).andAnswer(() -> {
+            ((Runnable) getCurrentArguments()[2]).run();
+            return true;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expectDecode() throws IOException {
+        recordDecoder.decode(eq(recordData), anyObject());
+        expectLastCall().andAnswer(() -> {
+            Consumer<CloudWatchMetric> consumer = (Consumer<CloudWatchMetric>) getCurrentArguments()[1];
+            consumer.accept(metric1);
+            consumer.accept(metric2);
+            return null;
+        });
+    }
+
     private void expectedCallsWhileProcessingData() {
-        expect(objectMapperFactory.getObjectMapper()).andReturn(objectMapper);
-        expect(scrapeConfigProvider.getStandardNamespace("AWS/Firehose"))
-                .andReturn(Optional.of(CWNamespace.firehose))
-                .anyTimes();
-        expect(scrapeConfig.getNamespaces()).andReturn(ImmutableList.of(NamespaceConfig.builder()
-                .name("AWS/Firehose")
-                .metrics(ImmutableList.of(MetricConfig.builder()
-                        .name("M1")
-                        .stats(ImmutableSet.of(Sum, SampleCount))
-                        .build()))
-                .build())).anyTimes();
-        expect(scrapeConfig.getMetricsToCapture()).andReturn(ImmutableMap.of(
-                "aws_firehose_m1_sum", MetricConfig.builder().build(),
-                "aws_firehose_m1_count", MetricConfig.builder().build())).anyTimes();
         metric1 = CloudWatchMetric.builder()
                 .metric_name("M1")
                 .namespace("AWS/Firehose")
@@ -303,14 +311,12 @@ public class MetricStreamControllerTest extends EasyMockSupport {
                         3.0f)))
                 .build();
 
-        expect(metricNameUtil.toSnakeCase("aws_firehose_M1_sum")).andReturn("aws_firehose_m1_sum");
-        expect(metricNameUtil.toSnakeCase("aws_firehose_M1_average")).andReturn("aws_firehose_m1_average").times(2);
-        expect(metricNameUtil.toSnakeCase("aws_firehose_M1_count")).andReturn("aws_firehose_m1_count").times(2);
-        expect(metricNameUtil.toSnakeCase("DeliveryStreamName")).andReturn("delivery_stream_name");
-
-        expect(metricNameUtil.toSnakeCase("aws_firehose_M2_sum")).andReturn("aws_firehose_m2_sum");
-        expect(metricNameUtil.toSnakeCase("aws_firehose_M2_average")).andReturn("aws_firehose_m2_average");
-        expect(metricNameUtil.toSnakeCase("aws_firehose_M2_count")).andReturn("aws_firehose_m2_count");
+        expect(routingTable.route("acme", "AWS/Firehose", "M1")).andReturn(Optional.of(MetricRoute.builder()
+                .namespace("AWS/Firehose")
+                .exportedNames(ImmutableMap.of("sum", "aws_firehose_m1_sum", "count", "aws_firehose_m1_count"))
+                .build()));
+        expect(routingTable.dimensionLabel("DeliveryStreamName")).andReturn("d_delivery_stream_name");
+        expect(routingTable.route("acme", "AWS/Firehose", "M2")).andReturn(Optional.empty());
 
         SortedMap<String, String> metricLabels = new TreeMap<>();
         metricLabels.put("tenant", "acme");
@@ -319,8 +325,8 @@ public class MetricStreamControllerTest extends EasyMockSupport {
         metricLabels.put("namespace", "AWS/Firehose");
         metricLabels.put("region", "r1");
 
-        metricCollector.recordGaugeValue("aws_firehose_m1_sum", metricLabels, 4.0);
-        metricCollector.recordGaugeValue("aws_firehose_m1_count", metricLabels, 2.0);
+        streamedMetricStore.record("aws_firehose_m1_sum", metricLabels, 4.0, metric1.getTimestamp());
+        streamedMetricStore.record("aws_firehose_m1_count", metricLabels, 2.0, metric1.getTimestamp());
         expectLastCall().anyTimes();
     }
 }
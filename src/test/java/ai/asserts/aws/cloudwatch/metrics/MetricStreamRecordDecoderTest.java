@@ -0,0 +1,100 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import ai.asserts.aws.cloudwatch.alarms.RecordData;
+import com.google.common.collect.ImmutableMap;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MetricStreamRecordDecoderTest extends EasyMockSupport {
+    private OpenTelemetryMetricsDecoder openTelemetryMetricsDecoder;
+    private Consumer<CloudWatchMetric> consumer;
+    private MetricStreamRecordDecoder testClass;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        openTelemetryMetricsDecoder = mock(OpenTelemetryMetricsDecoder.class);
+        consumer = mock(Consumer.class);
+        testClass = new MetricStreamRecordDecoder(openTelemetryMetricsDecoder);
+    }
+
+    @Test
+    public void decode_JSON() throws IOException {
+        String json = "{\"metric_stream_name\":\"stream\",\"account_id\":\"123\",\"region\":\"us-west-2\"," +
+                "\"namespace\":\"AWS/Lambda\",\"metric_name\":\"Invocations\"," +
+                "\"dimensions\":{\"FunctionName\":\"fn1\"},\"timestamp\":1650000000000," +
+                "\"value\":{\"max\":3.0,\"min\":1.0,\"sum\":4.0,\"count\":2.0},\"unit\":\"Count\"}\n" +
+                "{\"metric_stream_name\":\"stream\",\"account_id\":\"123\",\"region\":\"us-west-2\"," +
+                "\"namespace\":\"AWS/Lambda\",\"metric_name\":\"Errors\",\"new_field\":\"ignored\"}\n";
+        expect(openTelemetryMetricsDecoder.isOpenTelemetry(anyObject(), anyInt())).andReturn(false);
+        replayAll();
+
+        List<CloudWatchMetric> metrics = new ArrayList<>();
+        testClass.decode(record(json.getBytes(StandardCharsets.UTF_8)), metrics::add);
+        assertEquals(2, metrics.size());
+        assertEquals(CloudWatchMetric.builder()
+                .metric_stream_name("stream")
+                .account_id("123")
+                .region("us-west-2")
+                .namespace("AWS/Lambda")
+                .metric_name("Invocations")
+                .dimensions(ImmutableMap.of("FunctionName", "fn1"))
+                .timestamp(1650000000000L)
+                .value(ImmutableMap.of("max", 3.0f, "min", 1.0f, "sum", 4.0f, "count", 2.0f))
+                .unit("Count")
+                .build(), metrics.get(0));
+        assertEquals("Errors", metrics.get(1).getMetric_name());
+        verifyAll();
+    }
+
+    @Test
+    public void decode_InvalidJSON() {
+        expect(openTelemetryMetricsDecoder.isOpenTelemetry(anyObject(), anyInt())).andReturn(false);
+        replayAll();
+
+        assertThrows(IOException.class, () ->
+                testClass.decode(record("test".getBytes(StandardCharsets.UTF_8)), consumer));
+        verifyAll();
+    }
+
+    @Test
+    public void decode_OpenTelemetry() throws IOException {
+        expect(openTelemetryMetricsDecoder.isOpenTelemetry(anyObject(), anyInt())).andReturn(true);
+        openTelemetryMetricsDecoder.decode(anyObject(InputStream.class), anyObject());
+        expectLastCall().andAnswer(() -> {
+            assertEquals('a', ((InputStream) getCurrentArguments()[0]).read());
+            return null;
+        });
+        replayAll();
+
+        testClass.decode(record("abc".getBytes(StandardCharsets.UTF_8)), consumer);
+        verifyAll();
+    }
+
+    private RecordData record(byte[] data) {
+        return RecordData.builder()
+                .data(Base64.getEncoder().encodeToString(data))
+                .build();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import ai.asserts.aws.MetricNameUtil;
+import ai.asserts.aws.ScrapeConfigProvider;
+import ai.asserts.aws.SnakeCaseUtil;
+import ai.asserts.aws.config.MetricConfig;
+import ai.asserts.aws.config.NamespaceConfig;
+import ai.asserts.aws.config.ScrapeConfig;
+import ai.asserts.aws.model.CWNamespace;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static ai.asserts.aws.model.MetricStat.Average;
+import static ai.asserts.aws.model.MetricStat.Maximum;
+import static ai.asserts.aws.model.MetricStat.Sum;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the per metric namespace lookup and snake casing done for every metric received through Metric Streams
+ * against a lookup in the {@link MetricStreamRoutingTable}. Excluded from the regular test run, run with
+ * <code>./gradlew benchmark</code>. The number of metrics can be changed with the <code>benchmark.metrics</code>
+ * system property.
+ */
+@Tag("benchmark")
+public class MetricStreamRoutingBenchmark {
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void perMetricVsRoutingTable() {
+        int metricCount = Integer.getInteger("benchmark.metrics", 200000);
+
+        SnakeCaseUtil snakeCaseUtil = new SnakeCaseUtil();
+        List<NamespaceConfig> namespaces = new ArrayList<>();
+        Map<String, MetricConfig> metricsToCapture = new HashMap<>();
+        for (CWNamespace cwNamespace : CWNamespace.values()) {
+            List<MetricConfig> metrics = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                MetricConfig metricConfig = MetricConfig.builder()
+                        .name("Metric" + i)
+                        .stats(ImmutableSet.of(Sum, Average, Maximum))
+                        .build();
+                metrics.add(metricConfig);
+                metricConfig.getStats().forEach(stat -> metricsToCapture.put(snakeCaseUtil.toSnakeCase(
+                        cwNamespace.getMetricPrefix() + "_" + metricConfig.getName() + "_" + stat.getShortForm()),
+                        metricConfig));
+            }
+            namespaces.add(NamespaceConfig.builder()
+                    .name(cwNamespace.getNamespace())
+                    .metrics(metrics)
+                    .build());
+        }
+        ScrapeConfig scrapeConfig = ScrapeConfig.builder()
+                .namespaces(namespaces)
+                .build();
+        ScrapeConfigProvider scrapeConfigProvider = new FixedScrapeConfigProvider(scrapeConfig);
+
+        List<CloudWatchMetric> metrics = new ArrayList<>();
+        CWNamespace[] cwNamespaces = CWNamespace.values();
+        for (int i = 0; i < metricCount; i++) {
+            Map<String, Float> values = new TreeMap<>();
+            values.put("sum", 1.0f);
+            values.put("count", 2.0f);
+            values.put("max", 3.0f);
+            values.put("min", 0.0f);
+            // One in five metrics is not captured
+            metrics.add(CloudWatchMetric.builder()
+                    .namespace(cwNamespaces[i % cwNamespaces.length].getNamespace())
+                    .metric_name("Metric" + (i % 12))
+                    .value(values)
+                    .build());
+        }
+
+        long perMetricNanos = Long.MAX_VALUE;
+        long routingTableNanos = Long.MAX_VALUE;
+        int perMetricNames = 0;
+        int routingTableNames = 0;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            perMetricNames = 0;
+            for (CloudWatchMetric metric : metrics) {
+                Optional<CWNamespace> namespace = Arrays.stream(CWNamespace.values())
+                        .filter(ns -> ns.getNamespace().equals(metric.getNamespace()))
+                        .findFirst();
+                if (namespace.isPresent()) {
+                    String metricName = namespace.get().getMetricPrefix() + "_" + metric.getMetric_name();
+                    for (String stat : metric.getValue().keySet()) {
+                        if (metricsToCapture.containsKey(snakeCaseUtil.toSnakeCase(metricName + "_" + stat))) {
+                            perMetricNames++;
+                        }
+                    }
+                }
+            }
+            perMetricNanos = Math.min(perMetricNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            MetricStreamRoutingTable routingTable = new MetricStreamRoutingTable(scrapeConfigProvider,
+                    new MetricNameUtil(scrapeConfigProvider, snakeCaseUtil));
+            routingTableNames = 0;
+            for (CloudWatchMetric metric : metrics) {
+                Optional<MetricStreamRoutingTable.MetricRoute> route =
+                        routingTable.route(null, metric.getNamespace(), metric.getMetric_name());
+                if (route.isPresent()) {
+                    for (String stat : metric.getValue().keySet()) {
+                        if (route.get().getExportedNames().get(stat) != null) {
+                            routingTableNames++;
+                        }
+                    }
+                }
+            }
+            routingTableNanos = Math.min(routingTableNanos, System.nanoTime() - start);
+        }
+
+        assertEquals(perMetricNames, routingTableNames);
+        System.out.printf("%d metrics: per metric %d records/s, routing table (including build) %d records/s%n",
+                metricCount, metricCount * 1_000_000_000L / Math.max(1, perMetricNanos),
+                metricCount * 1_000_000_000L / Math.max(1, routingTableNanos));
+    }
+
+    private static class FixedScrapeConfigProvider implements ScrapeConfigProvider {
+        private final ScrapeConfig scrapeConfig;
+        private final Map<String, CWNamespace> byNamespace = new HashMap<>();
+
+        private FixedScrapeConfigProvider(ScrapeConfig scrapeConfig) {
+            this.scrapeConfig = scrapeConfig;
+            for (CWNamespace cwNamespace : CWNamespace.values()) {
+                byNamespace.put(cwNamespace.getNamespace(), cwNamespace);
+            }
+        }
+
+        @Override
+        public ScrapeConfig getScrapeConfig(String tenant) {
+            return scrapeConfig;
+        }
+
+        @Override
+        public Optional<CWNamespace> getStandardNamespace(String namespace) {
+            return Optional.ofNullable(byNamespace.get(namespace));
+        }
+
+        @Override
+        public void update() {
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import ai.asserts.aws.MetricNameUtil;
+import ai.asserts.aws.ScrapeConfigProvider;
+import ai.asserts.aws.SnakeCaseUtil;
+import ai.asserts.aws.cloudwatch.metrics.MetricStreamRoutingTable.MetricRoute;
+import ai.asserts.aws.config.MetricConfig;
+import ai.asserts.aws.config.NamespaceConfig;
+import ai.asserts.aws.config.ScrapeConfig;
+import ai.asserts.aws.model.CWNamespace;
+import ai.asserts.aws.model.MetricStat;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.Set;
+
+import static ai.asserts.aws.model.MetricStat.Average;
+import static ai.asserts.aws.model.MetricStat.SampleCount;
+import static ai.asserts.aws.model.MetricStat.Sum;
+import static org.easymock.EasyMock.expect;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class MetricStreamRoutingTableTest extends EasyMockSupport {
+    private ScrapeConfigProvider scrapeConfigProvider;
+    private MetricStreamRoutingTable testClass;
+
+    @BeforeEach
+    public void setup() {
+        scrapeConfigProvider = mock(ScrapeConfigProvider.class);
+        testClass = new MetricStreamRoutingTable(scrapeConfigProvider,
+                new MetricNameUtil(scrapeConfigProvider, new SnakeCaseUtil()));
+    }
+
+    @Test
+    public void route() {
+        ScrapeConfig scrapeConfig = scrapeConfig(ImmutableSet.of(Sum, SampleCount));
+        expect(scrapeConfigProvider.getScrapeConfig("acme")).andReturn(scrapeConfig).times(4);
+        expect(scrapeConfigProvider.getStandardNamespace("AWS/Firehose"))
+                .andReturn(Optional.of(CWNamespace.firehose));
+        replayAll();
+
+        MetricRoute expected = MetricRoute.builder()
+                .namespace("AWS/Firehose")
+                .exportedNames(ImmutableMap.of(
+                        "sum", "aws_firehose_incoming_bytes_sum",
+                        "count", "aws_firehose_incoming_bytes_count"))
+                .build();
+        assertEquals(Optional.of(expected), testClass.route("acme", "AWS/Firehose", "IncomingBytes"));
+        assertEquals(Optional.of(expected), testClass.route("acme", "AWS/Firehose", "IncomingBytes"));
+        assertFalse(testClass.route("acme", "AWS/Firehose", "IncomingRecords").isPresent());
+        assertFalse(testClass.route("acme", "AWS/Lambda", "IncomingBytes").isPresent());
+        verifyAll();
+    }
+
+    @Test
+    public void route_RebuiltWhenConfigChanges() {
+        expect(scrapeConfigProvider.getScrapeConfig(null)).andReturn(scrapeConfig(ImmutableSet.of(Sum)));
+        expect(scrapeConfigProvider.getScrapeConfig(null)).andReturn(scrapeConfig(ImmutableSet.of(Average)));
+        expect(scrapeConfigProvider.getStandardNamespace("AWS/Firehose"))
+                .andReturn(Optional.of(CWNamespace.firehose)).times(2);
+        replayAll();
+
+        assertEquals(ImmutableMap.of("sum", "aws_firehose_incoming_bytes_sum"),
+                testClass.route(null, "AWS/Firehose", "IncomingBytes").get().getExportedNames());
+        assertEquals(ImmutableMap.of("avg", "aws_firehose_incoming_bytes_avg"),
+                testClass.route(null, "AWS/Firehose", "IncomingBytes").get().getExportedNames());
+        verifyAll();
+    }
+
+    @Test
+    public void dimensionLabel() {
+        replayAll();
+        assertEquals("d_delivery_stream_name", testClass.dimensionLabel("DeliveryStreamName"));
+        assertEquals("d_delivery_stream_name", testClass.dimensionLabel("DeliveryStreamName"));
+        verifyAll();
+    }
+
+    private ScrapeConfig scrapeConfig(Set<MetricStat> stats) {
+        return ScrapeConfig.builder()
+                .namespaces(ImmutableList.of(NamespaceConfig.builder()
+                        .name("AWS/Firehose")
+                        .metrics(ImmutableList.of(MetricConfig.builder()
+                                .name("IncomingBytes")
+                                .stats(stats)
+                                .build()))
+                        .build()))
+                .build();
+    }
+}
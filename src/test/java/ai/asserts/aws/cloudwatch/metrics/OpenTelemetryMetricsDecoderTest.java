@@ -0,0 +1,132 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.CodedOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OpenTelemetryMetricsDecoderTest {
+    private final OpenTelemetryMetricsDecoder testClass = new OpenTelemetryMetricsDecoder();
+
+    @Test
+    public void isOpenTelemetry() throws IOException {
+        byte[] record = record();
+        assertTrue(testClass.isOpenTelemetry(record, 6));
+        byte[] json = "{\"metric_stream_name\":\"stream\"}".getBytes(StandardCharsets.UTF_8);
+        assertFalse(testClass.isOpenTelemetry(json, 6));
+        assertFalse(testClass.isOpenTelemetry(record, 1));
+    }
+
+    @Test
+    public void decode() throws IOException {
+        List<CloudWatchMetric> metrics = new ArrayList<>();
+        testClass.decode(new ByteArrayInputStream(record()), metrics::add);
+
+        CloudWatchMetric expected = CloudWatchMetric.builder()
+                .account_id("123")
+                .region("us-west-2")
+                .namespace("AWS/Lambda")
+                .metric_name("Invocations")
+                .dimensions(ImmutableMap.of("FunctionName", "fn1"))
+                .timestamp(1_650_000_000_000L)
+                .value(ImmutableMap.of("count", 2.0f, "sum", 4.0f, "min", 1.0f, "max", 3.0f))
+                .unit("{Count}")
+                .build();
+        // The record holds two requests with the same data point
+        assertEquals(2, metrics.size());
+        assertEquals(expected, metrics.get(0));
+        assertEquals(expected, metrics.get(1));
+    }
+
+    private byte[] record() throws IOException {
+        byte[] request = message(1, resourceMetrics());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+        for (int i = 0; i < 2; i++) {
+            codedOut.writeUInt32NoTag(request.length);
+            codedOut.writeRawBytes(request);
+        }
+        codedOut.flush();
+        return out.toByteArray();
+    }
+
+    private byte[] resourceMetrics() throws IOException {
+        byte[] resource = concat(
+                message(1, anyKeyValue("cloud.account.id", "123")),
+                message(1, anyKeyValue("cloud.region", "us-west-2")));
+        byte[] dataPoint = concat(
+                message(1, stringKeyValue("Namespace", "AWS/Lambda")),
+                message(1, stringKeyValue("MetricName", "Invocations")),
+                message(1, stringKeyValue("FunctionName", "fn1")),
+                fixed64(3, 1_650_000_000_000_000_000L),
+                fixed64(4, 2L),
+                doubleField(5, 4.0D),
+                message(6, concat(doubleField(1, 0.0D), doubleField(2, 1.0D))),
+                message(6, concat(doubleField(1, 1.0D), doubleField(2, 3.0D))));
+        byte[] metric = concat(
+                string(1, "amazonaws.com/AWS/Lambda/Invocations"),
+                string(3, "{Count}"),
+                message(11, message(1, dataPoint)));
+        return concat(
+                message(1, resource),
+                message(2, message(2, metric)));
+    }
+
+    private byte[] stringKeyValue(String key, String value) throws IOException {
+        return concat(string(1, key), string(2, value));
+    }
+
+    private byte[] anyKeyValue(String key, String value) throws IOException {
+        return concat(string(1, key), message(2, string(1, value)));
+    }
+
+    private byte[] message(int field, byte[] value) throws IOException {
+        return write(out -> out.writeByteArray(field, value));
+    }
+
+    private byte[] string(int field, String value) throws IOException {
+        return write(out -> out.writeString(field, value));
+    }
+
+    private byte[] fixed64(int field, long value) throws IOException {
+        return write(out -> out.writeFixed64(field, value));
+    }
+
+    private byte[] doubleField(int field, double value) throws IOException {
+        return write(out -> out.writeDouble(field, value));
+    }
+
+    private byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] write(FieldWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+        writer.write(codedOut);
+        codedOut.flush();
+        return out.toByteArray();
+    }
+
+    private interface FieldWriter {
+        void write(CodedOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.cloudwatch.metrics;
+
+import ai.asserts.aws.exporter.BasicMetricCollector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import org.easymock.EasyMockSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.SortedMap;
+
+import static ai.asserts.aws.MetricNameUtil.METRIC_STREAM_SERIES_DROPPED_METRIC;
+import static io.prometheus.client.Collector.Type.GAUGE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamedMetricStoreTest extends EasyMockSupport {
+    private CollectorRegistry collectorRegistry;
+    private BasicMetricCollector metricCollector;
+    private SortedMap<String, String> labels1;
+    private SortedMap<String, String> labels2;
+    private long now;
+    private StreamedMetricStore testClass;
+
+    @BeforeEach
+    public void setup() {
+        collectorRegistry = mock(CollectorRegistry.class);
+        metricCollector = mock(BasicMetricCollector.class);
+        labels1 = ImmutableSortedMap.of("account_id", "123", "d_function_name", "fn1");
+        labels2 = ImmutableSortedMap.of("account_id", "123", "d_function_name", "fn2");
+        now = 1_000_000L;
+        testClass = new StreamedMetricStore(collectorRegistry, metricCollector, 60_000L, 2) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void afterPropertiesSet() {
+        collectorRegistry.register(testClass);
+        replayAll();
+        testClass.afterPropertiesSet();
+        verifyAll();
+    }
+
+    @Test
+    public void collect_NotDestructive() {
+        replayAll();
+        testClass.record("aws_lambda_invocations_sum", labels1, 1.0D, 990_000L);
+        testClass.record("aws_lambda_invocations_sum", labels2, 2.0D, null);
+        testClass.record("aws_lambda_errors_sum", labels1, 3.0D, 990_000L);
+
+        List<MetricFamilySamples> expected = ImmutableList.of(
+                new MetricFamilySamples("aws_lambda_errors_sum", GAUGE, "", ImmutableList.of(
+                        sample("aws_lambda_errors_sum", labels1, 3.0D, 990_000L))),
+                new MetricFamilySamples("aws_lambda_invocations_sum", GAUGE, "", ImmutableList.of(
+                        sample("aws_lambda_invocations_sum", labels1, 1.0D, 990_000L),
+                        sample("aws_lambda_invocations_sum", labels2, 2.0D, now))));
+        assertFamilies(expected, testClass.collect());
+        assertFamilies(expected, testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void record_OlderValueIgnored() {
+        replayAll();
+        testClass.record("aws_lambda_invocations_sum", labels1, 2.0D, 990_000L);
+        testClass.record("aws_lambda_invocations_sum", labels1, 1.0D, 980_000L);
+        assertFamilies(ImmutableList.of(new MetricFamilySamples("aws_lambda_invocations_sum", GAUGE, "",
+                        ImmutableList.of(sample("aws_lambda_invocations_sum", labels1, 2.0D, 990_000L)))),
+                testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void collect_StaleSeriesExpired() {
+        replayAll();
+        testClass.record("aws_lambda_invocations_sum", labels1, 1.0D, 990_000L);
+        now += 30_000L;
+        testClass.record("aws_lambda_invocations_sum", labels2, 2.0D, 1_020_000L);
+        now += 40_000L;
+        assertFamilies(ImmutableList.of(new MetricFamilySamples("aws_lambda_invocations_sum", GAUGE, "",
+                        ImmutableList.of(sample("aws_lambda_invocations_sum", labels2, 2.0D, 1_020_000L)))),
+                testClass.collect());
+        assertEquals(1, testClass.getSeriesCount());
+        verifyAll();
+    }
+
+    @Test
+    public void record_MaxSeries() {
+        metricCollector.recordCounterValue(METRIC_STREAM_SERIES_DROPPED_METRIC,
+                ImmutableSortedMap.of("metric_name", "aws_lambda_errors_sum"), 1);
+        replayAll();
+        testClass.record("aws_lambda_invocations_sum", labels1, 1.0D, 990_000L);
+        testClass.record("aws_lambda_invocations_sum", labels2, 2.0D, 990_000L);
+        testClass.record("aws_lambda_errors_sum", labels1, 3.0D, 990_000L);
+        // Existing series are still updated
+        testClass.record("aws_lambda_invocations_sum", labels1, 4.0D, 995_000L);
+        assertEquals(2, testClass.getSeriesCount());
+        List<MetricFamilySamples> families = testClass.collect();
+        assertEquals(1, families.size());
+        assertTrue(families.get(0).samples.contains(sample("aws_lambda_invocations_sum", labels1, 4.0D, 995_000L)));
+        verifyAll();
+    }
+
+    private void assertFamilies(List<MetricFamilySamples> expected, List<MetricFamilySamples> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).name, actual.get(i).name);
+            assertEquals(expected.get(i).type, actual.get(i).type);
+            assertEquals(expected.get(i).samples.size(), actual.get(i).samples.size());
+            assertTrue(actual.get(i).samples.containsAll(expected.get(i).samples));
+        }
+    }
+
+    private Sample sample(String name, SortedMap<String, String> labels, double value, long timestamp) {
+        return new Sample(name, ImmutableList.copyOf(labels.keySet()), ImmutableList.copyOf(labels.values()), value,
+                timestamp);
+    }
+}
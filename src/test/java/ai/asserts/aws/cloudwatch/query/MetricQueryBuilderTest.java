@@ -7,9 +7,12 @@ package ai.asserts.aws.cloudwatch.query;
 import ai.asserts.aws.config.MetricConfig;
 import ai.asserts.aws.config.NamespaceConfig;
 import ai.asserts.aws.resource.Resource;
+import ai.asserts.aws.resource.ResourceIndex;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
 import software.amazon.awssdk.services.cloudwatch.model.Metric;
 import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
 import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
@@ -17,18 +20,25 @@ import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 
 import static ai.asserts.aws.model.MetricStat.Average;
 import static ai.asserts.aws.model.MetricStat.Maximum;
+import static ai.asserts.aws.model.MetricStat.Sum;
+import static ai.asserts.aws.resource.ResourceType.LambdaFunction;
 import static org.easymock.EasyMock.expect;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MetricQueryBuilderTest extends EasyMockSupport {
     @Test
     void buildQueries() {
         QueryIdGenerator queryIdGenerator = mock(QueryIdGenerator.class);
         NamespaceConfig namespaceConfig = mock(NamespaceConfig.class);
-        Resource resource = mock(Resource.class);
+        Resource resource = Resource.builder()
+                .type(LambdaFunction)
+                .name("function")
+                .build();
 
         MetricQueryBuilder metricQueryBuilder = new MetricQueryBuilder();
 
@@ -45,11 +55,10 @@ public class MetricQueryBuilderTest extends EasyMockSupport {
 
         Metric metric = Metric.builder()
                 .metricName("metric")
+                .dimensions(Dimension.builder().name("FunctionName").value("function").build())
                 .build();
 
-        ImmutableSet<Resource> tagFilteredResources = ImmutableSet.of(resource);
-
-        expect(resource.matches(metric)).andReturn(true);
+        ResourceIndex tagFilteredResources = new ResourceIndex(ImmutableSet.of(resource));
 
         replayAll();
         List<MetricQuery> metricQueries = metricQueryBuilder.buildQueries(queryIdGenerator, tagFilteredResources,
@@ -87,4 +96,141 @@ public class MetricQueryBuilderTest extends EasyMockSupport {
 
         verifyAll();
     }
+
+    @Test
+    void buildSearchQueries() {
+        QueryIdGenerator queryIdGenerator = mock(QueryIdGenerator.class);
+        NamespaceConfig namespaceConfig = mock(NamespaceConfig.class);
+
+        MetricQueryBuilder metricQueryBuilder = new MetricQueryBuilder();
+
+        expect(namespaceConfig.getEffectiveScrapeInterval()).andReturn(300).anyTimes();
+        expect(queryIdGenerator.next()).andReturn("q1");
+
+        MetricConfig metricConfig = MetricConfig.builder()
+                .namespace(namespaceConfig)
+                .name("Invocations")
+                .stats(ImmutableSet.of(Sum))
+                .dimensions(ImmutableList.of("FunctionName", "Resource"))
+                .build();
+
+        replayAll();
+        List<MetricQuery> metricQueries = metricQueryBuilder.buildSearchQueries(queryIdGenerator, "AWS/Lambda",
+                metricConfig);
+        assertEquals(1, metricQueries.size());
+        assertEquals(Metric.builder()
+                .namespace("AWS/Lambda")
+                .metricName("Invocations")
+                .build(), metricQueries.get(0).getMetric());
+        assertEquals(Sum, metricQueries.get(0).getMetricStat());
+        assertEquals(MetricDataQuery.builder()
+                .id("q1")
+                .expression("SEARCH('{AWS/Lambda,FunctionName,Resource} MetricName=\"Invocations\"', 'Sum', 300)")
+                .label("${PROP('Dim.FunctionName')}|${PROP('Dim.Resource')}")
+                .build(), metricQueries.get(0).getMetricDataQuery());
+        assertTrue(metricQueries.get(0).isSearchQuery());
+        verifyAll();
+    }
+
+    @Test
+    void buildSearchQueries_QuotesAndEscapes() {
+        QueryIdGenerator queryIdGenerator = mock(QueryIdGenerator.class);
+        NamespaceConfig namespaceConfig = mock(NamespaceConfig.class);
+
+        MetricQueryBuilder metricQueryBuilder = new MetricQueryBuilder();
+
+        expect(namespaceConfig.getEffectiveScrapeInterval()).andReturn(60).anyTimes();
+        expect(queryIdGenerator.next()).andReturn("q1");
+
+        MetricConfig metricConfig = MetricConfig.builder()
+                .namespace(namespaceConfig)
+                .name("It's \"hot\"")
+                .stats(ImmutableSet.of(Sum))
+                .dimensions(ImmutableList.of("Service Name"))
+                .build();
+
+        replayAll();
+        List<MetricQuery> metricQueries = metricQueryBuilder.buildSearchQueries(queryIdGenerator, "Custom/App",
+                metricConfig);
+        assertEquals("SEARCH('{Custom/App,\"Service Name\"} MetricName=\"It\\'s \\\"hot\\\"\"', 'Sum', 60)",
+                metricQueries.get(0).getMetricDataQuery().expression());
+        verifyAll();
+    }
+
+    @Test
+    void resolveSearchResult() {
+        MetricQueryBuilder metricQueryBuilder = new MetricQueryBuilder();
+        MetricConfig metricConfig = MetricConfig.builder()
+                .name("Invocations")
+                .stats(ImmutableSet.of(Sum))
+                .dimensions(ImmutableList.of("FunctionName", "Resource"))
+                .build();
+        MetricDataQuery metricDataQuery = MetricDataQuery.builder()
+                .id("q1")
+                .expression("SEARCH('{AWS/Lambda,FunctionName,Resource} MetricName=\"Invocations\"', 'Sum', 300)")
+                .build();
+        MetricQuery searchQuery = MetricQuery.builder()
+                .metricConfig(metricConfig)
+                .metric(Metric.builder()
+                        .namespace("AWS/Lambda")
+                        .metricName("Invocations")
+                        .build())
+                .metricStat(Sum)
+                .metricDataQuery(metricDataQuery)
+                .build();
+
+        assertEquals(Optional.of(MetricQuery.builder()
+                .metricConfig(metricConfig)
+                .metric(Metric.builder()
+                        .namespace("AWS/Lambda")
+                        .metricName("Invocations")
+                        .dimensions(Dimension.builder().name("FunctionName").value("fn1").build(),
+                                Dimension.builder().name("Resource").value("fn1:live").build())
+                        .build())
+                .metricStat(Sum)
+                .metricDataQuery(metricDataQuery)
+                .build()), metricQueryBuilder.resolveSearchResult(searchQuery, "fn1|fn1:live"));
+        assertEquals(Optional.empty(), metricQueryBuilder.resolveSearchResult(searchQuery, "fn1"));
+    }
+
+    @Test
+    void resolveSearchResult_SeparatorInValue() {
+        MetricQueryBuilder metricQueryBuilder = new MetricQueryBuilder();
+        MetricConfig metricConfig = MetricConfig.builder()
+                .name("Count")
+                .stats(ImmutableSet.of(Sum))
+                .dimensions(ImmutableList.of("ApiName", "Resource"))
+                .build();
+        MetricQuery searchQuery = MetricQuery.builder()
+                .metricConfig(metricConfig)
+                .metric(Metric.builder()
+                        .namespace("AWS/ApiGateway")
+                        .metricName("Count")
+                        .build())
+                .metricStat(Sum)
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("q1")
+                        .expression("SEARCH('{AWS/ApiGateway,ApiName,Resource} MetricName=\"Count\"', 'Sum', 60)")
+                        .build())
+                .build();
+
+        assertEquals(ImmutableList.of(
+                        Dimension.builder().name("ApiName").value("api").build(),
+                        Dimension.builder().name("Resource").value("/a|b").build()),
+                metricQueryBuilder.resolveSearchResult(searchQuery, "api|/a|b").get().getMetric().dimensions());
+
+        MetricConfig singleDimension = MetricConfig.builder()
+                .name("Count")
+                .stats(ImmutableSet.of(Sum))
+                .dimensions(ImmutableList.of("Resource"))
+                .build();
+        searchQuery = MetricQuery.builder()
+                .metricConfig(singleDimension)
+                .metric(searchQuery.getMetric())
+                .metricStat(Sum)
+                .metricDataQuery(searchQuery.getMetricDataQuery())
+                .build();
+        assertEquals(ImmutableList.of(Dimension.builder().name("Resource").value("/a|b").build()),
+                metricQueryBuilder.resolveSearchResult(searchQuery, "/a|b").get().getMetric().dimensions());
+    }
 }
@@ -5,6 +5,7 @@ import ai.asserts.aws.AWSClientProvider;
 import ai.asserts.aws.EnvironmentConfig;
 import ai.asserts.aws.MetricNameUtil;
 import ai.asserts.aws.AWSApiCallRateLimiter;
+import ai.asserts.aws.DiscoverySnapshotStore;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.TaskExecutorUtil;
 import ai.asserts.aws.TestTaskThreadPool;
@@ -14,21 +15,28 @@ import ai.asserts.aws.config.MetricConfig;
 import ai.asserts.aws.config.NamespaceConfig;
 import ai.asserts.aws.config.ScrapeConfig;
 import ai.asserts.aws.exporter.BasicMetricCollector;
+import ai.asserts.aws.exporter.ECSServiceDiscoveryExporter;
 import ai.asserts.aws.model.CWNamespace;
 import ai.asserts.aws.model.MetricStat;
 import ai.asserts.aws.resource.Resource;
+import ai.asserts.aws.resource.ResourceIndex;
 import ai.asserts.aws.resource.ResourceTagHelper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.ListMetricsRequest;
 import software.amazon.awssdk.services.cloudwatch.model.ListMetricsResponse;
 import software.amazon.awssdk.services.cloudwatch.model.Metric;
 
+import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static ai.asserts.aws.model.CWNamespace.lambda;
 import static ai.asserts.aws.model.MetricStat.Average;
@@ -36,6 +44,7 @@ import static ai.asserts.aws.model.MetricStat.Sum;
 import static org.easymock.EasyMock.anyLong;
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.expect;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class MetricQueryProviderTest extends EasyMockSupport {
     private EnvironmentConfig environmentConfig;
@@ -46,14 +55,18 @@ public class MetricQueryProviderTest extends EasyMockSupport {
     private MetricNameUtil metricNameUtil;
     private AWSClientProvider awsClientProvider;
     private CloudWatchClient cloudWatchClient;
+    private CloudWatchAsyncClient cloudWatchAsyncClient;
     private ResourceTagHelper resourceTagHelper;
     private MetricQueryBuilder metricQueryBuilder;
     private Resource resource;
+    private ResourceIndex resourceIndex;
     private Metric metric;
     private NamespaceConfig namespaceConfig;
     private MetricConfig metricConfig;
     private MetricQuery metricQuery;
     private BasicMetricCollector metricCollector;
+    private TaskExecutorUtil taskExecutorUtil;
+    private ECSServiceDiscoveryExporter ecsServiceDiscoveryExporter;
     private MetricQueryProvider testClass;
     private final CWNamespace _CW_namespace = lambda;
     private final String metricName = "Invocations";
@@ -67,16 +80,18 @@ public class MetricQueryProviderTest extends EasyMockSupport {
         metricNameUtil = mock(MetricNameUtil.class);
         awsClientProvider = mock(AWSClientProvider.class);
         cloudWatchClient = mock(CloudWatchClient.class);
+        cloudWatchAsyncClient = mock(CloudWatchAsyncClient.class);
         resourceTagHelper = mock(ResourceTagHelper.class);
         metricQueryBuilder = mock(MetricQueryBuilder.class);
         metricQuery = mock(MetricQuery.class);
         resource = mock(Resource.class);
+        resourceIndex = mock(ResourceIndex.class);
         metricConfig = mock(MetricConfig.class);
         namespaceConfig = mock(NamespaceConfig.class);
         metricQuery = mock(MetricQuery.class);
         metricCollector = mock(BasicMetricCollector.class);
-        TaskExecutorUtil taskExecutorUtil =
-                new TaskExecutorUtil(new TestTaskThreadPool(), new AWSApiCallRateLimiter(metricCollector,
+        ecsServiceDiscoveryExporter = mock(ECSServiceDiscoveryExporter.class);
+        taskExecutorUtil = new TaskExecutorUtil(new TestTaskThreadPool(), new AWSApiCallRateLimiter(metricCollector,
                         (accountId) -> "tenant"));
 
         metric = Metric.builder()
@@ -92,7 +107,8 @@ public class MetricQueryProviderTest extends EasyMockSupport {
                 , metricNameUtil,
                 awsClientProvider, resourceTagHelper, metricQueryBuilder,
                 new AWSApiCallRateLimiter(metricCollector,
-                        (accountId) -> "tenant"), taskExecutorUtil);
+                        (accountId) -> "tenant"), taskExecutorUtil, new DiscoverySnapshotStore(""),
+                ecsServiceDiscoveryExporter);
         verifyAll();
         resetAll();
     }
@@ -100,8 +116,11 @@ public class MetricQueryProviderTest extends EasyMockSupport {
     @Test
     void getMetricQueries_CWMetricPullEnabled() {
         expect(environmentConfig.isDisabled()).andReturn(false).anyTimes();
+        expectPrimaryExporter(true);
+        expect(environmentConfig.isAsyncApiCalls()).andReturn(false).anyTimes();
         expect(accountProvider.getAccounts()).andReturn(ImmutableSet.of(accountRegion)).anyTimes();
         expect(namespaceConfig.isEnabled()).andReturn(true).anyTimes();
+        expect(namespaceConfig.isUseSearchExpression()).andReturn(false).anyTimes();
         ScrapeConfig scrapeConfig = ScrapeConfig.builder()
                 .regions(ImmutableSet.of("region1"))
                 .namespaces(ImmutableList.of(namespaceConfig))
@@ -114,9 +133,10 @@ public class MetricQueryProviderTest extends EasyMockSupport {
 
         expect(namespaceConfig.hasTagFilters()).andReturn(true).anyTimes();
 
-        expect(resourceTagHelper.getFilteredResources(accountRegion, "region1", namespaceConfig))
-                .andReturn(ImmutableSet.of(resource));
-        expect(resource.matches(metric)).andReturn(true).anyTimes();
+        expect(resourceTagHelper.getFilteredResourceIndex(accountRegion, "region1", namespaceConfig))
+                .andReturn(resourceIndex);
+        expect(resourceIndex.isEmpty()).andReturn(false).anyTimes();
+        expect(resourceIndex.findMatch(metric)).andReturn(Optional.of(resource)).anyTimes();
 
         expect(namespaceConfig.getName()).andReturn(_CW_namespace.name()).anyTimes();
         expect(namespaceConfig.getMetrics()).andReturn(ImmutableList.of(metricConfig));
@@ -152,37 +172,142 @@ public class MetricQueryProviderTest extends EasyMockSupport {
         expect(metricQuery.getMetricStat()).andReturn(Average);
         expectMetricQuery(Average, "metric_avg");
         replayAll();
-        testClass.getMetricQueries();
+        testClass.refreshDiscovery();
+        assertEquals(ImmutableMap.of("account", ImmutableMap.of("region1", ImmutableMap.of(60,
+                ImmutableList.of(metricQuery, metricQuery)))), testClass.getMetricQueries());
+        verifyAll();
+    }
+
+    @Test
+    void getMetricQueries_Async() {
+        expect(environmentConfig.isDisabled()).andReturn(false).anyTimes();
+        expectPrimaryExporter(true);
+        expect(environmentConfig.isAsyncApiCalls()).andReturn(true).anyTimes();
+        expect(accountProvider.getAccounts()).andReturn(ImmutableSet.of(accountRegion)).anyTimes();
+        expect(namespaceConfig.isEnabled()).andReturn(true).anyTimes();
+        expect(namespaceConfig.isUseSearchExpression()).andReturn(false).anyTimes();
+        ScrapeConfig scrapeConfig = ScrapeConfig.builder()
+                .regions(ImmutableSet.of("region1"))
+                .namespaces(ImmutableList.of(namespaceConfig))
+                .build();
+
+        expect(scrapeConfigProvider.getScrapeConfig("tenant")).andReturn(scrapeConfig);
+        expect(scrapeConfigProvider.getStandardNamespace(_CW_namespace.name()))
+                .andReturn(Optional.of(lambda)).anyTimes();
+        expect(awsClientProvider.getCloudWatchAsyncClient("region1", accountRegion))
+                .andReturn(cloudWatchAsyncClient);
+
+        expect(namespaceConfig.hasTagFilters()).andReturn(true).anyTimes();
+        // The tag lookup reads the account of the task, so it has to run as a task of the account
+        AtomicReference<AWSAccount> lookupAccount = new AtomicReference<>();
+        expect(resourceTagHelper.getFilteredResourceIndex(accountRegion, "region1", namespaceConfig))
+                .andAnswer(() -> {
+                    lookupAccount.set(taskExecutorUtil.getAccountDetails());
+                    return resourceIndex;
+                });
+        expect(resourceIndex.isEmpty()).andReturn(false).anyTimes();
+        expect(resourceIndex.findMatch(metric)).andReturn(Optional.of(resource)).anyTimes();
+
+        expect(namespaceConfig.getName()).andReturn(_CW_namespace.name()).anyTimes();
+        expect(namespaceConfig.getMetrics()).andReturn(ImmutableList.of(metricConfig));
+
+        expect(metricConfig.getName()).andReturn(metricName).anyTimes();
+        expect(metricConfig.getEffectiveScrapeInterval()).andReturn(60).anyTimes();
+        expect(metricConfig.matchesMetric(metric)).andReturn(true).anyTimes();
+
+        expect(cloudWatchAsyncClient.listMetrics(ListMetricsRequest.builder()
+                .namespace(_CW_namespace.getNamespace())
+                .build())).andReturn(CompletableFuture.completedFuture(ListMetricsResponse.builder()
+                .metrics(ImmutableList.of(metric))
+                .build()));
+        metricCollector.recordLatency(anyObject(), anyObject(), anyLong());
+
+        expect(metricQuery.getMetric()).andReturn(metric).anyTimes();
+        expect(metricQuery.getMetricConfig()).andReturn(metricConfig).anyTimes();
+        expect(metricQuery.getMetricStat()).andReturn(Sum);
+        expectMetricQuery(Sum, "metric_sum");
+
+        replayAll();
+        testClass.refreshDiscovery();
+        assertEquals(ImmutableMap.of("account", ImmutableMap.of("region1", ImmutableMap.of(60,
+                ImmutableList.of(metricQuery)))), testClass.getMetricQueries());
+        assertEquals(accountRegion, lookupAccount.get());
+        verifyAll();
+    }
+
+    @Test
+    void getMetricQueries_SearchExpression() {
+        expect(environmentConfig.isDisabled()).andReturn(false).anyTimes();
+        expectPrimaryExporter(true);
+        expect(environmentConfig.isAsyncApiCalls()).andReturn(false).anyTimes();
+        expect(accountProvider.getAccounts()).andReturn(ImmutableSet.of(accountRegion)).anyTimes();
+        expect(namespaceConfig.isEnabled()).andReturn(true).anyTimes();
+        expect(namespaceConfig.isUseSearchExpression()).andReturn(true).anyTimes();
+        ScrapeConfig scrapeConfig = ScrapeConfig.builder()
+                .regions(ImmutableSet.of("region1"))
+                .namespaces(ImmutableList.of(namespaceConfig))
+                .build();
+
+        expect(scrapeConfigProvider.getScrapeConfig("tenant")).andReturn(scrapeConfig).times(2);
+        expect(scrapeConfigProvider.getStandardNamespace(_CW_namespace.name()))
+                .andReturn(Optional.of(lambda)).anyTimes();
+        expect(namespaceConfig.getName()).andReturn(_CW_namespace.name()).anyTimes();
+        expect(namespaceConfig.getMetrics()).andReturn(ImmutableList.of(metricConfig));
+        expect(metricConfig.getEffectiveScrapeInterval()).andReturn(60).anyTimes();
+        expect(metricQueryBuilder.buildSearchQueries(queryIdGenerator, lambda.getNamespace(), metricConfig))
+                .andReturn(ImmutableList.of(metricQuery));
+
+        expect(metricQuery.getMetric()).andReturn(metric).anyTimes();
+        expect(metricQuery.getMetricConfig()).andReturn(metricConfig).anyTimes();
+        expect(metricQuery.getMetricStat()).andReturn(Sum);
+        expect(metricNameUtil.exportedMetricName(metric, Sum)).andReturn("metric_sum");
+
+        replayAll();
+        testClass.refreshDiscovery();
+        assertEquals(ImmutableMap.of("account", ImmutableMap.of("region1", ImmutableMap.of(60,
+                ImmutableList.of(metricQuery)))), testClass.getMetricQueries());
+        // The queries are not rebuilt while the configuration stays the same
+        testClass.refreshDiscovery();
+        assertEquals(ImmutableMap.of("account", ImmutableMap.of("region1", ImmutableMap.of(60,
+                ImmutableList.of(metricQuery)))), testClass.getMetricQueries());
         verifyAll();
     }
 
     @Test
     void getMetricQueries_Exception() {
         expect(environmentConfig.isDisabled()).andReturn(false).anyTimes();
+        expectPrimaryExporter(true);
+        expect(environmentConfig.isAsyncApiCalls()).andReturn(false).anyTimes();
         expect(accountProvider.getAccounts()).andReturn(ImmutableSet.of(accountRegion)).anyTimes();
         ScrapeConfig scrapeConfig = ScrapeConfig.builder()
                 .regions(ImmutableSet.of("region1"))
                 .namespaces(ImmutableList.of(namespaceConfig))
                 .build();
         expect(namespaceConfig.isEnabled()).andReturn(true).anyTimes();
+        expect(namespaceConfig.isUseSearchExpression()).andReturn(false).anyTimes();
         expect(scrapeConfigProvider.getScrapeConfig("tenant")).andReturn(scrapeConfig);
         expect(awsClientProvider.getCloudWatchClient("region1", accountRegion)).andReturn(cloudWatchClient);
 
         expect(namespaceConfig.hasTagFilters()).andReturn(true).anyTimes();
 
-        expect(resourceTagHelper.getFilteredResources(accountRegion, "region1", namespaceConfig))
+        expect(namespaceConfig.getName()).andReturn(_CW_namespace.name()).anyTimes();
+        expect(resourceTagHelper.getFilteredResourceIndex(accountRegion, "region1", namespaceConfig))
                 .andThrow(new RuntimeException());
 
         replayAll();
-        testClass.getMetricQueries();
+        testClass.refreshDiscovery();
+        assertEquals(Collections.emptyMap(), testClass.getMetricQueries());
         verifyAll();
     }
 
     @Test
     void getMetricQueries_CWMetricPullDisabled() {
         expect(environmentConfig.isDisabled()).andReturn(false).anyTimes();
+        expectPrimaryExporter(true);
+        expect(environmentConfig.isAsyncApiCalls()).andReturn(false).anyTimes();
         expect(accountProvider.getAccounts()).andReturn(ImmutableSet.of(accountRegion)).anyTimes();
         expect(namespaceConfig.isEnabled()).andReturn(true).anyTimes();
+        expect(namespaceConfig.isUseSearchExpression()).andReturn(false).anyTimes();
         ScrapeConfig scrapeConfig = ScrapeConfig.builder()
                 .regions(ImmutableSet.of("region1"))
                 .namespaces(ImmutableList.of(namespaceConfig))
@@ -191,12 +316,28 @@ public class MetricQueryProviderTest extends EasyMockSupport {
 
         expect(scrapeConfigProvider.getScrapeConfig("tenant")).andReturn(scrapeConfig);
         replayAll();
-        testClass.getMetricQueries();
+        testClass.refreshDiscovery();
         verifyAll();
     }
 
+    @Test
+    void getMetricQueries_NotPrimaryExporter() {
+        expect(environmentConfig.isDisabled()).andReturn(false).anyTimes();
+        expectPrimaryExporter(false);
+        replayAll();
+        testClass.refreshDiscovery();
+        assertEquals(Collections.emptyMap(), testClass.getMetricQueries());
+        verifyAll();
+    }
+
+    private void expectPrimaryExporter(boolean primary) {
+        expect(environmentConfig.isMultiTenant()).andReturn(false).anyTimes();
+        expect(environmentConfig.isDistributed()).andReturn(false).anyTimes();
+        expect(ecsServiceDiscoveryExporter.isPrimaryExporter()).andReturn(primary).anyTimes();
+    }
+
     private void expectMetricQuery(MetricStat stat, String metricName) {
-        expect(metricQueryBuilder.buildQueries(queryIdGenerator, ImmutableSet.of(resource), metricConfig, metric))
+        expect(metricQueryBuilder.buildQueries(queryIdGenerator, resourceIndex, metricConfig, metric))
                 .andReturn(ImmutableList.of(metricQuery));
 
         expect(metricNameUtil.exportedMetricName(metric, stat)).andReturn(metricName);
@@ -1,50 +1,123 @@
-
 package ai.asserts.aws.cloudwatch.query;
 
+import ai.asserts.aws.config.MetricConfig;
 import com.google.common.collect.ImmutableList;
-import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDataQuery;
+import software.amazon.awssdk.services.cloudwatch.model.MetricStat;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
-public class QueryBatcherTest extends EasyMockSupport {
-    private MetricQuery metricQuery;
+public class QueryBatcherTest {
+    private Instant now;
+    private Instant[] timeWindow;
 
     @BeforeEach
     public void setup() {
-        metricQuery = mock(MetricQuery.class);
+        now = Instant.now();
+        timeWindow = new Instant[]{now.minusSeconds(600), now};
     }
 
     @Test
     void noSplit() {
-        QueryBatcher queryBatcher = new QueryBatcher(5);
+        QueryBatcher queryBatcher = new QueryBatcher(5, 100800, 100);
         List<MetricQuery> queries = new ArrayList<>();
         for (int i = 0; i < 3; i++) {
-            queries.add(metricQuery);
+            queries.add(query("id" + i, 60));
         }
-        replayAll();
-        List<List<MetricQuery>> batches = queryBatcher.splitIntoBatches(queries);
+        List<QueryBatch> batches = queryBatcher.splitIntoBatches(queries, query -> timeWindow);
         assertEquals(1, batches.size());
-        assertEquals(ImmutableList.of(metricQuery, metricQuery, metricQuery), batches.get(0));
-        verifyAll();
+        assertEquals(queries, batches.get(0).getQueries());
+        assertEquals(now.minusSeconds(600), batches.get(0).getStartTime());
+        assertEquals(now, batches.get(0).getEndTime());
+        assertEquals(30, batches.get(0).getEstimatedDatapoints());
+        assertEquals(0.6D, batches.get(0).getFillRatio(), 0.001D);
     }
 
     @Test
-    void split() {
-        QueryBatcher queryBatcher = new QueryBatcher(2);
+    void split_QueryCountLimit() {
+        QueryBatcher queryBatcher = new QueryBatcher(2, 100800, 100);
         List<MetricQuery> queries = new ArrayList<>();
         for (int i = 0; i < 3; i++) {
-            queries.add(metricQuery);
+            queries.add(query("id" + i, 60));
         }
-        replayAll();
-        List<List<MetricQuery>> batches = queryBatcher.splitIntoBatches(queries);
+        List<QueryBatch> batches = queryBatcher.splitIntoBatches(queries, query -> timeWindow);
+        assertEquals(2, batches.size());
+        assertEquals(ImmutableList.of(queries.get(0), queries.get(1)), batches.get(0).getQueries());
+        assertEquals(ImmutableList.of(queries.get(2)), batches.get(1).getQueries());
+        assertEquals(1.0D, batches.get(0).getFillRatio(), 0.001D);
+    }
+
+    @Test
+    void split_DatapointLimit() {
+        QueryBatcher queryBatcher = new QueryBatcher(500, 20, 100);
+        MetricQuery q1 = query("id1", 60);
+        MetricQuery q2 = query("id2", 300);
+        MetricQuery q3 = query("id3", 60);
+        List<QueryBatch> batches = queryBatcher.splitIntoBatches(ImmutableList.of(q1, q2, q3),
+                query -> timeWindow);
+        assertEquals(2, batches.size());
+        assertEquals(ImmutableList.of(q1, q3), batches.get(0).getQueries());
+        assertEquals(20, batches.get(0).getEstimatedDatapoints());
+        assertEquals(1.0D, batches.get(0).getFillRatio(), 0.001D);
+        assertEquals(ImmutableList.of(q2), batches.get(1).getQueries());
+        assertEquals(2, batches.get(1).getEstimatedDatapoints());
+    }
+
+    @Test
+    void split_TimeWindow() {
+        QueryBatcher queryBatcher = new QueryBatcher(500, 100800, 100);
+        Instant[] dailyWindow = new Instant[]{now.minusSeconds(86400), now};
+        MetricQuery q1 = query("id1", 60);
+        MetricQuery q2 = query("id2", 86400);
+        MetricQuery q3 = query("id3", 60);
+        List<QueryBatch> batches = queryBatcher.splitIntoBatches(ImmutableList.of(q1, q2, q3),
+                query -> query == q2 ? dailyWindow : timeWindow);
         assertEquals(2, batches.size());
-        assertEquals(ImmutableList.of(metricQuery, metricQuery), batches.get(0));
-        assertEquals(ImmutableList.of(metricQuery), batches.get(1));
-        verifyAll();
+        assertEquals(ImmutableList.of(q1, q3), batches.get(0).getQueries());
+        assertEquals(now.minusSeconds(600), batches.get(0).getStartTime());
+        assertEquals(ImmutableList.of(q2), batches.get(1).getQueries());
+        assertEquals(now.minusSeconds(86400), batches.get(1).getStartTime());
+    }
+
+    @Test
+    void estimateDatapoints() {
+        QueryBatcher queryBatcher = new QueryBatcher(500, 100800, 100);
+        assertEquals(10, queryBatcher.estimateDatapoints(query("id1", 60), 600));
+        assertEquals(3, queryBatcher.estimateDatapoints(query("id1", 250), 600));
+        assertEquals(1, queryBatcher.estimateDatapoints(MetricQuery.builder()
+                .metricDataQuery(MetricDataQuery.builder().id("id1").build())
+                .build(), 600));
+    }
+
+    @Test
+    void estimateDatapoints_SearchQuery() {
+        QueryBatcher queryBatcher = new QueryBatcher(500, 100800, 100);
+        MetricQuery query = MetricQuery.builder()
+                .metricConfig(MetricConfig.builder().scrapeInterval(60).build())
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id1")
+                        .expression("SEARCH('{AWS/Lambda,FunctionName} MetricName=\"Invocations\"', 'Sum', 60)")
+                        .build())
+                .build();
+        assertEquals(1000, queryBatcher.estimateDatapoints(query, 600));
+
+        query.recordSeries(20);
+        query.recordSeries(5);
+        assertEquals(200, queryBatcher.estimateDatapoints(query, 600));
+    }
+
+    private MetricQuery query(String id, int period) {
+        return MetricQuery.builder()
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id(id)
+                        .metricStat(MetricStat.builder().period(period).build())
+                        .build())
+                .build();
     }
 }
@@ -19,6 +19,7 @@ import java.util.TreeMap;
 
 import static io.prometheus.client.Collector.Type.COUNTER;
 import static io.prometheus.client.Collector.Type.GAUGE;
+import static io.prometheus.client.Collector.Type.HISTOGRAM;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -234,4 +235,19 @@ public class BasicMetricCollectorTest extends EasyMockSupport {
                 () -> assertTrue(collect3.get(1).samples.contains(sample3_sum))
         );
     }
+
+    @Test
+    void collect_ratio() {
+        SortedMap<String, String> labels = new TreeMap<>(ImmutableSortedMap.of("label1", "value1"));
+
+        metricCollector.recordRatio("ratio", labels, 0.45D);
+
+        List<Collector.MetricFamilySamples> collect = metricCollector.collect();
+        assertEquals(1, collect.size());
+        assertEquals(HISTOGRAM, collect.get(0).type);
+        assertTrue(collect.get(0).samples.contains(new Sample("ratio_bucket",
+                ImmutableList.of("label1", "le"), ImmutableList.of("value1", "0.4"), 0.0D)));
+        assertTrue(collect.get(0).samples.contains(new Sample("ratio_bucket",
+                ImmutableList.of("label1", "le"), ImmutableList.of("value1", "0.5"), 1.0D)));
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ *  Copyright © 2020.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static io.prometheus.client.Collector.Type.GAUGE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class CachingCollectorRegistryTest {
+    private TestCollector collector1;
+    private TestCollector collector2;
+    private CachingCollectorRegistry testClass;
+
+    @BeforeEach
+    public void setup() {
+        collector1 = new TestCollector(familySamples("metric1", 1.0D));
+        collector2 = new TestCollector(familySamples("metric2", 2.0D));
+        testClass = new CachingCollectorRegistry();
+        testClass.register(collector1);
+        testClass.register(collector2);
+    }
+
+    @Test
+    public void write() throws IOException {
+        assertEquals("# HELP metric1 \n# TYPE metric1 gauge\nmetric1{label=\"value\",} 1.0\n" +
+                "# HELP metric2 \n# TYPE metric2 gauge\nmetric2{label=\"value\",} 2.0\n", text(false));
+        assertEquals(text(false), text(true));
+    }
+
+    @Test
+    public void write_RenderedOnlyOnChange() throws IOException {
+        CachingCollectorRegistry.CachedExposition exposition = new CachingCollectorRegistry.CachedExposition(
+                collector1);
+        byte[] first = exposition.get(false);
+        assertSame(first, exposition.get(false));
+        byte[] gzipped = exposition.get(true);
+        assertSame(gzipped, exposition.get(true));
+
+        collector1.samples = familySamples("metric1", 3.0D);
+        assertEquals("# HELP metric1 \n# TYPE metric1 gauge\nmetric1{label=\"value\",} 3.0\n",
+                new String(exposition.get(false), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void write_FailedCollectorServesLastBuffer() throws IOException {
+        String before = text(false);
+        collector2.samples = null;
+        assertEquals(before, text(false));
+    }
+
+    @Test
+    public void unregister() throws IOException {
+        testClass.unregister(collector1);
+        assertEquals("# HELP metric2 \n# TYPE metric2 gauge\nmetric2{label=\"value\",} 2.0\n", text(false));
+    }
+
+    private String text(boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        testClass.write(out, gzip);
+        byte[] bytes = out.toByteArray();
+        if (gzip) {
+            bytes = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<Collector.MetricFamilySamples> familySamples(String name, double value) {
+        return ImmutableList.of(new Collector.MetricFamilySamples(name, GAUGE, "",
+                ImmutableList.of(new Sample(name, ImmutableList.of("label"), ImmutableList.of("value"), value))));
+    }
+
+    private static class TestCollector extends Collector {
+        private volatile List<MetricFamilySamples> samples;
+
+        private TestCollector(List<MetricFamilySamples> samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            if (samples == null) {
+                throw new IllegalStateException("Not available");
+            }
+            return samples;
+        }
+    }
+}
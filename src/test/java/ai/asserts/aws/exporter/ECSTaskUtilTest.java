@@ -6,6 +6,7 @@ package ai.asserts.aws.exporter;
 
 import ai.asserts.aws.AWSApiCallRateLimiter;
 import ai.asserts.aws.AWSClientProvider;
+import ai.asserts.aws.DiscoverySnapshotStore;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.TagUtil;
 import ai.asserts.aws.TaskExecutorUtil;
@@ -101,7 +102,7 @@ public class ECSTaskUtilTest extends EasyMockSupport {
         defaultEnvName = "dev";
         testClass = new ECSTaskUtil(awsClientProvider, resourceMapper,
                 rateLimiter, tagUtil,
-                taskExecutorUtil, scrapeConfigProvider) {
+                taskExecutorUtil, scrapeConfigProvider, new DiscoverySnapshotStore("")) {
             @Override
             String getInstallEnvName() {
                 return defaultEnvName;
@@ -8,6 +8,7 @@ import ai.asserts.aws.MetricNameUtil;
 import ai.asserts.aws.TaskExecutorUtil;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.cloudwatch.query.MetricQuery;
+import ai.asserts.aws.cloudwatch.query.SampleTemplate;
 import ai.asserts.aws.model.MetricStat;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
@@ -30,23 +31,29 @@ import java.util.TreeMap;
 import static io.prometheus.client.Collector.Type.GAUGE;
 import static org.easymock.EasyMock.expect;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 public class MetricSampleBuilderTest extends EasyMockSupport {
     private MetricNameUtil metricNameUtil;
     private LabelBuilder labelBuilder;
+    private TaskExecutorUtil taskExecutorUtil;
+    private AWSAccount account;
     private MetricSampleBuilder testClass;
 
     @BeforeEach
     public void setup() {
         metricNameUtil = mock(MetricNameUtil.class);
         labelBuilder = mock(LabelBuilder.class);
-        TaskExecutorUtil taskExecutorUtil = mock(TaskExecutorUtil.class);
+        taskExecutorUtil = mock(TaskExecutorUtil.class);
         testClass = new MetricSampleBuilder(metricNameUtil, labelBuilder, taskExecutorUtil);
-        expect(taskExecutorUtil.getAccountDetails()).andReturn(AWSAccount.builder()
-                        .name("dev")
-                        .tenant("acme")
-                        .accountId("account")
-                .build()).anyTimes();
+        account = AWSAccount.builder()
+                .name("dev")
+                .tenant("acme")
+                .accountId("account")
+                .build();
+        expect(taskExecutorUtil.getAccountDetails()).andReturn(account).anyTimes();
     }
 
     @Test
@@ -65,7 +72,7 @@ public class MetricSampleBuilderTest extends EasyMockSupport {
         expect(labelBuilder.buildLabels("account", "region", metricQuery)).andReturn(labels);
         replayAll();
 
-        List<Sample> samples = testClass.buildSamples("account", "region",
+        List<Sample> samples = testClass.buildSamples(account, "region",
                 metricQuery,
                 MetricDataResult.builder()
                         .timestamps(instant, instant.plusSeconds(60))
@@ -74,12 +81,85 @@ public class MetricSampleBuilderTest extends EasyMockSupport {
         List<String> labelNames = Arrays.asList("asserts_env", "asserts_site", "label1", "label2", "tenant");
         List<String> labelValues = Arrays.asList("dev", "region", "value1", "value2", "acme");
         assertEquals(ImmutableList.of(
-                new Sample("metric", labelNames, labelValues, 1.0D),
                 new Sample("metric", labelNames, labelValues, 2.0D)
         ), samples);
         verifyAll();
     }
 
+    @Test
+    void buildSamples_AllTimestamped() {
+        testClass = new MetricSampleBuilder(metricNameUtil, labelBuilder, taskExecutorUtil, "all_timestamped");
+        Metric metric = Metric.builder().build();
+        Instant instant = Instant.now();
+
+        MetricQuery metricQuery = MetricQuery.builder()
+                .metric(metric)
+                .metricStat(MetricStat.Average)
+                .build();
+        expect(metricNameUtil.exportedMetricName(metric, MetricStat.Average)).andReturn("metric");
+        SortedMap<String, String> labels = new TreeMap<>(ImmutableSortedMap.of(
+                "label1", "value1", "label2", "value2"
+        ));
+        expect(labelBuilder.buildLabels("account", "region", metricQuery)).andReturn(labels);
+        replayAll();
+
+        List<Sample> samples = testClass.buildSamples(account, "region",
+                metricQuery,
+                MetricDataResult.builder()
+                        .timestamps(instant.plusSeconds(60), instant)
+                        .values(2.0D, 1.0D)
+                        .build());
+        List<String> labelNames = Arrays.asList("asserts_env", "asserts_site", "label1", "label2", "tenant");
+        List<String> labelValues = Arrays.asList("dev", "region", "value1", "value2", "acme");
+        assertEquals(ImmutableList.of(
+                new Sample("metric", labelNames, labelValues, 2.0D, instant.plusSeconds(60).toEpochMilli()),
+                new Sample("metric", labelNames, labelValues, 1.0D, instant.toEpochMilli())
+        ), samples);
+        verifyAll();
+    }
+
+    @Test
+    void buildSamples_TemplateReused() {
+        Metric metric = Metric.builder().build();
+        Instant instant = Instant.now();
+
+        MetricQuery metricQuery = MetricQuery.builder()
+                .metric(metric)
+                .metricStat(MetricStat.Average)
+                .build();
+        expect(metricNameUtil.exportedMetricName(metric, MetricStat.Average)).andReturn("metric").times(2);
+        expect(labelBuilder.buildLabels("account", "region", metricQuery)).andReturn(new TreeMap<>(
+                ImmutableSortedMap.of("label1", "value1"))).times(2);
+        replayAll();
+
+        MetricDataResult result = MetricDataResult.builder()
+                .timestamps(instant)
+                .values(1.0D)
+                .build();
+        List<Sample> samples1 = testClass.buildSamples(account, "region", metricQuery, result);
+        SampleTemplate template = metricQuery.getSampleTemplate();
+        List<Sample> samples2 = testClass.buildSamples(account, "region", metricQuery, result);
+        assertEquals(samples1, samples2);
+        assertSame(samples1.get(0).labelNames, samples2.get(0).labelNames);
+        assertSame(samples1.get(0).labelValues, samples2.get(0).labelValues);
+        assertSame(template, metricQuery.getSampleTemplate());
+
+        // A new resource changes the labels
+        metricQuery.setResource(null);
+        assertNull(metricQuery.getSampleTemplate());
+        testClass.buildSamples(account, "region", metricQuery, result);
+        assertNotSame(template, metricQuery.getSampleTemplate());
+        verifyAll();
+    }
+
+    @Test
+    void buildSamples_NoDatapoints() {
+        replayAll();
+        assertEquals(Collections.emptyList(), testClass.buildSamples(account, "region",
+                MetricQuery.builder().build(), MetricDataResult.builder().build()));
+        verifyAll();
+    }
+
     @Test
     void buildSingleSample() {
         List<String> labelNames = Arrays.asList("asserts_env", "label1", "label2", "tenant");
@@ -96,6 +176,23 @@ public class MetricSampleBuilderTest extends EasyMockSupport {
         verifyAll();
     }
 
+    @Test
+    void buildSingleSample_Account() {
+        List<String> labelNames = Arrays.asList("asserts_env", "label1", "tenant");
+        List<String> labelValues = Arrays.asList("account2", "value1", "acme2");
+        replayAll();
+        assertEquals(Optional.of(new Sample("metric", labelNames, labelValues, 1.0D)),
+                testClass.buildSingleSample(AWSAccount.builder()
+                                .tenant("acme2")
+                                .accountId("account2")
+                                .build(), "metric",
+                        ImmutableSortedMap.of("label1", "value1"),
+                        1.0D
+                ));
+
+        verifyAll();
+    }
+
     @Test
     void buildFamily() {
         replayAll();
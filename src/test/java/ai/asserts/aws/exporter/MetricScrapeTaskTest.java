@@ -3,23 +3,32 @@ package ai.asserts.aws.exporter;
 
 import ai.asserts.aws.AWSClientProvider;
 import ai.asserts.aws.AWSApiCallRateLimiter;
+import ai.asserts.aws.EnvironmentConfig;
+import ai.asserts.aws.MetricNameUtil;
 import ai.asserts.aws.TaskExecutorUtil;
 import ai.asserts.aws.TestTaskThreadPool;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.cloudwatch.TimeWindowBuilder;
 import ai.asserts.aws.cloudwatch.query.MetricQuery;
+import ai.asserts.aws.cloudwatch.query.MetricQueryBuilder;
 import ai.asserts.aws.cloudwatch.query.MetricQueryProvider;
+import ai.asserts.aws.cloudwatch.query.QueryBatch;
 import ai.asserts.aws.cloudwatch.query.QueryBatcher;
 import ai.asserts.aws.config.MetricConfig;
+import ai.asserts.aws.config.NamespaceConfig;
+import ai.asserts.aws.model.MetricStat;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import io.prometheus.client.Collector;
 import io.prometheus.client.Collector.MetricFamilySamples.Sample;
 import org.easymock.EasyMockSupport;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
 import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataRequest;
 import software.amazon.awssdk.services.cloudwatch.model.GetMetricDataResponse;
 import software.amazon.awssdk.services.cloudwatch.model.Metric;
@@ -31,11 +40,20 @@ import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+import static ai.asserts.aws.MetricNameUtil.GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC;
+import static ai.asserts.aws.MetricNameUtil.GET_METRIC_DATA_BATCH_LATENCY_METRIC;
+import static ai.asserts.aws.MetricNameUtil.SCRAPE_LATENCY_METRIC;
+import static io.prometheus.client.Collector.Type.GAUGE;
+import static org.easymock.EasyMock.anyDouble;
 import static org.easymock.EasyMock.anyLong;
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -50,6 +68,7 @@ public class MetricScrapeTaskTest extends EasyMockSupport {
     private BasicMetricCollector metricCollector;
     private AWSClientProvider awsClientProvider;
     private CloudWatchClient cloudWatchClient;
+    private CloudWatchAsyncClient cloudWatchAsyncClient;
 
     private Instant now;
     private MetricSampleBuilder sampleBuilder;
@@ -73,6 +92,7 @@ public class MetricScrapeTaskTest extends EasyMockSupport {
         metricCollector = mock(BasicMetricCollector.class);
         awsClientProvider = mock(AWSClientProvider.class);
         cloudWatchClient = mock(CloudWatchClient.class);
+        cloudWatchAsyncClient = mock(CloudWatchAsyncClient.class);
         sampleBuilder = mock(MetricSampleBuilder.class);
         sample = new Sample("metric1", Collections.emptyList(), Collections.emptyList(),
                 1.0D, now.toEpochMilli());
@@ -82,9 +102,12 @@ public class MetricScrapeTaskTest extends EasyMockSupport {
         testClass = new MetricScrapeTask(account, region, interval, delay);
         testClass.setMetricQueryProvider(metricQueryProvider);
         testClass.setQueryBatcher(queryBatcher);
+        testClass.setMetricQueryBuilder(new MetricQueryBuilder());
         testClass.setAwsClientProvider(awsClientProvider);
         testClass.setSampleBuilder(sampleBuilder);
         testClass.setTimeWindowBuilder(timeWindowBuilder);
+        testClass.setMetricCollector(metricCollector);
+        testClass.setEnvironmentConfig(new EnvironmentConfig("true", "single", "single"));
         testClass.setRateLimiter(new AWSApiCallRateLimiter(metricCollector, (account) -> "tenant"));
         testClass.setTaskExecutorUtil(
                 new TaskExecutorUtil(new TestTaskThreadPool(), new AWSApiCallRateLimiter(metricCollector,
@@ -123,7 +146,8 @@ public class MetricScrapeTaskTest extends EasyMockSupport {
 
         expect(timeWindowBuilder.getTimePeriod(region, interval)).andReturn(new Instant[]{now.minusSeconds(60), now});
 
-        expect(queryBatcher.splitIntoBatches(queries)).andReturn(ImmutableList.of(queries));
+        expect(queryBatcher.splitIntoBatches(eq(queries), anyObject())).andReturn(ImmutableList.of(batch(queries)));
+        metricCollector.recordRatio(eq(GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC), anyObject(), anyDouble());
 
         Instant endTime = now.minusSeconds(delay);
         Instant startTime = now.minusSeconds(60 + delay);
@@ -148,9 +172,8 @@ public class MetricScrapeTaskTest extends EasyMockSupport {
                         .nextToken("token1")
                         .build()
         );
-        metricCollector.recordLatency(anyObject(), anyObject(), anyLong());
 
-        expect(sampleBuilder.buildSamples(accountId, region, queries.get(0), mdr1))
+        expect(sampleBuilder.buildSamples(account, region, queries.get(0), mdr1))
                 .andReturn(ImmutableList.of(sample));
 
         request = GetMetricDataRequest.builder()
@@ -175,16 +198,305 @@ public class MetricScrapeTaskTest extends EasyMockSupport {
                         .build()
         );
 
-        metricCollector.recordLatency(anyObject(), anyObject(), anyLong());
-
-        expect(sampleBuilder.buildSamples(accountId, region, queries.get(1), mdr2))
+        expect(sampleBuilder.buildSamples(account, region, queries.get(1), mdr2))
                 .andReturn(ImmutableList.of(sample));
 
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), anyObject(), anyLong());
+        expectLastCall().times(2);
+        metricCollector.recordHistogram(eq(GET_METRIC_DATA_BATCH_LATENCY_METRIC), anyObject(), anyDouble());
+
+        expect(sampleBuilder.buildFamily(ImmutableList.of(sample, sample))).andReturn(Optional.of(familySamples));
+
+        replayAll();
+        testClass.update();
+        assertEquals(ImmutableList.of(familySamples), testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void run_MultipleBatchesMerged() {
+        MetricQuery query1 = MetricQuery.builder()
+                .metric(Metric.builder().namespace("ns1").build())
+                .metricConfig(MetricConfig.builder().scrapeInterval(interval).build())
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id1")
+                        .build())
+                .build();
+        MetricQuery query2 = MetricQuery.builder()
+                .metric(Metric.builder().namespace("ns2").build())
+                .metricConfig(MetricConfig.builder().scrapeInterval(interval).build())
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id2")
+                        .build())
+                .build();
+        List<MetricQuery> queries = ImmutableList.of(query1, query2);
+
+        expect(metricQueryProvider.getMetricQueries())
+                .andReturn(ImmutableMap.of(accountId, ImmutableMap.of(region, ImmutableMap.of(interval, queries))));
+        expect(awsClientProvider.getCloudWatchClient(region, account)).andReturn(cloudWatchClient);
+        expect(timeWindowBuilder.getTimePeriod(region, interval)).andReturn(new Instant[]{now.minusSeconds(60), now});
+        expect(queryBatcher.splitIntoBatches(eq(queries), anyObject())).andReturn(ImmutableList.of(
+                batch(ImmutableList.of(query1)), batch(ImmutableList.of(query2))));
+        metricCollector.recordRatio(eq(GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC), anyObject(), anyDouble());
+        expectLastCall().times(2);
+
+        MetricDataResult mdr1 = MetricDataResult.builder()
+                .timestamps(ImmutableList.of(now))
+                .values(ImmutableList.of(1.0D))
+                .statusCode(StatusCode.COMPLETE)
+                .id("id1")
+                .build();
+        MetricDataResult mdr2 = MetricDataResult.builder()
+                .timestamps(ImmutableList.of(now))
+                .values(ImmutableList.of(2.0D))
+                .statusCode(StatusCode.COMPLETE)
+                .id("id2")
+                .build();
+
+        expect(cloudWatchClient.getMetricData(GetMetricDataRequest.builder()
+                .metricDataQueries(ImmutableList.of(query1.getMetricDataQuery()))
+                .endTime(now)
+                .startTime(now.minusSeconds(60))
+                .build())).andReturn(GetMetricDataResponse.builder()
+                .metricDataResults(ImmutableList.of(mdr1))
+                .build());
+        expect(cloudWatchClient.getMetricData(GetMetricDataRequest.builder()
+                .metricDataQueries(ImmutableList.of(query2.getMetricDataQuery()))
+                .endTime(now)
+                .startTime(now.minusSeconds(60))
+                .build())).andReturn(GetMetricDataResponse.builder()
+                .metricDataResults(ImmutableList.of(mdr2))
+                .build());
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), anyObject(), anyLong());
+        expectLastCall().times(2);
+        metricCollector.recordHistogram(eq(GET_METRIC_DATA_BATCH_LATENCY_METRIC), anyObject(), anyDouble());
+        expectLastCall().times(2);
+
+        expect(sampleBuilder.buildSamples(account, region, query1, mdr1)).andReturn(ImmutableList.of(sample));
+        expect(sampleBuilder.buildSamples(account, region, query2, mdr2)).andReturn(ImmutableList.of(sample));
+        expect(sampleBuilder.buildFamily(ImmutableList.of(sample, sample))).andReturn(Optional.of(familySamples));
+
+        replayAll();
+        testClass.update();
+        assertEquals(ImmutableList.of(familySamples), testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void run_SearchExpression() {
+        MetricConfig metricConfig = MetricConfig.builder()
+                .namespace(NamespaceConfig.builder().name("AWS/Lambda").build())
+                .name("Invocations")
+                .scrapeInterval(interval)
+                .dimensions(ImmutableList.of("FunctionName"))
+                .build();
+        MetricQuery query = MetricQuery.builder()
+                .metric(Metric.builder().namespace("AWS/Lambda").metricName("Invocations").build())
+                .metricConfig(metricConfig)
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id1")
+                        .expression("SEARCH('{AWS/Lambda,FunctionName} MetricName=\"Invocations\"', 'Sum', 60)")
+                        .label("${PROP('Dim.FunctionName')}")
+                        .build())
+                .build();
+        List<MetricQuery> queries = ImmutableList.of(query);
+
+        expect(metricQueryProvider.getMetricQueries())
+                .andReturn(ImmutableMap.of(accountId, ImmutableMap.of(region, ImmutableMap.of(interval, queries))));
+        expect(awsClientProvider.getCloudWatchClient(region, account)).andReturn(cloudWatchClient);
+        expect(timeWindowBuilder.getTimePeriod(region, interval)).andReturn(new Instant[]{now.minusSeconds(60), now});
+        expect(queryBatcher.splitIntoBatches(eq(queries), anyObject())).andReturn(ImmutableList.of(batch(queries)));
+        metricCollector.recordRatio(eq(GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC), anyObject(), anyDouble());
+
+        MetricDataResult mdr1 = MetricDataResult.builder()
+                .timestamps(ImmutableList.of(now))
+                .values(ImmutableList.of(1.0D))
+                .statusCode(StatusCode.COMPLETE)
+                .id("id1")
+                .label("fn1")
+                .build();
+        MetricDataResult mdr2 = MetricDataResult.builder()
+                .timestamps(ImmutableList.of(now))
+                .values(ImmutableList.of(2.0D))
+                .statusCode(StatusCode.COMPLETE)
+                .id("id1")
+                .label("fn2")
+                .build();
+        expect(cloudWatchClient.getMetricData(GetMetricDataRequest.builder()
+                .metricDataQueries(ImmutableList.of(query.getMetricDataQuery()))
+                .endTime(now)
+                .startTime(now.minusSeconds(60))
+                .build())).andReturn(GetMetricDataResponse.builder()
+                .metricDataResults(ImmutableList.of(mdr1, mdr2))
+                .build());
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), anyObject(), anyLong());
+        metricCollector.recordHistogram(eq(GET_METRIC_DATA_BATCH_LATENCY_METRIC), anyObject(), anyDouble());
+
+        expect(sampleBuilder.buildSamples(account, region, MetricQuery.builder()
+                .metric(Metric.builder().namespace("AWS/Lambda").metricName("Invocations")
+                        .dimensions(Dimension.builder().name("FunctionName").value("fn1").build())
+                        .build())
+                .metricConfig(metricConfig)
+                .metricDataQuery(query.getMetricDataQuery())
+                .build(), mdr1)).andReturn(ImmutableList.of(sample));
+        expect(sampleBuilder.buildSamples(account, region, MetricQuery.builder()
+                .metric(Metric.builder().namespace("AWS/Lambda").metricName("Invocations")
+                        .dimensions(Dimension.builder().name("FunctionName").value("fn2").build())
+                        .build())
+                .metricConfig(metricConfig)
+                .metricDataQuery(query.getMetricDataQuery())
+                .build(), mdr2)).andReturn(ImmutableList.of(sample));
         expect(sampleBuilder.buildFamily(ImmutableList.of(sample, sample))).andReturn(Optional.of(familySamples));
 
         replayAll();
         testClass.update();
         assertEquals(ImmutableList.of(familySamples), testClass.collect());
+        // The series count sizes the batches of the next scrape
+        assertEquals(2, query.getExpectedSeries());
+        verifyAll();
+    }
+
+    @Test
+    public void run_Async() {
+        testClass.setEnvironmentConfig(new EnvironmentConfig("true", "single", "single", "true"));
+        MetricQuery query = MetricQuery.builder()
+                .metric(Metric.builder().namespace("ns1").build())
+                .metricConfig(MetricConfig.builder().scrapeInterval(interval).build())
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id1")
+                        .build())
+                .build();
+        List<MetricQuery> queries = ImmutableList.of(query);
+
+        expect(metricQueryProvider.getMetricQueries())
+                .andReturn(ImmutableMap.of(accountId, ImmutableMap.of(region, ImmutableMap.of(interval, queries))));
+        expect(awsClientProvider.getCloudWatchAsyncClient(region, account)).andReturn(cloudWatchAsyncClient);
+        expect(timeWindowBuilder.getTimePeriod(region, interval)).andReturn(new Instant[]{now.minusSeconds(60), now});
+        expect(queryBatcher.splitIntoBatches(eq(queries), anyObject())).andReturn(ImmutableList.of(batch(queries)));
+        metricCollector.recordRatio(eq(GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC), anyObject(), anyDouble());
+
+        MetricDataResult mdr1 = MetricDataResult.builder()
+                .timestamps(ImmutableList.of(now))
+                .values(ImmutableList.of(1.0D))
+                .statusCode(StatusCode.COMPLETE)
+                .id("id1")
+                .build();
+        expect(cloudWatchAsyncClient.getMetricData(GetMetricDataRequest.builder()
+                .metricDataQueries(ImmutableList.of(query.getMetricDataQuery()))
+                .endTime(now)
+                .startTime(now.minusSeconds(60))
+                .build())).andReturn(CompletableFuture.completedFuture(GetMetricDataResponse.builder()
+                .metricDataResults(ImmutableList.of(mdr1))
+                .build()));
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), anyObject(), anyLong());
+        metricCollector.recordHistogram(eq(GET_METRIC_DATA_BATCH_LATENCY_METRIC), anyObject(), anyDouble());
+
+        expect(sampleBuilder.buildSamples(account, region, query, mdr1)).andReturn(ImmutableList.of(sample));
+        expect(sampleBuilder.buildFamily(ImmutableList.of(sample))).andReturn(Optional.of(familySamples));
+
+        replayAll();
+        testClass.update();
+        assertEquals(ImmutableList.of(familySamples), testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void run_Async_SamplesBuiltOnSdkThread() {
+        testClass.setEnvironmentConfig(new EnvironmentConfig("true", "single", "single", "true"));
+        MetricNameUtil metricNameUtil = mock(MetricNameUtil.class);
+        LabelBuilder labelBuilder = mock(LabelBuilder.class);
+        testClass.setSampleBuilder(new MetricSampleBuilder(metricNameUtil, labelBuilder,
+                testClass.getTaskExecutorUtil()));
+        Metric metric = Metric.builder().namespace("ns1").metricName("metric").build();
+        MetricQuery query = MetricQuery.builder()
+                .metric(metric)
+                .metricStat(MetricStat.Sum)
+                .metricConfig(MetricConfig.builder().scrapeInterval(interval).build())
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id1")
+                        .build())
+                .build();
+        List<MetricQuery> queries = ImmutableList.of(query);
+
+        expect(metricQueryProvider.getMetricQueries())
+                .andReturn(ImmutableMap.of(accountId, ImmutableMap.of(region, ImmutableMap.of(interval, queries))));
+        expect(awsClientProvider.getCloudWatchAsyncClient(region, account)).andReturn(cloudWatchAsyncClient);
+        expect(timeWindowBuilder.getTimePeriod(region, interval)).andReturn(new Instant[]{now.minusSeconds(60), now});
+        expect(queryBatcher.splitIntoBatches(eq(queries), anyObject())).andReturn(ImmutableList.of(batch(queries)));
+        metricCollector.recordRatio(eq(GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC), anyObject(), anyDouble());
+
+        MetricDataResult mdr1 = MetricDataResult.builder()
+                .timestamps(ImmutableList.of(now))
+                .values(ImmutableList.of(1.0D))
+                .statusCode(StatusCode.COMPLETE)
+                .id("id1")
+                .build();
+        // Like the AWS SDK, the response is delivered on another thread, outside of any account task
+        expect(cloudWatchAsyncClient.getMetricData(GetMetricDataRequest.builder()
+                .metricDataQueries(ImmutableList.of(query.getMetricDataQuery()))
+                .endTime(now)
+                .startTime(now.minusSeconds(60))
+                .build())).andReturn(CompletableFuture.supplyAsync(() -> GetMetricDataResponse.builder()
+                .metricDataResults(ImmutableList.of(mdr1))
+                .build()));
+        metricCollector.recordLatency(eq(SCRAPE_LATENCY_METRIC), anyObject(), anyLong());
+        metricCollector.recordHistogram(eq(GET_METRIC_DATA_BATCH_LATENCY_METRIC), anyObject(), anyDouble());
+        expect(metricNameUtil.exportedMetricName(metric, MetricStat.Sum)).andReturn("aws_ns1_metric_sum");
+        expect(labelBuilder.buildLabels(accountId, region, query)).andReturn(new TreeMap<>(
+                ImmutableSortedMap.of("namespace", "ns1")));
+
+        replayAll();
+        testClass.update();
+        assertEquals(ImmutableList.of(new Collector.MetricFamilySamples("aws_ns1_metric_sum", GAUGE, "",
+                ImmutableList.of(new Sample("aws_ns1_metric_sum",
+                        ImmutableList.of("asserts_env", "asserts_site", "namespace", "tenant"),
+                        ImmutableList.of(accountId, region, "ns1", "tenant"),
+                        1.0D)))), testClass.collect());
+        verifyAll();
+    }
+
+    @Test
+    public void run_Async_TimeoutCancelsLanes() {
+        testClass.setEnvironmentConfig(new EnvironmentConfig("true", "single", "single", "true"));
+        testClass.setBatchConcurrency(1);
+        testClass.setScrapeTimeoutSeconds(1);
+        MetricQuery query1 = MetricQuery.builder()
+                .metric(Metric.builder().namespace("ns1").build())
+                .metricConfig(MetricConfig.builder().scrapeInterval(interval).build())
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id1")
+                        .build())
+                .build();
+        MetricQuery query2 = MetricQuery.builder()
+                .metric(Metric.builder().namespace("ns1").build())
+                .metricConfig(MetricConfig.builder().scrapeInterval(interval).build())
+                .metricDataQuery(MetricDataQuery.builder()
+                        .id("id2")
+                        .build())
+                .build();
+        List<MetricQuery> queries = ImmutableList.of(query1, query2);
+
+        expect(metricQueryProvider.getMetricQueries())
+                .andReturn(ImmutableMap.of(accountId, ImmutableMap.of(region, ImmutableMap.of(interval, queries))));
+        expect(awsClientProvider.getCloudWatchAsyncClient(region, account)).andReturn(cloudWatchAsyncClient);
+        expect(timeWindowBuilder.getTimePeriod(region, interval)).andReturn(new Instant[]{now.minusSeconds(60), now});
+        expect(queryBatcher.splitIntoBatches(eq(queries), anyObject())).andReturn(ImmutableList.of(
+                batch(ImmutableList.of(query1)), batch(ImmutableList.of(query2))));
+        metricCollector.recordRatio(eq(GET_METRIC_DATA_BATCH_FILL_RATIO_METRIC), anyObject(), anyDouble());
+        expectLastCall().times(2);
+
+        // The first batch never completes. The second batch must not be fetched after the scrape gives up
+        CompletableFuture<GetMetricDataResponse> stuck = new CompletableFuture<>();
+        expect(cloudWatchAsyncClient.getMetricData(GetMetricDataRequest.builder()
+                .metricDataQueries(ImmutableList.of(query1.getMetricDataQuery()))
+                .endTime(now)
+                .startTime(now.minusSeconds(60))
+                .build())).andReturn(stuck);
+
+        replayAll();
+        testClass.update();
+        assertEquals(ImmutableList.of(), testClass.collect());
+        assertTrue(stuck.isCancelled());
         verifyAll();
     }
 
@@ -231,4 +543,14 @@ public class MetricScrapeTaskTest extends EasyMockSupport {
                         .build())
                 .build()));
     }
+
+    private QueryBatch batch(List<MetricQuery> queries) {
+        return QueryBatch.builder()
+                .startTime(now.minusSeconds(60))
+                .endTime(now)
+                .queries(queries)
+                .estimatedDatapoints(queries.size())
+                .fillRatio(0.5D)
+                .build();
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.resource;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static ai.asserts.aws.resource.ResourceType.LambdaFunction;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares matching discovered metrics to tag filtered resources by scanning all the resources against a lookup in
+ * the {@link ResourceIndex}. Excluded from the regular test run, run with <code>./gradlew benchmark</code>. The sizes
+ * can be changed with the <code>benchmark.resources</code> and <code>benchmark.metrics</code> system properties.
+ */
+@Tag("benchmark")
+public class ResourceIndexBenchmark {
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void scanVsIndex() {
+        int resourceCount = Integer.getInteger("benchmark.resources", 2000);
+        int metricCount = Integer.getInteger("benchmark.metrics", 20000);
+
+        Set<Resource> resources = new HashSet<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(Resource.builder()
+                    .type(LambdaFunction)
+                    .name("function-" + i)
+                    .build());
+        }
+        List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < metricCount; i++) {
+            // Half of the metrics belong to resources that are not tag filtered
+            metrics.add(Metric.builder()
+                    .metricName("Invocations")
+                    .dimensions(Dimension.builder()
+                            .name("FunctionName").value("function-" + (i % (resourceCount * 2)))
+                            .build())
+                    .build());
+        }
+
+        long scanNanos = Long.MAX_VALUE;
+        long indexNanos = Long.MAX_VALUE;
+        int scanMatches = 0;
+        int indexMatches = 0;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            scanMatches = 0;
+            for (Metric metric : metrics) {
+                Optional<Resource> match = resources.stream()
+                        .filter(resource -> resource.matches(metric))
+                        .findFirst();
+                if (match.isPresent()) {
+                    scanMatches++;
+                }
+            }
+            scanNanos = Math.min(scanNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            ResourceIndex resourceIndex = new ResourceIndex(resources);
+            indexMatches = 0;
+            for (Metric metric : metrics) {
+                if (resourceIndex.findMatch(metric).isPresent()) {
+                    indexMatches++;
+                }
+            }
+            indexNanos = Math.min(indexNanos, System.nanoTime() - start);
+        }
+
+        assertEquals(scanMatches, indexMatches);
+        System.out.printf("%d resources x %d metrics: scan %d ms, index (including build) %d ms, %dx faster%n",
+                resourceCount, metricCount, scanNanos / 1_000_000, indexNanos / 1_000_000,
+                scanNanos / Math.max(1, indexNanos));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright © 2022.
+ *  Asserts, Inc. - All Rights Reserved
+ */
+package ai.asserts.aws.resource;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.Metric;
+
+import java.util.Optional;
+
+import static ai.asserts.aws.resource.ResourceType.ECSCluster;
+import static ai.asserts.aws.resource.ResourceType.ECSService;
+import static ai.asserts.aws.resource.ResourceType.LambdaFunction;
+import static ai.asserts.aws.resource.ResourceType.LoadBalancer;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResourceIndexTest {
+    @Test
+    public void findMatch_singleDimension() {
+        Resource function = Resource.builder()
+                .type(LambdaFunction)
+                .name("function")
+                .build();
+        ResourceIndex resourceIndex = new ResourceIndex(ImmutableSet.of(function));
+
+        assertEquals(Optional.empty(), resourceIndex.findMatch(Metric.builder().build()));
+        assertEquals(Optional.empty(), resourceIndex.findMatch(Metric.builder()
+                .dimensions(Dimension.builder().name("FunctionName").value("function1").build())
+                .build()));
+        assertEquals(Optional.of(function), resourceIndex.findMatch(Metric.builder()
+                .dimensions(Dimension.builder().name("FunctionName").value("function").build())
+                .build()));
+        assertEquals(Optional.of(function), resourceIndex.findMatch(Metric.builder()
+                .dimensions(Dimension.builder().name("Resource").value("function:1").build(),
+                        Dimension.builder().name("function_name").value("function").build())
+                .build()));
+    }
+
+    @Test
+    public void findMatch_multipleDimensions() {
+        Resource cluster = Resource.builder()
+                .type(ECSCluster)
+                .name("cluster")
+                .build();
+        Resource service = Resource.builder()
+                .type(ECSService)
+                .name("service")
+                .childOf(cluster)
+                .build();
+        ResourceIndex resourceIndex = new ResourceIndex(ImmutableSet.of(service));
+
+        assertEquals(Optional.empty(), resourceIndex.findMatch(Metric.builder()
+                .dimensions(Dimension.builder().name("ServiceName").value("service").build())
+                .build()));
+        assertEquals(Optional.empty(), resourceIndex.findMatch(Metric.builder()
+                .dimensions(Dimension.builder().name("ServiceName").value("service").build(),
+                        Dimension.builder().name("ClusterName").value("cluster1").build())
+                .build()));
+        assertEquals(Optional.of(service), resourceIndex.findMatch(Metric.builder()
+                .dimensions(Dimension.builder().name("ClusterName").value("cluster").build(),
+                        Dimension.builder().name("ServiceName").value("service").build())
+                .build()));
+    }
+
+    @Test
+    public void resourcesWithoutDimensions() {
+        Resource loadBalancer = Resource.builder()
+                .type(LoadBalancer)
+                .name("lb")
+                .build();
+        ResourceIndex resourceIndex = new ResourceIndex(ImmutableSet.of(loadBalancer));
+        assertFalse(resourceIndex.isEmpty());
+        assertEquals(ImmutableSet.of(loadBalancer), resourceIndex.getResources());
+        assertEquals(Optional.empty(), resourceIndex.findMatch(Metric.builder()
+                .dimensions(Dimension.builder().name("LoadBalancer").value("lb").build())
+                .build()));
+        assertTrue(ResourceIndex.EMPTY.isEmpty());
+    }
+}
@@ -6,6 +6,7 @@ package ai.asserts.aws.resource;
 
 import ai.asserts.aws.AWSClientProvider;
 import ai.asserts.aws.AWSApiCallRateLimiter;
+import ai.asserts.aws.DiscoverySnapshotStore;
 import ai.asserts.aws.ScrapeConfigProvider;
 import ai.asserts.aws.account.AWSAccount;
 import ai.asserts.aws.account.AccountTenantMapper;
@@ -75,7 +76,7 @@ public class ResourceTagHelperTest extends EasyMockSupport {
         rateLimiter = new AWSApiCallRateLimiter(metricCollector, (account) -> "tenant");
         scrapeConfig = mock(ScrapeConfig.class);
         testClass = new ResourceTagHelper(scrapeConfigProvider, awsClientProvider, resourceMapper, rateLimiter,
-                accountTenantMapper);
+                accountTenantMapper, new DiscoverySnapshotStore(""));
     }
 
     @Test
@@ -139,6 +140,7 @@ public class ResourceTagHelperTest extends EasyMockSupport {
         resource.setTags(ImmutableList.of(tag2));
 
         expect(resource.getType()).andReturn(ResourceType.LambdaFunction).anyTimes();
+        expect(resource.metricDimensions()).andReturn(ImmutableList.of()).anyTimes();
         replayAll();
         assertEquals(ImmutableSet.of(resource),
                 testClass.getFilteredResources(accountRegion, "region", namespaceConfig));
@@ -196,6 +198,7 @@ public class ResourceTagHelperTest extends EasyMockSupport {
         resource.setTags(ImmutableList.of(tag2));
 
         expect(resource.getType()).andReturn(ResourceType.LambdaFunction).anyTimes();
+        expect(resource.metricDimensions()).andReturn(ImmutableList.of()).anyTimes();
         replayAll();
         assertEquals(ImmutableSet.of(resource),
                 testClass.getFilteredResources(accountRegion, "region", namespaceConfig));
@@ -227,7 +230,7 @@ public class ResourceTagHelperTest extends EasyMockSupport {
 
         ImmutableList<String> resourceName = ImmutableList.of("resourceName");
         testClass = new ResourceTagHelper(scrapeConfigProvider, awsClientProvider, resourceMapper, rateLimiter,
-                accountTenantMapper) {
+                accountTenantMapper, new DiscoverySnapshotStore("")) {
             @Override
             public Set<Resource> getResourcesWithTag(AWSAccount _passedValue, String region, SortedMap<String,
                     String> labels,
@@ -285,7 +288,7 @@ public class ResourceTagHelperTest extends EasyMockSupport {
 
         ImmutableList<String> resourceName = ImmutableList.of("resourceName");
         testClass = new ResourceTagHelper(scrapeConfigProvider, awsClientProvider, resourceMapper, rateLimiter,
-                accountTenantMapper) {
+                accountTenantMapper, new DiscoverySnapshotStore("")) {
             @Override
             public Set<Resource> getResourcesWithTag(AWSAccount _passed, String region,
                                                      SortedMap<String, String> labels,